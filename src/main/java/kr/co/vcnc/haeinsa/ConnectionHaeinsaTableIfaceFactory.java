@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * HaeinsaTableIfaceFactory which creates {@link HaeinsaTable} backed by {@link org.apache.hadoop.hbase.client.Table}
+ * of shared {@link Connection}. Table of the connection is lightweight view of the connection,
+ * so creating one for each use is cheaper than pooling them. See {@link HaeinsaTablePool#HaeinsaTablePool(Connection)}.
+ * <p>
+ * The connection is not closed by this factory. It should be closed by owner of the connection.
+ */
+public class ConnectionHaeinsaTableIfaceFactory implements HaeinsaTableIfaceFactory {
+    private final Connection connection;
+
+    public ConnectionHaeinsaTableIfaceFactory(Connection connection) {
+        this.connection = Preconditions.checkNotNull(connection);
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Create table from the connection. Given configuration is ignored, and configuration of the connection is used.
+     *
+     * @throws RuntimeException if there is a problem instantiating the table
+     */
+    @Override
+    public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+        try {
+            return new HaeinsaTable(connection.getTable(TableName.valueOf(tableName)));
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    @Override
+    public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+        table.close();
+    }
+}
@@ -17,9 +17,11 @@ package kr.co.vcnc.haeinsa;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.NavigableMap;
 
 import javax.annotation.Nullable;
 
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 
 import org.apache.hadoop.conf.Configuration;
@@ -59,6 +61,11 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         delegate().prewrite(rowState, row, isPrimary);
     }
 
+    @Override
+    public void prewriteSecondaries(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        delegate().prewriteSecondaries(rowStates);
+    }
+
     @Override
     public void applyMutations(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
         delegate().applyMutations(rowTxState, row);
@@ -69,6 +76,11 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         delegate().makeStable(rowTxState, row);
     }
 
+    @Override
+    public void makeStable(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        delegate().makeStable(rowStates);
+    }
+
     @Override
     public void commitPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
         delegate().commitPrimary(rowTxState, row);
@@ -79,6 +91,21 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         return delegate().getRowLock(row);
     }
 
+    @Override
+    public byte[] getRowLockBytes(byte[] row) throws IOException {
+        return delegate().getRowLockBytes(row);
+    }
+
+    @Override
+    public List<TRowKey> getSecondaries(byte[] row, TRowLock primaryRowLock) throws IOException {
+        return delegate().getSecondaries(row, primaryRowLock);
+    }
+
+    @Override
+    public boolean containsSecondary(byte[] row, TRowLock primaryRowLock, TRowKey secondaryRowKey) throws IOException {
+        return delegate().containsSecondary(row, primaryRowLock, secondaryRowKey);
+    }
+
     @Override
     public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
         delegate().abortPrimary(rowTxState, row);
@@ -89,6 +116,11 @@ public class ForwardingHaeinsaTable extends ForwardingObject implements HaeinsaT
         delegate().deletePrewritten(rowTxState, row);
     }
 
+    @Override
+    public void deletePrewritten(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        delegate().deletePrewritten(rowStates);
+    }
+
     @Override
     public byte[] getTableName() {
         return delegate().getTableName();
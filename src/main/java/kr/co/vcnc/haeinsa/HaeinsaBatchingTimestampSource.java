@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link HaeinsaTimestampSource} which takes timestamps from {@link HaeinsaTimestampOracle}.
+ * Timestamps are reserved in batches of batchSize, and handed out one by one from the reserved range,
+ * so single call of the oracle serves batchSize transactions while the range lasts.
+ * <p>
+ * Timestamps are wall clock in milliseconds shifted left by {@link #LOGICAL_BITS}, so more than a million
+ * timestamps can be taken in a millisecond across clients sharing the oracle without running ahead of wall clock.
+ * Once this source is used, HBase timestamps of data written by transactions are not in milliseconds,
+ * so every client of the tables should take timestamps from the same oracle,
+ * and TTL of column families does not work for the data.
+ * Expiry of row locks is kept in wall clock milliseconds of local machine.
+ * <p>
+ * Handed out timestamp skips forward in the reserved range when timestamp given to {@link #observe(long)} passes it.
+ * New range is reserved when the range is used up, when observed timestamp passes the end of the range,
+ * such as commit timestamp of other client, or when the range is reserved more than maxStalenessMs ago.
+ * Otherwise, idle client keeps handing out old timestamps,
+ * and snapshot taken by the client misses transactions committed by other clients in the meantime.
+ * <p>
+ * Timestamp ahead of wall clock by more than maxSkewMs, which happens when clock of some client is ahead,
+ * is handed out only after waiting for wall clock to catch up, so timestamps don't drift further.
+ * If the wait would be longer than maxSkewMs, {@link #currentTimestamp()} fails with IOException instead.
+ * <p>
+ * {@link #currentTimestamp()} throws IOException if the oracle fails.
+ */
+public class HaeinsaBatchingTimestampSource implements HaeinsaTimestampSource {
+    /**
+     * Number of low bits of timestamp below wall clock in milliseconds.
+     */
+    public static final int LOGICAL_BITS = 20;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_MAX_SKEW_MS = 1000;
+    public static final long DEFAULT_MAX_STALENESS_MS = 100;
+
+    private final HaeinsaTimestampOracle oracle;
+    private final int batchSize;
+    private final long maxSkewMs;
+    private final long maxStalenessMs;
+    // next timestamp to return, end of reserved range (exclusive) and wall clock when the range is reserved,
+    // guarded by this
+    private long next = Long.MIN_VALUE;
+    private long limit = Long.MIN_VALUE;
+    private long reservedAt;
+
+    public HaeinsaBatchingTimestampSource(HaeinsaTimestampOracle oracle) {
+        this(oracle, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param oracle oracle to reserve timestamps from
+     * @param batchSize number of timestamps reserved by single call of the oracle
+     */
+    public HaeinsaBatchingTimestampSource(HaeinsaTimestampOracle oracle, int batchSize) {
+        this(oracle, batchSize, DEFAULT_MAX_SKEW_MS);
+    }
+
+    /**
+     * @param oracle oracle to reserve timestamps from
+     * @param batchSize number of timestamps reserved by single call of the oracle
+     * @param maxSkewMs maximum difference in milliseconds by which timestamps can be ahead of wall clock
+     */
+    public HaeinsaBatchingTimestampSource(HaeinsaTimestampOracle oracle, int batchSize, long maxSkewMs) {
+        this(oracle, batchSize, maxSkewMs, DEFAULT_MAX_STALENESS_MS);
+    }
+
+    /**
+     * @param oracle oracle to reserve timestamps from
+     * @param batchSize number of timestamps reserved by single call of the oracle
+     * @param maxSkewMs maximum difference in milliseconds by which timestamps can be ahead of wall clock
+     * @param maxStalenessMs maximum time in milliseconds for which reserved range is used
+     */
+    public HaeinsaBatchingTimestampSource(HaeinsaTimestampOracle oracle, int batchSize, long maxSkewMs,
+                                         long maxStalenessMs) {
+        Preconditions.checkNotNull(oracle);
+        Preconditions.checkArgument(batchSize > 0, "batchSize should be positive.");
+        Preconditions.checkArgument(maxSkewMs >= 0, "maxSkewMs should not be negative.");
+        Preconditions.checkArgument(maxStalenessMs >= 0, "maxStalenessMs should not be negative.");
+        this.oracle = oracle;
+        this.batchSize = batchSize;
+        this.maxSkewMs = maxSkewMs;
+        this.maxStalenessMs = maxStalenessMs;
+    }
+
+    /**
+     * Return the smallest timestamp of given wall clock in milliseconds.
+     */
+    public static long fromMillis(long millis) {
+        return millis << LOGICAL_BITS;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxSkewMs() {
+        return maxSkewMs;
+    }
+
+    public long getMaxStalenessMs() {
+        return maxStalenessMs;
+    }
+
+    @Override
+    public synchronized long currentTimestamp() throws IOException {
+        long wallClock = getWallClock();
+        if (next >= limit || wallClock - reservedAt > maxStalenessMs) {
+            // Wall clock is given as lower bound, so that timestamps follow wall clock even if clock of the oracle
+            // is behind.
+            long minimum = Math.max(next, fromMillis(wallClock));
+            long start = oracle.reserve(minimum, batchSize);
+            Preconditions.checkState(start >= minimum, "Oracle returned timestamp smaller than lower bound.");
+            next = start;
+            limit = start + batchSize;
+            reservedAt = wallClock;
+        }
+        long waitMs = toMillis(next) - maxSkewMs - wallClock;
+        if (waitMs > 0) {
+            if (waitMs > maxSkewMs) {
+                throw new IOException("Timestamp " + next + " is too far ahead of wall clock " + wallClock + ".");
+            }
+            // wait for wall clock rather than drifting further ahead of it.
+            sleep(waitMs);
+        }
+        return next++;
+    }
+
+    @Override
+    public synchronized void observe(long timestamp) {
+        if (timestamp == Long.MAX_VALUE) {
+            return;
+        }
+        // skip forward in the range rather than discarding it.
+        next = Math.max(next, timestamp + 1);
+    }
+
+    @Override
+    public boolean isExpired(long expiry) {
+        return expiry < getWallClock();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return getWallClock();
+    }
+
+    @Override
+    public long toMillis(long timestamp) {
+        return timestamp >> LOGICAL_BITS;
+    }
+
+    /**
+     * Return wall clock of local machine. Overridden by tests.
+     */
+    protected long getWallClock() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Wait for wall clock to catch up with timestamps. Overridden by tests.
+     */
+    protected void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for wall clock.");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutationType;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+
+/**
+ * {@link HaeinsaDelete} backed by {@link HaeinsaMutationBuffer}, which is used by {@link HaeinsaRowTransaction}
+ * to merge deletes of the row in the transaction without creating objects for each KeyValue.
+ * <p>
+ * {@link #getFamilyMap()} returns an unmodifiable copy of buffered KeyValues, which is cached until the next add.
+ */
+final class HaeinsaBufferedDelete extends HaeinsaDelete {
+    private final HaeinsaMutationBuffer buffer;
+
+    HaeinsaBufferedDelete(byte[] row) {
+        super(row);
+        this.buffer = new HaeinsaMutationBuffer(row);
+    }
+
+    @Override
+    public HaeinsaDelete deleteFamily(byte[] family) {
+        buffer.add(Type.DeleteFamily, family, null, null);
+        return this;
+    }
+
+    @Override
+    public HaeinsaDelete deleteColumns(byte[] family, byte[] qualifier) {
+        buffer.add(Type.DeleteColumn, family, qualifier, null);
+        return this;
+    }
+
+    @Override
+    public void add(HaeinsaMutation newMutation) {
+        Preconditions.checkState(newMutation instanceof HaeinsaDelete);
+        if (newMutation instanceof HaeinsaBufferedDelete) {
+            buffer.addAll(((HaeinsaBufferedDelete) newMutation).buffer);
+        } else {
+            for (HaeinsaKeyValue kv : Iterables.concat(newMutation.getFamilyMap().values())) {
+                buffer.add(kv);
+            }
+        }
+    }
+
+    @Override
+    public Map<byte[], NavigableSet<HaeinsaKeyValue>> getFamilyMap() {
+        return buffer.getFamilyMap();
+    }
+
+    @Override
+    public void setFamilyMap(Map<byte[], NavigableSet<HaeinsaKeyValue>> map) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<byte[]> getFamilies() {
+        return buffer.getFamilyMap().keySet();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    @Override
+    public TMutation toTMutation() {
+        TMutation newTMutation = new TMutation(TMutationType.REMOVE);
+        newTMutation.setRemove(buffer.toTRemove());
+        return newTMutation;
+    }
+
+    @Override
+    public HaeinsaKeyValueScanner getScanner(long sequenceID) {
+        return buffer.getScanner(sequenceID);
+    }
+}
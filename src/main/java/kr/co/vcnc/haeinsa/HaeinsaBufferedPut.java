@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutationType;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Put;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+
+/**
+ * {@link HaeinsaPut} backed by {@link HaeinsaMutationBuffer}, which is used by {@link HaeinsaRowTransaction}
+ * to merge puts of the row in the transaction without creating objects for each KeyValue.
+ * <p>
+ * {@link #getFamilyMap()} returns an unmodifiable copy of buffered KeyValues, which is cached until the next add.
+ */
+final class HaeinsaBufferedPut extends HaeinsaPut {
+    private final HaeinsaMutationBuffer buffer;
+
+    HaeinsaBufferedPut(byte[] row) {
+        super(row);
+        this.buffer = new HaeinsaMutationBuffer(row);
+    }
+
+    @Override
+    public HaeinsaPut add(byte[] family, byte[] qualifier, byte[] value) {
+        buffer.add(Type.Put, family, qualifier, value);
+        return this;
+    }
+
+    @Override
+    public void add(HaeinsaMutation newMutation) {
+        Preconditions.checkState(newMutation instanceof HaeinsaPut);
+        if (newMutation instanceof HaeinsaBufferedPut) {
+            buffer.addAll(((HaeinsaBufferedPut) newMutation).buffer);
+        } else {
+            for (HaeinsaKeyValue kv : Iterables.concat(newMutation.getFamilyMap().values())) {
+                buffer.add(kv);
+            }
+        }
+    }
+
+    @Override
+    public Map<byte[], NavigableSet<HaeinsaKeyValue>> getFamilyMap() {
+        return buffer.getFamilyMap();
+    }
+
+    @Override
+    public void setFamilyMap(Map<byte[], NavigableSet<HaeinsaKeyValue>> map) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<byte[]> getFamilies() {
+        return buffer.getFamilyMap().keySet();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    @Override
+    void writeTo(Put put, long timestamp, @Nullable Collection<TCellKey> cellKeys) throws IOException {
+        buffer.writeTo(put, timestamp, cellKeys);
+    }
+
+    @Override
+    public TMutation toTMutation() {
+        TMutation newTMutation = new TMutation();
+        newTMutation.setType(TMutationType.PUT);
+        newTMutation.setPut(buffer.toTPut());
+        return newTMutation;
+    }
+
+    @Override
+    public HaeinsaKeyValueScanner getScanner(long sequenceID) {
+        return buffer.getScanner(sequenceID);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.ROW_LOCK_VERSION;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Writer of puts without transaction, for backfilling large amount of data into table used by Haeinsa.
+ * Each row is written in same layout as {@link HaeinsaTable#commitSingleRowPutOnly(HaeinsaRowTransaction, byte[])}:
+ * cells of the put and {@link TRowLockState#STABLE} lock are written with the commit timestamp of this writer.
+ * So transactions read written rows as if they are committed by single transaction at the commit timestamp.
+ * <p>
+ * Puts are buffered by {@link BufferedMutator} and sent to HBase in batches without checking lock of rows.
+ * {@link #put(HaeinsaPut)} blocks while the buffer is being flushed, which applies back-pressure on the writer.
+ * Failure of buffered put is thrown by following call of {@link #put(HaeinsaPut)}, {@link #flush()} or
+ * {@link #close()}.
+ * <p>
+ * Use this writer only on rows which are not accessed by concurrent transactions.
+ * Otherwise, prewritten lock of the transaction can be overwritten, and atomicity of the transaction is broken.
+ * Commit timestamp of the writer should be larger than commit timestamps of existing rows,
+ * or written data is hidden by existing data.
+ * <p>
+ * This class is not Thread-safe. Create by {@link HaeinsaTablePool#getBulkWriter(String, long)}.
+ */
+public class HaeinsaBulkWriter implements Closeable {
+    private final BufferedMutator mutator;
+    private final long commitTimestamp;
+    private final byte[] rowLockBytes;
+
+    HaeinsaBulkWriter(BufferedMutator mutator, long commitTimestamp) throws IOException {
+        this.mutator = Preconditions.checkNotNull(mutator);
+        this.commitTimestamp = commitTimestamp;
+        this.rowLockBytes = TRowLocks.serialize(new TRowLock(ROW_LOCK_VERSION, TRowLockState.STABLE, commitTimestamp));
+    }
+
+    public byte[] getTableName() {
+        return mutator.getName().getName();
+    }
+
+    public long getCommitTimestamp() {
+        return commitTimestamp;
+    }
+
+    public void put(HaeinsaPut put) throws IOException {
+        mutator.mutate(toPut(put));
+    }
+
+    public void put(List<HaeinsaPut> puts) throws IOException {
+        List<Put> hPuts = Lists.newArrayListWithCapacity(puts.size());
+        for (HaeinsaPut put : puts) {
+            hPuts.add(toPut(put));
+        }
+        mutator.mutate(hPuts);
+    }
+
+    /**
+     * Send all buffered puts to HBase, and wait until they are written.
+     */
+    public void flush() throws IOException {
+        mutator.flush();
+    }
+
+    /**
+     * Flush buffered puts and release resources of the writer.
+     */
+    @Override
+    public void close() throws IOException {
+        mutator.close();
+    }
+
+    private Put toPut(HaeinsaPut put) throws IOException {
+        Preconditions.checkNotNull(put);
+        Preconditions.checkArgument(!put.getFamilyMap().containsKey(LOCK_FAMILY),
+                "can't put to lock family: %s", Bytes.toStringBinary(put.getRow()));
+        Put hPut = new Put(put.getRow());
+        put.writeTo(hPut, commitTimestamp, null);
+        hPut.add(LOCK_FAMILY, LOCK_QUALIFIER, commitTimestamp, rowLockBytes);
+        return hPut;
+    }
+}
@@ -72,7 +72,7 @@ public class HaeinsaColumnTracker {
     public boolean isColumnInclusive(HaeinsaKeyValue kv) {
         int cmpMin = 1;
         if (this.minColumn != null) {
-            cmpMin = Bytes.compareTo(kv.getQualifier(), minColumn);
+            cmpMin = compareQualifier(kv, minColumn);
         }
 
         if (cmpMin < 0) {
@@ -88,7 +88,7 @@ public class HaeinsaColumnTracker {
             return true;
         }
 
-        int cmpMax = Bytes.compareTo(kv.getQualifier(), maxColumn);
+        int cmpMax = compareQualifier(kv, maxColumn);
 
         if (this.maxColumnInclusive && cmpMax <= 0
                 || !this.maxColumnInclusive && cmpMax < 0) {
@@ -120,18 +120,31 @@ public class HaeinsaColumnTracker {
             return isColumnInclusive(kv);
         }
 
-        NavigableSet<byte[]> set = familyMap.get(kv.getFamily());
-        // If column family is specified, but there are no qualifiers.
-        // { family -> null }
-        if (familyMap.containsKey(kv.getFamily()) && set == null) {
-            return isColumnInclusive(kv);
-        }
+        // Number of families in scan is small, so families are compared with backing array of kv
+        // instead of copying family of kv to look up the map.
+        for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
+            if (!kv.matchingFamily(entry.getKey())) {
+                continue;
+            }
+            NavigableSet<byte[]> set = entry.getValue();
+            // If column family is specified, but there are no qualifiers.
+            // { family -> null }
+            if (set == null) {
+                return isColumnInclusive(kv);
+            }
 
-        // If both family and qualifier are specified.
-        // { family -> qualifier }
-        if (set.contains(kv.getQualifier())) {
-            return isColumnInclusive(kv);
+            // If both family and qualifier are specified.
+            // { family -> qualifier }
+            if (set.contains(kv.getQualifier())) {
+                return isColumnInclusive(kv);
+            }
+            return false;
         }
         return false;
     }
+
+    private static int compareQualifier(HaeinsaKeyValue kv, byte[] column) {
+        return Bytes.compareTo(kv.getQualifierArray(), kv.getQualifierOffset(), kv.getQualifierLength(),
+                column, 0, column.length);
+    }
 }
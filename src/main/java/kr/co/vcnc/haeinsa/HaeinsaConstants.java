@@ -62,5 +62,24 @@ public final class HaeinsaConstants {
      */
     public static final byte[] LOCK_QUALIFIER = Bytes.toBytes("lock");
 
+    /**
+     * Prefix of column qualifiers inside lock column family which save payload of mutations stored out of
+     * {@link TRowLock}. See {@link HaeinsaTransactionManager#setOutOfLineMutationThreshold(int)}.
+     * The qualifiers should be accessed only by Haeinsa client library, not by user code.
+     */
+    public static final byte[] MUTATION_QUALIFIER_PREFIX = Bytes.toBytes("mutation-");
+
+    /**
+     * Prefix of column qualifiers inside lock column family which save chunks of secondary rows stored out of
+     * {@link TRowLock} of primary row. See {@link HaeinsaTransactionManager#setOutOfLineSecondaryThreshold(int)}.
+     * The qualifiers should be accessed only by Haeinsa client library, not by user code.
+     */
+    public static final byte[] SECONDARIES_QUALIFIER_PREFIX = Bytes.toBytes("secondaries-");
+
+    /**
+     * Average number of secondary rows in a chunk stored out of {@link TRowLock}.
+     */
+    public static final int SECONDARY_CHUNK_SIZE = 1024;
+
     public static final int RECOVER_MAX_RETRY_COUNT = 3;
 }
@@ -16,6 +16,7 @@
 package kr.co.vcnc.haeinsa;
 
 import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.NavigableSet;
 
 import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
@@ -49,7 +50,12 @@ public class HaeinsaDelete extends HaeinsaMutation {
      */
     public HaeinsaDelete(final HaeinsaDelete d) {
         this.row = d.getRow();
-        this.familyMap.putAll(d.getFamilyMap());
+        for (Map.Entry<byte[], NavigableSet<HaeinsaKeyValue>> entry : d.getFamilyMap().entrySet()) {
+            // sets are copied, because sets of buffered delete are unmodifiable.
+            NavigableSet<HaeinsaKeyValue> set = Sets.newTreeSet(HaeinsaKeyValue.COMPARATOR);
+            set.addAll(entry.getValue());
+            this.familyMap.put(entry.getKey(), set);
+        }
     }
 
     /**
@@ -69,6 +69,11 @@ public class HaeinsaDeleteTracker {
      * @return Return true if kv is deleted after sequenceID (lower sequenceID), return false otherwise.
      */
     public boolean isDeleted(HaeinsaKeyValue kv, long sequenceID) {
+        if (families.isEmpty() && cells.isEmpty()) {
+            // most rows have no delete, so avoid copying family and qualifier of kv.
+            return false;
+        }
+
         // check family
         Long deletedSequenceID = families.get(kv.getFamily());
         if (deletedSequenceID != null && deletedSequenceID.compareTo(sequenceID) < 0) {
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link HaeinsaTimestampOracle} running in single process, for tests and small deployments
+ * which have every client in the same JVM.
+ * Ranges start from wall clock of local machine, in the form of {@link HaeinsaBatchingTimestampSource#fromMillis(long)},
+ * if it is ahead of previous ranges. So timestamps follow wall clock unless more than a million timestamps
+ * are reserved in a millisecond.
+ * Range which would start ahead of wall clock by more than maxSkewMs is reserved after waiting for wall clock,
+ * or fails with IOException if the wait would be longer than maxSkewMs.
+ * Reserved timestamps are not persisted, so they can go backward if the process restarts with wall clock behind.
+ */
+public class HaeinsaEmbeddedTimestampOracle implements HaeinsaTimestampOracle {
+    private final long maxSkewMs;
+    // first timestamp of next range
+    private final AtomicLong next = new AtomicLong(Long.MIN_VALUE);
+
+    public HaeinsaEmbeddedTimestampOracle() {
+        this(HaeinsaBatchingTimestampSource.DEFAULT_MAX_SKEW_MS);
+    }
+
+    /**
+     * @param maxSkewMs maximum difference in milliseconds by which ranges can start ahead of wall clock
+     */
+    public HaeinsaEmbeddedTimestampOracle(long maxSkewMs) {
+        Preconditions.checkArgument(maxSkewMs >= 0, "maxSkewMs should not be negative.");
+        this.maxSkewMs = maxSkewMs;
+    }
+
+    @Override
+    public long reserve(long minimum, int count) throws IOException {
+        Preconditions.checkArgument(count > 0, "count should be positive.");
+        while (true) {
+            long current = next.get();
+            long wallClock = getWallClock();
+            long start = Math.max(Math.max(current, minimum), HaeinsaBatchingTimestampSource.fromMillis(wallClock));
+            long waitMs = (start >> HaeinsaBatchingTimestampSource.LOGICAL_BITS) - maxSkewMs - wallClock;
+            if (waitMs > 0) {
+                if (waitMs > maxSkewMs) {
+                    throw new IOException("Timestamp " + start + " is too far ahead of wall clock " + wallClock + ".");
+                }
+                // wait for wall clock rather than drifting further ahead of it.
+                sleep(waitMs);
+                continue;
+            }
+            if (next.compareAndSet(current, start + count)) {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * Return wall clock of local machine. Overridden by tests.
+     */
+    protected long getWallClock() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Wait for wall clock to catch up with reserved ranges. Overridden by tests.
+     */
+    protected void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for wall clock.");
+        }
+    }
+}
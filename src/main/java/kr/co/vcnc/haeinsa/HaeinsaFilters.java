@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FamilyFilter;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.QualifierFilter;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Utilities to use HBase {@link Filter} of {@link HaeinsaScan} and {@link HaeinsaGet} inside transaction.
+ * <p>
+ * Filter is applied twice. On the server, it is combined with a clause which always passes the lock column,
+ * so that TRowLock of every row is still visible to {@link HaeinsaTable}. On the client, a copy of the filter
+ * is applied to each row merged with mutations buffered in the transaction.
+ */
+final class HaeinsaFilters {
+    private HaeinsaFilters() {}
+
+    /**
+     * Return filter for HBase which passes cells passed by the filter or lock column.
+     */
+    static Filter withLockColumn(Filter filter) {
+        FilterList lockColumnFilter = new FilterList(FilterList.Operator.MUST_PASS_ALL,
+                new FamilyFilter(CompareOp.EQUAL, new BinaryComparator(LOCK_FAMILY)),
+                new QualifierFilter(CompareOp.EQUAL, new BinaryComparator(LOCK_QUALIFIER)));
+        return new FilterList(FilterList.Operator.MUST_PASS_ONE, lockColumnFilter, filter);
+    }
+
+    /**
+     * Copy filter by serializing it as HBase does when the filter is sent to region server,
+     * so that state of the filter on the client is independent from the filter sent to HBase.
+     */
+    static Filter copy(Filter filter) throws IOException {
+        return ProtobufUtil.toFilter(ProtobufUtil.toFilter(filter));
+    }
+
+    /**
+     * Apply the filter to a row, in the order region server calls methods of the filter.
+     *
+     * @param filter filter to apply, which is reset before filtering the row
+     * @param sortedKVs KeyValues of single row, sorted by {@link HaeinsaKeyValue#COMPARATOR}
+     * @return KeyValues of the row passed by the filter, empty if whole row is filtered out
+     */
+    static List<HaeinsaKeyValue> filterRow(Filter filter, List<HaeinsaKeyValue> sortedKVs) throws IOException {
+        filter.reset();
+        HaeinsaKeyValue first = sortedKVs.get(0);
+        if (filter.filterRowKey(first.getRowArray(), first.getRowOffset(), first.getRowLength())) {
+            return Collections.emptyList();
+        }
+        List<Cell> cells = Lists.newArrayListWithCapacity(sortedKVs.size());
+        rowLoop:
+        for (HaeinsaKeyValue kv : sortedKVs) {
+            Cell cell = kv.toCell();
+            switch (filter.filterKeyValue(cell)) {
+            case INCLUDE:
+            case INCLUDE_AND_NEXT_COL:
+                cells.add(filter.transformCell(cell));
+                break;
+            case NEXT_ROW:
+                break rowLoop;
+            default:
+                // SKIP, NEXT_COL and SEEK_NEXT_USING_HINT only skip this KeyValue,
+                // because merged row has single version of each column.
+                break;
+            }
+        }
+        if (filter.hasFilterRow()) {
+            filter.filterRowCells(cells);
+        }
+        if (cells.isEmpty() || filter.filterRow()) {
+            return Collections.emptyList();
+        }
+        List<HaeinsaKeyValue> filtered = Lists.newArrayListWithCapacity(cells.size());
+        for (Cell cell : cells) {
+            filtered.add(new HaeinsaKeyValue(cell));
+        }
+        return filtered;
+    }
+}
@@ -21,6 +21,7 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.collect.Maps;
@@ -33,6 +34,7 @@ import com.google.common.collect.Maps;
 public class HaeinsaGet extends HaeinsaQuery {
     private byte[] row;
     private Map<byte[], NavigableSet<byte[]>> familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    private Filter filter;
 
     /**
      * Create a Get operation for the specified row.
@@ -79,6 +81,32 @@ public class HaeinsaGet extends HaeinsaQuery {
         return this;
     }
 
+    /**
+     * Apply the specified server-side filter when performing the get.
+     * <p>
+     * Inside transaction, the filter is combined with a clause which always passes the lock column,
+     * so that HBase filters out cells of the row before they are sent to the client,
+     * while lock of each row is still checked by the transaction. The filter is applied again on the client
+     * to the row merged with mutations buffered in the transaction, so the result reflects writes of the transaction.
+     * Row level decision of the filter is made only on the client, because the lock column always passes on HBase.
+     * Filter which transforms cells, such as {@link org.apache.hadoop.hbase.filter.KeyOnlyFilter},
+     * can't be used inside transaction because it also transforms the lock column.
+     *
+     * @param filter filter to run on the server, null to remove filter
+     * @return this
+     */
+    public HaeinsaGet setFilter(Filter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @return filter of this get, null if not set
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
     /**
      * Method for retrieving the get's row
      *
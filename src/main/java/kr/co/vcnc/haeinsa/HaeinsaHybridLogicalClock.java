@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * {@link HaeinsaTimestampSource} of hybrid logical clock.
+ * <p>
+ * Timestamp is the maximum of wall clock of local machine and timestamps observed before,
+ * so it never goes backward even if wall clock does, and it follows timestamps written by clients
+ * whose clock is ahead. As a result, snapshot taken after a transaction is committed or read by this client
+ * always includes the transaction, although its commit timestamp is ahead of the clock.
+ * <p>
+ * Timestamps are kept in milliseconds, rather than encoding logical counter in lower bits,
+ * because they are used as HBase timestamps of data which are shared with existing rows and
+ * non-transactional clients. Logical part is same as Haeinsa transaction itself,
+ * which makes prewrite timestamp larger than commit timestamps of rows by 1.
+ * <p>
+ * So commit throughput of a hot row is not limited by this clock. Prewrite and commit timestamps are derived from
+ * commit timestamps of the rows when they are ahead of the clock, and a row can be committed many times in
+ * a millisecond as with {@link HaeinsaSystemClock}. Timestamps of the row run ahead of wall clock under
+ * such contention, and this clock follows them until wall clock catches up. Commit timestamps of consecutive
+ * transactions of this client on the row advance by one more than with {@link HaeinsaSystemClock},
+ * because this clock is already larger than commit timestamp of previous transaction by 1.
+ * <p>
+ * Expiry of row locks is checked with wall clock of local machine and maximum clock offset between clients,
+ * so lock written by client whose clock is behind by less than the offset is not aborted before its expiry.
+ * Observed timestamps are only used for ordering, so client whose peer's clock is ahead does not
+ * abort live locks early.
+ * Observed timestamp which is ahead of wall clock by more than the offset is logged,
+ * because it means that clock of some client is not synchronized.
+ */
+public class HaeinsaHybridLogicalClock implements HaeinsaTimestampSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaHybridLogicalClock.class);
+    public static final long DEFAULT_MAX_CLOCK_OFFSET = 500;
+
+    private final long maxClockOffset;
+    // smallest timestamp which can be returned by currentTimestamp()
+    private final AtomicLong lowerBound = new AtomicLong(Long.MIN_VALUE);
+
+    public HaeinsaHybridLogicalClock() {
+        this(DEFAULT_MAX_CLOCK_OFFSET);
+    }
+
+    /**
+     * @param maxClockOffset maximum difference of wall clocks between clients in milliseconds.
+     */
+    public HaeinsaHybridLogicalClock(long maxClockOffset) {
+        Preconditions.checkArgument(maxClockOffset >= 0, "maxClockOffset should not be negative.");
+        this.maxClockOffset = maxClockOffset;
+    }
+
+    public long getMaxClockOffset() {
+        return maxClockOffset;
+    }
+
+    @Override
+    public long currentTimestamp() {
+        long wallClock = getWallClock();
+        while (true) {
+            long current = lowerBound.get();
+            if (wallClock <= current) {
+                return current;
+            }
+            if (lowerBound.compareAndSet(current, wallClock)) {
+                return wallClock;
+            }
+        }
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        if (timestamp == Long.MAX_VALUE) {
+            return;
+        }
+        long next = timestamp + 1;
+        while (true) {
+            long current = lowerBound.get();
+            if (next <= current) {
+                return;
+            }
+            if (lowerBound.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        long wallClock = getWallClock();
+        if (timestamp > wallClock + maxClockOffset) {
+            LOGGER.warn("Observed timestamp {} is ahead of local clock {} by more than {} ms.",
+                    timestamp, wallClock, maxClockOffset);
+        }
+    }
+
+    @Override
+    public boolean isExpired(long expiry) {
+        return expiry + maxClockOffset < getWallClock();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return getWallClock();
+    }
+
+    /**
+     * Return wall clock of local machine. Overridden by tests.
+     */
+    protected long getWallClock() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+/**
+ * Isolation level of {@link HaeinsaTransaction}, which is given by
+ * {@link HaeinsaTransactionManager#begin(HaeinsaIsolationLevel)}.
+ */
+public enum HaeinsaIsolationLevel {
+    /**
+     * Default isolation level of Haeinsa.
+     * Locks of every row read or written by the transaction are checked on commit,
+     * so the transaction fails if any of the rows is modified by other transaction.
+     */
+    SERIALIZABLE,
+    /**
+     * Snapshot isolation.
+     * Every row is read from the snapshot at the time the transaction begins, and rows which are only read
+     * are not tracked by the transaction. On commit, only write-write conflicts are checked,
+     * so the transaction fails only if rows written by the transaction are modified after the snapshot.
+     * <p>
+     * Reading from snapshot has same requirements on column families as
+     * {@link HaeinsaTransactionManager#beginSnapshotRead(long)}.
+     */
+    SNAPSHOT
+}
@@ -17,14 +17,14 @@ package kr.co.vcnc.haeinsa;
 
 import java.util.Comparator;
 
-import kr.co.vcnc.haeinsa.utils.NullableComparator;
-
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.base.Objects;
-import com.google.common.collect.ComparisonChain;
 
 /**
  * Modified POJO container of {@link KeyValue} class in HBase. Like
@@ -35,36 +35,48 @@ import com.google.common.collect.ComparisonChain;
  * control, user cannot manually control timestamp of HaeinsaKeyValue. Type is
  * same Enum with {@link org.apache.hadoop.hbase.KeyValue.Type}.
  * <p>
+ * HaeinsaKeyValue created by {@link #HaeinsaKeyValue(Cell)} wraps the {@link Cell}
+ * without copying. Array, offset and length accessors such as {@link #getRowArray()}
+ * refer to the backing array of the cell, and {@link #getRow()} like getters copy
+ * the component only when they are called first time. Any setter detaches
+ * HaeinsaKeyValue from the cell by copying all components.
+ * <p>
  * HaeinsaKeyValue has public static comparator which can be used in
- * navigableMap. This comparator is ComparisionChain of {@link NullableComparator}
- * wrapped {@link org.apache.hadoop.hbase.util.Bytes#BYTES_COMPARATOR}. The
- * order of comparisonChain is row, family, qualifier, value and type.
+ * navigableMap. The order of comparator is row, family, qualifier and type.
+ * Null byte array is assumed to be the smallest, and type is sorted by
+ * descending order of its code. Comparators compare byte ranges and type
+ * codes directly and do not allocate, because they are called on every
+ * operation of sorted collections in scanners and mutations.
  */
 public class HaeinsaKeyValue {
     public static final Comparator<HaeinsaKeyValue> COMPARATOR = new Comparator<HaeinsaKeyValue>() {
         @Override
         public int compare(HaeinsaKeyValue o1, HaeinsaKeyValue o2) {
-            return ComparisonChain.start()
-                    .compare(o1.getRow(), o2.getRow(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
-                    .compare(o1.getFamily(), o2.getFamily(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
-                    .compare(o1.getQualifier(), o2.getQualifier(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
-                    .compare(o2.getType().getCode() & 0xFF, o1.getType().getCode() & 0xFF)
-                    .result();
+            int result = compareNullable(o1.getRowArray(), o1.getRowOffset(), o1.getRowLength(),
+                    o2.getRowArray(), o2.getRowOffset(), o2.getRowLength());
+            if (result != 0) {
+                return result;
+            }
+            return compareColumnAndType(o1, o2);
         }
     };
 
     public static final Comparator<HaeinsaKeyValue> REVERSE_COMPARATOR = new Comparator<HaeinsaKeyValue>() {
         @Override
         public int compare(HaeinsaKeyValue o1, HaeinsaKeyValue o2) {
-            return ComparisonChain.start()
-                .compare(o2.getRow(), o1.getRow(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
-                .compare(o1.getFamily(), o2.getFamily(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
-                .compare(o1.getQualifier(), o2.getQualifier(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
-                .compare(o2.getType().getCode() & 0xFF, o1.getType().getCode() & 0xFF)
-                .result();
+            int result = compareNullable(o2.getRowArray(), o2.getRowOffset(), o2.getRowLength(),
+                    o1.getRowArray(), o1.getRowOffset(), o1.getRowLength());
+            if (result != 0) {
+                return result;
+            }
+            return compareColumnAndType(o1, o2);
         }
     };
 
+    /**
+     * Backing cell of this HaeinsaKeyValue, null if components are owned arrays.
+     */
+    private Cell cell;
     private byte[] row;
     private byte[] family;
     private byte[] qualifier;
@@ -74,9 +86,13 @@ public class HaeinsaKeyValue {
     public HaeinsaKeyValue() {
     }
 
-    public HaeinsaKeyValue(KeyValue keyValue) {
-        this(keyValue.getRow(), keyValue.getFamily(), keyValue.getQualifier(), keyValue.getValue(),
-                KeyValue.Type.codeToType(keyValue.getType()));
+    /**
+     * Wrap the cell without copying any component of it.
+     * Cell should not be modified while this HaeinsaKeyValue is used.
+     */
+    public HaeinsaKeyValue(Cell cell) {
+        this.cell = cell;
+        this.type = Type.codeToType(cell.getTypeByte());
     }
 
     public HaeinsaKeyValue(byte[] row, byte[] family, byte[] qualifier, byte[] value, Type type) {
@@ -87,38 +103,114 @@ public class HaeinsaKeyValue {
         this.type = type;
     }
 
+    /**
+     * @return owned copy of row, which is created on first call if this HaeinsaKeyValue wraps a cell
+     */
     public byte[] getRow() {
+        if (row == null && cell != null) {
+            row = CellUtil.cloneRow(cell);
+        }
         return row;
     }
 
     public void setRow(byte[] row) {
+        detach();
         this.row = row;
     }
 
+    public byte[] getRowArray() {
+        return cell != null ? cell.getRowArray() : row;
+    }
+
+    public int getRowOffset() {
+        return cell != null ? cell.getRowOffset() : 0;
+    }
+
+    public int getRowLength() {
+        return cell != null ? cell.getRowLength() : lengthOf(row);
+    }
+
+    /**
+     * @return owned copy of family, which is created on first call if this HaeinsaKeyValue wraps a cell
+     */
     public byte[] getFamily() {
+        if (family == null && cell != null) {
+            family = CellUtil.cloneFamily(cell);
+        }
         return family;
     }
 
     public void setFamily(byte[] family) {
+        detach();
         this.family = family;
     }
 
+    public byte[] getFamilyArray() {
+        return cell != null ? cell.getFamilyArray() : family;
+    }
+
+    public int getFamilyOffset() {
+        return cell != null ? cell.getFamilyOffset() : 0;
+    }
+
+    public int getFamilyLength() {
+        return cell != null ? cell.getFamilyLength() : lengthOf(family);
+    }
+
+    /**
+     * @return owned copy of qualifier, which is created on first call if this HaeinsaKeyValue wraps a cell
+     */
     public byte[] getQualifier() {
+        if (qualifier == null && cell != null) {
+            qualifier = CellUtil.cloneQualifier(cell);
+        }
         return qualifier;
     }
 
     public void setQualifier(byte[] qualifier) {
+        detach();
         this.qualifier = qualifier;
     }
 
+    public byte[] getQualifierArray() {
+        return cell != null ? cell.getQualifierArray() : qualifier;
+    }
+
+    public int getQualifierOffset() {
+        return cell != null ? cell.getQualifierOffset() : 0;
+    }
+
+    public int getQualifierLength() {
+        return cell != null ? cell.getQualifierLength() : lengthOf(qualifier);
+    }
+
+    /**
+     * @return owned copy of value, which is created on first call if this HaeinsaKeyValue wraps a cell
+     */
     public byte[] getValue() {
+        if (value == null && cell != null) {
+            value = CellUtil.cloneValue(cell);
+        }
         return value;
     }
 
     public void setValue(byte[] value) {
+        detach();
         this.value = value;
     }
 
+    public byte[] getValueArray() {
+        return cell != null ? cell.getValueArray() : value;
+    }
+
+    public int getValueOffset() {
+        return cell != null ? cell.getValueOffset() : 0;
+    }
+
+    public int getValueLength() {
+        return cell != null ? cell.getValueLength() : lengthOf(value);
+    }
+
     public Type getType() {
         return type;
     }
@@ -127,8 +219,122 @@ public class HaeinsaKeyValue {
         this.type = type;
     }
 
+    public boolean matchingRow(byte[] row) {
+        return equalsNullable(getRowArray(), getRowOffset(), getRowLength(), row);
+    }
+
+    public boolean matchingFamily(byte[] family) {
+        return equalsNullable(getFamilyArray(), getFamilyOffset(), getFamilyLength(), family);
+    }
+
     public boolean matchingColumn(byte[] family, byte[] qualifier) {
-        return Bytes.equals(this.family, family) && Bytes.equals(this.qualifier, qualifier);
+        return matchingFamily(family)
+                && equalsNullable(getQualifierArray(), getQualifierOffset(), getQualifierLength(), qualifier);
+    }
+
+    /**
+     * @return true if row of the other HaeinsaKeyValue is same with row of this
+     */
+    public boolean matchingRow(HaeinsaKeyValue other) {
+        return equalsNullable(getRowArray(), getRowOffset(), getRowLength(),
+                other.getRowArray(), other.getRowOffset(), other.getRowLength());
+    }
+
+    /**
+     * @return true if family and qualifier of the other HaeinsaKeyValue is same with those of this
+     */
+    public boolean matchingColumn(HaeinsaKeyValue other) {
+        return equalsNullable(getFamilyArray(), getFamilyOffset(), getFamilyLength(),
+                other.getFamilyArray(), other.getFamilyOffset(), other.getFamilyLength())
+                && equalsNullable(getQualifierArray(), getQualifierOffset(), getQualifierLength(),
+                        other.getQualifierArray(), other.getQualifierOffset(), other.getQualifierLength());
+    }
+
+    /**
+     * Return backing cell, or new {@link KeyValue} of latest timestamp which has components of this.
+     */
+    Cell toCell() {
+        if (cell != null) {
+            return cell;
+        }
+        return new KeyValue(row, family, qualifier, HConstants.LATEST_TIMESTAMP, type, value);
+    }
+
+    /**
+     * Compare family and qualifier of this HaeinsaKeyValue with given column, without copying.
+     * Null is assumed to be the smallest like {@link #COMPARATOR}.
+     */
+    int compareColumnTo(byte[] family, byte[] qualifier) {
+        int result = compareNullable(getFamilyArray(), getFamilyOffset(), getFamilyLength(),
+                family, 0, lengthOf(family));
+        if (result != 0) {
+            return result;
+        }
+        return compareNullable(getQualifierArray(), getQualifierOffset(), getQualifierLength(),
+                qualifier, 0, lengthOf(qualifier));
+    }
+
+    /**
+     * Copy all components from the backing cell, so that setters do not lose other components.
+     */
+    private void detach() {
+        if (cell != null) {
+            getRow();
+            getFamily();
+            getQualifier();
+            getValue();
+            cell = null;
+        }
+    }
+
+    /**
+     * Compare family, qualifier and type of KeyValues. Used by both {@link #COMPARATOR}
+     * and {@link #REVERSE_COMPARATOR}, because reversed order applies only to row.
+     */
+    private static int compareColumnAndType(HaeinsaKeyValue o1, HaeinsaKeyValue o2) {
+        int result = compareNullable(o1.getFamilyArray(), o1.getFamilyOffset(), o1.getFamilyLength(),
+                o2.getFamilyArray(), o2.getFamilyOffset(), o2.getFamilyLength());
+        if (result != 0) {
+            return result;
+        }
+        result = compareNullable(o1.getQualifierArray(), o1.getQualifierOffset(), o1.getQualifierLength(),
+                o2.getQualifierArray(), o2.getQualifierOffset(), o2.getQualifierLength());
+        if (result != 0) {
+            return result;
+        }
+        // type with bigger code comes first, like KeyValue of HBase.
+        return Integer.compare(o2.getType().getCode() & 0xFF, o1.getType().getCode() & 0xFF);
+    }
+
+    /**
+     * Lexicographical comparison of byte ranges which assumes null array to be the smallest.
+     */
+    private static int compareNullable(byte[] left, int leftOffset, int leftLength,
+                                       byte[] right, int rightOffset, int rightLength) {
+        if (left == null || right == null) {
+            return left == right ? 0 : (left == null ? -1 : 1);
+        }
+        return Bytes.compareTo(left, leftOffset, leftLength, right, rightOffset, rightLength);
+    }
+
+    private static boolean equalsNullable(byte[] left, int leftOffset, int leftLength,
+                                          byte[] right, int rightOffset, int rightLength) {
+        if (left == null || right == null) {
+            return left == right;
+        }
+        return Bytes.equals(left, leftOffset, leftLength, right, rightOffset, rightLength);
+    }
+
+    private static boolean equalsNullable(byte[] left, int leftOffset, int leftLength, byte[] right) {
+        return equalsNullable(left, leftOffset, leftLength, right, 0, lengthOf(right));
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static String toStringBinary(byte[] bytes, int offset, int length) {
+        return bytes == null ? "null" : Bytes.toStringBinary(bytes, offset, length);
     }
 
     /**
@@ -137,10 +343,10 @@ public class HaeinsaKeyValue {
     @Override
     public String toString() {
         return Objects.toStringHelper(this.getClass())
-                .add("row", Bytes.toStringBinary(row))
-                .add("family", Bytes.toStringBinary(family))
-                .add("qualifier", Bytes.toStringBinary(qualifier))
-                .add("value", Bytes.toStringBinary(value))
+                .add("row", toStringBinary(getRowArray(), getRowOffset(), getRowLength()))
+                .add("family", toStringBinary(getFamilyArray(), getFamilyOffset(), getFamilyLength()))
+                .add("qualifier", toStringBinary(getQualifierArray(), getQualifierOffset(), getQualifierLength()))
+                .add("value", toStringBinary(getValueArray(), getValueOffset(), getValueLength()))
                 .add("type", type)
                 .toString();
     }
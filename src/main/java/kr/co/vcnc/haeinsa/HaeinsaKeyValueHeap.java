@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Merges multiple {@link HaeinsaKeyValueScanner}s into single sorted stream, like KeyValueHeap of HBase.
+ * <p>
+ * Scanner which has the smallest peeked KeyValue is kept outside of the heap as current scanner.
+ * When current scanner is moved forward, it is compared only with the top of the heap,
+ * and pushed back to the heap only when the top becomes smaller.
+ * Since consecutive KeyValues usually come from same scanner, most calls of {@link #next()} need single comparison.
+ * <p>
+ * Exhausted scanners are dropped from the heap, but not closed. This class is not Thread-safe.
+ */
+class HaeinsaKeyValueHeap {
+    private final Comparator<HaeinsaKeyValueScanner> comparator;
+    private final PriorityQueue<HaeinsaKeyValueScanner> heap;
+    private HaeinsaKeyValueScanner current;
+
+    /**
+     * @param comparator {@link HaeinsaKeyValueScanner#COMPARATOR} or {@link HaeinsaKeyValueScanner#REVERSE_COMPARATOR}
+     * @param initialCapacity expected number of scanners
+     */
+    HaeinsaKeyValueHeap(Comparator<HaeinsaKeyValueScanner> comparator, int initialCapacity) {
+        this.comparator = comparator;
+        this.heap = new PriorityQueue<>(Math.max(1, initialCapacity), comparator);
+    }
+
+    /**
+     * Add scanner to the heap. Scanner which is already exhausted is ignored.
+     */
+    void add(HaeinsaKeyValueScanner scanner) {
+        if (scanner.peek() == null) {
+            return;
+        }
+        if (current == null) {
+            current = scanner;
+        } else if (comparator.compare(scanner, current) < 0) {
+            heap.add(current);
+            current = scanner;
+        } else {
+            heap.add(scanner);
+        }
+    }
+
+    boolean isEmpty() {
+        return current == null;
+    }
+
+    /**
+     * @return scanner which has the smallest peeked KeyValue, null if all scanners are exhausted
+     */
+    HaeinsaKeyValueScanner current() {
+        return current;
+    }
+
+    /**
+     * Move current scanner forward and choose new current scanner.
+     */
+    void next() throws IOException {
+        if (current == null) {
+            return;
+        }
+        current.next();
+        if (current.peek() == null) {
+            current = heap.poll();
+            return;
+        }
+        HaeinsaKeyValueScanner top = heap.peek();
+        if (top != null && comparator.compare(top, current) < 0) {
+            heap.add(current);
+            current = heap.poll();
+        }
+    }
+
+    /**
+     * Return {@link TRowLock} of given row from the scanners which are positioned on the row.
+     * Scanners are visited in the order of {@link #comparator}, and the first non-null lock is returned.
+     *
+     * @return null if there is no TRowLock information of the row inside scanners
+     */
+    TRowLock peekLock(byte[] row) throws IOException {
+        if (current == null || !current.peek().matchingRow(row)) {
+            return null;
+        }
+        TRowLock rowLock = current.peekLock();
+        if (rowLock != null) {
+            return rowLock;
+        }
+        List<HaeinsaKeyValueScanner> candidates = Lists.newArrayList();
+        for (HaeinsaKeyValueScanner scanner : heap) {
+            if (scanner.peek().matchingRow(row)) {
+                candidates.add(scanner);
+            }
+        }
+        Collections.sort(candidates, comparator);
+        for (HaeinsaKeyValueScanner scanner : candidates) {
+            rowLock = scanner.peekLock();
+            if (rowLock != null) {
+                return rowLock;
+            }
+        }
+        return null;
+    }
+}
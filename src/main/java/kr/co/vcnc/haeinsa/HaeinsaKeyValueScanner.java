@@ -20,8 +20,6 @@ import java.util.Comparator;
 
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 
-import com.google.common.collect.ComparisonChain;
-
 /**
  * Scanner wrapper of HaeinsaKeyValue. Contains multiple HaeinsaKeyValue inside
  * to allow iterator pattern.
@@ -37,20 +35,22 @@ public interface HaeinsaKeyValueScanner {
     Comparator<HaeinsaKeyValueScanner> COMPARATOR = new Comparator<HaeinsaKeyValueScanner>() {
         @Override
         public int compare(HaeinsaKeyValueScanner o1, HaeinsaKeyValueScanner o2) {
-            return ComparisonChain.start()
-                    .compare(o1.peek(), o2.peek(), HaeinsaKeyValue.COMPARATOR)
-                    .compare(o1.getSequenceID(), o2.getSequenceID())
-                    .result();
+            int result = HaeinsaKeyValue.COMPARATOR.compare(o1.peek(), o2.peek());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getSequenceID(), o2.getSequenceID());
         }
     };
 
     Comparator<HaeinsaKeyValueScanner> REVERSE_COMPARATOR = new Comparator<HaeinsaKeyValueScanner>() {
         @Override
         public int compare(HaeinsaKeyValueScanner o1, HaeinsaKeyValueScanner o2) {
-            return ComparisonChain.start()
-                    .compare(o1.peek(), o2.peek(), HaeinsaKeyValue.REVERSE_COMPARATOR)
-                    .compare(o1.getSequenceID(), o2.getSequenceID())
-                    .result();
+            int result = HaeinsaKeyValue.REVERSE_COMPARATOR.compare(o1.peek(), o2.peek());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(o1.getSequenceID(), o2.getSequenceID());
         }
     };
 
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.coprocessor.HaeinsaLockEndpoint;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.HaeinsaLockService;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.LockTransition;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.MutateLocksRequest;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.MutateLocksResponse;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto.MutationType;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.ServiceException;
+
+/**
+ * Conditional Put or Delete on a row, which is applied only if lock column of the row has expected value.
+ * Transitions of rows in a table can be applied in batch by {@link HaeinsaLockEndpoint}
+ * with {@link #applyAll(Table, List)}, instead of checkAndPut or checkAndDelete for each row.
+ */
+final class HaeinsaLockTransition {
+    /**
+     * Daemon threads which send transitions to regions in parallel.
+     */
+    private static final ExecutorService APPLY_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("haeinsa-lock-transition-%d").build());
+
+    private final byte[] row;
+    private final byte[] expectedRowLockBytes;
+    private final Mutation mutation;
+    private final TRowLock newRowLock;
+    private final byte[] newRowLockBytes;
+
+    /**
+     * @param expectedRowLockBytes serialized lock of the row, or null if the row should not have lock.
+     * @param mutation {@link Put} or {@link Delete} of the row
+     * @param newRowLock lock of the row after the mutation is applied, or null if the mutation does not change lock.
+     * @param newRowLockBytes serialized newRowLock which is written by the mutation.
+     */
+    HaeinsaLockTransition(byte[] row, @Nullable byte[] expectedRowLockBytes, Mutation mutation,
+            @Nullable TRowLock newRowLock, @Nullable byte[] newRowLockBytes) {
+        Preconditions.checkArgument(mutation instanceof Put || mutation instanceof Delete);
+        this.row = row;
+        this.expectedRowLockBytes = expectedRowLockBytes;
+        this.mutation = mutation;
+        this.newRowLock = newRowLock;
+        this.newRowLockBytes = newRowLockBytes;
+    }
+
+    byte[] getRow() {
+        return row;
+    }
+
+    @Nullable
+    byte[] getExpectedRowLockBytes() {
+        return expectedRowLockBytes;
+    }
+
+    Mutation getMutation() {
+        return mutation;
+    }
+
+    @Nullable
+    TRowLock getNewRowLock() {
+        return newRowLock;
+    }
+
+    @Nullable
+    byte[] getNewRowLockBytes() {
+        return newRowLockBytes;
+    }
+
+    private LockTransition toProto() throws IOException {
+        MutationType type = mutation instanceof Put ? MutationType.PUT : MutationType.DELETE;
+        return LockTransition.newBuilder()
+                .setRow(ByteString.copyFrom(row))
+                .setExpectedLock(ByteString.copyFrom(
+                        expectedRowLockBytes != null ? expectedRowLockBytes : HConstants.EMPTY_BYTE_ARRAY))
+                .addMutations(ProtobufUtil.toMutation(type, mutation).toByteString())
+                .build();
+    }
+
+    /**
+     * Apply transitions with {@link HaeinsaLockEndpoint} of the table, in one RPC for each region of the rows.
+     * Transitions are grouped by region boundaries of the table, and RPCs to regions are sent in parallel.
+     * Each transition is applied atomically, but transitions are not applied atomically together.
+     *
+     * @param transitions transitions sorted by row, at most one transition for each row
+     * @return whether each transition is applied, in order of transitions
+     * @throws IOException if endpoint is not registered to the table, or HBase IOException.
+     * Some of transitions might be applied even if exception is thrown.
+     */
+    static boolean[] applyAll(Table table, List<HaeinsaLockTransition> transitions) throws IOException {
+        List<LockTransition> requests = Lists.newArrayListWithCapacity(transitions.size());
+        for (HaeinsaLockTransition transition : transitions) {
+            requests.add(transition.toProto());
+        }
+        boolean[] applied = new boolean[transitions.size()];
+        List<Integer> groupOffsets = splitByRegions(table, transitions);
+        if (groupOffsets.size() == 1) {
+            applyRange(table, transitions, requests, 0, transitions.size(), applied);
+            return applied;
+        }
+        List<Future<Void>> futures = Lists.newArrayListWithCapacity(groupOffsets.size());
+        for (int i = 0; i < groupOffsets.size(); i++) {
+            int from = groupOffsets.get(i);
+            int to = i + 1 < groupOffsets.size() ? groupOffsets.get(i + 1) : transitions.size();
+            futures.add(APPLY_EXECUTOR.submit(new ApplyRangeTask(table, transitions, requests, from, to, applied)));
+        }
+        // wait for all RPCs before throwing exception, because applied is filled by the tasks.
+        Throwable failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            Throwables.propagateIfPossible(failure, IOException.class);
+            throw new IOException(failure);
+        }
+        return applied;
+    }
+
+    /**
+     * Split transitions on region boundaries of the table.
+     * If region boundaries are not available from the table, all transitions are in one group.
+     *
+     * @return offset of the first transition of each group
+     */
+    private static List<Integer> splitByRegions(Table table, List<HaeinsaLockTransition> transitions)
+            throws IOException {
+        List<Integer> groupOffsets = Lists.newArrayList(0);
+        if (!(table instanceof RegionLocator)) {
+            return groupOffsets;
+        }
+        // start keys are sorted, and start key of the first region is empty.
+        byte[][] startKeys = ((RegionLocator) table).getStartKeys();
+        int regionIndex = 0;
+        for (int i = 0; i < transitions.size(); i++) {
+            byte[] row = transitions.get(i).getRow();
+            int previousRegionIndex = regionIndex;
+            while (regionIndex + 1 < startKeys.length && Bytes.compareTo(startKeys[regionIndex + 1], row) <= 0) {
+                regionIndex++;
+            }
+            if (i > 0 && regionIndex != previousRegionIndex) {
+                groupOffsets.add(i);
+            }
+        }
+        return groupOffsets;
+    }
+
+    /**
+     * Apply transitions in range [from, to) which are expected to be in one region.
+     * If location of the region is stale because the region is split, region of the first remaining row
+     * applies transitions of its rows, and remaining transitions are sent again.
+     */
+    private static void applyRange(Table table, List<HaeinsaLockTransition> transitions, List<LockTransition> requests,
+            int from, int to, boolean[] applied) throws IOException {
+        int offset = from;
+        while (offset < to) {
+            byte[] row = transitions.get(offset).getRow();
+            MutateLocksRequest request = MutateLocksRequest.newBuilder()
+                    .addAllTransitions(requests.subList(offset, to))
+                    .build();
+            MutateLocksResponse response;
+            try {
+                response = HaeinsaLockService.newBlockingStub(table.coprocessorService(row)).mutateLocks(null, request);
+            } catch (ServiceException e) {
+                throw ProtobufUtil.getRemoteException(e);
+            }
+            if (response.getAppliedCount() == 0) {
+                throw new IOException("region doesn't contain row : " + Bytes.toStringBinary(row));
+            }
+            for (int i = 0; i < response.getAppliedCount(); i++) {
+                applied[offset + i] = response.getApplied(i);
+            }
+            offset += response.getAppliedCount();
+        }
+    }
+
+    private static final class ApplyRangeTask implements Callable<Void> {
+        private final Table table;
+        private final List<HaeinsaLockTransition> transitions;
+        private final List<LockTransition> requests;
+        private final int from;
+        private final int to;
+        private final boolean[] applied;
+
+        private ApplyRangeTask(Table table, List<HaeinsaLockTransition> transitions, List<LockTransition> requests,
+                int from, int to, boolean[] applied) {
+            this.table = table;
+            this.transitions = transitions;
+            this.requests = requests;
+            this.from = from;
+            this.to = to;
+            this.applied = applied;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            applyRange(table, transitions, requests, from, to, applied);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TKeyValue;
+import kr.co.vcnc.haeinsa.thrift.generated.TPut;
+import kr.co.vcnc.haeinsa.thrift.generated.TRemove;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Compact buffer of KeyValues of single row, which is used to buffer mutations of the row in the transaction.
+ * <p>
+ * Family, qualifier and value of each KeyValue are appended to single byte array (arena),
+ * and only offsets of entries are kept in int array (index). So buffering a KeyValue does not create any object.
+ * Index is sorted by family, qualifier and type when buffer is read, and if same cell is added multiple times,
+ * only the last one remains. Bytes of overwritten entries remain in the arena until the buffer is discarded.
+ * <p>
+ * Layout of an entry in the arena is type (1 byte), lengths of family, qualifier and value (4 bytes each)
+ * and bytes of them. Length of -1 means null.
+ * <p>
+ * This class is not thread-safe.
+ */
+final class HaeinsaMutationBuffer {
+    private static final int INITIAL_ARENA_SIZE = 256;
+    private static final int INITIAL_INDEX_SIZE = 8;
+    private static final int HEADER_SIZE = 1 + 3 * Bytes.SIZEOF_INT;
+
+    private final byte[] row;
+    private byte[] arena = new byte[INITIAL_ARENA_SIZE];
+    private int arenaSize;
+    private int[] index = new int[INITIAL_INDEX_SIZE];
+    private int size;
+    private boolean sorted = true;
+    // materialized view of the buffer, which is discarded when a cell is added.
+    private NavigableMap<byte[], NavigableSet<HaeinsaKeyValue>> familyMap;
+
+    HaeinsaMutationBuffer(byte[] row) {
+        this.row = row;
+    }
+
+    byte[] getRow() {
+        return row;
+    }
+
+    void add(Type type, @Nullable byte[] family, @Nullable byte[] qualifier, @Nullable byte[] value) {
+        add(type.getCode(), family, 0, lengthOf(family), qualifier, 0, lengthOf(qualifier), value, 0, lengthOf(value));
+    }
+
+    void add(HaeinsaKeyValue kv) {
+        add(kv.getType().getCode(),
+                kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength(),
+                kv.getQualifierArray(), kv.getQualifierOffset(), kv.getQualifierLength(),
+                kv.getValueArray(), kv.getValueOffset(), kv.getValueLength());
+    }
+
+    void addAll(HaeinsaMutationBuffer other) {
+        for (int i = 0; i < other.size(); i++) {
+            int entry = other.index[i];
+            add(other.arena[entry],
+                    other.arena, other.familyOffset(entry), other.familyLength(entry),
+                    other.arena, other.qualifierOffset(entry), other.qualifierLength(entry),
+                    other.arena, other.valueOffset(entry), other.valueLength(entry));
+        }
+    }
+
+    private void add(byte type, byte[] family, int familyOffset, int familyLength,
+                     byte[] qualifier, int qualifierOffset, int qualifierLength,
+                     byte[] value, int valueOffset, int valueLength) {
+        int familySize = family != null ? familyLength : -1;
+        int qualifierSize = qualifier != null ? qualifierLength : -1;
+        int valueSize = value != null ? valueLength : -1;
+        int entry = arenaSize;
+        ensureArenaCapacity(HEADER_SIZE + Math.max(familySize, 0) + Math.max(qualifierSize, 0)
+                + Math.max(valueSize, 0));
+        arena[arenaSize++] = type;
+        arenaSize = Bytes.putInt(arena, arenaSize, familySize);
+        arenaSize = Bytes.putInt(arena, arenaSize, qualifierSize);
+        arenaSize = Bytes.putInt(arena, arenaSize, valueSize);
+        if (familySize > 0) {
+            arenaSize = Bytes.putBytes(arena, arenaSize, family, familyOffset, familySize);
+        }
+        if (qualifierSize > 0) {
+            arenaSize = Bytes.putBytes(arena, arenaSize, qualifier, qualifierOffset, qualifierSize);
+        }
+        if (valueSize > 0) {
+            arenaSize = Bytes.putBytes(arena, arenaSize, value, valueOffset, valueSize);
+        }
+        if (size == index.length) {
+            index = Arrays.copyOf(index, size * 2);
+        }
+        if (sorted && size > 0 && compareEntries(index[size - 1], entry) >= 0) {
+            sorted = false;
+        }
+        index[size++] = entry;
+        familyMap = null;
+    }
+
+    private void ensureArenaCapacity(int length) {
+        if (arenaSize + length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length));
+        }
+    }
+
+    /**
+     * @return number of distinct cells in the buffer
+     */
+    int size() {
+        sort();
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    Type getType(int i) {
+        sort();
+        return Type.codeToType(arena[index[i]]);
+    }
+
+    /**
+     * Create {@link HaeinsaKeyValue} of i-th cell in sorted order. Components are copied from the arena.
+     */
+    HaeinsaKeyValue getKeyValue(int i) {
+        sort();
+        int entry = index[i];
+        return new HaeinsaKeyValue(row,
+                copyOf(familyOffset(entry), familyLength(entry)),
+                copyOf(qualifierOffset(entry), qualifierLength(entry)),
+                copyOf(valueOffset(entry), valueLength(entry)),
+                Type.codeToType(arena[entry]));
+    }
+
+    /**
+     * Return unmodifiable map of { family -> KeyValues } which has copy of every cell in the buffer.
+     * The map is created on first call and reused until a cell is added to the buffer,
+     * so reading the map repeatedly does not copy the arena each time.
+     */
+    NavigableMap<byte[], NavigableSet<HaeinsaKeyValue>> getFamilyMap() {
+        if (familyMap != null) {
+            return familyMap;
+        }
+        NavigableMap<byte[], NavigableSet<HaeinsaKeyValue>> newFamilyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        for (int i = 0; i < size(); i++) {
+            HaeinsaKeyValue kv = getKeyValue(i);
+            NavigableSet<HaeinsaKeyValue> set = newFamilyMap.get(kv.getFamily());
+            if (set == null) {
+                set = Sets.newTreeSet(HaeinsaKeyValue.COMPARATOR);
+                newFamilyMap.put(kv.getFamily(), set);
+            }
+            set.add(kv);
+        }
+        for (Map.Entry<byte[], NavigableSet<HaeinsaKeyValue>> entry : newFamilyMap.entrySet()) {
+            entry.setValue(Collections.unmodifiableNavigableSet(entry.getValue()));
+        }
+        familyMap = Collections.unmodifiableNavigableMap(newFamilyMap);
+        return familyMap;
+    }
+
+    /**
+     * Add every cell in the buffer to HBase put with given timestamp.
+     *
+     * @param cellKeys keys of added cells are added to this collection, ignored if null.
+     */
+    void writeTo(Put put, long timestamp, @Nullable Collection<TCellKey> cellKeys) throws IOException {
+        for (int i = 0; i < size(); i++) {
+            int entry = index[i];
+            int familyLength = Math.max(familyLength(entry), 0);
+            int qualifierLength = Math.max(qualifierLength(entry), 0);
+            int valueLength = Math.max(valueLength(entry), 0);
+            put.add(new KeyValue(row, 0, row.length,
+                    arena, familyOffset(entry), familyLength,
+                    arena, qualifierOffset(entry), qualifierLength,
+                    timestamp, Type.Put,
+                    arena, valueOffset(entry), valueLength));
+            if (cellKeys != null) {
+                cellKeys.add(new TCellKey(wrap(familyOffset(entry), familyLength(entry)),
+                        wrap(qualifierOffset(entry), qualifierLength(entry))));
+            }
+        }
+    }
+
+    TPut toTPut() {
+        TPut put = new TPut();
+        for (int i = 0; i < size(); i++) {
+            int entry = index[i];
+            TCellKey key = new TCellKey(wrap(familyOffset(entry), familyLength(entry)),
+                    wrap(qualifierOffset(entry), qualifierLength(entry)));
+            put.addToValues(new TKeyValue(key, wrap(valueOffset(entry), valueLength(entry))));
+        }
+        return put;
+    }
+
+    TRemove toTRemove() {
+        TRemove remove = new TRemove();
+        for (int i = 0; i < size(); i++) {
+            int entry = index[i];
+            if (arena[entry] == Type.DeleteFamily.getCode()) {
+                // list of binary is not copied by thrift, so copy family from the arena.
+                remove.addToRemoveFamilies(ByteBuffer.wrap(copyOf(familyOffset(entry), familyLength(entry))));
+            } else if (arena[entry] == Type.DeleteColumn.getCode()) {
+                remove.addToRemoveCells(new TCellKey(wrap(familyOffset(entry), familyLength(entry)),
+                        wrap(qualifierOffset(entry), qualifierLength(entry))));
+            }
+        }
+        return remove;
+    }
+
+    /**
+     * Return {@link HaeinsaKeyValueScanner} of the buffer, which creates {@link HaeinsaKeyValue} only for the cell
+     * it is positioned on. Buffer should not be modified while the scanner is used.
+     *
+     * @param sequenceID sequence id represent which Scanner is newer one. Lower id is newer one.
+     */
+    HaeinsaKeyValueScanner getScanner(final long sequenceID) {
+        sort();
+        return new HaeinsaKeyValueScanner() {
+            private int position;
+            private HaeinsaKeyValue current;
+
+            @Override
+            public HaeinsaKeyValue peek() {
+                if (current == null && position < size) {
+                    current = getKeyValue(position);
+                }
+                return current;
+            }
+
+            @Override
+            public HaeinsaKeyValue next() throws IOException {
+                HaeinsaKeyValue result = peek();
+                if (result != null) {
+                    position++;
+                }
+                current = null;
+                return result;
+            }
+
+            @Override
+            public TRowLock peekLock() throws IOException {
+                return null;
+            }
+
+            @Override
+            public long getSequenceID() {
+                return sequenceID;
+            }
+
+            @Override
+            public void close() {}
+        };
+    }
+
+    /**
+     * Sort index by family, qualifier and type, and remove duplicated cells.
+     * Stable sort is used so that the last one of duplicated cells is kept.
+     * DeleteColumn entries of family which has DeleteFamily entry are also removed,
+     * because DeleteFamily overrides them.
+     */
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+        int[] buffer = new int[size];
+        mergeSort(index, buffer, 0, size);
+        int newSize = 0;
+        int deleteFamilyEntry = -1;
+        for (int i = 0; i < size; i++) {
+            int entry = index[i];
+            if (i + 1 < size && compareEntries(entry, index[i + 1]) == 0) {
+                // newer one will come next.
+                continue;
+            }
+            if (arena[entry] == Type.DeleteFamily.getCode()) {
+                deleteFamilyEntry = entry;
+            } else if (arena[entry] == Type.DeleteColumn.getCode() && deleteFamilyEntry >= 0
+                    && compareRange(familyOffset(entry), familyLength(entry),
+                            familyOffset(deleteFamilyEntry), familyLength(deleteFamilyEntry)) == 0) {
+                continue;
+            }
+            index[newSize++] = entry;
+        }
+        size = newSize;
+        sorted = true;
+    }
+
+    private void mergeSort(int[] entries, int[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(entries, buffer, from, middle);
+        mergeSort(entries, buffer, middle, to);
+        if (compareEntries(entries[middle - 1], entries[middle]) <= 0) {
+            // already in order
+            return;
+        }
+        System.arraycopy(entries, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareEntries(buffer[left], buffer[right]) <= 0)) {
+                entries[i] = buffer[left++];
+            } else {
+                entries[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Compare entries in the order of {@link HaeinsaKeyValue#COMPARATOR}. Row is same for every entry.
+     */
+    private int compareEntries(int left, int right) {
+        int result = compareRange(familyOffset(left), familyLength(left), familyOffset(right), familyLength(right));
+        if (result != 0) {
+            return result;
+        }
+        result = compareRange(qualifierOffset(left), qualifierLength(left),
+                qualifierOffset(right), qualifierLength(right));
+        if (result != 0) {
+            return result;
+        }
+        // type with bigger code comes first, like KeyValue of HBase.
+        return Integer.compare(arena[right] & 0xFF, arena[left] & 0xFF);
+    }
+
+    /**
+     * Compare ranges of the arena, where negative length means null which is the smallest.
+     */
+    private int compareRange(int leftOffset, int leftLength, int rightOffset, int rightLength) {
+        if (leftLength < 0 || rightLength < 0) {
+            return Integer.compare(leftLength < 0 ? 0 : 1, rightLength < 0 ? 0 : 1);
+        }
+        return Bytes.compareTo(arena, leftOffset, leftLength, arena, rightOffset, rightLength);
+    }
+
+    private int familyLength(int entry) {
+        return Bytes.toInt(arena, entry + 1);
+    }
+
+    private int qualifierLength(int entry) {
+        return Bytes.toInt(arena, entry + 1 + Bytes.SIZEOF_INT);
+    }
+
+    private int valueLength(int entry) {
+        return Bytes.toInt(arena, entry + 1 + 2 * Bytes.SIZEOF_INT);
+    }
+
+    private int familyOffset(int entry) {
+        return entry + HEADER_SIZE;
+    }
+
+    private int qualifierOffset(int entry) {
+        return familyOffset(entry) + Math.max(familyLength(entry), 0);
+    }
+
+    private int valueOffset(int entry) {
+        return qualifierOffset(entry) + Math.max(qualifierLength(entry), 0);
+    }
+
+    @Nullable
+    private byte[] copyOf(int offset, int length) {
+        return length >= 0 ? Arrays.copyOfRange(arena, offset, offset + length) : null;
+    }
+
+    /**
+     * Wrap range of the arena. Thrift copies the content of ByteBuffer when it is set to field of struct,
+     * so the result should be used only as argument of constructors or setters of thrift structs.
+     */
+    @Nullable
+    private ByteBuffer wrap(int offset, int length) {
+        return length >= 0 ? ByteBuffer.wrap(arena, offset, length) : null;
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+}
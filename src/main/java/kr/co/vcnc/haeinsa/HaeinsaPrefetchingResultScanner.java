@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link ResultScanner} which reads results of underlying scanner in background.
+ * Up to prefetch results are buffered in bounded queue, so that consumer can process current results
+ * while next batch of the scanner is fetched from HBase.
+ * <p>
+ * Underlying scanner is only accessed by the background task, and closed by the task when it is exhausted,
+ * failed, or this scanner is closed. Exception of the underlying scanner is rethrown to the consumer
+ * after results fetched before the exception are consumed.
+ * This class is used by {@link HaeinsaTable} when {@link HaeinsaScan#setPrefetch(int)} is set.
+ */
+class HaeinsaPrefetchingResultScanner implements ResultScanner {
+    /**
+     * Daemon threads shared by all prefetching scanners. Threads are created on demand,
+     * because each task blocks while its queue is full.
+     */
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("haeinsa-scan-prefetch-%d").build());
+    /**
+     * Interval to check whether the scanner is closed while the queue is full.
+     */
+    private static final long OFFER_INTERVAL_MS = 100;
+    private static final Object END_OF_SCAN = new Object();
+
+    private final ResultScanner scanner;
+    private final BlockingQueue<Object> queue;
+    private volatile boolean closed;
+    private boolean exhausted;
+
+    /**
+     * @param scanner underlying scanner, which is owned by this scanner after construction
+     * @param prefetch maximum number of results buffered ahead of the consumer
+     */
+    HaeinsaPrefetchingResultScanner(ResultScanner scanner, int prefetch) {
+        Preconditions.checkArgument(prefetch > 0, "prefetch should be positive.");
+        this.scanner = scanner;
+        // one more slot for END_OF_SCAN or failure.
+        this.queue = new ArrayBlockingQueue<>(prefetch + 1);
+        PREFETCH_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetch();
+            }
+        });
+    }
+
+    private void prefetch() {
+        try {
+            while (!closed) {
+                Result result = scanner.next();
+                if (result == null) {
+                    enqueue(END_OF_SCAN);
+                    return;
+                }
+                if (!enqueue(result)) {
+                    return;
+                }
+            }
+        } catch (Throwable t) {
+            enqueue(new Failure(t));
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * @return false if this scanner is closed before the item is enqueued
+     */
+    private boolean enqueue(Object item) {
+        try {
+            while (!queue.offer(item, OFFER_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public Result next() throws IOException {
+        if (exhausted || closed) {
+            return null;
+        }
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for prefetched result.");
+        }
+        if (item instanceof Result) {
+            return (Result) item;
+        }
+        exhausted = true;
+        if (item instanceof Failure) {
+            Throwable cause = ((Failure) item).cause;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+        return null;
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+        List<Result> results = Lists.newArrayListWithCapacity(nbRows);
+        for (int i = 0; i < nbRows; i++) {
+            Result result = next();
+            if (result == null) {
+                break;
+            }
+            results.add(result);
+        }
+        return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // wake up background task blocked on full queue.
+        queue.clear();
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return new Iterator<Result>() {
+            private Result next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = HaeinsaPrefetchingResultScanner.this.next();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Result result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static final class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -15,9 +15,13 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.NavigableSet;
 
+import javax.annotation.Nullable;
+
 import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TKeyValue;
 import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
@@ -56,7 +60,10 @@ public class HaeinsaPut extends HaeinsaMutation {
         this(putToCopy.getRow());
         this.familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
         for (Map.Entry<byte[], NavigableSet<HaeinsaKeyValue>> entry : putToCopy.getFamilyMap().entrySet()) {
-            this.familyMap.put(entry.getKey(), entry.getValue());
+            // sets are copied, because sets of buffered put are unmodifiable.
+            NavigableSet<HaeinsaKeyValue> set = Sets.newTreeSet(HaeinsaKeyValue.COMPARATOR);
+            set.addAll(entry.getValue());
+            this.familyMap.put(entry.getKey(), set);
         }
     }
 
@@ -75,9 +82,7 @@ public class HaeinsaPut extends HaeinsaMutation {
         // replace previous HaeinsaKeyValue with new one.
         // Manually remove old one and substitute with new one
         // because comparator of set only compare family and qualifier.
-        if (set.contains(kv)) {
-            set.remove(kv);
-        }
+        set.remove(kv);
         set.add(kv);
         familyMap.put(kv.getFamily(), set);
         return this;
@@ -121,6 +126,20 @@ public class HaeinsaPut extends HaeinsaMutation {
         }
     }
 
+    /**
+     * Add all KeyValues of this put to HBase put with given timestamp.
+     *
+     * @param cellKeys keys of added cells are added to this collection, ignored if null.
+     */
+    void writeTo(Put put, long timestamp, @Nullable Collection<TCellKey> cellKeys) throws IOException {
+        for (HaeinsaKeyValue kv : Iterables.concat(familyMap.values())) {
+            put.add(kv.getFamily(), kv.getQualifier(), timestamp, kv.getValue());
+            if (cellKeys != null) {
+                cellKeys.add(new TCellKey().setFamily(kv.getFamily()).setQualifier(kv.getQualifier()));
+            }
+        }
+    }
+
     @Override
     public TMutation toTMutation() {
         TMutation newTMutation = new TMutation();
@@ -17,24 +17,32 @@ package kr.co.vcnc.haeinsa;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.NavigableMap;
 
-import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
 
-import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
  * Modified POJO container of {@link Result} class in HBase. Link {@link Result}
  * , can contain multiple {@link HaeinsaKeyValue}. All HaeinsaKeyValue in
  * HaeinsaResult are from same row.
+ * <p>
+ * HaeinsaKeyValues are kept in random access list sorted by {@link HaeinsaKeyValue#COMPARATOR},
+ * so lookup of single column is binary search over backing arrays of the KeyValues,
+ * which does not allocate any object. This makes lookups on wide rows with thousands of
+ * qualifiers cheap. Family level views such as {@link #getFamilyMap(byte[])} are created on each call.
  */
 public class HaeinsaResult {
     private final List<HaeinsaKeyValue> sortedKVs;
     private byte[] row;
 
     /**
-     * Construct HaeinsaResult from Result
+     * Construct HaeinsaResult from Result.
+     * {@link HaeinsaKeyValue}s of the result wrap cells of the result without copying.
      *
      * @param result HBase's result
      */
@@ -43,15 +51,13 @@ public class HaeinsaResult {
             List<HaeinsaKeyValue> emptyList = Collections.emptyList();
             this.sortedKVs = emptyList;
         } else {
-            List<HaeinsaKeyValue> transformed = Lists.transform(
-                    result.list(),
-                    new Function<KeyValue, HaeinsaKeyValue>() {
-                        @Override
-                        public HaeinsaKeyValue apply(KeyValue kv) {
-                            return new HaeinsaKeyValue(kv);
-                        }
-                    });
-            this.sortedKVs = transformed;
+            Cell[] cells = result.rawCells();
+            List<HaeinsaKeyValue> kvs = Lists.newArrayListWithCapacity(cells.length);
+            for (Cell cell : cells) {
+                kvs.add(new HaeinsaKeyValue(cell));
+            }
+            this.sortedKVs = kvs;
+            this.row = result.getRow();
         }
     }
 
@@ -60,6 +66,7 @@ public class HaeinsaResult {
      *
      * @param sortedKVs - Assumed that {@link HaeinsaKeyValue}s in sortedKVs
      * have same row with first element and sorted in ascending order.
+     * List should support fast random access.
      */
     public HaeinsaResult(List<HaeinsaKeyValue> sortedKVs) {
         this.sortedKVs = sortedKVs;
@@ -77,29 +84,96 @@ public class HaeinsaResult {
     }
 
     public byte[] getValue(byte[] family, byte[] qualifier) {
-        // pos === ( -(insertion point) - 1)
-        int pos = Collections.binarySearch(sortedKVs,
-                new HaeinsaKeyValue(row, family, qualifier, null, KeyValue.Type.Maximum), HaeinsaKeyValue.COMPARATOR);
-        // never will exact match
-        if (pos < 0) {
-            pos = (pos + 1) * -1;
-            // pos is now insertion point
-        }
+        HaeinsaKeyValue kv = getColumnLatest(family, qualifier);
+        return kv != null ? kv.getValue() : null;
+    }
+
+    /**
+     * @return HaeinsaKeyValue of given column, null if there is no such column in this result
+     */
+    public HaeinsaKeyValue getColumnLatest(byte[] family, byte[] qualifier) {
+        int pos = lowerBound(family, qualifier);
         if (pos == sortedKVs.size()) {
             return null;
         }
         HaeinsaKeyValue kv = sortedKVs.get(pos);
         if (kv.matchingColumn(family, qualifier)) {
-            return kv.getValue();
+            return kv;
         }
         return null;
     }
 
     public boolean containsColumn(byte[] family, byte[] qualifier) {
-        return getValue(family, qualifier) != null;
+        return getColumnLatest(family, qualifier) != null;
+    }
+
+    /**
+     * Map of qualifiers to values of given family.
+     *
+     * @return new map, or empty map if there is no column of the family
+     */
+    public NavigableMap<byte[], byte[]> getFamilyMap(byte[] family) {
+        NavigableMap<byte[], byte[]> familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        // null qualifier is smaller than any qualifier of the family.
+        for (int i = lowerBound(family, null); i < sortedKVs.size(); i++) {
+            HaeinsaKeyValue kv = sortedKVs.get(i);
+            if (!kv.matchingFamily(family)) {
+                break;
+            }
+            if (!familyMap.containsKey(kv.getQualifier())) {
+                familyMap.put(kv.getQualifier(), kv.getValue());
+            }
+        }
+        return familyMap;
+    }
+
+    /**
+     * Map of families to qualifiers to values, like {@link Result#getNoVersionMap()}.
+     *
+     * @return new map, or empty map if this result is empty
+     */
+    public NavigableMap<byte[], NavigableMap<byte[], byte[]>> getNoVersionMap() {
+        NavigableMap<byte[], NavigableMap<byte[], byte[]>> noVersionMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        NavigableMap<byte[], byte[]> familyMap = null;
+        HaeinsaKeyValue familyKV = null;
+        for (HaeinsaKeyValue kv : sortedKVs) {
+            if (familyKV == null || !kv.matchingFamily(familyKV.getFamily())) {
+                familyKV = kv;
+                familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+                noVersionMap.put(kv.getFamily(), familyMap);
+            }
+            if (!familyMap.containsKey(kv.getQualifier())) {
+                familyMap.put(kv.getQualifier(), kv.getValue());
+            }
+        }
+        return noVersionMap;
     }
 
     public boolean isEmpty() {
         return sortedKVs.size() == 0;
     }
+
+    public int size() {
+        return sortedKVs.size();
+    }
+
+    /**
+     * Binary search which returns index of the first HaeinsaKeyValue whose column is not smaller
+     * than given column. Because all HaeinsaKeyValues are in same row, row is not compared.
+     *
+     * @return index of the first HaeinsaKeyValue of the column or after it, size of the list if there is none
+     */
+    private int lowerBound(byte[] family, byte[] qualifier) {
+        int low = 0;
+        int high = sortedKVs.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedKVs.get(mid).compareColumnTo(family, qualifier) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 }
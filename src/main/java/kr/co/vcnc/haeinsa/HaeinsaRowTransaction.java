@@ -15,11 +15,19 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 
+import javax.annotation.Nullable;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /*************************START NEUTRONIC ADDITION*****************
  * 1) Class package-private access modifier changed to public
@@ -32,11 +40,16 @@ import com.google.common.collect.Lists;
 public class HaeinsaRowTransaction {
     // current RowLock saved in HBase. null if there is no lock at all.
     private TRowLock current;
+    // bytes of current RowLock as saved in HBase, null if the bytes are same as serialized current RowLock.
+    private byte[] currentBytes;
     // mutations will be saved in order of executions.
     // If this rowTransaction is created during recovering failed transaction by other client,
     // following mutations variable is empty.
     private final List<HaeinsaMutation> mutations = Lists.newArrayList();
     private final HaeinsaTableTransaction tableTransaction;
+    // payloads of mutations which are stored out of TRowLock by prewrite of this client,
+    // keyed by qualifier in lock column family.
+    private final Map<ByteBuffer, TMutation> outOfLineMutations = Maps.newHashMap();
 
     HaeinsaRowTransaction(HaeinsaTableTransaction tableTransaction) {
         this.tableTransaction = tableTransaction;
@@ -47,7 +60,30 @@ public class HaeinsaRowTransaction {
     }
 
     public void setCurrent(TRowLock current) {
+        setCurrent(current, null);
+    }
+
+    /**
+     * Set current RowLock with its bytes saved in HBase.
+     * Bytes of compressed RowLock can't be made again from RowLock,
+     * so the bytes should be given to be used as expected value of checkAndPut.
+     *
+     * @param currentBytes bytes of current RowLock in HBase, or null if RowLock is not compressed.
+     */
+    void setCurrent(TRowLock current, @Nullable byte[] currentBytes) {
         this.current = current;
+        this.currentBytes = currentBytes;
+    }
+
+    /**
+     * @return bytes of current RowLock saved in HBase, which can be used as expected value of checkAndPut.
+     */
+    @Nullable
+    byte[] getCurrentBytes() throws IOException {
+        if (currentBytes != null) {
+            return currentBytes;
+        }
+        return TRowLocks.serialize(current);
     }
 
     public List<HaeinsaMutation> getMutations() {
@@ -65,17 +101,32 @@ public class HaeinsaRowTransaction {
         return 1;
     }
 
+    /**
+     * Merge the mutation to the last mutation of the row if they are same kind (Put or Delete),
+     * add new mutation otherwise.
+     * Mutations are buffered in {@link HaeinsaBufferedPut} or {@link HaeinsaBufferedDelete},
+     * so given mutation is copied and is not modified by following mutations.
+     */
     public void addMutation(HaeinsaMutation mutation) {
-        if (mutations.size() <= 0) {
-            mutations.add(mutation);
-        } else {
-            HaeinsaMutation lastMutation = mutations.get(mutations.size() - 1);
-            if (lastMutation.getClass() != mutation.getClass()) {
-                mutations.add(mutation);
-            } else {
-                lastMutation.add(mutation);
-            }
+        HaeinsaMutation lastMutation = mutations.size() > 0 ? mutations.get(mutations.size() - 1) : null;
+        boolean isPut = mutation instanceof HaeinsaPut;
+        if (lastMutation == null || (lastMutation instanceof HaeinsaPut) != isPut) {
+            lastMutation = isPut ? new HaeinsaBufferedPut(mutation.getRow()) : new HaeinsaBufferedDelete(mutation.getRow());
+            mutations.add(lastMutation);
         }
+        lastMutation.add(mutation);
+    }
+
+    void putOutOfLineMutation(byte[] qualifier, TMutation mutation) {
+        outOfLineMutations.put(ByteBuffer.wrap(qualifier), mutation);
+    }
+
+    /**
+     * @return payload of mutation stored out of TRowLock by this client, or null if not known.
+     */
+    @Nullable
+    TMutation getOutOfLineMutation(byte[] qualifier) {
+        return outOfLineMutations.get(ByteBuffer.wrap(qualifier));
     }
 
     public HaeinsaTableTransaction getTableTransaction() {
@@ -15,10 +15,13 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.IncompatibleFilterException;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import java.io.IOException;
@@ -31,17 +34,20 @@ import java.util.TreeSet;
  * used to retrieve range of row with specific family or (family, qualifier)
  * pairs.
  * <p>
- * HaeinsaScan do not support to set batch value, but only support caching. So
- * if user only specify column family and retrieve data from HBase,
- * {@link HaeinsaResultScanner} will return whole column family of the row at
- * one time.
+ * HaeinsaScan supports both caching and batch. If batch is not set,
+ * {@link HaeinsaResultScanner} returns whole row at one time. If batch is set,
+ * wide row is returned by multiple {@link HaeinsaResult}s of the same row which
+ * contain at most batch columns, so that the row is never held in memory as a whole.
  */
-// TODO: Setting batch size will be supported in future....?
 public class HaeinsaScan extends HaeinsaQuery {
     private byte[] startRow = HConstants.EMPTY_START_ROW;
     private byte[] stopRow = HConstants.EMPTY_END_ROW;
     private boolean reversed = false;
     private int caching = -1;
+    private int batch = -1;
+    private int prefetch = 0;
+    private boolean parallel = false;
+    private Filter filter;
 
     // { family -> qualifier }
     private Map<byte[], NavigableSet<byte[]>> familyMap = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
@@ -87,6 +93,10 @@ public class HaeinsaScan extends HaeinsaQuery {
         startRow = scan.getStartRow();
         stopRow = scan.getStopRow();
         caching = scan.getCaching();
+        batch = scan.getBatch();
+        prefetch = scan.getPrefetch();
+        parallel = scan.isParallel();
+        filter = scan.getFilter();
         cacheBlocks = scan.getCacheBlocks();
         reversed = scan.isReversed();
         Map<byte[], NavigableSet<byte[]>> fams = scan.getFamilyMap();
@@ -170,6 +180,113 @@ public class HaeinsaScan extends HaeinsaQuery {
         this.caching = caching;
     }
 
+    /**
+     * Set the maximum number of columns to return for each call to next().
+     * Columns of a row are merged with mutations buffered in the transaction before they are split by batch,
+     * so each {@link HaeinsaResult} contains at most batch columns of the row as seen by the transaction.
+     * Lock of the row is still checked once when the first part of the row is read.
+     * <p>
+     * Like {@link Scan#setBatch(int)}, batch can't be used with filter which filters whole row
+     * by {@link Filter#filterRow()}.
+     *
+     * @param batch the maximum number of columns, or -1 to return whole row at once
+     * @return this
+     * @throws IncompatibleFilterException if filter of this scan has filterRow
+     */
+    public HaeinsaScan setBatch(int batch) {
+        if (batch > 0 && filter != null && filter.hasFilterRow()) {
+            throw new IncompatibleFilterException("Cannot set batch on a scan using a filter"
+                    + " that returns true for filter.hasFilterRow");
+        }
+        this.batch = batch;
+        return this;
+    }
+
+    /**
+     * @return the maximum number of columns returned for each call to next(), -1 if not set
+     */
+    public int getBatch() {
+        return batch;
+    }
+
+    /**
+     * Set the number of results which are read from HBase in background, ahead of the consumer.
+     * If set, a background task keeps up to prefetch results of the underlying HBase scanner buffered,
+     * so that lock checks and merge with mutations of the transaction overlap with RPCs to HBase.
+     * Prefetch should be at least as large as caching to overlap whole RPC.
+     * Zero, which is default, disables prefetch.
+     *
+     * @param prefetch the number of results to buffer
+     * @return this
+     */
+    public HaeinsaScan setPrefetch(int prefetch) {
+        Preconditions.checkArgument(prefetch >= 0, "prefetch should not be negative.");
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * @return the number of results read ahead in background, zero if prefetch is disabled
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Set whether this scan reads regions of the table concurrently.
+     * <p>
+     * If set, range of the scan is split on region boundaries, and each split is read by its own
+     * prefetching scanner in background. Results of the splits are merged back into row order,
+     * and rows are checked and registered to the transaction like normal scan.
+     * Each split buffers {@link #getPrefetch()} results, or default number of results if prefetch is not set.
+     * Parallel scan can't be reversed, and is ignored when the scan is used without transaction.
+     *
+     * @param parallel if true, regions are scanned concurrently
+     * @return this
+     */
+    public HaeinsaScan setParallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
+    }
+
+    /**
+     * @return true if regions are scanned concurrently
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Apply the specified server-side filter when performing the scan.
+     * <p>
+     * Inside transaction, the filter is combined with a clause which always passes the lock column,
+     * so that HBase filters out cells of the rows before they are sent to the client,
+     * while lock of each row is still checked by the transaction. The filter is applied again on the client
+     * to the rows merged with mutations buffered in the transaction, so the result reflects writes of the transaction.
+     * Row level decision of the filter is made only on the client, because the lock column always passes on HBase.
+     * Filter which transforms cells, such as {@link org.apache.hadoop.hbase.filter.KeyOnlyFilter},
+     * can't be used inside transaction because it also transforms the lock column.
+     *
+     * @param filter filter to run on the server, null to remove filter
+     * @return this
+     * @throws IncompatibleFilterException if batch is set and filter has filterRow
+     */
+    public HaeinsaScan setFilter(Filter filter) {
+        if (batch > 0 && filter != null && filter.hasFilterRow()) {
+            throw new IncompatibleFilterException("Cannot set filter that returns true for filter.hasFilterRow"
+                    + " on a scan using batch");
+        }
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @return filter of this scan, null if not set
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
     /**
      * Setting the familyMap
      *
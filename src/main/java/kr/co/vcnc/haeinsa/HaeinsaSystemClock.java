@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+/**
+ * {@link HaeinsaTimestampSource} which uses wall clock of local machine, {@link System#currentTimeMillis()}.
+ * Observed timestamps are ignored, so {@link #currentTimestamp()} can be smaller than them.
+ * This is default timestamp source of {@link HaeinsaTransactionManager}, and works same as previous releases.
+ */
+public final class HaeinsaSystemClock implements HaeinsaTimestampSource {
+    public static final HaeinsaSystemClock INSTANCE = new HaeinsaSystemClock();
+
+    private HaeinsaSystemClock() {}
+
+    @Override
+    public long currentTimestamp() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        // Haeinsa transaction makes timestamps larger than commit timestamps of rows by itself.
+    }
+
+    @Override
+    public boolean isExpired(long expiry) {
+        return expiry < System.currentTimeMillis();
+    }
+}
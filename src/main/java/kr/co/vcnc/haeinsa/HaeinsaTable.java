@@ -17,8 +17,10 @@ package kr.co.vcnc.haeinsa;
 
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.MUTATION_QUALIFIER_PREFIX;
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.RECOVER_MAX_RETRY_COUNT;
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.ROW_LOCK_VERSION;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.SECONDARIES_QUALIFIER_PREFIX;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -29,7 +31,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
-import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -51,22 +52,23 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.Type;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
-import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 
 /**
  * Implementation of {@link HaeinsaTableIface}. It works with
@@ -74,15 +76,24 @@ import com.google.common.collect.Sets;
  */
 public class HaeinsaTable implements HaeinsaTableIfaceInternal {
     private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaTable.class);
-    private final HTableInterface table;
+    /**
+     * Number of results buffered by scanner of each split in parallel scan, if prefetch of the scan is not set.
+     */
+    private static final int DEFAULT_PARALLEL_PREFETCH = 100;
+    private final Table table;
 
-    public HaeinsaTable(HTableInterface table) {
+    /**
+     * @param table HBase table, such as {@link org.apache.hadoop.hbase.client.HTableInterface} created by
+     * {@link org.apache.hadoop.hbase.client.HTableFactory} or {@link Table} from
+     * {@link org.apache.hadoop.hbase.client.Connection#getTable(org.apache.hadoop.hbase.TableName)}.
+     */
+    public HaeinsaTable(Table table) {
         this.table = table;
     }
 
     @Override
     public byte[] getTableName() {
-        return table.getTableName();
+        return table.getName().getName();
     }
 
     @Override
@@ -111,6 +122,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 }
             }
         }
+        hGet.setFilter(get.getFilter());
         Result result = table.get(hGet);
         return new HaeinsaResult(result);
     }
@@ -121,9 +133,12 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         if (tx == null) {
             return getWithoutTx(get);
         }
+        if (tx.getIsolationLevel() == HaeinsaIsolationLevel.SNAPSHOT) {
+            return getSnapshot(tx, get);
+        }
 
         byte[] row = get.getRow();
-        HaeinsaTableTransaction tableState = tx.createOrGetTableState(this.table.getTableName());
+        HaeinsaTableTransaction tableState = tx.createOrGetTableState(getTableName());
         HaeinsaRowTransaction rowState = tableState.getRowStates().get(row);
         boolean lockInclusive = false;
         Get hGet = new Get(get.getRow());
@@ -145,6 +160,11 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             }
             lockInclusive = true;
         }
+        Filter clientFilter = null;
+        if (get.getFilter() != null) {
+            hGet.setFilter(HaeinsaFilters.withLockColumn(get.getFilter()));
+            clientFilter = HaeinsaFilters.copy(get.getFilter());
+        }
 
         Result result = table.get(hGet);
         List<HaeinsaKeyValueScanner> scanners = Lists.newArrayList();
@@ -156,7 +176,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         HaeinsaResult hResult = null;
         // Scanners at this moment is:
         // union( muationScanners from RowTransaction, Scanner of get)
-        try (ClientScanner scanner = new ClientScanner(tx, scanners, get.getFamilyMap(), lockInclusive, false)) {
+        try (ClientScanner scanner = new ClientScanner(tx, scanners, get.getFamilyMap(), clientFilter, -1, lockInclusive, false)) {
             hResult = scanner.next();
         }
         if (hResult == null) {
@@ -177,6 +197,120 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         return hResult;
     }
 
+    /**
+     * Get data of the row in the context of transaction in {@link HaeinsaIsolationLevel#SNAPSHOT}.
+     * The row is read with time range of [0, snapshotTimestamp) with its lock.
+     * If the lock is not stable, the row is read again with the time range from
+     * {@link #getSnapshotBound(HaeinsaTransaction, byte[], TRowLock)}.
+     * <p>
+     * Rows which are only read are not tracked by rowStates, because nothing is checked for them on commit.
+     * Mutations of the row in the transaction are projected to the result, if there are any.
+     */
+    private HaeinsaResult getSnapshot(HaeinsaTransaction tx, HaeinsaGet get) throws IOException {
+        Get hGet = new Get(get.getRow());
+        hGet.setCacheBlocks(get.getCacheBlocks());
+        for (Entry<byte[], NavigableSet<byte[]>> entry : get.getFamilyMap().entrySet()) {
+            if (entry.getValue() == null) {
+                hGet.addFamily(entry.getKey());
+            } else {
+                for (byte[] qualifier : entry.getValue()) {
+                    hGet.addColumn(entry.getKey(), qualifier);
+                }
+            }
+        }
+        if (hGet.hasFamilies()) {
+            hGet.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
+        }
+        Filter clientFilter = null;
+        if (get.getFilter() != null) {
+            hGet.setFilter(HaeinsaFilters.withLockColumn(get.getFilter()));
+            clientFilter = HaeinsaFilters.copy(get.getFilter());
+        }
+        hGet.setTimeRange(0, tx.getSnapshotTimestamp());
+
+        Result result = table.get(hGet);
+        byte[] rowLockBytes = result.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+        if (rowLockBytes != null) {
+            TRowLock rowLock = TRowLocks.deserialize(rowLockBytes);
+            if (rowLock.getState() != TRowLockState.STABLE) {
+                hGet.setTimeRange(0, getSnapshotBound(tx, get.getRow(), rowLock));
+                result = table.get(hGet);
+            }
+        }
+
+        List<HaeinsaKeyValueScanner> scanners = Lists.newArrayList();
+        HaeinsaRowTransaction rowState = tx.createOrGetTableState(getTableName()).getRowStates().get(get.getRow());
+        if (rowState != null) {
+            scanners.addAll(rowState.getScanners());
+        }
+        scanners.add(new HBaseGetScanner(result, Long.MAX_VALUE));
+        HaeinsaResult hResult = null;
+        try (ClientScanner scanner = new ClientScanner(tx, scanners, get.getFamilyMap(), clientFilter, -1, false, false)) {
+            hResult = scanner.next();
+        }
+        if (hResult == null) {
+            List<HaeinsaKeyValue> emptyList = Collections.emptyList();
+            hResult = new HaeinsaResult(emptyList);
+        }
+        return hResult;
+    }
+
+    /**
+     * Get upper bound (exclusive) of time range to read the row in the context of snapshot read transaction.
+     * <p>
+     * Data written by a transaction have timestamps between its prewriteTimestamp and commitTimestamp.
+     * If transaction of the lock commits on or after snapshot timestamp, it should not be visible to the snapshot,
+     * so return prewriteTimestamp of the lock to read data written before the transaction.
+     * If transaction of the lock commits before snapshot timestamp, it should be visible when it is committed.
+     * So recover the transaction by {@link #recover(HaeinsaTransaction, byte[])} like other transactions,
+     * and check the lock again.
+     *
+     * @param rowLock newest lock of the row written before snapshot timestamp, null if there is no such lock.
+     * @return snapshot timestamp if lock is stable, otherwise prewriteTimestamp of the lock.
+     * @throws IOException ConflictException, HBase IOException
+     */
+    private long getSnapshotBound(HaeinsaTransaction tx, byte[] row, @Nullable TRowLock rowLock)
+            throws IOException {
+        long snapshotTimestamp = tx.getSnapshotTimestamp();
+        int recoverCount = 0;
+        while (true) {
+            if (rowLock == null || rowLock.getState() == TRowLockState.STABLE) {
+                return snapshotTimestamp;
+            }
+            if (rowLock.getCommitTimestamp() >= snapshotTimestamp) {
+                return rowLock.isSetPrewriteTimestamp() ? rowLock.getPrewriteTimestamp() : rowLock.getCurrentTimestamp();
+            }
+            if (recoverCount > RECOVER_MAX_RETRY_COUNT) {
+                throw new ConflictException("recover retry count is exceeded.");
+            }
+            try {
+                if (checkAndIsShouldRecover(tx, rowLock)) {
+                    recover(tx, row);
+                }
+            } catch (NotExpiredYetException e) {
+                if (recoverCount >= RECOVER_MAX_RETRY_COUNT) {
+                    throw e;
+                }
+            }
+            recoverCount++;
+            rowLock = getRowLockBefore(row, snapshotTimestamp);
+        }
+    }
+
+    /**
+     * Get newest {@link TRowLock} of the row which is written before given timestamp.
+     *
+     * @return null if there is no lock written before the timestamp.
+     */
+    @Nullable
+    private TRowLock getRowLockBefore(byte[] row, long timestamp) throws IOException {
+        Get get = new Get(row);
+        get.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
+        get.setTimeRange(0, timestamp);
+        byte[] rowLockBytes = table.get(get).getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+        return rowLockBytes != null ? TRowLocks.deserialize(rowLockBytes) : null;
+    }
+
     @Override
     public HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, byte[] family) throws IOException {
         Preconditions.checkNotNull(family);
@@ -209,6 +343,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
     @Override
     public HaeinsaResultScanner getScanner(@Nullable HaeinsaTransaction tx, HaeinsaScan scan) throws IOException {
         Preconditions.checkNotNull(scan);
+        Preconditions.checkArgument(!(scan.isParallel() && scan.isReversed()), "Parallel scan can't be reversed.");
         if (tx == null) {
             return getScannerWithoutTx(scan);
         }
@@ -217,6 +352,8 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         hScan.setCaching(scan.getCaching());
         hScan.setCacheBlocks(scan.getCacheBlocks());
         hScan.setReversed(scan.isReversed());
+        // lock column is in the first part of the row, because lock family is the smallest family.
+        hScan.setBatch(scan.getBatch());
 
         for (Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
             if (entry.getValue() == null) {
@@ -230,6 +367,13 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         if (hScan.hasFamilies()) {
             hScan.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
         }
+        if (scan.getFilter() != null) {
+            hScan.setFilter(HaeinsaFilters.withLockColumn(scan.getFilter()));
+        }
+        if (tx.getIsolationLevel() == HaeinsaIsolationLevel.SNAPSHOT) {
+            // ClientScanner reads unstable rows again, see getSnapshotBound().
+            hScan.setTimeRange(0, tx.getSnapshotTimestamp());
+        }
 
         HaeinsaTableTransaction tableState = tx.createOrGetTableState(getTableName());
         NavigableMap<byte[], HaeinsaRowTransaction> rows;
@@ -260,11 +404,21 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         for (HaeinsaRowTransaction rowTx : rows.values()) {
             scanners.addAll(rowTx.getScanners());
         }
-        scanners.add(new HBaseScanScanner(table.getScanner(hScan)));
+        if (scan.isParallel()) {
+            // splits do not overlap, so scanners of splits never have same row.
+            int prefetch = scan.getPrefetch() > 0 ? scan.getPrefetch() : DEFAULT_PARALLEL_PREFETCH;
+            for (Scan split : splitByRegions(hScan)) {
+                scanners.add(new HBaseScanScanner(getResultScanner(split, prefetch)));
+            }
+        } else {
+            scanners.add(new HBaseScanScanner(getResultScanner(hScan, scan.getPrefetch())));
+        }
 
         // Scanners at this moment is:
-        // union( muationScanners from all RowTransactions, Scanner of scan )
-        return new ClientScanner(tx, scanners, scan.getFamilyMap(), true, scan.isReversed());
+        // union( muationScanners from all RowTransactions, Scanner(s) of scan )
+        Filter clientFilter = scan.getFilter() != null ? HaeinsaFilters.copy(scan.getFilter()) : null;
+        return new ClientScanner(tx, scanners, scan.getFamilyMap(), clientFilter, scan.getBatch(), true,
+                scan.isReversed());
     }
 
     /**
@@ -278,6 +432,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         Scan hScan = new Scan(scan.getStartRow(), scan.getStopRow());
         hScan.setCaching(scan.getCaching());
         hScan.setCacheBlocks(scan.getCacheBlocks());
+        hScan.setBatch(scan.getBatch());
 
         for (Entry<byte[], NavigableSet<byte[]>> entry : scan.getFamilyMap().entrySet()) {
             if (entry.getValue() == null) {
@@ -288,10 +443,49 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 }
             }
         }
-        final ResultScanner scanner = table.getScanner(hScan);
+        hScan.setFilter(scan.getFilter());
+        final ResultScanner scanner = getResultScanner(hScan, scan.getPrefetch());
         return new SimpleClientScanner(scanner);
     }
 
+    /**
+     * Split range of the scan on region boundaries of the table.
+     * If region boundaries are not available from the table, return the scan itself.
+     */
+    private List<Scan> splitByRegions(Scan hScan) throws IOException {
+        List<Scan> splits = Lists.newArrayList();
+        if (!(table instanceof RegionLocator)) {
+            splits.add(hScan);
+            return splits;
+        }
+        byte[] stopRow = hScan.getStopRow();
+        byte[] splitStartRow = hScan.getStartRow();
+        // start keys are sorted, and start key of the first region is empty.
+        for (byte[] regionStartKey : ((RegionLocator) table).getStartKeys()) {
+            if (regionStartKey.length == 0 || Bytes.compareTo(regionStartKey, splitStartRow) <= 0) {
+                continue;
+            }
+            if (stopRow.length != 0 && Bytes.compareTo(regionStartKey, stopRow) >= 0) {
+                break;
+            }
+            splits.add(new Scan(hScan).setStartRow(splitStartRow).setStopRow(regionStartKey));
+            splitStartRow = regionStartKey;
+        }
+        splits.add(new Scan(hScan).setStartRow(splitStartRow).setStopRow(stopRow));
+        return splits;
+    }
+
+    /**
+     * Open scanner of HBase, which reads results in background if prefetch is positive.
+     */
+    private ResultScanner getResultScanner(Scan hScan, int prefetch) throws IOException {
+        ResultScanner scanner = table.getScanner(hScan);
+        if (prefetch > 0) {
+            return new HaeinsaPrefetchingResultScanner(scanner, prefetch);
+        }
+        return scanner;
+    }
+
     /**
      * Haeinsa implementation of {@link ColumnRangeFilter}.
      * Scan range of column inside single row defined by {@link HaeinsaIntraScan} in the context of transaction(tx).
@@ -324,6 +518,19 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 intraScan.getMaxColumn(), intraScan.isMaxColumnInclusive());
         hScan.setFilter(rangeFilter);
 
+        if (tx.getIsolationLevel() == HaeinsaIsolationLevel.SNAPSHOT) {
+            TRowLock rowLock = getRowLockBefore(intraScan.getRow(), tx.getSnapshotTimestamp());
+            hScan.setTimeRange(0, getSnapshotBound(tx, intraScan.getRow(), rowLock));
+            List<HaeinsaKeyValueScanner> scanners = Lists.newArrayList();
+            HaeinsaRowTransaction rowState =
+                    tx.createOrGetTableState(getTableName()).getRowStates().get(intraScan.getRow());
+            if (rowState != null) {
+                scanners.addAll(rowState.getScanners());
+            }
+            scanners.add(new HBaseScanScanner(table.getScanner(hScan)));
+            return new ClientScanner(tx, scanners, hScan.getFamilyMap(), intraScan, null, false, false);
+        }
+
         HaeinsaTableTransaction tableState = tx.createOrGetTableState(getTableName());
         HaeinsaRowTransaction rowState = tableState.getRowStates().get(intraScan.getRow());
         if (rowState == null) {
@@ -338,7 +545,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
 
         // scanners at this moment is:
         // union( muationScanners from RowTransaction, Scanner of intraScan )
-        return new ClientScanner(tx, scanners, hScan.getFamilyMap(), intraScan, false, false);
+        return new ClientScanner(tx, scanners, hScan.getFamilyMap(), intraScan, null, false, false);
     }
 
     /**
@@ -369,9 +576,10 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
     public void put(HaeinsaTransaction tx, HaeinsaPut put) throws IOException {
         Preconditions.checkNotNull(tx);
         Preconditions.checkNotNull(put);
+        Preconditions.checkState(!tx.isSnapshotRead(), "can't put in snapshot read transaction.");
 
         byte[] row = put.getRow();
-        HaeinsaTableTransaction tableState = tx.createOrGetTableState(this.table.getTableName());
+        HaeinsaTableTransaction tableState = tx.createOrGetTableState(getTableName());
         HaeinsaRowTransaction rowState = tableState.getRowStates().get(row);
         if (rowState == null) {
             // TODO(improvement) : Should consider to get lock when commit() called.
@@ -403,14 +611,20 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             if (recoverCount > RECOVER_MAX_RETRY_COUNT) {
                 throw new ConflictException("recover retry count is exceeded.");
             }
-            TRowLock currentRowLock = getRowLock(row);
+            byte[] currentRowLockBytes = getRowLockBytes(row);
+            TRowLock currentRowLock = TRowLocks.deserialize(currentRowLockBytes);
             try {
-                if (checkAndIsShouldRecover(currentRowLock)) {
+                if (checkAndIsShouldRecover(tx, currentRowLock)) {
                     recover(tx, row);
                     recoverCount++;
                 } else {
+                    if (tx.getIsolationLevel() == HaeinsaIsolationLevel.SNAPSHOT
+                            && currentRowLock.getCommitTimestamp() >= tx.getSnapshotTimestamp()) {
+                        // write-write conflict, the row is modified after snapshot of the transaction.
+                        throw new ConflictException("this row is modified after snapshot: " + Bytes.toStringBinary(row));
+                    }
                     rowState = tableState.createOrGetRowState(row);
-                    rowState.setCurrent(currentRowLock);
+                    rowState.setCurrent(currentRowLock, currentRowLockBytes);
                     break;
                 }
             } catch (NotExpiredYetException e) {
@@ -434,9 +648,13 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
      * @throws IOException {@link NotExpiredYetException} if lock is established and
      * not expired.
      */
-    private boolean checkAndIsShouldRecover(TRowLock rowLock) throws IOException {
+    private boolean checkAndIsShouldRecover(HaeinsaTransaction tx, TRowLock rowLock) throws IOException {
         if (rowLock.getState() != TRowLockState.STABLE) {
-            if (rowLock.isSetExpiry() && rowLock.getExpiry() < System.currentTimeMillis()) {
+            HaeinsaTimestampSource timestampSource = tx.getManager().getTimestampSource();
+            if (rowLock.isSetCurrentTimestamp()) {
+                timestampSource.observe(rowLock.getCurrentTimestamp());
+            }
+            if (rowLock.isSetExpiry() && timestampSource.isExpired(rowLock.getExpiry())) {
                 return true;
             }
             throw new NotExpiredYetException("this row is unstable and not expired yet.");
@@ -477,11 +695,12 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
     public void delete(HaeinsaTransaction tx, HaeinsaDelete delete) throws IOException {
         Preconditions.checkNotNull(tx);
         Preconditions.checkNotNull(delete);
+        Preconditions.checkState(!tx.isSnapshotRead(), "can't delete in snapshot read transaction.");
 
         byte[] row = delete.getRow();
         // Can't delete entire row in Haeinsa because of lock column. Please specify column families when needed.
         Preconditions.checkArgument(delete.getFamilyMap().size() > 0, "can't delete an entire row.");
-        HaeinsaTableTransaction tableState = tx.createOrGetTableState(this.table.getTableName());
+        HaeinsaTableTransaction tableState = tx.createOrGetTableState(getTableName());
         HaeinsaRowTransaction rowState = tableState.getRowStates().get(row);
         if (rowState == null) {
             // TODO(improvement) : Should consider to get lock when commit() called.
@@ -510,13 +729,11 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         HaeinsaTransaction tx = rowState.getTableTransaction().getTransaction();
         Put put = new Put(row);
         HaeinsaPut haeinsaPut = (HaeinsaPut) rowState.getMutations().remove(0);
-        for (HaeinsaKeyValue kv : Iterables.concat(haeinsaPut.getFamilyMap().values())) {
-            put.add(kv.getFamily(), kv.getQualifier(), tx.getCommitTimestamp(), kv.getValue());
-        }
+        haeinsaPut.writeTo(put, tx.getCommitTimestamp(), null);
         TRowLock newRowLock = new TRowLock(ROW_LOCK_VERSION, TRowLockState.STABLE, tx.getCommitTimestamp());
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, tx.getCommitTimestamp(), TRowLocks.serialize(newRowLock));
 
-        byte[] currentRowLockBytes = TRowLocks.serialize(rowState.getCurrent());
+        byte[] currentRowLockBytes = rowState.getCurrentBytes();
         if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
             throw new ConflictException("can't acquire row's lock, commitSingleRowPutOnly failed");
         } else {
@@ -549,24 +766,62 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
 
     @Override
     public void prewrite(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary) throws IOException {
+        HaeinsaLockTransition transition = prewriteTransition(rowState, row, isPrimary);
+        if (!apply(transition)) {
+            throw prewriteConflict(rowState.getTableTransaction().getTransaction());
+        } else {
+            rowState.setCurrent(transition.getNewRowLock(), transition.getNewRowLockBytes());
+        }
+    }
+
+    @Override
+    public void prewriteSecondaries(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        if (!isLockEndpointEnabled(rowStates)) {
+            for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+                prewrite(entry.getValue(), entry.getKey(), false);
+            }
+            return;
+        }
+        List<HaeinsaLockTransition> transitions = Lists.newArrayListWithCapacity(rowStates.size());
+        for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+            transitions.add(prewriteTransition(entry.getValue(), entry.getKey(), false));
+        }
+        if (!applyAll(rowStates, transitions)) {
+            throw prewriteConflict(rowStates.firstEntry().getValue().getTableTransaction().getTransaction());
+        }
+    }
+
+    /**
+     * Create transition which changes lock of the row to {@link TRowLockState#PREWRITTEN},
+     * and writes first Puts of the row. Mutations of rowState are consumed by this method.
+     */
+    private HaeinsaLockTransition prewriteTransition(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary)
+            throws IOException {
         Put put = new Put(row);
-        Set<TCellKey> prewritten = Sets.newTreeSet();
+        List<TCellKey> prewritten = Lists.newArrayList();
         // order of remaining as TRemove, TPut, TRemove, TPut, ...
         List<TMutation> remaining = Lists.newArrayList();
         HaeinsaTransaction tx = rowState.getTableTransaction().getTransaction();
         if (rowState.getMutations().size() > 0) {
             if (rowState.getMutations().get(0) instanceof HaeinsaPut) {
                 HaeinsaPut haeinsaPut = (HaeinsaPut) rowState.getMutations().remove(0);
-                for (HaeinsaKeyValue kv : Iterables.concat(haeinsaPut.getFamilyMap().values())) {
-                    put.add(kv.getFamily(), kv.getQualifier(), tx.getPrewriteTimestamp(), kv.getValue());
-                    TCellKey cellKey = new TCellKey();
-                    cellKey.setFamily(kv.getFamily());
-                    cellKey.setQualifier(kv.getQualifier());
-                    prewritten.add(cellKey);
-                }
+                // cells of the put are unique and sorted.
+                haeinsaPut.writeTo(put, tx.getPrewriteTimestamp(), prewritten);
             }
+            int outOfLineThreshold = tx.getManager().getOutOfLineMutationThreshold();
             for (HaeinsaMutation mutation : rowState.getMutations()) {
-                remaining.add(mutation.toTMutation());
+                TMutation tMutation = mutation.toTMutation();
+                if (outOfLineThreshold >= 0) {
+                    byte[] payload = TRowLocks.serializeMutation(tMutation);
+                    if (payload.length >= outOfLineThreshold) {
+                        // store payload in lock family by same Put, and keep only reference in the lock.
+                        byte[] qualifier = Bytes.add(MUTATION_QUALIFIER_PREFIX, Bytes.toBytes(Integer.toString(remaining.size())));
+                        put.add(LOCK_FAMILY, qualifier, tx.getPrewriteTimestamp(), payload);
+                        rowState.putOutOfLineMutation(qualifier, tMutation);
+                        tMutation = new TMutation(tMutation.getType()).setPayloadQualifier(qualifier);
+                    }
+                }
+                remaining.add(tMutation);
             }
         }
 
@@ -574,13 +829,35 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 tx.getCommitTimestamp()).setCurrentTimestamp(tx.getPrewriteTimestamp());
         if (isPrimary) {
             // for primary row
+            List<TRowKey> secondaries = Lists.newArrayList();
             for (Entry<TRowKey, HaeinsaRowTransaction> rowStateEntry : tx.getMutationRowStates().entrySet()) {
                 TRowKey rowKey = rowStateEntry.getKey();
                 if (Bytes.equals(rowKey.getTableName(), getTableName()) && Bytes.equals(rowKey.getRow(), row)) {
                     // if this is primaryRow
                     continue;
                 }
-                newRowLock.addToSecondaries(new TRowKey().setTableName(rowKey.getTableName()).setRow(rowKey.getRow()));
+                secondaries.add(new TRowKey().setTableName(rowKey.getTableName()).setRow(rowKey.getRow()));
+            }
+            int outOfLineThreshold = tx.getManager().getOutOfLineSecondaryThreshold();
+            if (outOfLineThreshold >= 0 && secondaries.size() >= outOfLineThreshold) {
+                // store secondaries in chunks partitioned by hash, and keep only number of chunks in the lock.
+                int chunkCount = TRowLocks.getSecondaryChunkCount(secondaries.size());
+                List<List<TRowKey>> chunks = Lists.newArrayListWithCapacity(chunkCount);
+                for (int i = 0; i < chunkCount; i++) {
+                    chunks.add(Lists.<TRowKey>newArrayList());
+                }
+                for (TRowKey secondary : secondaries) {
+                    chunks.get(TRowLocks.getSecondaryChunkIndex(secondary, chunkCount)).add(secondary);
+                }
+                for (int i = 0; i < chunkCount; i++) {
+                    put.add(LOCK_FAMILY, getSecondariesQualifier(i), tx.getPrewriteTimestamp(),
+                            TRowLocks.serializeSecondaries(chunks.get(i)));
+                }
+                newRowLock.setSecondaryChunkCount(chunkCount);
+            } else {
+                for (TRowKey secondary : secondaries) {
+                    newRowLock.addToSecondaries(secondary);
+                }
             }
         } else {
             // for secondary rows
@@ -588,26 +865,30 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         }
 
         newRowLock.setPrewriteTimestamp(tx.getPrewriteTimestamp());
-        newRowLock.setPrewritten(Lists.newArrayList(prewritten));
+        newRowLock.setPrewritten(prewritten);
         newRowLock.setMutations(remaining);
         newRowLock.setExpiry(tx.getExpiry());
-        put.add(LOCK_FAMILY, LOCK_QUALIFIER, tx.getPrewriteTimestamp(), TRowLocks.serialize(newRowLock));
+        byte[] newRowLockBytes = TRowLocks.serialize(newRowLock, tx.getManager().getRowLockCompressionThreshold());
+        put.add(LOCK_FAMILY, LOCK_QUALIFIER, tx.getPrewriteTimestamp(), newRowLockBytes);
 
-        byte[] currentRowLockBytes = TRowLocks.serialize(rowState.getCurrent());
+        byte[] currentRowLockBytes = rowState.getCurrentBytes();
+        return new HaeinsaLockTransition(row, currentRowLockBytes, put, newRowLock, newRowLockBytes);
+    }
 
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
-            // Consider as conflict because another transaction might acquire lock of this row.
-            HaeinsaTransaction currentTx = tx.getManager().getTransaction(tx.getPrimary().getTableName(), tx.getPrimary().getRow());
-            if (currentTx != null) {
-                // Consider as same transaction if commitTimestamp of two transaction is same.
-                if (HaeinsaTransactions.hasSameCommitTimestamp(tx, currentTx)) {
-                    currentTx.recover(true);
-                }
+    /**
+     * Recover the transaction if it is already failed by another client, and return exception to throw
+     * when prewrite of the transaction is failed.
+     */
+    private static ConflictException prewriteConflict(HaeinsaTransaction tx) throws IOException {
+        // Consider as conflict because another transaction might acquire lock of this row.
+        HaeinsaTransaction currentTx = tx.getManager().getTransaction(tx.getPrimary().getTableName(), tx.getPrimary().getRow());
+        if (currentTx != null) {
+            // Consider as same transaction if commitTimestamp of two transaction is same.
+            if (HaeinsaTransactions.hasSameCommitTimestamp(tx, currentTx)) {
+                currentTx.recover(true);
             }
-            throw new ConflictException("can't acquire row's lock");
-        } else {
-            rowState.setCurrent(newRowLock);
         }
+        return new ConflictException("can't acquire row's lock");
     }
 
     @Override
@@ -618,15 +899,18 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         }
 
         List<TMutation> remaining = Lists.newArrayList(rowTxState.getCurrent().getMutations());
+        List<TMutation> resolved = resolveMutations(rowTxState, row, remaining);
         long currentTimestamp = rowTxState.getCurrent().getCurrentTimestamp();
         final HaeinsaTransaction tx = rowTxState.getTableTransaction().getTransaction();
+        // mutations before this offset are removed from the lock in HBase.
+        int removedOffset = 0;
 
         for (int i = 0; i < remaining.size(); i++) {
-            byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
+            byte[] currentRowLockBytes = rowTxState.getCurrentBytes();
             int mutationOffset = i + 1;
             long mutationTimestamp = currentTimestamp + mutationOffset;
 
-            TMutation mutation = remaining.get(i);
+            TMutation mutation = resolved.get(i);
             switch (mutation.getType()) {
             case PUT: {
                 TRowLock newRowLock = rowTxState.getCurrent().deepCopy();
@@ -634,8 +918,10 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 newRowLock.setMutations(remaining.subList(mutationOffset, remaining.size()));
                 // Maintain prewritten state and extend lock by ROW_LOCK_TIMEOUT
                 newRowLock.setExpiry(tx.getExpiry());
+                byte[] newRowLockBytes = TRowLocks.serialize(newRowLock, tx.getManager().getRowLockCompressionThreshold());
                 Put put = new Put(row);
-                put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), TRowLocks.serialize(newRowLock));
+                put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), newRowLockBytes);
+                clearOutOfLineMutations(put, remaining.subList(removedOffset, mutationOffset), mutationTimestamp);
                 for (TKeyValue kv : mutation.getPut().getValues()) {
                     put.add(kv.getKey().getFamily(), kv.getKey().getQualifier(), newRowLock.getCurrentTimestamp(), kv.getValue());
                 }
@@ -643,7 +929,8 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                     // Consider as conflict because another transaction might acquire lock of this row.
                     throw new ConflictException("can't acquire row's lock");
                 } else {
-                    rowTxState.setCurrent(newRowLock);
+                    rowTxState.setCurrent(newRowLock, newRowLockBytes);
+                    removedOffset = mutationOffset;
                 }
                 break;
             }
@@ -673,27 +960,115 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         }
     }
 
+    /**
+     * Return mutations of the row lock, replacing references of mutations stored out of {@link TRowLock}
+     * with their payloads. Payloads which are not known by this client are read from lock column family.
+     *
+     * @throws ConflictException if payload is not found, because another client might already apply it.
+     */
+    private List<TMutation> resolveMutations(HaeinsaRowTransaction rowTxState, byte[] row, List<TMutation> mutations)
+            throws IOException {
+        Get get = null;
+        for (TMutation mutation : mutations) {
+            if (mutation.isSetPayloadQualifier() && rowTxState.getOutOfLineMutation(mutation.getPayloadQualifier()) == null) {
+                if (get == null) {
+                    get = new Get(row);
+                    // payloads are written by prewrite of the transaction.
+                    get.setTimeStamp(rowTxState.getCurrent().getPrewriteTimestamp());
+                }
+                get.addColumn(LOCK_FAMILY, mutation.getPayloadQualifier());
+            }
+        }
+        if (get == null) {
+            return mutations;
+        }
+
+        Result result = table.get(get);
+        List<TMutation> resolved = Lists.newArrayListWithCapacity(mutations.size());
+        for (TMutation mutation : mutations) {
+            if (!mutation.isSetPayloadQualifier()) {
+                resolved.add(mutation);
+                continue;
+            }
+            TMutation payload = rowTxState.getOutOfLineMutation(mutation.getPayloadQualifier());
+            if (payload == null) {
+                byte[] payloadBytes = result.getValue(LOCK_FAMILY, mutation.getPayloadQualifier());
+                if (payloadBytes == null || payloadBytes.length == 0) {
+                    throw new ConflictException("can't read payload of mutation stored out of row's lock");
+                }
+                payload = TRowLocks.deserializeMutation(payloadBytes);
+            }
+            resolved.add(payload);
+        }
+        return resolved;
+    }
+
+    /**
+     * Overwrite columns which save payload of mutations stored out of {@link TRowLock} with empty value.
+     * This should be called with Put which removes the mutations from the lock.
+     */
+    private static void clearOutOfLineMutations(Put put, @Nullable List<TMutation> mutations, long timestamp) {
+        if (mutations == null) {
+            return;
+        }
+        for (TMutation mutation : mutations) {
+            if (mutation.isSetPayloadQualifier()) {
+                put.add(LOCK_FAMILY, mutation.getPayloadQualifier(), timestamp, HConstants.EMPTY_BYTE_ARRAY);
+            }
+        }
+    }
+
     @Override
     public void makeStable(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
-        byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
+        HaeinsaLockTransition transition = makeStableTransition(rowTxState, row);
+        if (!apply(transition)) {
+            // Consider as success because another transaction might already stabilize this row.
+            throw new RecoverableConflictException("can't make stable");
+        } else {
+            rowTxState.setCurrent(transition.getNewRowLock(), transition.getNewRowLockBytes());
+        }
+    }
+
+    @Override
+    public void makeStable(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        if (!isLockEndpointEnabled(rowStates)) {
+            for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+                makeStable(entry.getValue(), entry.getKey());
+            }
+            return;
+        }
+        List<HaeinsaLockTransition> transitions = Lists.newArrayListWithCapacity(rowStates.size());
+        for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+            transitions.add(makeStableTransition(entry.getValue(), entry.getKey()));
+        }
+        if (!applyAll(rowStates, transitions)) {
+            // Consider as success because another transaction might already stabilize these rows.
+            throw new RecoverableConflictException("can't make stable");
+        }
+    }
+
+    private HaeinsaLockTransition makeStableTransition(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
+        byte[] currentRowLockBytes = rowTxState.getCurrentBytes();
         HaeinsaTransaction transaction = rowTxState.getTableTransaction().getTransaction();
         long commitTimestamp = transaction.getCommitTimestamp();
         TRowLock newRowLock = new TRowLock(ROW_LOCK_VERSION, TRowLockState.STABLE, commitTimestamp);
         byte[] newRowLockBytes = TRowLocks.serialize(newRowLock);
         Put put = new Put(row);
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, commitTimestamp, newRowLockBytes);
-
-        if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
-            // Consider as success because another transaction might already stabilize this row.
-            throw new RecoverableConflictException("can't make stable");
-        } else {
-            rowTxState.setCurrent(newRowLock);
+        clearOutOfLineMutations(put, rowTxState.getCurrent().getMutations(), commitTimestamp);
+        if (rowTxState.getCurrent().isSetSecondaryChunkCount()) {
+            // secondary rows are not needed after primary row becomes stable.
+            for (int i = 0; i < rowTxState.getCurrent().getSecondaryChunkCount(); i++) {
+                put.add(LOCK_FAMILY, getSecondariesQualifier(i), commitTimestamp, HConstants.EMPTY_BYTE_ARRAY);
+            }
         }
+
+        return new HaeinsaLockTransition(row, currentRowLockBytes, put, newRowLock, newRowLockBytes);
     }
 
     @Override
     public void commitPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
-        byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
+        byte[] currentRowLockBytes = rowTxState.getCurrentBytes();
         HaeinsaTransaction transaction = rowTxState.getTableTransaction().getTransaction();
         long commitTimestamp = transaction.getCommitTimestamp();
         TRowLock newRowLock = rowTxState.getCurrent().deepCopy();
@@ -708,7 +1083,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         // extend expiry by ROW_LOCK_TIMEOUT
         newRowLock.setExpiry(transaction.getExpiry());
 
-        byte[] newRowLockBytes = TRowLocks.serialize(newRowLock);
+        byte[] newRowLockBytes = TRowLocks.serialize(newRowLock, transaction.getManager().getRowLockCompressionThreshold());
         Put put = new Put(row);
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), newRowLockBytes);
 
@@ -717,26 +1092,82 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             // Consider as conflict because another transaction might acquire lock of primary row.
             throw new ConflictException("can't acquire primary row's lock");
         } else {
-            rowTxState.setCurrent(newRowLock);
+            rowTxState.setCurrent(newRowLock, newRowLockBytes);
         }
     }
 
     @Override
     public TRowLock getRowLock(byte[] row) throws IOException {
+        return TRowLocks.deserialize(getRowLockBytes(row));
+    }
+
+    @Override
+    public byte[] getRowLockBytes(byte[] row) throws IOException {
         Get get = new Get(row);
         get.addColumn(LOCK_FAMILY, LOCK_QUALIFIER);
         Result result = table.get(get);
         if (result.isEmpty()) {
-            return TRowLocks.deserialize(null);
+            return null;
         } else {
-            byte[] rowLockBytes = result.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
-            return TRowLocks.deserialize(rowLockBytes);
+            return result.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
         }
     }
 
+    @Override
+    public List<TRowKey> getSecondaries(byte[] row, TRowLock primaryRowLock) throws IOException {
+        if (!primaryRowLock.isSetSecondaryChunkCount()) {
+            return primaryRowLock.isSetSecondaries() ? primaryRowLock.getSecondaries() : Collections.<TRowKey>emptyList();
+        }
+        Get get = new Get(row);
+        // chunks are written by prewrite of the transaction.
+        get.setTimeStamp(primaryRowLock.getPrewriteTimestamp());
+        for (int i = 0; i < primaryRowLock.getSecondaryChunkCount(); i++) {
+            get.addColumn(LOCK_FAMILY, getSecondariesQualifier(i));
+        }
+        Result result = table.get(get);
+        List<TRowKey> secondaries = Lists.newArrayList();
+        for (int i = 0; i < primaryRowLock.getSecondaryChunkCount(); i++) {
+            byte[] chunkBytes = result.getValue(LOCK_FAMILY, getSecondariesQualifier(i));
+            if (chunkBytes == null || chunkBytes.length == 0) {
+                // Consider as conflict because another client might already make primary row stable.
+                throw new ConflictException("can't read secondary rows stored out of primary row's lock");
+            }
+            secondaries.addAll(TRowLocks.deserializeSecondaries(chunkBytes));
+        }
+        return secondaries;
+    }
+
+    @Override
+    public boolean containsSecondary(byte[] row, TRowLock primaryRowLock, TRowKey secondaryRowKey) throws IOException {
+        if (!primaryRowLock.isSetSecondaryChunkCount()) {
+            return TRowLocks.containRowKeyAsSecondary(primaryRowLock, secondaryRowKey);
+        }
+        int chunkIndex = TRowLocks.getSecondaryChunkIndex(secondaryRowKey, primaryRowLock.getSecondaryChunkCount());
+        byte[] qualifier = getSecondariesQualifier(chunkIndex);
+        Get get = new Get(row);
+        get.setTimeStamp(primaryRowLock.getPrewriteTimestamp());
+        get.addColumn(LOCK_FAMILY, qualifier);
+        byte[] chunkBytes = table.get(get).getValue(LOCK_FAMILY, qualifier);
+        if (chunkBytes == null || chunkBytes.length == 0) {
+            // primary row is already stable.
+            return false;
+        }
+        for (TRowKey rowKey : TRowLocks.deserializeSecondaries(chunkBytes)) {
+            if (Bytes.equals(rowKey.getTableName(), secondaryRowKey.getTableName())
+                    && Bytes.equals(rowKey.getRow(), secondaryRowKey.getRow())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] getSecondariesQualifier(int chunkIndex) {
+        return Bytes.add(SECONDARIES_QUALIFIER_PREFIX, Bytes.toBytes(Integer.toString(chunkIndex)));
+    }
+
     @Override
     public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
-        byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
+        byte[] currentRowLockBytes = rowTxState.getCurrentBytes();
         HaeinsaTransaction transaction = rowTxState.getTableTransaction().getTransaction();
         long commitTimestamp = transaction.getCommitTimestamp();
         TRowLock newRowLock = rowTxState.getCurrent().deepCopy();
@@ -749,15 +1180,16 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         newRowLock.setMutationsIsSet(false);
         newRowLock.setExpiry(transaction.getExpiry());
 
-        byte[] newRowLockBytes = TRowLocks.serialize(newRowLock);
+        byte[] newRowLockBytes = TRowLocks.serialize(newRowLock, transaction.getManager().getRowLockCompressionThreshold());
         Put put = new Put(row);
         put.add(LOCK_FAMILY, LOCK_QUALIFIER, newRowLock.getCurrentTimestamp(), newRowLockBytes);
+        clearOutOfLineMutations(put, rowTxState.getCurrent().getMutations(), newRowLock.getCurrentTimestamp());
 
         if (!table.checkAndPut(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, put)) {
             // Consider as conflict because another transaction might acquire lock of primary row.
             throw new ConflictException("can't acquire primary row's lock");
         } else {
-            rowTxState.setCurrent(newRowLock);
+            rowTxState.setCurrent(newRowLock, newRowLockBytes);
         }
     }
 
@@ -767,23 +1199,113 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             // nothing to do
             return;
         }
-        byte[] currentRowLockBytes = TRowLocks.serialize(rowTxState.getCurrent());
+        if (!apply(deletePrewrittenTransition(rowTxState, row))) {
+            // Consider as conflict because another transaction might acquire lock of this row.
+            throw new ConflictException("can't acquire primary row's lock");
+        }
+    }
+
+    @Override
+    public void deletePrewritten(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        if (!isLockEndpointEnabled(rowStates)) {
+            for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+                deletePrewritten(entry.getValue(), entry.getKey());
+            }
+            return;
+        }
+        NavigableMap<byte[], HaeinsaRowTransaction> prewrittenRowStates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        List<HaeinsaLockTransition> transitions = Lists.newArrayList();
+        for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+            if (entry.getValue().getCurrent().getPrewrittenSize() > 0) {
+                prewrittenRowStates.put(entry.getKey(), entry.getValue());
+                transitions.add(deletePrewrittenTransition(entry.getValue(), entry.getKey()));
+            }
+        }
+        if (!transitions.isEmpty() && !applyAll(prewrittenRowStates, transitions)) {
+            // Consider as conflict because another transaction might acquire lock of these rows.
+            throw new ConflictException("can't acquire primary row's lock");
+        }
+    }
+
+    /**
+     * Create transition which deletes prewritten cells of the row, without changing lock of the row.
+     */
+    private static HaeinsaLockTransition deletePrewrittenTransition(HaeinsaRowTransaction rowTxState, byte[] row)
+            throws IOException {
+        byte[] currentRowLockBytes = rowTxState.getCurrentBytes();
         long prewriteTimestamp = rowTxState.getCurrent().isSetPrewriteTimestamp() ?
                 rowTxState.getCurrent().getPrewriteTimestamp() : rowTxState.getCurrent().getCurrentTimestamp();
         Delete delete = new Delete(row);
         for (TCellKey cellKey : rowTxState.getCurrent().getPrewritten()) {
             delete.deleteColumn(cellKey.getFamily(), cellKey.getQualifier(), prewriteTimestamp);
         }
-        if (!table.checkAndDelete(row, LOCK_FAMILY, LOCK_QUALIFIER, currentRowLockBytes, delete)) {
-            // Consider as conflict because another transaction might acquire lock of this row.
-            throw new ConflictException("can't acquire primary row's lock");
+        return new HaeinsaLockTransition(row, currentRowLockBytes, delete, null, null);
+    }
+
+    /**
+     * Apply transition on single row by checkAndPut or checkAndDelete.
+     *
+     * @return true if the transition is applied
+     */
+    private boolean apply(HaeinsaLockTransition transition) throws IOException {
+        if (transition.getMutation() instanceof Put) {
+            return table.checkAndPut(transition.getRow(), LOCK_FAMILY, LOCK_QUALIFIER,
+                    transition.getExpectedRowLockBytes(), (Put) transition.getMutation());
+        } else {
+            return table.checkAndDelete(transition.getRow(), LOCK_FAMILY, LOCK_QUALIFIER,
+                    transition.getExpectedRowLockBytes(), (Delete) transition.getMutation());
         }
     }
 
-    protected HTableInterface getHTable() {
+    /**
+     * Apply transitions of rows in batch by {@link kr.co.vcnc.haeinsa.coprocessor.HaeinsaLockEndpoint},
+     * and set new lock of each row whose transition is applied.
+     *
+     * @param rowStates states of rows, in same order as transitions
+     * @return false if any of transitions is not applied
+     */
+    private boolean applyAll(NavigableMap<byte[], HaeinsaRowTransaction> rowStates,
+            List<HaeinsaLockTransition> transitions) throws IOException {
+        boolean[] applied = HaeinsaLockTransition.applyAll(table, transitions);
+        boolean allApplied = true;
+        int index = 0;
+        for (HaeinsaRowTransaction rowState : rowStates.values()) {
+            if (!applied[index]) {
+                allApplied = false;
+            } else if (transitions.get(index).getNewRowLock() != null) {
+                rowState.setCurrent(transitions.get(index).getNewRowLock(), transitions.get(index).getNewRowLockBytes());
+            }
+            index++;
+        }
+        return allApplied;
+    }
+
+    /**
+     * Transitions of multiple rows are applied in batch only if
+     * {@link kr.co.vcnc.haeinsa.coprocessor.HaeinsaLockEndpoint} is enabled by transaction manager,
+     * and there are more than one rows.
+     */
+    private static boolean isLockEndpointEnabled(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) {
+        if (rowStates.size() < 2) {
+            return false;
+        }
+        HaeinsaTransaction tx = rowStates.firstEntry().getValue().getTableTransaction().getTransaction();
+        return tx.getManager().isLockEndpointEnabled();
+    }
+
+    protected Table getHTable() {
         return table;
     }
 
+    /**
+     * Return {@link HaeinsaIntraScan} which does not restrict range of column, used to apply batch only.
+     */
+    private static HaeinsaIntraScan unboundedIntraScan(int batch) {
+        HaeinsaIntraScan intraScan = new HaeinsaIntraScan(null, null, false, null, false);
+        intraScan.setBatch(batch);
+        return intraScan;
+    }
+
     /**
      * Implementation of {@link HaeinsaResultScanner} which is used when scan without transaction.
      */
@@ -844,7 +1366,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         private final HaeinsaTransaction tx;
         private final HaeinsaTableTransaction tableState;
         private boolean initialized;
-        private final NavigableSet<HaeinsaKeyValueScanner> scanners;
+        private final HaeinsaKeyValueHeap scanners;
         private final List<HaeinsaKeyValueScanner> scannerList = Lists.newArrayList();
         // tracking delete of one specific row.
         private final HaeinsaDeleteTracker deleteTracker = new HaeinsaDeleteTracker();
@@ -861,33 +1383,46 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
          */
         private final int batch;
         private final Map<byte[], NavigableSet<byte[]>> familyMap;
+        /**
+         * null if not used. Copy of filter of {@link HaeinsaScan} or {@link HaeinsaGet}, applied to merged rows.
+         */
+        private final Filter filter;
         private HaeinsaKeyValue prevKV;
         private long maxSeqID = Long.MAX_VALUE;
+        /**
+         * Row which is read again in the context of snapshot read transaction, null if there is no such row.
+         */
+        private byte[] snapshotRereadRow;
 
         /**
+         * @param filter - filter applied to merged rows, null if not used.
+         * @param batch - maximum number of KeyValues of each result, -1 to return whole row at once.
          * @param lockInclusive - whether scanners contains {@link TRowLock} inside.
          * If not, should bring from {@link HaeinsaRowTransaction} or get from HBase directly.
          */
         public ClientScanner(HaeinsaTransaction tx, Iterable<HaeinsaKeyValueScanner> scanners,
-                             Map<byte[], NavigableSet<byte[]>> familyMap, boolean lockInclusive, boolean reversed) {
-            this(tx, scanners, familyMap, null, lockInclusive, reversed);
+                             Map<byte[], NavigableSet<byte[]>> familyMap, @Nullable Filter filter, int batch,
+                             boolean lockInclusive, boolean reversed) {
+            this(tx, scanners, familyMap, unboundedIntraScan(batch), filter, lockInclusive, reversed);
         }
 
         /**
          * @param intraScan - To support to use {@link ColumnRangeFilter}
+         * @param filter - filter applied to merged rows, null if not used.
          * @param lockInclusive - whether scanners contains {@link TRowLock} inside.
          * If not, should bring from {@link HaeinsaRowTransaction} or get from HBase directly.
          */
         public ClientScanner(HaeinsaTransaction tx, Iterable<HaeinsaKeyValueScanner> scanners,
-                             Map<byte[], NavigableSet<byte[]>> familyMap, HaeinsaIntraScan intraScan, boolean lockInclusive, boolean reversed) {
+                             Map<byte[], NavigableSet<byte[]>> familyMap, HaeinsaIntraScan intraScan,
+                             @Nullable Filter filter, boolean lockInclusive, boolean reversed) {
             this.tx = tx;
+            this.filter = filter;
             this.tableState = tx.createOrGetTableState(getTableName());
             for (HaeinsaKeyValueScanner kvScanner : scanners) {
                 scannerList.add(kvScanner);
             }
             if (intraScan == null) {
-                intraScan = new HaeinsaIntraScan(null, null, false, null, false);
-                intraScan.setBatch(-1);
+                intraScan = unboundedIntraScan(-1);
             }
             this.columnTracker = new HaeinsaColumnTracker(familyMap,
                     intraScan.getMinColumn(), intraScan.isMinColumnInclusive(),
@@ -895,7 +1430,9 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             this.batch = intraScan.getBatch();
             this.lockInclusive = lockInclusive;
             this.familyMap = familyMap;
-            this.scanners = Sets.newTreeSet(!reversed ? HaeinsaKeyValueScanner.COMPARATOR : HaeinsaKeyValueScanner.REVERSE_COMPARATOR);
+            this.scanners = new HaeinsaKeyValueHeap(
+                    !reversed ? HaeinsaKeyValueScanner.COMPARATOR : HaeinsaKeyValueScanner.REVERSE_COMPARATOR,
+                    scannerList.size());
         }
 
         /**
@@ -903,18 +1440,14 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
          * Only can be called one time for every ClientScanner.
          * <p>
          * The reason why there are different variables for {@link #scannerList} and {@link #scanners} is that
-         * the way {@link #nextScanner(HaeinsaKeyValueScanner)} implemented is removing
-         * {@link HaeinsaKeyValueScanner} one by one form scanners.
+         * {@link HaeinsaKeyValueHeap} drops {@link HaeinsaKeyValueScanner} one by one when it is exhausted.
          * {@link #close()} method needs to close every {@link ClientScanner} when called,
          * so some other variable should preserve every scanner when ClientScanner created.
          */
         private void initialize() throws IOException {
             try {
                 for (HaeinsaKeyValueScanner scanner : scannerList) {
-                    HaeinsaKeyValue peeked = scanner.peek();
-                    if (peeked != null) {
-                        scanners.add(scanner);
-                    }
+                    scanners.add(scanner);
                 }
                 initialized = true;
             } catch (Exception e) {
@@ -971,8 +1504,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
          * Return {@link TRowLock} for specific row from {@link #scanners}.
          * Return null if there is no proper {@link TRowLock}.
          * <p>
-         * If one of these {@link #scanners} has row key which is smaller than given row,
-         * that {@link HaeinsaKeyValueScanner} is not peeked by this method and return null.
+         * Only scanners which are positioned on given row are peeked by this method.
          * So proper operation is guaranteed only when every scanner in {@link #scanners} return
          * smaller or equal row key when {@link HaeinsaKeyValueScanner#peek()} is called.
          *
@@ -980,22 +1512,37 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
          * return rowLock otherwise.
          */
         private TRowLock peekLock(byte[] row) throws IOException {
-            for (HaeinsaKeyValueScanner scanner : scanners) {
-                HaeinsaKeyValue kv = scanner.peek();
-                if (!Bytes.equals(kv.getRow(), row)) {
-                    break;
-                }
+            return scanners.peekLock(row);
+        }
 
-                TRowLock rowLock = scanner.peekLock();
-                if (rowLock != null) {
-                    return rowLock;
+        @Override
+        public HaeinsaResult next() throws IOException {
+            while (true) {
+                List<HaeinsaKeyValue> sortedKVs = nextSortedKVs();
+                if (sortedKVs == null) {
+                    // scanners are exhausted.
+                    return null;
                 }
+                if (filter != null) {
+                    if (filter.filterAllRemaining()) {
+                        return null;
+                    }
+                    // HBase filtered only KeyValues from HBase, so apply filter again to the merged row.
+                    sortedKVs = HaeinsaFilters.filterRow(filter, sortedKVs);
+                    if (sortedKVs.isEmpty()) {
+                        continue;
+                    }
+                }
+                return new HaeinsaResult(sortedKVs);
             }
-            return null;
         }
 
-        @Override
-        public HaeinsaResult next() throws IOException {
+        /**
+         * Merge KeyValues of next row from {@link #scanners} with tracking deletes and locks.
+         *
+         * @return sorted KeyValues of next row, or null if scanners are exhausted.
+         */
+        private List<HaeinsaKeyValue> nextSortedKVs() throws IOException {
             if (!initialized) {
                 // move scannerList -> scanners
                 initialize();
@@ -1006,11 +1553,27 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 if (scanners.isEmpty()) {
                     break;
                 }
-                HaeinsaKeyValueScanner currentScanner = scanners.first();
+                HaeinsaKeyValueScanner currentScanner = scanners.current();
                 HaeinsaKeyValue currentKV = currentScanner.peek();
                 if (prevKV == null) {
                     // start new row, deal with TRowLock and Recover()
-                    if (lockInclusive) {
+                    if (lockInclusive && tx.getIsolationLevel() == HaeinsaIsolationLevel.SNAPSHOT) {
+                        // Lock from scan is the newest lock written before snapshot timestamp.
+                        // Rows which are only read are not tracked in snapshot isolation,
+                        // so just read unstable row again.
+                        TRowLock currentRowLock = peekLock(currentKV.getRow());
+                        if (currentRowLock != null && currentRowLock.getState() != TRowLockState.STABLE
+                                && (snapshotRereadRow == null || !currentKV.matchingRow(snapshotRereadRow))) {
+                            Get get = createGet(currentKV.getRow());
+                            get.setTimeRange(0, getSnapshotBound(tx, currentKV.getRow(), currentRowLock));
+                            Result result = table.get(get);
+                            snapshotRereadRow = currentKV.getRow();
+                            maxSeqID--;
+                            HBaseGetScanner getScanner = new HBaseGetScanner(result, maxSeqID);
+                            scanners.add(getScanner);
+                            continue;
+                        }
+                    } else if (lockInclusive) {
                         // HaeinsaKeyValues from HBaseScanScanner or HBaseGetScanner contains TRowLock for this row.
                         TRowLock currentRowLock = peekLock(currentKV.getRow());
                         HaeinsaRowTransaction rowState = tableState.createOrGetRowState(currentKV.getRow());
@@ -1032,26 +1595,15 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                                 rowState.setCurrent(currentRowLock);
                             }
 
-                            if (checkAndIsShouldRecover(currentRowLock)) {
+                            if (checkAndIsShouldRecover(tx, currentRowLock)) {
                                 // when currentRowLock is not stable but
                                 // expired.
                                 rowState = checkOrRecoverLock(tx, currentKV.getRow(), tableState, rowState);
-                                Get get = new Get(currentKV.getRow());
-                                for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
-                                    if (entry.getValue() != null) {
-                                        for (byte[] qualifier : entry.getValue()) {
-                                            get.addColumn(entry.getKey(), qualifier);
-                                        }
-                                    } else {
-                                        get.addFamily(entry.getKey());
-                                    }
-                                }
+                                Get get = createGet(currentKV.getRow());
                                 Result result = table.get(get);
                                 maxSeqID--;
                                 HBaseGetScanner getScanner = new HBaseGetScanner(result, maxSeqID);
-                                if (getScanner.peek() != null) {
-                                    scanners.add(getScanner);
-                                }
+                                scanners.add(getScanner);
                                 continue;
                             } else {
                                 // when currentRowLock is stable
@@ -1066,19 +1618,16 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                     prevKV = currentKV;
                 }
 
-                if (Bytes.equals(prevKV.getRow(), currentKV.getRow())) {
+                if (prevKV.matchingRow(currentKV)) {
                     if (currentScanner.getSequenceID() > maxSeqID) {
                         // too old data, ignore
-                    } else if (Bytes.equals(currentKV.getFamily(), LOCK_FAMILY)
-                            && Bytes.equals(currentKV.getQualifier(), LOCK_QUALIFIER)) {
-                        // if currentKV is Lock, ignore
+                    } else if (currentKV.matchingFamily(LOCK_FAMILY)) {
+                        // if currentKV is Lock or payload of mutations stored out of Lock, ignore
                     } else if (currentKV.getType() == Type.DeleteColumn || currentKV.getType() == Type.DeleteFamily) {
                         // if currentKV is delete
                         deleteTracker.add(currentKV, currentScanner.getSequenceID());
                     } else if (prevKV == currentKV
-                            || !(Bytes.equals(prevKV.getRow(), currentKV.getRow())
-                            && Bytes.equals(prevKV.getFamily(), currentKV.getFamily())
-                            && Bytes.equals(prevKV.getQualifier(), currentKV.getQualifier()))) {
+                            || !(prevKV.matchingRow(currentKV) && prevKV.matchingColumn(currentKV))) {
                         // if reference of prevKV and currentKV is same, the currentKV have new row.
                         // Ignore when prevKV and currentKV is different but row, family,
                         // qualifier of currentKv and prevKv is all same. (not likely)
@@ -1089,7 +1638,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                             prevKV = currentKV;
                         }
                     }
-                    nextScanner(currentScanner);
+                    scanners.next();
                 } else {
                     // currentKV is different row with prevKV, so reset
                     // deleteTracker & maxSeqID
@@ -1108,7 +1657,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 }
             }
             if (sortedKVs.size() > 0) {
-                return new HaeinsaResult(sortedKVs);
+                return sortedKVs;
             } else {
                 // scanners are exhausted.
                 return null;
@@ -1116,18 +1665,20 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
         }
 
         /**
-         * Moving index of scanner of currentScanner by one. If there is no more
-         * element at the scanner, remove currentScanner from scanners
-         * (NavigableSet)
+         * Create {@link Get} to read the row again with columns of {@link #familyMap}.
          */
-        private void nextScanner(HaeinsaKeyValueScanner currentScanner) throws IOException {
-            scanners.remove(currentScanner);
-            currentScanner.next();
-            HaeinsaKeyValue currentScannerNext = currentScanner.peek();
-            if (currentScannerNext != null) {
-                // if currentScanner is not exhausted.
-                scanners.add(currentScanner);
+        private Get createGet(byte[] row) {
+            Get get = new Get(row);
+            for (Entry<byte[], NavigableSet<byte[]>> entry : familyMap.entrySet()) {
+                if (entry.getValue() != null) {
+                    for (byte[] qualifier : entry.getValue()) {
+                        get.addColumn(entry.getKey(), qualifier);
+                    }
+                } else {
+                    get.addFamily(entry.getKey());
+                }
             }
+            return get;
         }
 
         @Override
@@ -1209,7 +1760,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
                 }
                 // First scan or next() was called last time so move
                 // resultIndex.
-                current = new HaeinsaKeyValue(currentResult.raw()[resultIndex]);
+                current = new HaeinsaKeyValue(currentResult.rawCells()[resultIndex]);
                 resultIndex++;
 
                 return current;
@@ -1309,7 +1860,7 @@ public class HaeinsaTable implements HaeinsaTableIfaceInternal {
             if (result == null) {
                 return null;
             }
-            current = new HaeinsaKeyValue(result.list().get(resultIndex));
+            current = new HaeinsaKeyValue(result.rawCells()[resultIndex]);
             resultIndex++;
             return current;
         }
@@ -16,14 +16,23 @@
 package kr.co.vcnc.haeinsa;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+
+import javax.annotation.Nullable;
 
 import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
 import kr.co.vcnc.haeinsa.thrift.generated.TMutationType;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
 
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /*************************START NEUTRONIC ADDITION*****************
  * 1) Class package-private access modifier changed to public
@@ -75,6 +84,23 @@ public interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      */
     void prewrite(HaeinsaRowTransaction rowState, byte[] row, boolean isPrimary) throws IOException;
 
+    /**
+     * Prewrite secondary rows of the table, same as {@link #prewrite(HaeinsaRowTransaction, byte[], boolean)}.
+     * If {@link HaeinsaTransactionManager#isLockEndpointEnabled()}, rows are prewritten by one RPC for each region.
+     * Otherwise rows are prewritten one by one.
+     * <p>
+     * If prewrite of any row is failed, {@link ConflictException} is thrown after other rows in the batch are prewritten.
+     * Default implementation prewrites rows one by one.
+     *
+     * @param rowStates states of secondary rows keyed by row
+     * @throws IOException ConflictException, HBase IOException
+     */
+    default void prewriteSecondaries(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+            prewrite(entry.getValue(), entry.getKey(), false);
+        }
+    }
+
     /**
      * Apply all remained mutations to HBase row while {@link TRowLock} is in {@link TRowLockState#PREWRITTEN}.
      * <p>
@@ -102,6 +128,21 @@ public interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      */
     void makeStable(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException;
 
+    /**
+     * Change rows of the table to {@link TRowLockState#STABLE} state, same as
+     * {@link #makeStable(HaeinsaRowTransaction, byte[])}.
+     * If {@link HaeinsaTransactionManager#isLockEndpointEnabled()}, rows are changed by one RPC for each region.
+     * Default implementation changes rows one by one.
+     *
+     * @param rowStates states of rows keyed by row
+     * @throws IOException ConflictException, HBase IOException.
+     */
+    default void makeStable(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+            makeStable(entry.getValue(), entry.getKey());
+        }
+    }
+
     /**
      * Change specific row to {@link TRowLockState#COMMITTED} state.
      * While normal transaction execution, if this method is called {@link TRowLock} is changed from
@@ -123,6 +164,68 @@ public interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      */
     TRowLock getRowLock(byte[] row) throws IOException;
 
+    /**
+     * get bytes of {@link TRowLock} as saved in HBase, which can be compressed.
+     * See {@link TRowLocks#deserialize(byte[])}.
+     * <p>
+     * Default implementation serializes {@link #getRowLock(byte[])} again, which is different from saved bytes
+     * if the lock is compressed. So checkAndPut expecting the bytes fails on such lock.
+     * Implementation which reads HBase directly should override this method.
+     *
+     * @param row row
+     * @return bytes of row lock, or null if the row doesn't have lock.
+     * @throws IOException HBase IOException.
+     */
+    @Nullable
+    default byte[] getRowLockBytes(byte[] row) throws IOException {
+        return TRowLocks.serialize(getRowLock(row));
+    }
+
+    /**
+     * Get secondary rows of the transaction from {@link TRowLock} of primary row,
+     * including chunks of secondary rows stored out of TRowLock.
+     * <p>
+     * Default implementation only reads secondary rows stored in TRowLock.
+     * Implementation which reads HBase directly should override this method to read chunks.
+     *
+     * @param row primary row
+     * @param primaryRowLock {@link TRowLock} of primary row read from HBase
+     * @return secondary rows, never null.
+     * @throws IOException ConflictException if chunk of secondary rows is not found, HBase IOException.
+     * @throws UnsupportedOperationException if secondary rows are stored out of TRowLock and
+     * this method is not overridden.
+     */
+    default List<TRowKey> getSecondaries(byte[] row, TRowLock primaryRowLock) throws IOException {
+        if (primaryRowLock.isSetSecondaryChunkCount()) {
+            throw new UnsupportedOperationException("Secondary rows stored out of row lock can't be read by "
+                    + getClass().getName());
+        }
+        return primaryRowLock.isSetSecondaries() ? primaryRowLock.getSecondaries() : Collections.<TRowKey>emptyList();
+    }
+
+    /**
+     * Check if {@link TRowLock} of primary row has given row as secondary.
+     * If secondary rows are stored out of TRowLock, only one chunk which can contain the row is read from HBase.
+     * <p>
+     * Default implementation reads secondary rows with {@link #getSecondaries(byte[], TRowLock)}.
+     *
+     * @param row primary row
+     * @param primaryRowLock {@link TRowLock} of primary row read from HBase
+     * @param secondaryRowKey secondary row to check
+     * @return true if primaryRowLock has secondaryRowKey as secondary.
+     * @throws IOException HBase IOException.
+     */
+    default boolean containsSecondary(byte[] row, TRowLock primaryRowLock, TRowKey secondaryRowKey)
+            throws IOException {
+        for (TRowKey rowKey : getSecondaries(row, primaryRowLock)) {
+            if (Bytes.equals(rowKey.getTableName(), secondaryRowKey.getTableName())
+                    && Bytes.equals(rowKey.getRow(), secondaryRowKey.getRow())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Change {@link TRowLock} to {@link TRowLockState#ABORTED} state to roll back
      * failed or expired transaction to previous state when transaction have not started.
@@ -147,4 +250,18 @@ public interface HaeinsaTableIfaceInternal extends HaeinsaTableIface {
      * @throws IOException ConflictException, HBase IOException.
      */
     void deletePrewritten(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException;
+
+    /**
+     * Delete prewritten columns of rows of the table, same as {@link #deletePrewritten(HaeinsaRowTransaction, byte[])}.
+     * If {@link HaeinsaTransactionManager#isLockEndpointEnabled()}, rows are changed by one RPC for each region.
+     * Default implementation deletes prewritten columns row by row.
+     *
+     * @param rowStates states of rows keyed by row
+     * @throws IOException ConflictException, HBase IOException.
+     */
+    default void deletePrewritten(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+        for (Entry<byte[], HaeinsaRowTransaction> entry : rowStates.entrySet()) {
+            deletePrewritten(entry.getValue(), entry.getKey());
+        }
+    }
 }
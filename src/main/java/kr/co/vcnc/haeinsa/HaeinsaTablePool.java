@@ -19,19 +19,30 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.NavigableMap;
 
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.HTableFactory;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.PoolMap;
 import org.apache.hadoop.hbase.util.PoolMap.PoolType;
 
+import com.google.common.base.Preconditions;
+
 /**
  * Provide pooling pattern to HaeinsaTable.
+ * <p>
+ * Pool created by {@link #HaeinsaTablePool(Connection)} does not pool tables.
+ * Table of HBase 1.x {@link Connection} is lightweight, so new table is created from the shared connection
+ * for each {@link #getTable(String)} and released when it is closed.
  */
 public class HaeinsaTablePool implements Closeable {
     // { tableName -> HaeinsaTable }
@@ -41,6 +52,8 @@ public class HaeinsaTablePool implements Closeable {
     private final Configuration config;
     // null if use default factory
     private final HaeinsaTableIfaceFactory tableFactory;
+    // null if tables are pooled, otherwise tables are created from the connection for each use
+    private final Connection connection;
 
     /**
      * Default Constructor. Default HBaseConfiguration and no limit on pool
@@ -100,6 +113,23 @@ public class HaeinsaTablePool implements Closeable {
      */
     public HaeinsaTablePool(final Configuration config, final int maxSize,
                             final HaeinsaTableIfaceFactory tableFactory, PoolType poolType) {
+        this(config, maxSize, tableFactory, poolType, null);
+    }
+
+    /**
+     * Constructor to use tables of the shared connection without pooling.
+     * The connection is not closed by {@link #close()}. It should be closed by owner of the connection.
+     *
+     * @param connection HBase connection shared by tables
+     */
+    public HaeinsaTablePool(final Connection connection) {
+        this(connection.getConfiguration(), Integer.MAX_VALUE,
+                new ConnectionHaeinsaTableIfaceFactory(connection), PoolType.Reusable, connection);
+    }
+
+    private HaeinsaTablePool(final Configuration config, final int maxSize,
+                             final HaeinsaTableIfaceFactory tableFactory, PoolType poolType, Connection connection) {
+        this.connection = connection;
         // Make a new configuration instance so I can safely cleanup when
         // done with the pool.
         this.config = config == null ? new Configuration() : config;
@@ -171,6 +201,9 @@ public class HaeinsaTablePool implements Closeable {
      * @throws RuntimeException if there is a problem instantiating the HTable
      */
     private HaeinsaTableIfaceInternal findOrCreateTable(String tableName) {
+        if (connection != null) {
+            return createHTable(tableName);
+        }
         HaeinsaTableIfaceInternal table = tables.get(tableName);
         if (table == null) {
             table = createHTable(tableName);
@@ -204,6 +237,34 @@ public class HaeinsaTablePool implements Closeable {
         return getTableInternal(Bytes.toString(tableName));
     }
 
+    /**
+     * Create {@link HaeinsaBulkWriter} of the table, which writes puts without transaction.
+     * Only available on pool created by {@link #HaeinsaTablePool(Connection)}.
+     * Size of write buffer is configured by hbase.client.write.buffer of the connection.
+     *
+     * @param tableName table name
+     * @param commitTimestamp commit timestamp of written rows, which should be larger than commit timestamps of
+     * existing rows, such as {@link HaeinsaTimestampSource#currentTimestamp()} of transaction manager.
+     * @throws IllegalStateException if the pool is not created with connection
+     */
+    public HaeinsaBulkWriter getBulkWriter(String tableName, long commitTimestamp) throws IOException {
+        Preconditions.checkState(connection != null, "Bulk writer is only available on pool created with connection.");
+        return new HaeinsaBulkWriter(connection.getBufferedMutator(TableName.valueOf(tableName)), commitTimestamp);
+    }
+
+    /**
+     * See {@link #getBulkWriter(String, long)}.
+     *
+     * @param writeBufferSize size of write buffer in bytes. Mutations are sent to HBase when buffer is full,
+     * and {@link HaeinsaBulkWriter#put(HaeinsaPut)} is blocked until the buffer is flushed.
+     */
+    public HaeinsaBulkWriter getBulkWriter(String tableName, long commitTimestamp, long writeBufferSize) throws IOException {
+        Preconditions.checkState(connection != null, "Bulk writer is only available on pool created with connection.");
+        Preconditions.checkArgument(writeBufferSize > 0, "writeBufferSize should be positive.");
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(tableName)).writeBufferSize(writeBufferSize);
+        return new HaeinsaBulkWriter(connection.getBufferedMutator(params), commitTimestamp);
+    }
+
     /**
      * Puts the specified HaeinsaTableIface back into the pool.
      * <p>
@@ -214,6 +275,10 @@ public class HaeinsaTablePool implements Closeable {
      */
     private void returnTable(HaeinsaTableIfaceInternal table) throws IOException {
         // this is the old putTable method renamed and made private
+        if (connection != null) {
+            release(table);
+            return;
+        }
         String tableName = Bytes.toString(table.getTableName());
         if (tables.size(tableName) >= maxSize) {
             // release table instance since we're not reusing it
@@ -367,6 +432,11 @@ public class HaeinsaTablePool implements Closeable {
             table.prewrite(rowTxState, row, isPrimary);
         }
 
+        @Override
+        public void prewriteSecondaries(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+            table.prewriteSecondaries(rowStates);
+        }
+
         @Override
         public void applyMutations(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
             table.applyMutations(rowTxState, row);
@@ -377,6 +447,11 @@ public class HaeinsaTablePool implements Closeable {
             table.makeStable(rowTxState, row);
         }
 
+        @Override
+        public void makeStable(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+            table.makeStable(rowStates);
+        }
+
         @Override
         public void commitPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
             table.commitPrimary(rowTxState, row);
@@ -387,6 +462,21 @@ public class HaeinsaTablePool implements Closeable {
             return table.getRowLock(row);
         }
 
+        @Override
+        public byte[] getRowLockBytes(byte[] row) throws IOException {
+            return table.getRowLockBytes(row);
+        }
+
+        @Override
+        public List<TRowKey> getSecondaries(byte[] row, TRowLock primaryRowLock) throws IOException {
+            return table.getSecondaries(row, primaryRowLock);
+        }
+
+        @Override
+        public boolean containsSecondary(byte[] row, TRowLock primaryRowLock, TRowKey secondaryRowKey) throws IOException {
+            return table.containsSecondary(row, primaryRowLock, secondaryRowKey);
+        }
+
         @Override
         public void abortPrimary(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
             table.abortPrimary(rowTxState, row);
@@ -396,5 +486,10 @@ public class HaeinsaTablePool implements Closeable {
         public void deletePrewritten(HaeinsaRowTransaction rowTxState, byte[] row) throws IOException {
             table.deletePrewritten(rowTxState, row);
         }
+
+        @Override
+        public void deletePrewritten(NavigableMap<byte[], HaeinsaRowTransaction> rowStates) throws IOException {
+            table.deletePrewritten(rowStates);
+        }
     }
 }
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+/**
+ * Timestamp oracle which hands out ranges of timestamps to clients.
+ * Every range is larger than any range reserved before, so timestamps are totally ordered across clients
+ * which share the oracle. Clients reserve timestamps in batches through {@link HaeinsaBatchingTimestampSource},
+ * so single call of {@link #reserve(long, int)}, which is usually an RPC, serves many transactions.
+ * <p>
+ * Timestamps are wall clock in milliseconds with {@link HaeinsaBatchingTimestampSource#LOGICAL_BITS} low bits
+ * of logical counter, see {@link HaeinsaBatchingTimestampSource#fromMillis(long)}. They should not be smaller than
+ * wall clock of the oracle. Otherwise, timestamps can be smaller than commit timestamps already written to HBase
+ * after the oracle restarts.
+ *
+ * @see HaeinsaEmbeddedTimestampOracle
+ */
+public interface HaeinsaTimestampOracle {
+    /**
+     * Reserve count consecutive timestamps, which are not smaller than minimum and
+     * larger than every timestamp reserved before.
+     *
+     * @param minimum lower bound of reserved timestamps, such as wall clock of client or timestamp observed by client.
+     * @param count number of timestamps to reserve, should be positive.
+     * @return first timestamp of the range. Range is [returned, returned + count).
+     * @throws IOException if failed to communicate with the oracle.
+     */
+    long reserve(long minimum, int count) throws IOException;
+}
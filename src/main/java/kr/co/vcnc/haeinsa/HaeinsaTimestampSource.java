@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+/**
+ * Source of timestamps used by {@link HaeinsaTransaction}.
+ * Timestamps are used as HBase timestamps of written data and lower bound of prewrite timestamp,
+ * and as snapshot timestamp. They are in milliseconds like HBase timestamps unless the source says otherwise,
+ * such as {@link HaeinsaBatchingTimestampSource}.
+ * <p>
+ * Expiry of row locks is in wall clock milliseconds of {@link #currentTimeMillis()}, apart from timestamps,
+ * and checked with {@link #isExpired(long)}. Expiry of row locks written by other clients is also checked with
+ * this source, so it should be shared by every {@link HaeinsaTransaction} of {@link HaeinsaTransactionManager}.
+ * <p>
+ * Implementations should be thread-safe.
+ *
+ * @see HaeinsaSystemClock
+ * @see HaeinsaHybridLogicalClock
+ * @see HaeinsaBatchingTimestampSource
+ */
+public interface HaeinsaTimestampSource {
+    /**
+     * Return current timestamp.
+     * Returned timestamp should be larger than any timestamp given to {@link #observe(long)} before.
+     *
+     * @throws IOException if timestamp can't be taken, such as failure of timestamp oracle.
+     */
+    long currentTimestamp() throws IOException;
+
+    /**
+     * Observe timestamp written by this or other clients, such as commit timestamp of row lock.
+     *
+     * @param timestamp observed timestamp
+     */
+    void observe(long timestamp);
+
+    /**
+     * Check whether row lock with given expiry is expired, so that other clients can recover it.
+     *
+     * @param expiry expiry of row lock in wall clock milliseconds of the client wrote the lock.
+     * @return true if expired
+     */
+    boolean isExpired(long expiry);
+
+    /**
+     * Return wall clock in milliseconds, which expiry of row locks is made from.
+     * Unlike {@link #currentTimestamp()}, it does not follow observed timestamps.
+     */
+    default long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Convert timestamp of this source to wall clock in milliseconds, to compare it with expiry of row locks.
+     */
+    default long toMillis(long timestamp) {
+        return timestamp;
+    }
+}
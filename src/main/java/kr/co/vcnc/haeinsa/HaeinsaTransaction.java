@@ -15,9 +15,15 @@
  */
 package kr.co.vcnc.haeinsa;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import kr.co.vcnc.haeinsa.HaeinsaTransactionLocal.HaeinsaTransactionLocals;
@@ -32,10 +38,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /*************************START NEUTRONIC ADDITION*****************
  * 1) Added getMutationRows() method
@@ -51,6 +60,10 @@ import com.google.common.hash.Hashing;
  * or {@link HaeinsaTransactionManager#getTransaction(byte[], byte[])}.
  * Former is used when start new transaction, later is used when try to roll back or retry failed transaction.
  * <p>
+ * Transaction from {@link HaeinsaTransactionManager#beginSnapshotRead()} is snapshot read transaction,
+ * which reads data committed before its snapshot timestamp and can't have mutations.
+ * See {@link #isSnapshotRead()}.
+ * <p>
  * One {@link HaeinsaTransaction} can't be used after calling {@link #commit()} or {@link #rollback()} is called.
  */
 public class HaeinsaTransaction {
@@ -70,15 +83,23 @@ public class HaeinsaTransaction {
 
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HaeinsaTransaction.class);
+    /**
+     * Daemon threads which prewrite primary rows while secondary rows are prewritten, in pipelined prewrite.
+     */
+    private static final ExecutorService PREWRITE_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("haeinsa-prewrite-%d").build());
     private final HaeinsaTransactionState txStates = new HaeinsaTransactionState();
 
     private final HaeinsaTransactionManager manager;
+    private final HaeinsaIsolationLevel isolationLevel;
     private TRowKey primary;
     private long commitTimestamp = Long.MIN_VALUE;
     private long prewriteTimestamp = Long.MIN_VALUE;
-    private long created = System.currentTimeMillis();
+    private long snapshotTimestamp = Long.MIN_VALUE;
+    private boolean snapshotRead;
+    private final long created;
     private long timeout = HaeinsaConstants.DEFAULT_ROW_LOCK_TIMEOUT;
-    private long expiry = created + timeout;
+    private long expiry;
     private final AtomicBoolean used = new AtomicBoolean(false);
     private HaeinsaTransactionLocals txLocals;
 
@@ -103,7 +124,15 @@ public class HaeinsaTransaction {
     }
 
     public HaeinsaTransaction(HaeinsaTransactionManager manager) {
+        this(manager, HaeinsaIsolationLevel.SERIALIZABLE);
+    }
+
+    public HaeinsaTransaction(HaeinsaTransactionManager manager, HaeinsaIsolationLevel isolationLevel) {
         this.manager = manager;
+        this.isolationLevel = Preconditions.checkNotNull(isolationLevel);
+        // Expiry is in wall clock, so timestamp is not taken from timestamp source until commit.
+        this.created = manager.getTimestampSource().currentTimeMillis();
+        this.expiry = created + timeout;
     }
 
     protected NavigableMap<TRowKey, HaeinsaRowTransaction> getMutationRowStates() {
@@ -141,6 +170,40 @@ public class HaeinsaTransaction {
         this.commitTimestamp = commitTimestamp;
     }
 
+    public HaeinsaIsolationLevel getIsolationLevel() {
+        return isolationLevel;
+    }
+
+    /**
+     * Get snapshot timestamp of transaction in {@link HaeinsaIsolationLevel#SNAPSHOT}.
+     * Only data committed with smaller commit timestamp than snapshot timestamp are visible to the transaction.
+     *
+     * @return snapshot timestamp, or Long.MIN_VALUE if this transaction does not read from snapshot.
+     */
+    public long getSnapshotTimestamp() {
+        return snapshotTimestamp;
+    }
+
+    protected void setSnapshotTimestamp(long snapshotTimestamp) {
+        this.snapshotTimestamp = snapshotTimestamp;
+    }
+
+    /**
+     * Indicate whether this transaction is snapshot read transaction.
+     * Snapshot read transaction reads every row with time range of [0, snapshotTimestamp),
+     * so it does not need to validate locks of read rows on commit.
+     * Put and delete are not allowed in snapshot read transaction.
+     *
+     * @return true if this transaction is created by {@link HaeinsaTransactionManager#beginSnapshotRead()}.
+     */
+    public boolean isSnapshotRead() {
+        return snapshotRead;
+    }
+
+    protected void setSnapshotRead(boolean snapshotRead) {
+        this.snapshotRead = snapshotRead;
+    }
+
     public long getExpiry() {
         return expiry;
     }
@@ -150,8 +213,9 @@ public class HaeinsaTransaction {
     }
 
     private void extendExpiry() {
-        // Expiry is max(getCommitTimestamp, System.currentTimeMillis()) + DEFAULT_ROW_LOCK_TIMEOUT
-        setExpiry(Math.max(getCommitTimestamp(), System.currentTimeMillis()) + timeout);
+        // Expiry is max(getCommitTimestamp, current time) + DEFAULT_ROW_LOCK_TIMEOUT, in wall clock of timestamp source
+        HaeinsaTimestampSource timestampSource = manager.getTimestampSource();
+        setExpiry(Math.max(timestampSource.toMillis(getCommitTimestamp()), timestampSource.currentTimeMillis()) + timeout);
     }
 
     public long getCreated() {
@@ -221,12 +285,18 @@ public class HaeinsaTransaction {
         if (!used.compareAndSet(false, true)) {
             throw new IllegalStateException("this transaction is already used.");
         }
+        if (isSnapshotRead()) {
+            // Snapshot read transaction only read data committed before snapshot timestamp,
+            // which can't be changed by other transactions. So there is nothing to check.
+            return;
+        }
         boolean onRecovery = false;
         txStates.classifyAndSortRows(onRecovery);
 
         // Determine maxCurrentCommitTimestamp and maxIterationCount, from all participating rows of transaction.
         // It is used in determining prewriteTimestamp and commmitTimestamp of the transaction.
-        long maxCurrentCommitTimestamp = System.currentTimeMillis();
+        HaeinsaTimestampSource timestampSource = manager.getTimestampSource();
+        long maxCurrentCommitTimestamp = timestampSource.currentTimestamp();
         long maxIterationCount = Long.MIN_VALUE;
         for (Entry<byte[], HaeinsaTableTransaction> tableStateEntry : txStates.getTableStates().entrySet()) {
             for (Entry<byte[], HaeinsaRowTransaction> rowStateEntry : tableStateEntry.getValue().getRowStates().entrySet()) {
@@ -235,6 +305,7 @@ public class HaeinsaTransaction {
                 maxCurrentCommitTimestamp = Math.max(maxCurrentCommitTimestamp, rowState.getCurrent().getCommitTimestamp());
             }
         }
+        timestampSource.observe(maxCurrentCommitTimestamp);
 
         // The prewriteTimestamp of the transaction should bigger than any other commitTimestamps of rows in the
         // transaction.
@@ -268,25 +339,31 @@ public class HaeinsaTransaction {
         setPrimary(primaryRowKey);
 
         CommitMethod method = txStates.determineCommitMethod();
-        switch (method) {
-        case READ_ONLY: {
-            commitReadOnly();
-            break;
-        }
-        case SINGLE_ROW_PUT_ONLY: {
-            commitSingleRowPutOnly();
-            break;
-        }
-        case MULTI_ROW_MUTATIONS: {
-            commitMultiRowsMutation();
-            break;
-        }
-        case NOTHING: {
-            break;
-        }
-        default: {
-            break;
+        try (TableHandles tables = new TableHandles(getManager().getTablePool())) {
+            switch (method) {
+            case READ_ONLY: {
+                commitReadOnly(tables);
+                break;
+            }
+            case SINGLE_ROW_PUT_ONLY: {
+                commitSingleRowPutOnly(tables);
+                break;
+            }
+            case MULTI_ROW_MUTATIONS: {
+                commitMultiRowsMutation(tables);
+                break;
+            }
+            case NOTHING: {
+                break;
+            }
+            default: {
+                break;
+            }
+            }
         }
+        if (method == CommitMethod.SINGLE_ROW_PUT_ONLY || method == CommitMethod.MULTI_ROW_MUTATIONS) {
+            // following transactions of this client are after this transaction.
+            timestampSource.observe(getCommitTimestamp());
         }
     }
 
@@ -297,10 +374,9 @@ public class HaeinsaTransaction {
      *
      * @throws IOException ConflictException, HBase IOException
      */
-    private void commitReadOnly() throws IOException {
+    private void commitReadOnly(TableHandles tables) throws IOException {
         Preconditions.checkState(txStates.getMutationRowStates().size() == 0);
         Preconditions.checkState(txStates.getReadOnlyRowStates().size() > 0);
-        HaeinsaTablePool tablePool = getManager().getTablePool();
 
         // check secondaries
         for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getReadOnlyRowStates().entrySet()) {
@@ -311,17 +387,13 @@ public class HaeinsaTransaction {
                 // if this is primaryRow
                 continue;
             }
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(key.getTableName())) {
-                table.checkSingleRowLock(rowTx, key.getRow());
-            }
+            tables.get(key.getTableName()).checkSingleRowLock(rowTx, key.getRow());
         }
 
         // check primary last
         HaeinsaTableTransaction primaryTableState = createOrGetTableState(primary.getTableName());
         HaeinsaRowTransaction primaryRowState = primaryTableState.createOrGetRowState(primary.getRow());
-        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-            table.checkSingleRowLock(primaryRowState, primary.getRow());
-        }
+        tables.get(primary.getTableName()).checkSingleRowLock(primaryRowState, primary.getRow());
         // do not need stable-phase
     }
 
@@ -329,15 +401,12 @@ public class HaeinsaTransaction {
      * Commit single row & PUT only (possibly include get/scan, but not Delete)
      * Transaction.
      */
-    private void commitSingleRowPutOnly() throws IOException {
+    private void commitSingleRowPutOnly(TableHandles tables) throws IOException {
         HaeinsaTableTransaction primaryTableState = createOrGetTableState(primary.getTableName());
         HaeinsaRowTransaction primaryRowState = primaryTableState.createOrGetRowState(primary.getRow());
 
-        HaeinsaTablePool tablePool = getManager().getTablePool();
         // commit primary row
-        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-            table.commitSingleRowPutOnly(primaryRowState, primary.getRow());
-        }
+        tables.get(primary.getTableName()).commitSingleRowPutOnly(primaryRowState, primary.getRow());
     }
 
     /**
@@ -346,48 +415,134 @@ public class HaeinsaTransaction {
      *
      * @throws IOException ConflictException, HBase IOException
      */
-    private void commitMultiRowsMutation() throws IOException {
+    private void commitMultiRowsMutation(TableHandles tables) throws IOException {
         Preconditions.checkState(txStates.getMutationRowStates().size() > 0);
         HaeinsaTableTransaction primaryTableState = createOrGetTableState(primary.getTableName());
         HaeinsaRowTransaction primaryRowState = primaryTableState.createOrGetRowState(primary.getRow());
 
-        HaeinsaTablePool tablePool = getManager().getTablePool();
-        // prewrite primary row (mutation row)
-        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-            table.prewrite(primaryRowState, primary.getRow(), true);
+        if (manager.isPipelinedPrewriteEnabled() && txStates.getMutationRowStates().size() > 1) {
+            prewritePipelined(tables, primaryRowState);
+        } else {
+            // prewrite primary row (mutation row)
+            tables.get(primary.getTableName()).prewrite(primaryRowState, primary.getRow(), true);
+
+            // prewrite secondaries (mutation rows)
+            prewriteSecondaries(tables);
         }
 
-        // prewrite secondaries (mutation rows)
-        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getMutationRowStates().entrySet()) {
-            TRowKey key = rowKeyStateEntry.getKey();
+        // check locking of secondaries by get (read-only rows)
+        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getReadOnlyRowStates().entrySet()) {
+            TRowKey rowKey = rowKeyStateEntry.getKey();
             HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-            if (Bytes.equals(key.getTableName(), primary.getTableName())
-                    && Bytes.equals(key.getRow(), primary.getRow())) {
-                // if this is primaryRow
-                continue;
+            tables.get(rowKey.getTableName()).checkSingleRowLock(rowTx, rowKey.getRow());
+        }
+
+        makeStable(tables);
+    }
+
+    private void prewriteSecondaries(TableHandles tables) throws IOException {
+        for (Entry<byte[], NavigableMap<byte[], HaeinsaRowTransaction>> tableEntry
+                : groupByTable(txStates.getMutationRowStates(), false).entrySet()) {
+            tables.get(tableEntry.getKey()).prewriteSecondaries(tableEntry.getValue());
+        }
+    }
+
+    /**
+     * Prewrite primary row in background while secondary rows are prewritten,
+     * so that prewrite phase takes one round trip instead of two.
+     * <p>
+     * Secondary row prewritten before primary row is not referred by primary row yet,
+     * so {@link HaeinsaTransactionManager#getTransaction(byte[], byte[])} on the row throws {@link ConflictException}
+     * until primary row is prewritten. If prewrite of primary row is failed by conflict, nobody else can recover
+     * secondary rows prewritten by this transaction, so they are aborted by this method before the exception is thrown.
+     * Secondary rows left by failure of this client are aborted by other clients after their expiry,
+     * after primary row is fenced so that late prewrite of primary row by this client fails.
+     *
+     * @throws IOException ConflictException, HBase IOException
+     */
+    private void prewritePipelined(TableHandles tables, final HaeinsaRowTransaction primaryRowState) throws IOException {
+        final HaeinsaTablePool tablePool = manager.getTablePool();
+        Future<Void> primaryPrewrite = PREWRITE_EXECUTOR.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                // tables leased by this transaction are not shared with background thread.
+                try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
+                    table.prewrite(primaryRowState, primary.getRow(), true);
+                }
+                return null;
+            }
+        });
+        IOException secondaryFailure = null;
+        try {
+            prewriteSecondaries(tables);
+        } catch (IOException e) {
+            secondaryFailure = e;
+        }
+
+        try {
+            Uninterruptibles.getUninterruptibly(primaryPrewrite);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConflictException) {
+                abortPrewrittenSecondaries(tables);
             }
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(key.getTableName())) {
-                table.prewrite(rowTx, key.getRow(), false);
+            if (secondaryFailure != null) {
+                cause.addSuppressed(secondaryFailure);
             }
+            Throwables.propagateIfPossible(cause, IOException.class);
+            throw new IOException(cause);
+        }
+
+        if (secondaryFailure != null) {
+            if (secondaryFailure instanceof ConflictException) {
+                // Secondary row might be failed before primary row is prewritten. Abort this transaction now,
+                // same as failure of secondary row after primary row is prewritten.
+                try {
+                    HaeinsaTransaction currentTx = manager.getTransaction(primary.getTableName(), primary.getRow());
+                    if (currentTx != null && HaeinsaTransactions.hasSameCommitTimestamp(this, currentTx)) {
+                        currentTx.recover(true);
+                    }
+                } catch (IOException e) {
+                    secondaryFailure.addSuppressed(e);
+                }
+            }
+            throw secondaryFailure;
         }
+    }
 
-        // check locking of secondaries by get (read-only rows)
-        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getReadOnlyRowStates().entrySet()) {
+    /**
+     * Abort secondary rows prewritten by this transaction when prewrite of primary row is failed,
+     * same as {@link #abort(TableHandles)} does for secondary rows.
+     * Rows which can't be aborted are left to be aborted by other clients after their expiry.
+     */
+    private void abortPrewrittenSecondaries(TableHandles tables) {
+        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getMutationRowStates().entrySet()) {
             TRowKey rowKey = rowKeyStateEntry.getKey();
             HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(rowKey.getTableName())) {
-                table.checkSingleRowLock(rowTx, rowKey.getRow());
+            if (Bytes.equals(rowKey.getTableName(), primary.getTableName())
+                    && Bytes.equals(rowKey.getRow(), primary.getRow())) {
+                continue;
+            }
+            if (rowTx.getCurrent().getState() != TRowLockState.PREWRITTEN
+                    || rowTx.getCurrent().getCommitTimestamp() != getCommitTimestamp()) {
+                // this row is not prewritten by this transaction.
+                continue;
+            }
+            try {
+                HaeinsaTableIfaceInternal table = tables.get(rowKey.getTableName());
+                table.deletePrewritten(rowTx, rowKey.getRow());
+                table.makeStable(rowTx, rowKey.getRow());
+            } catch (IOException e) {
+                LOGGER.warn("can't abort secondary row prewritten before primary row : " + rowKey, e);
             }
         }
-
-        makeStable();
     }
 
     /**
      * Change states of {@link TRowLock} of all mutation rows to {@link TRowLockState#STABLE}.
      * This can be called by following two cases.
      * <p>
-     * 1. In case of {@link #commitMultiRowsMutation()}, after changing primary row to
+     * 1. In case of {@link #commitMultiRowsMutation(TableHandles)}, after changing primary row to
      * {@link TRowLockState#COMMITTED} and applying all mutations in primary row and secondary rows.
      * <p>
      * 2. When try to {@link #recover(boolean)} failed transaction in the middle of execution.
@@ -395,40 +550,29 @@ public class HaeinsaTransaction {
      *
      * @throws IOException ConflictException, HBase IOException.
      */
-    private void makeStable() throws IOException {
+    private void makeStable(TableHandles tables) throws IOException {
         extendExpiry();
 
-        HaeinsaTablePool tablePool = getManager().getTablePool();
         HaeinsaRowTransaction primaryRowTx = createOrGetTableState(primary.getTableName())
                 .createOrGetRowState(primary.getRow());
         // commit primary or get more time to commit this.
-        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-            // commitPrimary can be happened two times, this is because recovering client need to
-            // extend expiry during recovering.
-            table.commitPrimary(primaryRowTx, primary.getRow());
-        }
+        // commitPrimary can be happened two times, this is because recovering client need to
+        // extend expiry during recovering.
+        tables.get(primary.getTableName()).commitPrimary(primaryRowTx, primary.getRow());
         // if transaction reached this state, the transaction is considered as success one.
         try {
-            // Change state of secondary rows to stable
             for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getMutationRowStates().entrySet()) {
                 TRowKey rowKey = rowKeyStateEntry.getKey();
-                HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-                try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(rowKey.getTableName())) {
-                    table.applyMutations(rowTx, rowKey.getRow());
-                    if (Bytes.equals(rowKey.getTableName(), primary.getTableName())
-                            && Bytes.equals(rowKey.getRow(), primary.getRow())) {
-                        // in case of primary row
-                        continue;
-                    }
-                    // make secondary rows from prewritten to stable
-                    table.makeStable(rowTx, rowKey.getRow());
-                }
+                tables.get(rowKey.getTableName()).applyMutations(rowKeyStateEntry.getValue(), rowKey.getRow());
+            }
+            // make secondary rows from prewritten to stable
+            for (Entry<byte[], NavigableMap<byte[], HaeinsaRowTransaction>> tableEntry
+                    : groupByTable(txStates.getMutationRowStates(), false).entrySet()) {
+                tables.get(tableEntry.getKey()).makeStable(tableEntry.getValue());
             }
 
             // make primary row stable
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-                table.makeStable(primaryRowTx, primary.getRow());
-            }
+            tables.get(primary.getTableName()).makeStable(primaryRowTx, primary.getRow());
         } catch (RecoverableConflictException e) {
             // if making row stable is failed, but primary is committed. Then treat this transaction as succeeded.
             LOGGER.warn(e.getMessage(), e);
@@ -436,7 +580,7 @@ public class HaeinsaTransaction {
     }
 
     /**
-     * Reload information of failed transaction and complete it by calling {@link #makeStable()}
+     * Reload information of failed transaction and complete it by calling {@link #makeStable(TableHandles)}
      * if already completed one, ( when primaryRow have {@link TRowLockState#COMMITTED} state }
      * or abort by calling {@link #abort()} otherwise.
      *
@@ -448,7 +592,7 @@ public class HaeinsaTransaction {
         HaeinsaRowTransaction primaryRowTx = createOrGetTableState(primary.getTableName()).createOrGetRowState(primary.getRow());
         if (primaryRowTx.getCurrent().getState() == TRowLockState.PREWRITTEN) {
             // If primary row is in prewritten state, transaction can be aborted only after expiry.
-            if (ignoreExpiry || primaryRowTx.getCurrent().getExpiry() < System.currentTimeMillis()) {
+            if (ignoreExpiry || manager.getTimestampSource().isExpired(primaryRowTx.getCurrent().getExpiry())) {
                 // if transaction is not expired, process recover
             } else {
                 // if transaction haven't past expiry, recover should be failed.
@@ -458,19 +602,21 @@ public class HaeinsaTransaction {
 
         extendExpiry();
 
-        switch (primaryRowTx.getCurrent().getState()) {
-        case ABORTED:
-        case PREWRITTEN: {
-            abort();
-            break;
-        }
-        case COMMITTED: {
-            // Transaction is already succeeded.
-            makeStable();
-            break;
-        }
-        default:
-            throw new ConflictException();
+        try (TableHandles tables = new TableHandles(getManager().getTablePool())) {
+            switch (primaryRowTx.getCurrent().getState()) {
+            case ABORTED:
+            case PREWRITTEN: {
+                abort(tables);
+                break;
+            }
+            case COMMITTED: {
+                // Transaction is already succeeded.
+                makeStable(tables);
+                break;
+            }
+            default:
+                throw new ConflictException();
+            }
         }
     }
 
@@ -495,38 +641,59 @@ public class HaeinsaTransaction {
      * @throws IOException ConflictException, HBase IOException.
      */
     protected void abort() throws IOException {
+        try (TableHandles tables = new TableHandles(getManager().getTablePool())) {
+            abort(tables);
+        }
+    }
+
+    private void abort(TableHandles tables) throws IOException {
         if (txStates.getMutationRowStates().size() == 0) {
             // if commitReadOnly fails, don't abort
             return;
         }
 
-        HaeinsaTablePool tablePool = getManager().getTablePool();
         HaeinsaRowTransaction primaryRowTx = createOrGetTableState(primary.getTableName()).createOrGetRowState(primary.getRow());
         // abort primary row
-        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-            table.abortPrimary(primaryRowTx, primary.getRow());
-        }
+        tables.get(primary.getTableName()).abortPrimary(primaryRowTx, primary.getRow());
 
         // recover secondary mutation rows
-        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : txStates.getMutationRowStates().entrySet()) {
-            TRowKey rowKey = rowKeyStateEntry.getKey();
-            HaeinsaRowTransaction rowTx = rowKeyStateEntry.getValue();
-            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(rowKey.getTableName())) {
-                table.deletePrewritten(rowTx, rowKey.getRow());
-
-                if (Bytes.equals(rowKey.getTableName(), primary.getTableName())
-                        && Bytes.equals(rowKey.getRow(), primary.getRow())) {
-                    continue;
-                }
-                // make secondary rows from prewritten to stable
-                table.makeStable(rowTx, rowKey.getRow());
-            }
+        for (Entry<byte[], NavigableMap<byte[], HaeinsaRowTransaction>> tableEntry
+                : groupByTable(txStates.getMutationRowStates(), true).entrySet()) {
+            tables.get(tableEntry.getKey()).deletePrewritten(tableEntry.getValue());
+        }
+        // make secondary rows from prewritten to stable
+        for (Entry<byte[], NavigableMap<byte[], HaeinsaRowTransaction>> tableEntry
+                : groupByTable(txStates.getMutationRowStates(), false).entrySet()) {
+            tables.get(tableEntry.getKey()).makeStable(tableEntry.getValue());
         }
 
         // make primary row stable
-        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primary.getTableName())) {
-            table.makeStable(primaryRowTx, primary.getRow());
+        tables.get(primary.getTableName()).makeStable(primaryRowTx, primary.getRow());
+    }
+
+    /**
+     * Group states of rows by table, and sort rows of each table, so that rows in same region are adjacent.
+     *
+     * @param includePrimary false to exclude primary row
+     */
+    private NavigableMap<byte[], NavigableMap<byte[], HaeinsaRowTransaction>> groupByTable(
+            NavigableMap<TRowKey, HaeinsaRowTransaction> rowStates, boolean includePrimary) {
+        NavigableMap<byte[], NavigableMap<byte[], HaeinsaRowTransaction>> tableRowStates =
+                Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        for (Entry<TRowKey, HaeinsaRowTransaction> rowKeyStateEntry : rowStates.entrySet()) {
+            TRowKey rowKey = rowKeyStateEntry.getKey();
+            if (!includePrimary && Bytes.equals(rowKey.getTableName(), primary.getTableName())
+                    && Bytes.equals(rowKey.getRow(), primary.getRow())) {
+                continue;
+            }
+            NavigableMap<byte[], HaeinsaRowTransaction> rows = tableRowStates.get(rowKey.getTableName());
+            if (rows == null) {
+                rows = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+                tableRowStates.put(rowKey.getTableName(), rows);
+            }
+            rows.put(rowKey.getRow(), rowKeyStateEntry.getValue());
         }
+        return tableRowStates;
     }
 
     /**
@@ -538,6 +705,54 @@ public class HaeinsaTransaction {
         txStates.classifyAndSortRows(onRecovery);
     }
 
+    /**
+     * Tables leased from {@link HaeinsaTablePool} during single commit or recovery, keyed by table name.
+     * Each table is leased at most once and returned to the pool on {@link #close()},
+     * rather than leased and returned for each row in the loops over rows of the transaction.
+     * <p>
+     * This class is not Thread-safe.
+     */
+    private static class TableHandles implements Closeable {
+        private final HaeinsaTablePool tablePool;
+        private final NavigableMap<byte[], HaeinsaTableIfaceInternal> tables = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+
+        TableHandles(HaeinsaTablePool tablePool) {
+            this.tablePool = tablePool;
+        }
+
+        HaeinsaTableIfaceInternal get(byte[] tableName) {
+            HaeinsaTableIfaceInternal table = tables.get(tableName);
+            if (table == null) {
+                table = tablePool.getTableInternal(tableName);
+                tables.put(tableName, table);
+            }
+            return table;
+        }
+
+        /**
+         * Return all leased tables to the pool. Tables are returned even if some of them failed.
+         */
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (HaeinsaTableIfaceInternal table : tables.values()) {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            tables.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
     /**
      * Container which contain {byte[] : {@link HaeinsaTableTransaction} map.
      * <p>
@@ -17,16 +17,21 @@ package kr.co.vcnc.haeinsa;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
+import kr.co.vcnc.haeinsa.coprocessor.HaeinsaLockEndpoint;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
 import kr.co.vcnc.haeinsa.exception.DanglingRowLockException;
+import kr.co.vcnc.haeinsa.exception.RecoverableConflictException;
 import kr.co.vcnc.haeinsa.thrift.TRowLocks;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
 
 import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 
 /**
  * Manager class of {@link HaeinsaTransaction}.
@@ -38,6 +43,12 @@ import com.google.common.base.Objects;
  */
 public class HaeinsaTransactionManager {
     private final HaeinsaTablePool tablePool;
+    private volatile int outOfLineMutationThreshold = -1;
+    private volatile int rowLockCompressionThreshold = -1;
+    private volatile int outOfLineSecondaryThreshold = -1;
+    private volatile boolean lockEndpointEnabled = false;
+    private volatile boolean pipelinedPrewriteEnabled = false;
+    private volatile HaeinsaTimestampSource timestampSource = HaeinsaSystemClock.INSTANCE;
 
     /**
      * Constructor for TransactionManager
@@ -60,6 +71,82 @@ public class HaeinsaTransactionManager {
         return new HaeinsaTransaction(this);
     }
 
+    /**
+     * Get {@link HaeinsaTransaction} instance with given isolation level.
+     * Transaction in {@link HaeinsaIsolationLevel#SNAPSHOT} reads snapshot of current time,
+     * like {@link #beginSnapshotRead()}, but can have put and delete.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @param isolationLevel isolation level of the transaction.
+     * @return new Transaction instance have reference to this manager instance.
+     * @throws IllegalStateException if timestamp of snapshot can't be taken from timestamp source of this manager.
+     * Cause of the exception is IOException from the timestamp source.
+     */
+    public HaeinsaTransaction begin(HaeinsaIsolationLevel isolationLevel) {
+        HaeinsaTransaction tx = new HaeinsaTransaction(this, isolationLevel);
+        if (isolationLevel == HaeinsaIsolationLevel.SNAPSHOT) {
+            tx.setSnapshotTimestamp(currentSnapshotTimestamp());
+        }
+        return tx;
+    }
+
+    /**
+     * Get {@link HaeinsaTransaction} instance which reads snapshot of current time.
+     * See {@link #beginSnapshotRead(long)}.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @return new snapshot read transaction instance have reference to this manager instance.
+     * @throws IllegalStateException if timestamp of snapshot can't be taken from timestamp source of this manager.
+     * Cause of the exception is IOException from the timestamp source.
+     */
+    public HaeinsaTransaction beginSnapshotRead() {
+        return beginSnapshotRead(currentSnapshotTimestamp());
+    }
+
+    /**
+     * Take snapshot timestamp from timestamp source, without adding checked exception to begin methods.
+     */
+    private long currentSnapshotTimestamp() {
+        try {
+            return timestampSource.currentTimestamp();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't take snapshot timestamp from timestamp source.", e);
+        }
+    }
+
+    /**
+     * Get {@link HaeinsaTransaction} instance which reads data committed before given snapshot timestamp.
+     * Every row is read with time range of [0, snapshotTimestamp). Lock of the row whose transaction
+     * commits on or after snapshotTimestamp is ignored by reading data written before the transaction.
+     * Unstable lock whose transaction commits before snapshotTimestamp is recovered like other transactions.
+     * So snapshot read transaction does not validate read rows on commit, and can't be failed by
+     * concurrent writes.
+     * <p>
+     * Snapshot read transaction can't have put or delete.
+     * Previous versions of data are needed to read snapshot of rows modified after snapshotTimestamp,
+     * so column families read by snapshot read transaction should keep multiple versions (VERSIONS > 1)
+     * and deleted cells (KEEP_DELETED_CELLS => true) for the time snapshot read transaction lasts.
+     * Otherwise, data committed after snapshotTimestamp can hide data which should be read.
+     * <p>
+     * Commit timestamp of Haeinsa transaction can be few milliseconds ahead of the clock of committing client.
+     * So transaction committed just before this method is called may not be visible to the snapshot,
+     * unless {@link HaeinsaHybridLogicalClock} is used as timestamp source of this manager.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @param snapshotTimestamp timestamp of the snapshot, exclusive.
+     * @return new snapshot read transaction instance have reference to this manager instance.
+     */
+    public HaeinsaTransaction beginSnapshotRead(long snapshotTimestamp) {
+        Preconditions.checkArgument(snapshotTimestamp > 0, "snapshotTimestamp should be positive.");
+        HaeinsaTransaction tx = new HaeinsaTransaction(this, HaeinsaIsolationLevel.SNAPSHOT);
+        tx.setSnapshotTimestamp(snapshotTimestamp);
+        tx.setSnapshotRead(true);
+        return tx;
+    }
+
     /**
      * Make new {@link HaeinsaTransaction} instance which can be used to recover
      * other failed/uncompleted transaction. Also read and recover primaryRowKey and primaryRowLock
@@ -74,114 +161,174 @@ public class HaeinsaTransactionManager {
      */
     @Nullable
     protected HaeinsaTransaction getTransaction(byte[] tableName, byte[] row) throws IOException {
-        TRowLock unstableRowLock = getUnstableRowLock(tableName, row);
+        byte[] unstableRowLockBytes = getRowLockBytes(tableName, row);
+        TRowLock unstableRowLock = TRowLocks.deserialize(unstableRowLockBytes);
 
-        if (unstableRowLock == null) {
+        if (unstableRowLock.getState() == TRowLockState.STABLE) {
             // There is no on-going transaction on the row.
             return null;
         }
 
         TRowLock primaryRowLock = null;
+        byte[] primaryRowLockBytes = null;
         TRowKey primaryRowKey = null;
         if (TRowLocks.isPrimary(unstableRowLock)) {
             // this row is primary row, because primary field is not set.
             primaryRowKey = new TRowKey(ByteBuffer.wrap(tableName), ByteBuffer.wrap(row));
             primaryRowLock = unstableRowLock;
+            primaryRowLockBytes = unstableRowLockBytes;
         } else {
             primaryRowKey = unstableRowLock.getPrimary();
-            primaryRowLock = getRowLock(primaryRowKey.getTableName(), primaryRowKey.getRow());
+            primaryRowLockBytes = getRowLockBytes(primaryRowKey.getTableName(), primaryRowKey.getRow());
+            primaryRowLock = TRowLocks.deserialize(primaryRowLockBytes);
 
             TRowKey rowKey = new TRowKey().setTableName(tableName).setRow(row);
-            if (!TRowLocks.isSecondaryOf(primaryRowKey, primaryRowLock, rowKey, unstableRowLock)) {
+            if (!isSecondaryOf(primaryRowKey, primaryRowLock, rowKey, unstableRowLock)) {
                 checkDanglingRowLockOrThrow(tableName, row, unstableRowLock);
                 return null;
             }
         }
-        return getTransactionFromPrimary(primaryRowKey, primaryRowLock);
+        return getTransactionFromPrimary(primaryRowKey, primaryRowLock, primaryRowLockBytes);
     }
 
     /**
-     * Get Unstable state of {@link TRowLock} from given row. Returns null if
-     * {@link TRowLock} is {@link TRowLockState#STABLE}.
+     * Get bytes of {@link TRowLock} from given row as saved in HBase.
+     * The bytes are kept in recovered transaction to be used as expected value of checkAndPut.
      *
      * @param tableName Table name of the row
      * @param row Row key of the row
-     * @return null if TRowLock is {@link TRowLockState#STABLE}, otherwise
-     * return rowLock from HBase.
+     * @return bytes of RowLock of given row from HBase, or null if the row doesn't have lock.
      * @throws IOException When error occurs in HBase.
      */
-    private TRowLock getUnstableRowLock(byte[] tableName, byte[] row) throws IOException {
-        TRowLock rowLock = getRowLock(tableName, row);
-        if (rowLock.getState() == TRowLockState.STABLE) {
-            return null;
-        } else {
-            return rowLock;
-        }
-    }
-
-    /**
-     * Get {@link TRowLock} from given row.
-     *
-     * @param tableName Table name of the row
-     * @param row Row key of the row
-     * @return RowLock of given row from HBase
-     * @throws IOException When error occurs in HBase.
-     */
-    private TRowLock getRowLock(byte[] tableName, byte[] row) throws IOException {
-        TRowLock rowLock = null;
+    @Nullable
+    private byte[] getRowLockBytes(byte[] tableName, byte[] row) throws IOException {
         try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(tableName)) {
             // access to HBase
-            rowLock = table.getRowLock(row);
+            return table.getRowLockBytes(row);
         }
-        return rowLock;
     }
 
     /**
      * Check if given {@link TRowLock} is dangling RowLock. RowLock is in
      * dangling if the RowLock is secondary lock and the primary of the RowLock
      * doesn't have the RowLock as secondary.
+     * <p>
+     * If pipelined prewrite is enabled, secondary row can be prewritten before primary row.
+     * Such RowLock is not dangling until it is expired, and it is aborted by
+     * {@link #abortOrphanRowLock(TRowKey, TRowLock, byte[], TRowKey, TRowLock, byte[])} after expiry.
      *
      * @param tableName TableName of Transaction to check dangling RowLock.
      * @param row Row of Transaction to check dangling RowLock.
      * @param rowLock RowLock to check if it is dangling
      * @throws IOException When error occurs. Especially throw
-     * {@link DanglingRowLockException}if given RowLock is dangling.
+     * {@link DanglingRowLockException} if given RowLock is dangling,
+     * or {@link ConflictException} if pipelined prewrite is enabled and RowLock is not expired yet,
+     * because primary row might not be prewritten yet.
      */
     private void checkDanglingRowLockOrThrow(byte[] tableName, byte[] row, TRowLock rowLock) throws IOException {
         TRowLock previousRowLock = rowLock;
-        TRowLock currentRowLock = getRowLock(tableName, row);
+        byte[] currentRowLockBytes = getRowLockBytes(tableName, row);
+        TRowLock currentRowLock = TRowLocks.deserialize(currentRowLockBytes);
 
         // It is not a dangling RowLock if RowLock is changed.
         if (Objects.equal(previousRowLock, currentRowLock)) {
             if (!TRowLocks.isPrimary(currentRowLock)) {
                 TRowKey primaryRowKey = currentRowLock.getPrimary();
-                TRowLock primaryRowLock = getRowLock(primaryRowKey.getTableName(), primaryRowKey.getRow());
+                byte[] primaryRowLockBytes = getRowLockBytes(primaryRowKey.getTableName(), primaryRowKey.getRow());
+                TRowLock primaryRowLock = TRowLocks.deserialize(primaryRowLockBytes);
 
                 TRowKey secondaryRowKey = new TRowKey().setTableName(tableName).setRow(row);
-                if (!TRowLocks.isSecondaryOf(primaryRowKey, primaryRowLock, secondaryRowKey, currentRowLock)) {
+                if (!isSecondaryOf(primaryRowKey, primaryRowLock, secondaryRowKey, currentRowLock)) {
+                    if (pipelinedPrewriteEnabled) {
+                        if (!timestampSource.isExpired(currentRowLock.getExpiry())) {
+                            // secondary row can be prewritten before primary row by pipelined prewrite.
+                            throw new ConflictException("Primary lock doesn't have rowLock as secondary yet.");
+                        }
+                        abortOrphanRowLock(primaryRowKey, primaryRowLock, primaryRowLockBytes,
+                                secondaryRowKey, currentRowLock, currentRowLockBytes);
+                        return;
+                    }
                     throw new DanglingRowLockException(secondaryRowKey, "Primary lock doesn't have rowLock as secondary.");
                 }
             }
         }
     }
 
+    /**
+     * Abort expired secondary row prewritten by pipelined prewrite of a transaction
+     * which is failed before its primary row is prewritten.
+     * <p>
+     * Primary row is fenced first by making it stable at commit timestamp of the transaction, as abort of
+     * the transaction does. So prewrite of primary row by the failed client, which might be delayed,
+     * fails on checkAndPut after the secondary row is aborted. Primary row which is unstable or already stable
+     * at or after commit timestamp of the transaction is not fenced, because its lock was changed after
+     * the transaction read it, and never becomes same as the lock expected by prewrite of the transaction.
+     * If primary row is changed while fencing, secondary row is left to be checked again on next recover.
+     */
+    private void abortOrphanRowLock(TRowKey primaryRowKey, TRowLock primaryRowLock,
+                                    @Nullable byte[] primaryRowLockBytes,
+                                    TRowKey secondaryRowKey, TRowLock secondaryRowLock,
+                                    @Nullable byte[] secondaryRowLockBytes) throws IOException {
+        HaeinsaTransaction transaction = new HaeinsaTransaction(this);
+        transaction.setPrimary(primaryRowKey);
+        transaction.setCommitTimestamp(secondaryRowLock.getCommitTimestamp());
+        if (primaryRowLock.getState() == TRowLockState.STABLE
+                && primaryRowLock.getCommitTimestamp() < transaction.getCommitTimestamp()) {
+            HaeinsaRowTransaction primaryRowTxState = transaction.createOrGetTableState(primaryRowKey.getTableName())
+                    .createOrGetRowState(primaryRowKey.getRow());
+            primaryRowTxState.setCurrent(primaryRowLock, primaryRowLockBytes);
+            try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primaryRowKey.getTableName())) {
+                table.makeStable(primaryRowTxState, primaryRowKey.getRow());
+            } catch (RecoverableConflictException e) {
+                // primary row might be prewritten by the transaction in the meantime.
+                return;
+            }
+        }
+        HaeinsaRowTransaction rowTxState = transaction.createOrGetTableState(secondaryRowKey.getTableName())
+                .createOrGetRowState(secondaryRowKey.getRow());
+        rowTxState.setCurrent(secondaryRowLock, secondaryRowLockBytes);
+        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(secondaryRowKey.getTableName())) {
+            table.deletePrewritten(rowTxState, secondaryRowKey.getRow());
+            table.makeStable(rowTxState, secondaryRowKey.getRow());
+        }
+    }
+
+    /**
+     * Check if given row is secondary row of the transaction of primary row.
+     * Same as {@link TRowLocks#isSecondaryOf(TRowKey, TRowLock, TRowKey, TRowLock)},
+     * but secondary rows stored out of primary row lock are also checked.
+     */
+    private boolean isSecondaryOf(TRowKey primaryRowKey, TRowLock primaryRowLock,
+                                  TRowKey secondaryRowKey, TRowLock secondaryRowLock) throws IOException {
+        if (primaryRowLock.getCommitTimestamp() != secondaryRowLock.getCommitTimestamp()
+                || !TRowLocks.containsRowKeyAsPrimary(secondaryRowLock, primaryRowKey)) {
+            return false;
+        }
+        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(primaryRowKey.getTableName())) {
+            return table.containsSecondary(primaryRowKey.getRow(), primaryRowLock, secondaryRowKey);
+        }
+    }
+
     /**
      * Recover TRowLocks of failed HaeinsaTransaction from primary row on HBase.
      * Transaction information about secondary rows are recovered with
      * {@link #addSecondaryRowLock(HaeinsaTransaction, TRowKey, TRowLock, TRowKey)}.
      * HaeinsaTransaction made by this method do not assign proper values on mutations variable.
      */
-    private HaeinsaTransaction getTransactionFromPrimary(TRowKey rowKey, TRowLock primaryRowLock) throws IOException {
+    private HaeinsaTransaction getTransactionFromPrimary(TRowKey rowKey, TRowLock primaryRowLock,
+                                                         @Nullable byte[] primaryRowLockBytes) throws IOException {
         HaeinsaTransaction transaction = new HaeinsaTransaction(this);
         transaction.setPrimary(rowKey);
         transaction.setCommitTimestamp(primaryRowLock.getCommitTimestamp());
         HaeinsaTableTransaction primaryTableTxState = transaction.createOrGetTableState(rowKey.getTableName());
         HaeinsaRowTransaction primaryRowTxState = primaryTableTxState.createOrGetRowState(rowKey.getRow());
-        primaryRowTxState.setCurrent(primaryRowLock);
-        if (primaryRowLock.getSecondariesSize() > 0) {
-            for (TRowKey secondaryRow : primaryRowLock.getSecondaries()) {
-                addSecondaryRowLock(transaction, rowKey, primaryRowLock, secondaryRow);
-            }
+        primaryRowTxState.setCurrent(primaryRowLock, primaryRowLockBytes);
+        List<TRowKey> secondaries;
+        try (HaeinsaTableIfaceInternal table = tablePool.getTableInternal(rowKey.getTableName())) {
+            secondaries = table.getSecondaries(rowKey.getRow(), primaryRowLock);
+        }
+        for (TRowKey secondaryRow : secondaries) {
+            addSecondaryRowLock(transaction, rowKey, primaryRowLock, secondaryRow);
         }
         return transaction;
     }
@@ -195,12 +342,13 @@ public class HaeinsaTransactionManager {
      * Secondary row is not included in recovered transaction neither when commitTimestamp is different with primary row's,
      * because it implicates that the row is locked by other transaction.
      * <p>
-     * As similar to {@link #getTransactionFromPrimary(TRowKey, TRowLock)}, rowTransaction added by this method do not have
+     * As similar to {@link #getTransactionFromPrimary(TRowKey, TRowLock, byte[])}, rowTransaction added by this method do not have
      * proper mutations variable.
      */
     private void addSecondaryRowLock(HaeinsaTransaction transaction, TRowKey primaryRowKey,
                                      TRowLock primaryRowLock, TRowKey secondaryRowKey) throws IOException {
-        TRowLock secondaryRowLock = getRowLock(secondaryRowKey.getTableName(), secondaryRowKey.getRow());
+        byte[] secondaryRowLockBytes = getRowLockBytes(secondaryRowKey.getTableName(), secondaryRowKey.getRow());
+        TRowLock secondaryRowLock = TRowLocks.deserialize(secondaryRowLockBytes);
         if (secondaryRowLock.getCommitTimestamp() > transaction.getCommitTimestamp()) {
             // this row isn't a part of this transaction or already aborted.
             return;
@@ -209,13 +357,168 @@ public class HaeinsaTransactionManager {
             // this row is already committed or aborted.
             return;
         }
-        if (secondaryRowLock.getState() != TRowLockState.STABLE && !TRowLocks.isSecondaryOf(primaryRowKey, primaryRowLock, secondaryRowKey, secondaryRowLock)) {
+        // secondaryRowKey is from secondary rows of primaryRowLock, so only primary and commitTimestamp are checked,
+        // without looking up secondary rows of primaryRowLock again.
+        if (secondaryRowLock.getState() != TRowLockState.STABLE
+                && (secondaryRowLock.getCommitTimestamp() != primaryRowLock.getCommitTimestamp()
+                        || !TRowLocks.containsRowKeyAsPrimary(secondaryRowLock, primaryRowKey))) {
             // this row isn't a part of this transaction.
             return;
         }
         HaeinsaTableTransaction tableState = transaction.createOrGetTableState(secondaryRowKey.getTableName());
         HaeinsaRowTransaction rowState = tableState.createOrGetRowState(secondaryRowKey.getRow());
-        rowState.setCurrent(secondaryRowLock);
+        rowState.setCurrent(secondaryRowLock, secondaryRowLockBytes);
+    }
+
+    /**
+     * @return minimum serialized size of mutation stored out of {@link TRowLock}, or negative value if disabled.
+     */
+    public int getOutOfLineMutationThreshold() {
+        return outOfLineMutationThreshold;
+    }
+
+    /**
+     * Set minimum serialized size in bytes of mutation to be stored out of {@link TRowLock}.
+     * <p>
+     * Mutations which can't be applied on prewrite are saved in {@link TRowLock} of the row by default,
+     * and TRowLock is sent as expected value of every checkAndPut until the mutations are applied.
+     * If this option is set, payload of mutation whose serialized size is larger than or equal to threshold
+     * is written to separate column of lock column family in same Put of prewrite,
+     * and TRowLock only keeps qualifier of the column. The column is overwritten with empty value
+     * when the mutation is applied or the transaction is aborted.
+     * <p>
+     * Row locks written with this option can't be recovered by clients of older release,
+     * so every client should be updated before this option is enabled.
+     * Default is -1, which disables this option.
+     *
+     * @param threshold minimum serialized size of mutation in bytes, or negative value to disable.
+     */
+    public void setOutOfLineMutationThreshold(int threshold) {
+        this.outOfLineMutationThreshold = threshold;
+    }
+
+    /**
+     * @return minimum serialized size of {@link TRowLock} to be compressed, or negative value if disabled.
+     */
+    public int getRowLockCompressionThreshold() {
+        return rowLockCompressionThreshold;
+    }
+
+    /**
+     * Set minimum serialized size in bytes of {@link TRowLock} to be compressed with LZ4.
+     * <p>
+     * TRowLock of prewritten row contains cells, mutations and secondary rows of the transaction,
+     * which repeat same family, qualifier and table name many times.
+     * If this option is set, TRowLock which is not {@link TRowLockState#STABLE} and is larger than
+     * or equal to threshold is compressed when it is written to HBase. Stable TRowLock is never compressed.
+     * See {@link TRowLocks#serialize(TRowLock, int)}.
+     * <p>
+     * Compressed TRowLock can't be read by clients of older release,
+     * so every client should be updated before this option is enabled.
+     * Default is -1, which disables this option.
+     *
+     * @param threshold minimum size of TRowLock in bytes, or negative value to disable.
+     */
+    public void setRowLockCompressionThreshold(int threshold) {
+        this.rowLockCompressionThreshold = threshold;
+    }
+
+    /**
+     * @return minimum number of secondary rows stored out of {@link TRowLock}, or negative value if disabled.
+     */
+    public int getOutOfLineSecondaryThreshold() {
+        return outOfLineSecondaryThreshold;
+    }
+
+    /**
+     * Set minimum number of secondary rows of transaction to be stored out of {@link TRowLock} of primary row.
+     * <p>
+     * {@link TRowLock} of primary row has every other row of the transaction by default,
+     * so size of the lock grows with the number of rows, and the lock is sent in every checkAndPut on primary row.
+     * If this option is set and number of secondary rows is larger than or equal to threshold,
+     * secondary rows are partitioned by hash into chunks of about {@link HaeinsaConstants#SECONDARY_CHUNK_SIZE} rows,
+     * which are written to separate columns of lock column family in same Put of prewrite.
+     * Each chunk saves table names once, and TRowLock only keeps the number of chunks.
+     * Whether a row is secondary of the transaction can be checked by reading only one chunk.
+     * The chunks are overwritten with empty value when primary row becomes stable.
+     * <p>
+     * Row locks written with this option can't be recovered by clients of older release,
+     * so every client should be updated before this option is enabled.
+     * Default is -1, which disables this option.
+     *
+     * @param threshold minimum number of secondary rows, or negative value to disable.
+     */
+    public void setOutOfLineSecondaryThreshold(int threshold) {
+        this.outOfLineSecondaryThreshold = threshold;
+    }
+
+    /**
+     * @return true if lock transitions of rows are applied in batch by {@link HaeinsaLockEndpoint}.
+     */
+    public boolean isLockEndpointEnabled() {
+        return lockEndpointEnabled;
+    }
+
+    /**
+     * Set whether lock transitions of multiple rows in a table are applied in batch by {@link HaeinsaLockEndpoint}.
+     * <p>
+     * Each lock transition of a row is applied by separate checkAndPut or checkAndDelete by default.
+     * If this option is set, prewrite and stabilization of secondary rows and deletion of prewritten cells
+     * on abort are sent to HaeinsaLockEndpoint in one RPC for each region, which applies each transition
+     * atomically under lock of its row. Transitions of primary row are not changed.
+     * <p>
+     * HaeinsaLockEndpoint should be registered to every table used by transactions of this manager
+     * before this option is enabled. Default is false.
+     *
+     * @param enabled true to apply lock transitions in batch
+     */
+    public void setLockEndpointEnabled(boolean enabled) {
+        this.lockEndpointEnabled = enabled;
+    }
+
+    /**
+     * @return true if primary row and secondary rows are prewritten concurrently.
+     */
+    public boolean isPipelinedPrewriteEnabled() {
+        return pipelinedPrewriteEnabled;
+    }
+
+    /**
+     * Set whether primary row and secondary rows of transaction are prewritten concurrently.
+     * <p>
+     * Secondary rows are prewritten after prewrite of primary row returns by default, which takes two round trips.
+     * If this option is set, primary row is prewritten in background thread while secondary rows are prewritten,
+     * so prewrite phase takes one round trip. Secondary row prewritten before primary row is not referred by
+     * primary row, so other transactions meeting the row fail with {@link ConflictException} until primary row is
+     * prewritten. If prewrite of primary row fails by conflict, the committing client aborts its secondary rows.
+     * Secondary rows left by a client which failed before prewrite of primary row are aborted by other clients
+     * after their expiry, once primary row is fenced against late prewrite of the failed client.
+     * Every client sharing tables should enable this option, because clients without it report
+     * such secondary rows by {@link DanglingRowLockException}.
+     * Default is false.
+     *
+     * @param enabled true to prewrite primary row and secondary rows concurrently
+     */
+    public void setPipelinedPrewriteEnabled(boolean enabled) {
+        this.pipelinedPrewriteEnabled = enabled;
+    }
+
+    public HaeinsaTimestampSource getTimestampSource() {
+        return timestampSource;
+    }
+
+    /**
+     * Set source of timestamps used by transactions of this manager, which is {@link HaeinsaSystemClock} by default.
+     * {@link HaeinsaHybridLogicalClock} keeps timestamps monotonic, follows timestamps of other clients,
+     * and tolerates clock offset between clients on checking expiry of row locks.
+     * {@link HaeinsaBatchingTimestampSource} takes timestamps from timestamp oracle shared by clients.
+     * Transaction takes a timestamp on commit, and also on begin if it reads snapshot.
+     * Timestamp source should be set before any transaction begins.
+     *
+     * @param timestampSource source of timestamps
+     */
+    public void setTimestampSource(HaeinsaTimestampSource timestampSource) {
+        this.timestampSource = Preconditions.checkNotNull(timestampSource);
     }
 
     /**
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.coprocessor;
+
+import java.io.IOException;
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+
+/**
+ * Compaction scanner of data family, which drops cells prewritten by aborted transaction.
+ * If lock of the row is {@link TRowLockState#ABORTED}, cells in prewritten of the lock at prewrite timestamp
+ * are never read, and will be deleted by {@link kr.co.vcnc.haeinsa.HaeinsaTable#deletePrewritten} on recovery.
+ * Lock of each row is read by {@link RowLockReader}.
+ * <p>
+ * Prewritten cells of secondary rows are not dropped, because whether the transaction is aborted is only known
+ * from lock of the primary row.
+ */
+class AbortedPrewriteCompactionScanner extends FilteringCompactionScanner {
+    /**
+     * Reads current lock of the row from the region.
+     */
+    interface RowLockReader {
+        /**
+         * @return null if the row does not have lock.
+         */
+        TRowLock getRowLock(byte[] row) throws IOException;
+    }
+
+    private final RowLockReader rowLockReader;
+    private byte[] row;
+    // null if the row is not aborted
+    private List<TCellKey> abortedPrewritten;
+    private long abortedPrewriteTimestamp;
+
+    AbortedPrewriteCompactionScanner(InternalScanner delegate, RowLockReader rowLockReader) {
+        super(delegate);
+        this.rowLockReader = rowLockReader;
+    }
+
+    @Override
+    protected boolean include(Cell cell) throws IOException {
+        if (row == null || !CellUtil.matchingRow(cell, row)) {
+            row = CellUtil.cloneRow(cell);
+            TRowLock rowLock = rowLockReader.getRowLock(row);
+            if (rowLock != null && rowLock.getState() == TRowLockState.ABORTED && rowLock.getPrewrittenSize() > 0) {
+                abortedPrewritten = rowLock.getPrewritten();
+                // same timestamp as HaeinsaTable#deletePrewritten
+                abortedPrewriteTimestamp = rowLock.isSetPrewriteTimestamp()
+                        ? rowLock.getPrewriteTimestamp() : rowLock.getCurrentTimestamp();
+            } else {
+                abortedPrewritten = null;
+            }
+        }
+        if (abortedPrewritten == null || cell.getTypeByte() != KeyValue.Type.Put.getCode()
+                || cell.getTimestamp() != abortedPrewriteTimestamp) {
+            return true;
+        }
+        for (TCellKey cellKey : abortedPrewritten) {
+            if (CellUtil.matchingColumn(cell, cellKey.getFamily(), cellKey.getQualifier())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
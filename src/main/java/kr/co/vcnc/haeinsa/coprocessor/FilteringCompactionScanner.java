@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.coprocessor;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScannerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link InternalScanner} of compaction which drops cells rejected by {@link #include(Cell)}.
+ * Cells are given to {@link #include(Cell)} in the order of the store, and a row can span multiple calls of next.
+ */
+abstract class FilteringCompactionScanner implements InternalScanner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FilteringCompactionScanner.class);
+
+    private final InternalScanner delegate;
+    private long dropped;
+
+    FilteringCompactionScanner(InternalScanner delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return false if the cell should be dropped by compaction.
+     */
+    protected abstract boolean include(Cell cell) throws IOException;
+
+    @Override
+    public boolean next(List<Cell> results) throws IOException {
+        boolean hasMore = delegate.next(results);
+        filter(results);
+        return hasMore;
+    }
+
+    @Override
+    public boolean next(List<Cell> results, ScannerContext scannerContext) throws IOException {
+        boolean hasMore = delegate.next(results, scannerContext);
+        filter(results);
+        return hasMore;
+    }
+
+    private void filter(List<Cell> results) throws IOException {
+        Iterator<Cell> iterator = results.iterator();
+        while (iterator.hasNext()) {
+            if (!include(iterator.next())) {
+                iterator.remove();
+                dropped++;
+            }
+        }
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+        if (dropped > 0) {
+            LOGGER.debug("{} dropped {} cells.", getClass().getSimpleName(), dropped);
+        }
+    }
+}
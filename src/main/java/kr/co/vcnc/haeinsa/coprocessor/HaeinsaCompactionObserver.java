@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.coprocessor;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+
+import java.io.IOException;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.Region;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Region observer which drops data of Haeinsa no longer read by any transaction on compaction.
+ * Lock family is retained with {@link LockFamilyCompactionScanner}, which drops lock versions older than
+ * {@link #LOCK_RETENTION_KEY} and cleared mutations and secondaries stored out of the lock.
+ * If {@link #DROP_ABORTED_PREWRITES_KEY} is set, data families are compacted with
+ * {@link AbortedPrewriteCompactionScanner}, which reads lock of each compacted row from the region.
+ * <p>
+ * Lock retention should be longer than lifetime of the longest snapshot read transaction,
+ * and lock family should keep enough versions for snapshot read.
+ * If clients take timestamps from {@link kr.co.vcnc.haeinsa.HaeinsaBatchingTimestampSource},
+ * {@link #TIMESTAMP_LOGICAL_BITS_KEY} should be set to its logical bits to compare timestamps with wall clock.
+ * Observer can be registered to the table with
+ * {@link org.apache.hadoop.hbase.HTableDescriptor#addCoprocessor(String)}.
+ */
+public class HaeinsaCompactionObserver extends BaseRegionObserver {
+    public static final String LOCK_RETENTION_KEY = "haeinsa.compaction.lock.retention.ms";
+    public static final long DEFAULT_LOCK_RETENTION = 60 * 60 * 1000L;
+    public static final String DROP_ABORTED_PREWRITES_KEY = "haeinsa.compaction.drop.aborted.prewrites";
+    public static final boolean DEFAULT_DROP_ABORTED_PREWRITES = false;
+    public static final String TIMESTAMP_LOGICAL_BITS_KEY = "haeinsa.compaction.timestamp.logical.bits";
+    public static final int DEFAULT_TIMESTAMP_LOGICAL_BITS = 0;
+
+    private long lockRetention = DEFAULT_LOCK_RETENTION;
+    private boolean dropAbortedPrewrites = DEFAULT_DROP_ABORTED_PREWRITES;
+    private int timestampLogicalBits = DEFAULT_TIMESTAMP_LOGICAL_BITS;
+
+    @Override
+    public void start(CoprocessorEnvironment e) throws IOException {
+        Configuration conf = e.getConfiguration();
+        lockRetention = conf.getLong(LOCK_RETENTION_KEY, DEFAULT_LOCK_RETENTION);
+        Preconditions.checkArgument(lockRetention >= 0, "%s should be non-negative : %s", LOCK_RETENTION_KEY, lockRetention);
+        dropAbortedPrewrites = conf.getBoolean(DROP_ABORTED_PREWRITES_KEY, DEFAULT_DROP_ABORTED_PREWRITES);
+        timestampLogicalBits = conf.getInt(TIMESTAMP_LOGICAL_BITS_KEY, DEFAULT_TIMESTAMP_LOGICAL_BITS);
+        Preconditions.checkArgument(timestampLogicalBits >= 0 && timestampLogicalBits < 32,
+                "%s should be in [0, 32) : %s", TIMESTAMP_LOGICAL_BITS_KEY, timestampLogicalBits);
+    }
+
+    @Override
+    public InternalScanner preCompact(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+            InternalScanner scanner, ScanType scanType, CompactionRequest request) throws IOException {
+        if (Bytes.equals(store.getFamily().getName(), LOCK_FAMILY)) {
+            long horizon = (EnvironmentEdgeManager.currentTime() - lockRetention) << timestampLogicalBits;
+            return new LockFamilyCompactionScanner(scanner, horizon, request.isAllFiles());
+        }
+        if (dropAbortedPrewrites) {
+            final Region region = c.getEnvironment().getRegion();
+            return new AbortedPrewriteCompactionScanner(scanner, new AbortedPrewriteCompactionScanner.RowLockReader() {
+                @Override
+                public TRowLock getRowLock(byte[] row) throws IOException {
+                    Result result = region.get(new Get(row).addColumn(LOCK_FAMILY, LOCK_QUALIFIER));
+                    byte[] lockBytes = result.getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+                    return lockBytes != null ? TRowLocks.deserialize(lockBytes) : null;
+                }
+            });
+        }
+        return scanner;
+    }
+
+    long getLockRetention() {
+        return lockRetention;
+    }
+
+    boolean isDropAbortedPrewrites() {
+        return dropAbortedPrewrites;
+    }
+
+    int getTimestampLogicalBits() {
+        return timestampLogicalBits;
+    }
+}
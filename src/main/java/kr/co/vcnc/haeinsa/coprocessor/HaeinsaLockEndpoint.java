@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.coprocessor;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+
+import java.io.IOException;
+
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.HaeinsaLockService;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.LockTransition;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.MutateLocksRequest;
+import kr.co.vcnc.haeinsa.protobuf.generated.HaeinsaLockProtos.MutateLocksResponse;
+
+import org.apache.hadoop.hbase.Coprocessor;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorException;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorService;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.ResponseConverter;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto;
+import org.apache.hadoop.hbase.regionserver.Region;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcController;
+import com.google.protobuf.Service;
+
+/**
+ * Endpoint which applies batch of conditional mutations on rows of a region in single RPC.
+ * Each {@link LockTransition} is applied atomically under lock of its row,
+ * only if lock column of the row has expected value, which is same as checkAndPut or checkAndDelete of HBase.
+ * <p>
+ * Transitions of the request should be sorted by row. The endpoint applies transitions from the first one
+ * while their rows are in the region, so that client can send remaining transitions to next region.
+ * Endpoint can be registered to the table with {@link org.apache.hadoop.hbase.HTableDescriptor#addCoprocessor(String)},
+ * and is used by transactions if {@link kr.co.vcnc.haeinsa.HaeinsaTransactionManager#setLockEndpointEnabled(boolean)}
+ * is set.
+ */
+public class HaeinsaLockEndpoint extends HaeinsaLockService implements Coprocessor, CoprocessorService {
+    private RegionCoprocessorEnvironment env;
+
+    @Override
+    public void start(CoprocessorEnvironment env) throws IOException {
+        if (!(env instanceof RegionCoprocessorEnvironment)) {
+            throw new CoprocessorException("HaeinsaLockEndpoint should be loaded on table region.");
+        }
+        this.env = (RegionCoprocessorEnvironment) env;
+    }
+
+    @Override
+    public void stop(CoprocessorEnvironment env) throws IOException {
+        // nothing to do
+    }
+
+    @Override
+    public Service getService() {
+        return this;
+    }
+
+    @Override
+    public void mutateLocks(RpcController controller, MutateLocksRequest request, RpcCallback<MutateLocksResponse> done) {
+        MutateLocksResponse.Builder response = MutateLocksResponse.newBuilder();
+        try {
+            Region region = env.getRegion();
+            for (LockTransition transition : request.getTransitionsList()) {
+                byte[] row = transition.getRow().toByteArray();
+                if (!region.getRegionInfo().containsRow(row)) {
+                    // transitions are sorted by row, so remaining ones are not in this region either.
+                    break;
+                }
+                response.addApplied(mutate(region, row, transition));
+            }
+        } catch (IOException e) {
+            ResponseConverter.setControllerException(controller, e);
+        }
+        done.run(response.build());
+    }
+
+    private static boolean mutate(Region region, byte[] row, LockTransition transition) throws IOException {
+        RowMutations rowMutations = new RowMutations(row);
+        for (ByteString mutationBytes : transition.getMutationsList()) {
+            MutationProto mutation = MutationProto.parseFrom(mutationBytes);
+            switch (mutation.getMutateType()) {
+            case PUT: {
+                rowMutations.add(ProtobufUtil.toPut(mutation));
+                break;
+            }
+            case DELETE: {
+                rowMutations.add(ProtobufUtil.toDelete(mutation));
+                break;
+            }
+            default: {
+                throw new IOException("unsupported type of mutation : " + mutation.getMutateType());
+            }
+            }
+        }
+        // empty expected value means the row should not have lock, same as checkAndPut of HBase with null value.
+        return region.checkAndRowMutate(row, LOCK_FAMILY, LOCK_QUALIFIER, CompareOp.EQUAL,
+                new BinaryComparator(transition.getExpectedLock().toByteArray()), rowMutations, true);
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.coprocessor;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.MUTATION_QUALIFIER_PREFIX;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.SECONDARIES_QUALIFIER_PREFIX;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Compaction scanner of lock family, which drops versions of columns no longer read by Haeinsa.
+ * <ul>
+ * <li>Lock column : versions written before the horizon are only read by snapshot read transactions whose
+ * snapshot timestamp is before the horizon. So only the newest version before the horizon is kept,
+ * in addition to the versions after the horizon.</li>
+ * <li>Columns of mutations and secondaries stored out of the lock : only the newest version is read,
+ * by its exact timestamp while the lock refers to it. Older versions are dropped,
+ * and the newest version is dropped too if it is cleared with empty value.
+ * Cleared version is dropped only if every store file is compacted, so that older payload in other store files
+ * does not become the newest version.</li>
+ * </ul>
+ * Delete markers are not changed.
+ */
+class LockFamilyCompactionScanner extends FilteringCompactionScanner {
+    private final long horizon;
+    private final boolean allFiles;
+    // column of previous cell
+    private byte[] row;
+    private byte[] qualifier;
+    private int versions;
+    private boolean keptBeforeHorizon;
+
+    /**
+     * @param horizon lock versions written on or after this timestamp are kept.
+     * @param allFiles true if every store file of the store is compacted.
+     */
+    LockFamilyCompactionScanner(InternalScanner delegate, long horizon, boolean allFiles) {
+        super(delegate);
+        this.horizon = horizon;
+        this.allFiles = allFiles;
+    }
+
+    @Override
+    protected boolean include(Cell cell) {
+        if (row == null || !CellUtil.matchingRow(cell, row) || !CellUtil.matchingQualifier(cell, qualifier)) {
+            row = CellUtil.cloneRow(cell);
+            qualifier = CellUtil.cloneQualifier(cell);
+            versions = 0;
+            keptBeforeHorizon = false;
+        }
+        if (cell.getTypeByte() != KeyValue.Type.Put.getCode()) {
+            return true;
+        }
+        versions++;
+        if (Bytes.equals(qualifier, LOCK_QUALIFIER)) {
+            if (cell.getTimestamp() >= horizon) {
+                return true;
+            }
+            if (!keptBeforeHorizon) {
+                keptBeforeHorizon = true;
+                return true;
+            }
+            return false;
+        }
+        if (Bytes.startsWith(qualifier, MUTATION_QUALIFIER_PREFIX)
+                || Bytes.startsWith(qualifier, SECONDARIES_QUALIFIER_PREFIX)) {
+            if (versions > 1) {
+                return false;
+            }
+            return !(allFiles && cell.getValueLength() == 0);
+        }
+        return true;
+    }
+}
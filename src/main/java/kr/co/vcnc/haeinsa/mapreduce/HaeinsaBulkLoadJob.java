@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.mapreduce;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat2;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.google.common.collect.Lists;
+
+/**
+ * MapReduce job which generates HFiles of target table from rows of source table, with
+ * {@link kr.co.vcnc.haeinsa.thrift.generated.TRowLockState#STABLE} lock cell for each row.
+ * Generated HFiles are bulk loaded by {@link LoadIncrementalHFiles}, so that existing HBase rows are migrated to
+ * Haeinsa at speed of bulk load, instead of initializing lock of each row on its first transaction.
+ * See {@link HaeinsaBulkLoadMapper} for commit timestamp of the lock.
+ * <p>
+ * Usage: {@code HaeinsaBulkLoadJob [--lock-only] [--load] [--commit-timestamp=<ts>] <source> <target> <output>}
+ * <ul>
+ * <li>--lock-only : generate lock cells only. Use it when source and target are same table,
+ * and data is already in the table.</li>
+ * <li>--load : bulk load generated HFiles to target table after the job.</li>
+ * <li>--commit-timestamp : minimum commit timestamp of generated locks.</li>
+ * </ul>
+ * Target table should have lock family. Rows should not be accessed by transactions until HFiles are loaded,
+ * since lock written by transaction meanwhile can be overwritten by bulk loaded lock with larger timestamp.
+ * The job runs with local job runner unless mapreduce.framework.name is configured.
+ */
+public class HaeinsaBulkLoadJob extends Configured implements Tool {
+    public static final String LOCK_ONLY_KEY = "haeinsa.bulkload.lock.only";
+    public static final String COMMIT_TIMESTAMP_KEY = "haeinsa.bulkload.commit.timestamp";
+
+    private static final String LOCK_ONLY_OPTION = "--lock-only";
+    private static final String LOAD_OPTION = "--load";
+    private static final String COMMIT_TIMESTAMP_OPTION = "--commit-timestamp=";
+
+    @Override
+    public int run(String[] args) throws Exception {
+        Configuration conf = HBaseConfiguration.create(getConf());
+        boolean load = false;
+        List<String> arguments = Lists.newArrayList();
+        for (String arg : args) {
+            if (arg.equals(LOCK_ONLY_OPTION)) {
+                conf.setBoolean(LOCK_ONLY_KEY, true);
+            } else if (arg.equals(LOAD_OPTION)) {
+                load = true;
+            } else if (arg.startsWith(COMMIT_TIMESTAMP_OPTION)) {
+                conf.setLong(COMMIT_TIMESTAMP_KEY, Long.parseLong(arg.substring(COMMIT_TIMESTAMP_OPTION.length())));
+            } else {
+                arguments.add(arg);
+            }
+        }
+        if (arguments.size() != 3) {
+            System.err.println("Usage: " + HaeinsaBulkLoadJob.class.getSimpleName()
+                    + " [" + LOCK_ONLY_OPTION + "] [" + LOAD_OPTION + "] [" + COMMIT_TIMESTAMP_OPTION + "<ts>]"
+                    + " <source table> <target table> <output dir>");
+            return 2;
+        }
+        TableName sourceTable = TableName.valueOf(arguments.get(0));
+        TableName targetTable = TableName.valueOf(arguments.get(1));
+        Path outputDir = new Path(arguments.get(2));
+
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            Job job = createJob(conf, connection, sourceTable, targetTable, outputDir);
+            if (!job.waitForCompletion(true)) {
+                return 1;
+            }
+            if (load) {
+                try (Admin admin = connection.getAdmin();
+                     Table table = connection.getTable(targetTable);
+                     RegionLocator regionLocator = connection.getRegionLocator(targetTable)) {
+                    new LoadIncrementalHFiles(conf).doBulkLoad(outputDir, admin, table, regionLocator);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Create job which writes HFiles of target table to output directory.
+     * HFiles are partitioned by current regions of the target table.
+     */
+    public static Job createJob(Configuration conf, Connection connection, TableName sourceTable,
+                                TableName targetTable, Path outputDir) throws IOException {
+        Job job = Job.getInstance(conf, "haeinsa-bulkload " + sourceTable + " -> " + targetTable);
+        job.setJarByClass(HaeinsaBulkLoadJob.class);
+
+        Scan scan = new Scan();
+        scan.setCaching(500);
+        scan.setCacheBlocks(false);
+        if (conf.getBoolean(LOCK_ONLY_KEY, false)) {
+            // only keys are needed to determine commit timestamp of the lock.
+            scan.setFilter(new KeyOnlyFilter());
+        } else {
+            scan.setMaxVersions();
+        }
+        TableMapReduceUtil.initTableMapperJob(sourceTable.getNameAsString(), scan, HaeinsaBulkLoadMapper.class,
+                ImmutableBytesWritable.class, KeyValue.class, job);
+
+        try (Table table = connection.getTable(targetTable);
+             RegionLocator regionLocator = connection.getRegionLocator(targetTable)) {
+            HFileOutputFormat2.configureIncrementalLoad(job, table.getTableDescriptor(), regionLocator);
+        }
+        FileOutputFormat.setOutputPath(job, outputDir);
+        return job;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(HBaseConfiguration.create(), new HaeinsaBulkLoadJob(), args));
+    }
+}
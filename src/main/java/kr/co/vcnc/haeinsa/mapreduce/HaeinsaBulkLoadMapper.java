@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.mapreduce;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.ROW_LOCK_VERSION;
+
+import java.io.IOException;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.TableMapper;
+
+/**
+ * Mapper of {@link HaeinsaBulkLoadJob}. For each row of source table which does not have lock yet,
+ * emits {@link TRowLockState#STABLE} lock cell and cells of the row unless the job is lock-only.
+ * <p>
+ * Commit timestamp of the lock is the largest timestamp of cells in the row, or minimum commit timestamp given
+ * to the job if it is larger. So transactions on the row use prewrite timestamp larger than existing cells,
+ * as if the row is committed by single row put only transaction at the timestamp.
+ * Rows which already have lock are managed by Haeinsa, and skipped.
+ */
+public class HaeinsaBulkLoadMapper extends TableMapper<ImmutableBytesWritable, KeyValue> {
+    /**
+     * Counters of the job.
+     */
+    public enum Counters {
+        /**
+         * Rows which are written with new lock.
+         */
+        ROWS_LOCKED,
+        /**
+         * Rows which are skipped since they already have lock.
+         */
+        ROWS_SKIPPED,
+        /**
+         * Data cells written with the rows. Zero if the job is lock-only.
+         */
+        CELLS_WRITTEN
+    }
+
+    private boolean lockOnly;
+    private long minCommitTimestamp;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        lockOnly = context.getConfiguration().getBoolean(HaeinsaBulkLoadJob.LOCK_ONLY_KEY, false);
+        minCommitTimestamp = context.getConfiguration().getLong(HaeinsaBulkLoadJob.COMMIT_TIMESTAMP_KEY, Long.MIN_VALUE);
+    }
+
+    @Override
+    protected void map(ImmutableBytesWritable row, Result result, Context context)
+            throws IOException, InterruptedException {
+        if (result.isEmpty()) {
+            return;
+        }
+        if (result.containsColumn(LOCK_FAMILY, LOCK_QUALIFIER)) {
+            context.getCounter(Counters.ROWS_SKIPPED).increment(1);
+            return;
+        }
+        long commitTimestamp = minCommitTimestamp;
+        for (Cell cell : result.rawCells()) {
+            commitTimestamp = Math.max(commitTimestamp, cell.getTimestamp());
+            if (!lockOnly && !CellUtil.matchingFamily(cell, LOCK_FAMILY)) {
+                context.write(row, KeyValueUtil.ensureKeyValue(cell));
+                context.getCounter(Counters.CELLS_WRITTEN).increment(1);
+            }
+        }
+        TRowLock rowLock = new TRowLock(ROW_LOCK_VERSION, TRowLockState.STABLE, commitTimestamp);
+        context.write(row, new KeyValue(result.getRow(), LOCK_FAMILY, LOCK_QUALIFIER, commitTimestamp,
+                TRowLocks.serialize(rowLock)));
+        context.getCounter(Counters.ROWS_LOCKED).increment(1);
+    }
+}
@@ -16,14 +16,26 @@
 package kr.co.vcnc.haeinsa.thrift;
 
 import static kr.co.vcnc.haeinsa.HaeinsaConstants.ROW_LOCK_VERSION;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.SECONDARY_CHUNK_SIZE;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
 import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+import kr.co.vcnc.haeinsa.thrift.generated.TSecondaryChunk;
+import kr.co.vcnc.haeinsa.thrift.generated.TSecondaryRowKey;
 
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TException;
 import org.apache.thrift.TSerializer;
@@ -31,17 +43,31 @@ import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.transport.TTransportException;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 /**
  * Static class for TRowLock (Thrift class) Provide static method to
  * serialize/deserialize with TCompactProtocol of Thrift
  * <p>
  * TRowLock(commitTimestamp = Long.MIN_VALUE) <=> byte[] null
+ * <p>
+ * TRowLock can be compressed with LZ4 by {@link #serialize(TRowLock, int)}.
+ * Compressed TRowLock is [0x01][length of serialized TRowLock (4 bytes)][LZ4 block].
+ * TRowLock serialized with TCompactProtocol always starts with header of version field (0x15),
+ * so {@link #deserialize(byte[])} distinguishes compressed TRowLock by the first byte.
+ * Output of LZ4 can differ by its implementation, so compressed TRowLock can't be made again
+ * from TRowLock object. Bytes read from HBase should be used as expected value of checkAndPut instead.
  */
 public final class TRowLocks {
     private TRowLocks() {}
 
     private static final TProtocolFactory PROTOCOL_FACTORY = new TCompactProtocol.Factory();
 
+    private static final byte LZ4_COMPRESSED = 0x01;
+    private static final int COMPRESSED_HEADER_LENGTH = 1 + Bytes.SIZEOF_INT;
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
     private static TSerializer createSerializer() throws TTransportException {
         return new TSerializer(PROTOCOL_FACTORY);
     }
@@ -54,28 +80,176 @@ public final class TRowLocks {
         if (rowLockBytes == null) {
             return new TRowLock(ROW_LOCK_VERSION, TRowLockState.STABLE, Long.MIN_VALUE);
         }
+        boolean compressed = isCompressed(rowLockBytes);
         try {
             TRowLock rowLock = new TRowLock();
             TDeserializer deserializer = createDeserializer();
-            deserializer.deserialize(rowLock, rowLockBytes);
+            deserializer.deserialize(rowLock, compressed ? decompress(rowLockBytes) : rowLockBytes);
             return rowLock;
         } catch (TException e) {
             throw new IOException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Serialize TRowLock without compression. See {@link #serialize(TRowLock, int)}.
+     */
     public static byte[] serialize(TRowLock rowLock) throws IOException {
+        return serialize(rowLock, -1);
+    }
+
+    /**
+     * Serialize TRowLock, and compress it with LZ4 if it is not {@link TRowLockState#STABLE}
+     * and its serialized size is larger than or equal to compressionThreshold.
+     *
+     * @param compressionThreshold minimum size in bytes of TRowLock to be compressed, or negative value to disable.
+     */
+    public static byte[] serialize(TRowLock rowLock, int compressionThreshold) throws IOException {
         if (rowLock.getCommitTimestamp() == Long.MIN_VALUE) {
             return null;
         }
+        byte[] rowLockBytes;
+        try {
+            TSerializer serializer = createSerializer();
+            rowLockBytes = serializer.serialize(rowLock);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (compressionThreshold < 0 || rowLock.getState() == TRowLockState.STABLE
+                || rowLockBytes.length < compressionThreshold) {
+            return rowLockBytes;
+        }
+        byte[] compressedBytes = compress(rowLockBytes);
+        if (compressedBytes.length >= rowLockBytes.length) {
+            // not compressible
+            return rowLockBytes;
+        }
+        return compressedBytes;
+    }
+
+    /**
+     * @return true if given bytes are TRowLock compressed by {@link #serialize(TRowLock, int)}.
+     */
+    public static boolean isCompressed(byte[] rowLockBytes) {
+        return rowLockBytes != null && rowLockBytes.length > 0 && rowLockBytes[0] == LZ4_COMPRESSED;
+    }
+
+    private static byte[] compress(byte[] rowLockBytes) {
+        LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+        int maxCompressedLength = compressor.maxCompressedLength(rowLockBytes.length);
+        byte[] compressedBytes = new byte[COMPRESSED_HEADER_LENGTH + maxCompressedLength];
+        compressedBytes[0] = LZ4_COMPRESSED;
+        Bytes.putInt(compressedBytes, 1, rowLockBytes.length);
+        int compressedLength = compressor.compress(rowLockBytes, 0, rowLockBytes.length,
+                compressedBytes, COMPRESSED_HEADER_LENGTH, maxCompressedLength);
+        return Arrays.copyOf(compressedBytes, COMPRESSED_HEADER_LENGTH + compressedLength);
+    }
+
+    private static byte[] decompress(byte[] compressedBytes) throws IOException {
+        if (compressedBytes.length < COMPRESSED_HEADER_LENGTH) {
+            throw new IOException("Compressed TRowLock is too short: " + compressedBytes.length + " bytes");
+        }
+        int length = Bytes.toInt(compressedBytes, 1);
+        if (length < 0) {
+            throw new IOException("Invalid length of compressed TRowLock: " + length);
+        }
+        try {
+            return LZ4_FACTORY.fastDecompressor().decompress(compressedBytes, COMPRESSED_HEADER_LENGTH, length);
+        } catch (LZ4Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deserialize payload of {@link TMutation} stored out of {@link TRowLock}.
+     */
+    public static TMutation deserializeMutation(byte[] mutationBytes) throws IOException {
+        try {
+            TMutation mutation = new TMutation();
+            TDeserializer deserializer = createDeserializer();
+            deserializer.deserialize(mutation, mutationBytes);
+            return mutation;
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Serialize payload of {@link TMutation} to be stored out of {@link TRowLock}.
+     */
+    public static byte[] serializeMutation(TMutation mutation) throws IOException {
         try {
             TSerializer serializer = createSerializer();
-            return serializer.serialize(rowLock);
+            return serializer.serialize(mutation);
         } catch (TException e) {
             throw new IOException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Serialize chunk of secondary rows to be stored out of {@link TRowLock}.
+     * Table names are saved once per chunk and referred by index from each row.
+     */
+    public static byte[] serializeSecondaries(List<TRowKey> secondaries) throws IOException {
+        Map<ByteBuffer, Integer> tableIndexes = Maps.newHashMap();
+        TSecondaryChunk chunk = new TSecondaryChunk(Lists.<ByteBuffer>newArrayList(), Lists.<TSecondaryRowKey>newArrayList());
+        for (TRowKey rowKey : secondaries) {
+            ByteBuffer tableName = rowKey.bufferForTableName();
+            Integer tableIndex = tableIndexes.get(tableName);
+            if (tableIndex == null) {
+                tableIndex = tableIndexes.size();
+                tableIndexes.put(tableName, tableIndex);
+                chunk.addToTableNames(tableName);
+            }
+            chunk.addToRows(new TSecondaryRowKey(tableIndex, rowKey.bufferForRow()));
+        }
+        try {
+            TSerializer serializer = createSerializer();
+            return serializer.serialize(chunk);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deserialize chunk of secondary rows stored out of {@link TRowLock}.
+     */
+    public static List<TRowKey> deserializeSecondaries(byte[] chunkBytes) throws IOException {
+        TSecondaryChunk chunk = new TSecondaryChunk();
+        try {
+            TDeserializer deserializer = createDeserializer();
+            deserializer.deserialize(chunk, chunkBytes);
+        } catch (TException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        List<TRowKey> secondaries = Lists.newArrayListWithCapacity(chunk.getRowsSize());
+        for (TSecondaryRowKey rowKey : chunk.getRows()) {
+            if (rowKey.getTableIndex() < 0 || rowKey.getTableIndex() >= chunk.getTableNamesSize()) {
+                throw new IOException("Invalid table index of secondary row: " + rowKey.getTableIndex());
+            }
+            secondaries.add(new TRowKey(chunk.getTableNames().get(rowKey.getTableIndex()), rowKey.bufferForRow()));
+        }
+        return secondaries;
+    }
+
+    /**
+     * Return index of chunk which contains given secondary row.
+     * Secondary rows are partitioned to chunks by hash of table name and row,
+     * so membership of a row can be checked by reading only one chunk.
+     * The hash should not be changed, because it is shared by clients through HBase.
+     */
+    public static int getSecondaryChunkIndex(TRowKey secondaryRowKey, int chunkCount) {
+        int hash = 31 * Bytes.hashCode(secondaryRowKey.getTableName()) + Bytes.hashCode(secondaryRowKey.getRow());
+        return (hash & Integer.MAX_VALUE) % chunkCount;
+    }
+
+    /**
+     * Return number of chunks to store given number of secondary rows out of {@link TRowLock}.
+     */
+    public static int getSecondaryChunkCount(int secondaries) {
+        return Math.max(1, (secondaries + SECONDARY_CHUNK_SIZE - 1) / SECONDARY_CHUNK_SIZE);
+    }
+
     public static boolean isPrimary(TRowLock rowLock) {
         return !rowLock.isSetPrimary();
     }
@@ -55,6 +55,17 @@ struct TMutation {
     1: required TMutationType type,
     2: optional TPut put,
     3: optional TRemove remove,
+    4: optional binary payloadQualifier,
+}
+
+struct TSecondaryRowKey {
+    1: required i32 tableIndex,
+    2: required binary row,
+}
+
+struct TSecondaryChunk {
+    1: required list<binary> tableNames,
+    2: required list<TSecondaryRowKey> rows,
 }
 
 struct TRowLock {
@@ -68,4 +79,5 @@ struct TRowLock {
     8: optional list<TCellKey> prewritten,
     9: optional list<TMutation> mutations,
     10: optional i64 prewriteTimestamp,
+    11: optional i32 secondaryChunkCount,
 }
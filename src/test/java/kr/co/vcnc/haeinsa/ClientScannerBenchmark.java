@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of transactional scan which merges many buffered-mutation scanners in ClientScanner.
+ * Stored rows are kept in {@link InMemoryHBase}, so the benchmark measures CPU cost on the client only.
+ * <p>
+ * Every row scanned has buffered mutations in the transaction, so ClientScanner merges
+ * one scanner of HBase with one scanner per mutated row.
+ * Run {@link #main(String[])} with test classpath after {@code mvn test-compile}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ClientScannerBenchmark {
+    private static final byte[] CF = Bytes.toBytes("data");
+
+    /**
+     * Number of rows which have buffered mutations in the transaction.
+     */
+    @Param({ "16", "256" })
+    public int rows;
+
+    /**
+     * Number of columns of each row, both stored and buffered.
+     */
+    @Param({ "4", "64" })
+    public int columns;
+
+    private HaeinsaTablePool tablePool;
+    private HaeinsaTableIface table;
+    private HaeinsaTransaction tx;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("benchmark", "data");
+        tablePool = hbase.createTablePool();
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        table = tablePool.getTable("benchmark");
+
+        HaeinsaTransaction loadTx = tm.begin();
+        for (int row = 0; row < rows; row++) {
+            HaeinsaPut put = new HaeinsaPut(row(row));
+            for (int column = 0; column < columns; column++) {
+                put.add(CF, Bytes.toBytes(String.format("stored-%04d", column)), Bytes.toBytes(column));
+            }
+            table.put(loadTx, put);
+        }
+        loadTx.commit();
+
+        tx = tm.begin();
+        for (int row = 0; row < rows; row++) {
+            HaeinsaPut put = new HaeinsaPut(row(row));
+            for (int column = 0; column < columns; column++) {
+                // interleaves with the stored columns so that merge switches scanners frequently.
+                put.add(CF, Bytes.toBytes(String.format("stored-%04d-buffered", column)), Bytes.toBytes(column));
+            }
+            table.put(tx, put);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        tx.rollback();
+        table.close();
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) throws Exception {
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, new HaeinsaScan())) {
+            for (HaeinsaResult result : scanner) {
+                blackhole.consume(result);
+            }
+        }
+    }
+
+    @Benchmark
+    public void reversedScan(Blackhole blackhole) throws Exception {
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setReversed(true);
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                blackhole.consume(result);
+            }
+        }
+    }
+
+    private static byte[] row(int row) {
+        return Bytes.toBytes(String.format("row-%06d", row));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ClientScannerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaBatchingTimestampSource} and {@link HaeinsaEmbeddedTimestampOracle}.
+ */
+public class HaeinsaBatchingTimestampSourceTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    @Test
+    public void testEmbeddedOracle() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000);
+        Assert.assertEquals(oracle.reserve(0, 10), ts(1000));
+        Assert.assertEquals(oracle.reserve(0, 10), ts(1000) + 10);
+        Assert.assertEquals(oracle.reserve(ts(2000), 10), ts(2000));
+        // wall clock is behind previous ranges.
+        oracle.wallClock = 1500;
+        Assert.assertEquals(oracle.reserve(0, 10), ts(2000) + 10);
+        oracle.wallClock = 3000;
+        Assert.assertEquals(oracle.reserve(0, 10), ts(3000));
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000);
+        ManualSource source = new ManualSource(oracle, 100, 1000);
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < 250; i++) {
+            long timestamp = source.currentTimestamp();
+            Assert.assertTrue(timestamp > last);
+            last = timestamp;
+        }
+        Assert.assertEquals(oracle.reserveCount.get(), 3);
+
+        // another client shares the oracle.
+        ManualSource other = new ManualSource(oracle, 100, 1000);
+        Assert.assertTrue(other.currentTimestamp() > last + 50);
+    }
+
+    @Test
+    public void testStaleRange() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000);
+        ManualSource source = new ManualSource(oracle, 100, 1000);
+        Assert.assertEquals(source.currentTimestamp(), ts(1000));
+        Assert.assertEquals(source.currentTimestamp(), ts(1000) + 1);
+        Assert.assertEquals(oracle.reserveCount.get(), 1);
+
+        // range is used although wall clock passes it.
+        source.wallClock = 1000 + source.getMaxStalenessMs();
+        Assert.assertEquals(source.currentTimestamp(), ts(1000) + 2);
+        Assert.assertEquals(oracle.reserveCount.get(), 1);
+
+        // range reserved more than max staleness ago is not used.
+        source.wallClock++;
+        oracle.wallClock = source.wallClock;
+        Assert.assertEquals(source.currentTimestamp(), ts(source.wallClock));
+        Assert.assertEquals(oracle.reserveCount.get(), 2);
+    }
+
+    @Test
+    public void testObserve() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000);
+        ManualSource source = new ManualSource(oracle, 100, 1000);
+        Assert.assertEquals(source.currentTimestamp(), ts(1000));
+        // timestamp skips forward in the range.
+        source.observe(ts(1000) + 10);
+        Assert.assertEquals(source.currentTimestamp(), ts(1000) + 11);
+        source.observe(500);
+        Assert.assertEquals(source.currentTimestamp(), ts(1000) + 12);
+        source.observe(Long.MAX_VALUE);
+        Assert.assertEquals(source.currentTimestamp(), ts(1000) + 13);
+        Assert.assertEquals(oracle.reserveCount.get(), 1);
+
+        // new range is reserved after the observed timestamp which passes the range.
+        source.observe(ts(1000) + 200);
+        Assert.assertEquals(source.currentTimestamp(), ts(1000) + 201);
+        Assert.assertEquals(oracle.reserveCount.get(), 2);
+    }
+
+    @Test
+    public void testIsExpired() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000);
+        ManualSource source = new ManualSource(oracle, 100, 1000);
+        Assert.assertEquals(source.currentTimeMillis(), 1000);
+        Assert.assertEquals(source.toMillis(source.currentTimestamp()), 1000);
+        Assert.assertFalse(source.isExpired(1000));
+        Assert.assertTrue(source.isExpired(999));
+        // expiry is checked with wall clock, not with observed timestamps.
+        source.observe(ts(2000));
+        Assert.assertFalse(source.isExpired(1000));
+    }
+
+    @Test
+    public void testMaxSkew() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000, 10);
+        Assert.assertEquals(oracle.reserve(0, 5), ts(1000));
+        // range starts ahead of wall clock by more than max skew, so the oracle waits for wall clock.
+        Assert.assertEquals(oracle.reserve(ts(1015), 10), ts(1015));
+        Assert.assertEquals(oracle.wallClock, 1005);
+        try {
+            oracle.reserve(ts(1100), 10);
+            Assert.fail();
+        } catch (IOException e) {
+            // range would start too far ahead of wall clock.
+        }
+
+        ManualSource source = new ManualSource(new ManualOracle(1000), 100, 1000, 10);
+        // observed timestamp of client whose clock is ahead, so the source waits for wall clock.
+        source.observe(ts(1015));
+        Assert.assertEquals(source.currentTimestamp(), ts(1015) + 1);
+        Assert.assertEquals(source.wallClock, 1005);
+        source.observe(ts(1100));
+        try {
+            source.currentTimestamp();
+            Assert.fail();
+        } catch (IOException e) {
+            // observed timestamp is too far ahead of wall clock.
+        }
+    }
+
+    @Test
+    public void testSharedOracle() throws Exception {
+        HaeinsaTimestampOracle oracle = new HaeinsaEmbeddedTimestampOracle();
+        List<HaeinsaBatchingTimestampSource> sources = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            sources.add(new HaeinsaBatchingTimestampSource(oracle));
+        }
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < 10000; i++) {
+            for (HaeinsaBatchingTimestampSource source : sources) {
+                last = Math.max(last, source.currentTimestamp());
+            }
+        }
+        // timestamps do not run ahead of wall clock.
+        Assert.assertTrue(sources.get(0).toMillis(last) <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void testAlternatingClients() throws Exception {
+        ManualOracle oracle = new ManualOracle(1000);
+        ManualSource source = new ManualSource(oracle, 1000, 1000);
+        ManualSource other = new ManualSource(oracle, 1000, 1000);
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            // each client observes commit timestamp of the other, as clients alternating on a row.
+            long timestamp = source.currentTimestamp();
+            Assert.assertTrue(timestamp > last);
+            other.observe(timestamp);
+            last = other.currentTimestamp();
+            Assert.assertTrue(last > timestamp);
+            source.observe(last);
+        }
+        // clients don't wait for wall clock.
+        Assert.assertEquals(source.wallClock, 1000);
+        Assert.assertEquals(other.wallClock, 1000);
+        Assert.assertEquals(oracle.wallClock, 1000);
+    }
+
+    @Test
+    public void testOracleFailure() throws Exception {
+        HaeinsaBatchingTimestampSource source = new HaeinsaBatchingTimestampSource(new HaeinsaTimestampOracle() {
+            @Override
+            public long reserve(long minimum, int count) throws IOException {
+                throw new IOException("oracle is not available");
+            }
+        });
+        try {
+            source.currentTimestamp();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "oracle is not available");
+        }
+
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setTimestampSource(source);
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+        // begin does not take timestamp, so it does not fail.
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes(0)));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "oracle is not available");
+        }
+        try {
+            tm.beginSnapshotRead();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertEquals(e.getCause().getMessage(), "oracle is not available");
+        }
+        testTable.close();
+    }
+
+    @Test
+    public void testTimestampsPerTransaction() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        final AtomicInteger timestampCount = new AtomicInteger();
+        final HaeinsaBatchingTimestampSource source =
+                new HaeinsaBatchingTimestampSource(new HaeinsaEmbeddedTimestampOracle()) {
+                    @Override
+                    public synchronized long currentTimestamp() throws IOException {
+                        timestampCount.incrementAndGet();
+                        return super.currentTimestamp();
+                    }
+                };
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setTimestampSource(source);
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        long wallClock = System.currentTimeMillis();
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes(0)));
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("other")).add(CF, CQ, Bytes.toBytes(0)));
+        tx.commit();
+        // only commit takes timestamp.
+        Assert.assertEquals(timestampCount.get(), 1);
+        Assert.assertTrue(tx.getCommitTimestamp() > ts(wallClock));
+        // expiry is in wall clock.
+        Assert.assertTrue(tx.getExpiry() >= wallClock + tx.getTimeout());
+        Assert.assertTrue(tx.getExpiry() <= System.currentTimeMillis() + tx.getTimeout());
+        testTable.close();
+    }
+
+    @Test
+    public void testTransactions() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTimestampOracle oracle = new HaeinsaEmbeddedTimestampOracle();
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setTimestampSource(new HaeinsaBatchingTimestampSource(oracle));
+        HaeinsaTransactionManager otherTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        otherTm.setTimestampSource(new HaeinsaBatchingTimestampSource(oracle));
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+        HaeinsaTableIface otherTable = otherTm.getTablePool().getTable("test");
+
+        for (int i = 0; i < 10; i++) {
+            HaeinsaTransaction tx = tm.begin();
+            testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes(i)));
+            tx.commit();
+
+            HaeinsaTransaction snapshotTx = tm.beginSnapshotRead();
+            Assert.assertEquals(testTable.get(snapshotTx, new HaeinsaGet(Bytes.toBytes("row"))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+            snapshotTx.commit();
+
+            // other client reads the row and overwrites it.
+            HaeinsaTransaction otherTx = otherTm.begin();
+            Assert.assertEquals(otherTable.get(otherTx, new HaeinsaGet(Bytes.toBytes("row"))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+            otherTable.put(otherTx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes(i + 100)));
+            otherTx.commit();
+        }
+        testTable.close();
+        otherTable.close();
+    }
+
+    private static long ts(long millis) {
+        return HaeinsaBatchingTimestampSource.fromMillis(millis);
+    }
+
+    private static class ManualOracle extends HaeinsaEmbeddedTimestampOracle {
+        private final AtomicInteger reserveCount = new AtomicInteger();
+        private volatile long wallClock;
+
+        private ManualOracle(long wallClock) {
+            this(wallClock, HaeinsaBatchingTimestampSource.DEFAULT_MAX_SKEW_MS);
+        }
+
+        private ManualOracle(long wallClock, long maxSkewMs) {
+            super(maxSkewMs);
+            this.wallClock = wallClock;
+        }
+
+        @Override
+        public long reserve(long minimum, int count) throws IOException {
+            reserveCount.incrementAndGet();
+            return super.reserve(minimum, count);
+        }
+
+        @Override
+        protected long getWallClock() {
+            return wallClock;
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            wallClock += millis;
+        }
+    }
+
+    private static class ManualSource extends HaeinsaBatchingTimestampSource {
+        private volatile long wallClock;
+
+        private ManualSource(HaeinsaTimestampOracle oracle, int batchSize, long wallClock) {
+            this(oracle, batchSize, wallClock, HaeinsaBatchingTimestampSource.DEFAULT_MAX_SKEW_MS);
+        }
+
+        private ManualSource(HaeinsaTimestampOracle oracle, int batchSize, long wallClock, long maxSkewMs) {
+            super(oracle, batchSize, maxSkewMs);
+            this.wallClock = wallClock;
+        }
+
+        @Override
+        protected long getWallClock() {
+            return wallClock;
+        }
+
+        @Override
+        protected void sleep(long millis) {
+            wallClock += millis;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaBulkWriter}.
+ */
+public class HaeinsaBulkWriterTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 1000;
+
+    @Test
+    public void testBulkWrite() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(hbase.createConnection());
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        HaeinsaTableIface testTable = tablePool.getTable("test");
+
+        // existing row committed by transaction
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-0")).add(CF, CQ, Bytes.toBytes("old")));
+        tx.commit();
+
+        // commit timestamp of bulk write should be larger than commit timestamps of existing rows.
+        long commitTimestamp = Math.max(tm.getTimestampSource().currentTimestamp(), tx.getCommitTimestamp()) + 1;
+        try (HaeinsaBulkWriter writer = tablePool.getBulkWriter("test", commitTimestamp, 64 * 1024)) {
+            Assert.assertEquals(writer.getTableName(), Bytes.toBytes("test"));
+            List<HaeinsaPut> puts = Lists.newArrayList();
+            for (int i = 0; i < ROWS; i++) {
+                puts.add(new HaeinsaPut(Bytes.toBytes("row-" + i)).add(CF, CQ, Bytes.toBytes(i)));
+                if (puts.size() == 100) {
+                    writer.put(puts);
+                    puts.clear();
+                }
+            }
+            writer.put(new HaeinsaPut(Bytes.toBytes("row-" + ROWS)).add(CF, CQ, Bytes.toBytes(ROWS)));
+        }
+
+        // rows have stable lock with the commit timestamp, like single row put only transaction.
+        InMemoryHTable hTable = hbase.getTable(Bytes.toBytes("test"));
+        for (int i = 0; i <= ROWS; i += 100) {
+            Result result = hTable.get(new Get(Bytes.toBytes("row-" + i)));
+            TRowLock rowLock = TRowLocks.deserialize(result.getValue(HaeinsaConstants.LOCK_FAMILY,
+                    HaeinsaConstants.LOCK_QUALIFIER));
+            Assert.assertEquals(rowLock.getState(), TRowLockState.STABLE);
+            Assert.assertEquals(rowLock.getCommitTimestamp(), commitTimestamp);
+            Assert.assertEquals(result.getColumnLatestCell(CF, CQ).getTimestamp(), commitTimestamp);
+        }
+
+        // transactions read and update written rows.
+        tx = tm.begin();
+        for (int i = 0; i <= ROWS; i++) {
+            Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-" + i))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+        }
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-0")).add(CF, CQ, Bytes.toBytes("new")));
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-1")).add(CF, CQ, Bytes.toBytes("new")));
+        tx.commit();
+
+        tx = tm.begin();
+        Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-0"))).getValue(CF, CQ),
+                Bytes.toBytes("new"));
+        Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-1"))).getValue(CF, CQ),
+                Bytes.toBytes("new"));
+        tx.rollback();
+        testTable.close();
+        tablePool.close();
+    }
+
+    @Test
+    public void testBuffering() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(hbase.createConnection());
+        InMemoryHTable hTable = hbase.getTable(Bytes.toBytes("test"));
+
+        try (HaeinsaBulkWriter writer = tablePool.getBulkWriter("test", System.currentTimeMillis())) {
+            writer.put(new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes("value")));
+            Assert.assertTrue(hTable.get(new Get(Bytes.toBytes("row"))).isEmpty());
+            writer.flush();
+            Assert.assertEquals(hTable.get(new Get(Bytes.toBytes("row"))).getValue(CF, CQ), Bytes.toBytes("value"));
+        }
+        tablePool.close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testLockFamily() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(hbase.createConnection());
+        try (HaeinsaBulkWriter writer = tablePool.getBulkWriter("test", System.currentTimeMillis())) {
+            writer.put(new HaeinsaPut(Bytes.toBytes("row"))
+                    .add(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER, Bytes.toBytes("value")));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testPoolWithoutConnection() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        hbase.createTablePool().getBulkWriter("test", System.currentTimeMillis());
+    }
+}
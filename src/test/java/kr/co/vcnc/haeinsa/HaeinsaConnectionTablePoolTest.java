@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link HaeinsaTablePool} created with {@link Connection}, which does not pool tables.
+ */
+public class HaeinsaConnectionTablePoolTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    @Test
+    public void testTransactions() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        Connection connection = hbase.createConnection();
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(connection);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+
+        HaeinsaTableIface testTable = tablePool.getTable("test");
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 10; i++) {
+            testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-" + i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+        testTable.close();
+        // closed table is not kept in the pool.
+        Assert.assertEquals(tablePool.getCurrentPoolSize("test"), 0);
+
+        testTable = tablePool.getTable("test");
+        tx = tm.begin();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-" + i))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+        }
+        tx.rollback();
+        testTable.close();
+        Assert.assertEquals(tablePool.getCurrentPoolSize("test"), 0);
+
+        // connection is owned by caller.
+        tablePool.close();
+        Assert.assertFalse(connection.isClosed());
+        connection.close();
+    }
+
+    @Test
+    public void testConcurrentTables() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTablePool tablePool = new HaeinsaTablePool(hbase.createConnection());
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+
+        // each table is separate view of the connection, so closing one does not affect others.
+        HaeinsaTableIface first = tablePool.getTable("test");
+        HaeinsaTableIface second = tablePool.getTable("test");
+        HaeinsaTransaction tx = tm.begin();
+        first.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes("value")));
+        first.close();
+        tx.commit();
+
+        tx = tm.begin();
+        Assert.assertEquals(second.get(tx, new HaeinsaGet(Bytes.toBytes("row"))).getValue(CF, CQ),
+                Bytes.toBytes("value"));
+        tx.rollback();
+        second.close();
+        tablePool.close();
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.ColumnPrefixFilter;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.filter.ValueFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for filters of {@link HaeinsaScan} and {@link HaeinsaGet} inside and outside of transaction.
+ */
+public class HaeinsaFilterTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final byte[] BLOB = Bytes.toBytes("blob");
+
+    @Test
+    public void testRowFilterWithBufferedMutations() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HaeinsaTableIface testTable = createTable(hbase);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+
+        SingleColumnValueFilter filter = new SingleColumnValueFilter(CF, CQ, CompareOp.EQUAL, Bytes.toBytes(1L));
+        filter.setFilterIfMissing(true);
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setFilter(filter);
+
+        HaeinsaTransaction tx = tm.begin();
+        Assert.assertEquals(scanRows(testTable, tx, scan), Lists.newArrayList(1, 3, 5, 7, 9));
+        // buffered mutations are visible to the filter.
+        testTable.put(tx, new HaeinsaPut(row(0)).add(CF, CQ, Bytes.toBytes(1L)));
+        testTable.put(tx, new HaeinsaPut(row(3)).add(CF, CQ, Bytes.toBytes(0L)));
+        HaeinsaDelete delete = new HaeinsaDelete(row(5));
+        delete.deleteColumns(CF, CQ);
+        testTable.delete(tx, delete);
+        Assert.assertEquals(scanRows(testTable, tx, scan), Lists.newArrayList(0, 1, 7, 9));
+        tx.commit();
+
+        // without transaction
+        Assert.assertEquals(scanRows(testTable, null, scan), Lists.newArrayList(0, 1, 7, 9));
+        testTable.close();
+    }
+
+    @Test
+    public void testCellFilterKeepsLock() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HaeinsaTableIface testTable = createTable(hbase);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setFilter(new PrefixFilter(Bytes.toBytes("row-0000")));
+        HaeinsaTransaction tx = tm.begin();
+        Assert.assertEquals(scanRows(testTable, tx, scan), Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        scan = new HaeinsaScan();
+        scan.setFilter(new ValueFilter(CompareOp.EQUAL, new BinaryComparator(Bytes.toBytes(1L))));
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                // blob column is filtered out by HBase
+                Assert.assertEquals(result.size(), 1);
+                Assert.assertEquals(result.getValue(CF, CQ), Bytes.toBytes(1L));
+            }
+        }
+        testTable.put(tx, new HaeinsaPut(row(100)).add(CF, CQ, Bytes.toBytes(1L)));
+
+        // row 2 was read with its lock although its cells are filtered out, so commit should conflict.
+        HaeinsaTransaction otherTx = tm.begin();
+        testTable.put(otherTx, new HaeinsaPut(row(2)).add(CF, CQ, Bytes.toBytes(1L)));
+        otherTx.commit();
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+        testTable.close();
+    }
+
+    @Test
+    public void testGetWithFilter() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HaeinsaTableIface testTable = createTable(hbase);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+
+        HaeinsaGet get = new HaeinsaGet(row(1));
+        get.setFilter(new ColumnPrefixFilter(Bytes.toBytes("val")));
+        HaeinsaTransaction tx = tm.begin();
+        HaeinsaResult result = testTable.get(tx, get);
+        Assert.assertEquals(result.size(), 1);
+        Assert.assertNull(result.getValue(CF, BLOB));
+
+        testTable.put(tx, new HaeinsaPut(row(1)).add(CF, Bytes.toBytes("value2"), Bytes.toBytes(2L)));
+        result = testTable.get(tx, get);
+        Assert.assertEquals(result.size(), 2);
+        Assert.assertEquals(result.getValue(CF, Bytes.toBytes("value2")), Bytes.toBytes(2L));
+        tx.rollback();
+
+        Assert.assertEquals(testTable.get(null, get).size(), 1);
+        testTable.close();
+    }
+
+    private static HaeinsaTableIface createTable(InMemoryHBase hbase) throws IOException {
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 10; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i))
+                    .add(CF, CQ, Bytes.toBytes((long) (i % 2)))
+                    .add(CF, BLOB, new byte[1024]));
+        }
+        for (int i = 10; i < 20; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(0L)));
+        }
+        tx.commit();
+        return testTable;
+    }
+
+    private static List<Integer> scanRows(HaeinsaTableIface table, HaeinsaTransaction tx, HaeinsaScan scan)
+            throws IOException {
+        List<Integer> rows = Lists.newArrayList();
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                rows.add(Integer.parseInt(Bytes.toString(result.getRow()).substring("row-".length())));
+            }
+        }
+        return rows;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link HaeinsaHybridLogicalClock}.
+ */
+public class HaeinsaHybridLogicalClockTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    @Test
+    public void testMonotonic() throws Exception {
+        ManualClock clock = new ManualClock(1000);
+        Assert.assertEquals(clock.currentTimestamp(), 1000);
+        clock.wallClock = 900;
+        // wall clock goes backward.
+        Assert.assertEquals(clock.currentTimestamp(), 1000);
+        clock.wallClock = 1010;
+        Assert.assertEquals(clock.currentTimestamp(), 1010);
+    }
+
+    @Test
+    public void testObserve() throws Exception {
+        ManualClock clock = new ManualClock(1000);
+        clock.observe(1100);
+        Assert.assertEquals(clock.currentTimestamp(), 1101);
+        clock.observe(1050);
+        Assert.assertEquals(clock.currentTimestamp(), 1101);
+        clock.wallClock = 1200;
+        Assert.assertEquals(clock.currentTimestamp(), 1200);
+        clock.observe(Long.MIN_VALUE);
+        clock.observe(Long.MAX_VALUE);
+        Assert.assertEquals(clock.currentTimestamp(), 1200);
+    }
+
+    @Test
+    public void testIsExpired() throws Exception {
+        ManualClock clock = new ManualClock(1000);
+        Assert.assertFalse(clock.isExpired(1000));
+        // lock written by client whose clock is behind is not expired within max clock offset.
+        Assert.assertFalse(clock.isExpired(1000 - clock.getMaxClockOffset()));
+        Assert.assertTrue(clock.isExpired(1000 - clock.getMaxClockOffset() - 1));
+        // observed timestamps of clients whose clock is ahead don't make live locks expired.
+        clock.observe(2000);
+        Assert.assertFalse(clock.isExpired(1000 - clock.getMaxClockOffset()));
+        clock.wallClock = 2000;
+        Assert.assertTrue(clock.isExpired(1000));
+    }
+
+    @Test
+    public void testSnapshotReadAfterCommit() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setTimestampSource(new HaeinsaHybridLogicalClock());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        for (int i = 0; i < 10; i++) {
+            HaeinsaTransaction tx = tm.begin();
+            testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes(i)));
+            tx.commit();
+            Assert.assertTrue(tm.getTimestampSource().currentTimestamp() > tx.getCommitTimestamp());
+
+            // commit timestamp is ahead of wall clock, but snapshot includes the transaction.
+            HaeinsaTransaction snapshotTx = tm.beginSnapshotRead();
+            Assert.assertEquals(testTable.get(snapshotTx, new HaeinsaGet(Bytes.toBytes("row"))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+            snapshotTx.commit();
+        }
+    }
+
+    @Test
+    public void testHotRow() throws Exception {
+        long wallClock = System.currentTimeMillis();
+        ManualClock clock = new ManualClock(wallClock);
+        // wall clock is frozen, but every transaction commits on the row.
+        long[] commitTimestamps = commitHotRow(clock, 100);
+        for (int i = 1; i < commitTimestamps.length; i++) {
+            Assert.assertEquals(commitTimestamps[i] - commitTimestamps[i - 1], 4);
+        }
+        // clock is ahead of wall clock only as much as commit timestamps of the row.
+        Assert.assertEquals(clock.currentTimestamp(), commitTimestamps[commitTimestamps.length - 1] + 1);
+
+        // same number of transactions commit with clock which ignores observed timestamps.
+        long[] frozenCommitTimestamps = commitHotRow(new FrozenClock(wallClock), 100);
+        for (int i = 1; i < frozenCommitTimestamps.length; i++) {
+            Assert.assertEquals(frozenCommitTimestamps[i] - frozenCommitTimestamps[i - 1], 3);
+        }
+    }
+
+    private static long[] commitHotRow(HaeinsaTimestampSource timestampSource, int count) throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setTimestampSource(timestampSource);
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+        long[] commitTimestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            HaeinsaTransaction tx = tm.begin();
+            testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row")).add(CF, CQ, Bytes.toBytes(i)));
+            tx.commit();
+            commitTimestamps[i] = tx.getCommitTimestamp();
+        }
+        testTable.close();
+        return commitTimestamps;
+    }
+
+    /**
+     * Frozen wall clock which ignores observed timestamps, like {@link HaeinsaSystemClock}.
+     */
+    private static final class FrozenClock implements HaeinsaTimestampSource {
+        private final long wallClock;
+
+        private FrozenClock(long wallClock) {
+            this.wallClock = wallClock;
+        }
+
+        @Override
+        public long currentTimestamp() {
+            return wallClock;
+        }
+
+        @Override
+        public void observe(long timestamp) {
+        }
+
+        @Override
+        public boolean isExpired(long expiry) {
+            return expiry < wallClock;
+        }
+    }
+
+    private static final class ManualClock extends HaeinsaHybridLogicalClock {
+        private long wallClock;
+
+        private ManualClock(long wallClock) {
+            this.wallClock = wallClock;
+        }
+
+        @Override
+        protected long getWallClock() {
+            return wallClock;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of {@link HaeinsaKeyValue#COMPARATOR} against the ComparisonChain based comparator
+ * it replaced, which is kept in {@link HaeinsaKeyValueTest#LEGACY_COMPARATOR}.
+ * Sorting array of KeyValues which share row and family exercises the comparison of every component.
+ * Run with {@code -prof gc} to see allocation rate of each comparator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HaeinsaKeyValueComparatorBenchmark {
+    @Param({ "legacy", "allocation-free" })
+    public String comparator;
+
+    @Param({ "1024" })
+    public int size;
+
+    private Comparator<HaeinsaKeyValue> kvComparator;
+    private HaeinsaKeyValue[] kvs;
+    private HaeinsaKeyValue[] sorted;
+
+    @Setup
+    public void setUp() {
+        kvComparator = comparator.equals("legacy") ? HaeinsaKeyValueTest.LEGACY_COMPARATOR : HaeinsaKeyValue.COMPARATOR;
+        Random random = new Random(0);
+        kvs = new HaeinsaKeyValue[size];
+        for (int i = 0; i < size; i++) {
+            kvs[i] = new HaeinsaKeyValue(Bytes.toBytes("row-" + random.nextInt(16)), Bytes.toBytes("data"),
+                    Bytes.toBytes("qualifier-" + random.nextInt(size)), Bytes.toBytes(i), Type.Put);
+        }
+        sorted = new HaeinsaKeyValue[size];
+    }
+
+    @Benchmark
+    public HaeinsaKeyValue[] sort() {
+        System.arraycopy(kvs, 0, sorted, 0, size);
+        Arrays.sort(sorted, kvComparator);
+        return sorted;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HaeinsaKeyValueComparatorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaKeyValueHeap}.
+ */
+public class HaeinsaKeyValueHeapTest {
+
+    @Test
+    public void testMergeOrder() throws Exception {
+        testMergeOrder(HaeinsaKeyValueScanner.COMPARATOR, HaeinsaKeyValue.COMPARATOR);
+        testMergeOrder(HaeinsaKeyValueScanner.REVERSE_COMPARATOR, HaeinsaKeyValue.REVERSE_COMPARATOR);
+    }
+
+    private void testMergeOrder(Comparator<HaeinsaKeyValueScanner> scannerComparator,
+            final Comparator<HaeinsaKeyValue> kvComparator) throws Exception {
+        Random random = new Random(0);
+        List<HaeinsaKeyValueScanner> scanners = Lists.newArrayList();
+        final List<Entry> expected = Lists.newArrayList();
+        for (int seqID = 0; seqID < 20; seqID++) {
+            List<HaeinsaKeyValue> kvs = Lists.newArrayList();
+            for (int i = 0; i < 50; i++) {
+                HaeinsaKeyValue kv = new HaeinsaKeyValue(Bytes.toBytes("row-" + random.nextInt(10)),
+                        Bytes.toBytes("data"), Bytes.toBytes("q-" + random.nextInt(10)), Bytes.toBytes(i), Type.Put);
+                kvs.add(kv);
+                expected.add(new Entry(kv, seqID));
+            }
+            Collections.sort(kvs, kvComparator);
+            scanners.add(new ListScanner(kvs, seqID, null));
+        }
+        Collections.sort(expected, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                int result = kvComparator.compare(o1.kv, o2.kv);
+                return result != 0 ? result : Long.compare(o1.seqID, o2.seqID);
+            }
+        });
+
+        HaeinsaKeyValueHeap heap = new HaeinsaKeyValueHeap(scannerComparator, scanners.size());
+        // exhausted scanner should be ignored
+        heap.add(new ListScanner(Lists.<HaeinsaKeyValue>newArrayList(), 100, null));
+        for (HaeinsaKeyValueScanner scanner : scanners) {
+            heap.add(scanner);
+        }
+        for (Entry entry : expected) {
+            Assert.assertFalse(heap.isEmpty());
+            HaeinsaKeyValueScanner current = heap.current();
+            Assert.assertEquals(kvComparator.compare(current.peek(), entry.kv), 0);
+            Assert.assertEquals(current.getSequenceID(), entry.seqID);
+            heap.next();
+        }
+        Assert.assertTrue(heap.isEmpty());
+        Assert.assertNull(heap.current());
+    }
+
+    @Test
+    public void testPeekLock() throws Exception {
+        byte[] row = Bytes.toBytes("row");
+        TRowLock newerLock = new TRowLock(HaeinsaConstants.ROW_LOCK_VERSION, TRowLockState.STABLE, 2L);
+        TRowLock olderLock = new TRowLock(HaeinsaConstants.ROW_LOCK_VERSION, TRowLockState.STABLE, 1L);
+        HaeinsaKeyValue kv = new HaeinsaKeyValue(row, Bytes.toBytes("data"), Bytes.toBytes("q"), Bytes.toBytes(0),
+                Type.Put);
+
+        HaeinsaKeyValueHeap heap = new HaeinsaKeyValueHeap(HaeinsaKeyValueScanner.COMPARATOR, 3);
+        heap.add(new ListScanner(Lists.newArrayList(kv), 3, olderLock));
+        heap.add(new ListScanner(Lists.newArrayList(kv), 1, null));
+        heap.add(new ListScanner(Lists.newArrayList(kv), 2, newerLock));
+        // scanner with lower sequenceID is newer, so its lock should be returned.
+        Assert.assertEquals(heap.peekLock(row), newerLock);
+        Assert.assertNull(heap.peekLock(Bytes.toBytes("other-row")));
+    }
+
+    private static final class Entry {
+        private final HaeinsaKeyValue kv;
+        private final long seqID;
+
+        private Entry(HaeinsaKeyValue kv, long seqID) {
+            this.kv = kv;
+            this.seqID = seqID;
+        }
+    }
+
+    private static final class ListScanner implements HaeinsaKeyValueScanner {
+        private final List<HaeinsaKeyValue> kvs;
+        private final long seqID;
+        private final TRowLock rowLock;
+        private int index;
+
+        private ListScanner(List<HaeinsaKeyValue> kvs, long seqID, TRowLock rowLock) {
+            this.kvs = kvs;
+            this.seqID = seqID;
+            this.rowLock = rowLock;
+        }
+
+        @Override
+        public HaeinsaKeyValue peek() {
+            return index < kvs.size() ? kvs.get(index) : null;
+        }
+
+        @Override
+        public HaeinsaKeyValue next() {
+            return index < kvs.size() ? kvs.get(index++) : null;
+        }
+
+        @Override
+        public TRowLock peekLock() {
+            return rowLock;
+        }
+
+        @Override
+        public long getSequenceID() {
+            return seqID;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
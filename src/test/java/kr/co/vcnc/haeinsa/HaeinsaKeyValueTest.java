@@ -1,5 +1,7 @@
 package kr.co.vcnc.haeinsa;
 
+import com.google.common.collect.ComparisonChain;
+import kr.co.vcnc.haeinsa.utils.NullableComparator;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.testng.Assert;
@@ -29,6 +31,115 @@ public class HaeinsaKeyValueTest {
     Assert.assertEquals(actual, expected);
   }
 
+  /**
+   * Comparators built on ComparisonChain and NullableComparator, which define the order
+   * that allocation-free comparators of HaeinsaKeyValue should keep.
+   */
+  public static final Comparator<HaeinsaKeyValue> LEGACY_COMPARATOR = (o1, o2) -> ComparisonChain.start()
+      .compare(o1.getRow(), o2.getRow(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
+      .compare(o1.getFamily(), o2.getFamily(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
+      .compare(o1.getQualifier(), o2.getQualifier(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
+      .compare(o2.getType().getCode() & 0xFF, o1.getType().getCode() & 0xFF)
+      .result();
+
+  public static final Comparator<HaeinsaKeyValue> LEGACY_REVERSE_COMPARATOR = (o1, o2) -> ComparisonChain.start()
+      .compare(o2.getRow(), o1.getRow(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
+      .compare(o1.getFamily(), o2.getFamily(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
+      .compare(o1.getQualifier(), o2.getQualifier(), new NullableComparator<>(Bytes.BYTES_COMPARATOR))
+      .compare(o2.getType().getCode() & 0xFF, o1.getType().getCode() & 0xFF)
+      .result();
+
+  @DataProvider(name = "legacy-comparator-provider")
+  public Object[][] legacyComparatorProvider() {
+    return new Object[][]{
+        {HaeinsaKeyValue.COMPARATOR, LEGACY_COMPARATOR},
+        {HaeinsaKeyValue.REVERSE_COMPARATOR, LEGACY_REVERSE_COMPARATOR}};
+  }
+
+  @Test(dataProvider = "legacy-comparator-provider")
+  public void testComparatorSameAsLegacy(Comparator<HaeinsaKeyValue> comparator, Comparator<HaeinsaKeyValue> legacy) {
+    List<HaeinsaKeyValue> kvs = randomKeyValues(new Random(0), 300);
+    for (HaeinsaKeyValue left : kvs) {
+      for (HaeinsaKeyValue right : kvs) {
+        Assert.assertEquals(Integer.signum(comparator.compare(left, right)),
+            Integer.signum(legacy.compare(left, right)), left + " " + right);
+      }
+    }
+  }
+
+  @Test(dataProvider = "legacy-comparator-provider")
+  public void testCellBackedKeyValue(Comparator<HaeinsaKeyValue> comparator, Comparator<HaeinsaKeyValue> legacy) {
+    List<HaeinsaKeyValue> owned = new ArrayList<>();
+    List<HaeinsaKeyValue> wrapped = new ArrayList<>();
+    for (HaeinsaKeyValue kv : randomKeyValues(new Random(1), 300)) {
+      if (kv.getRow() == null || kv.getFamily() == null || kv.getQualifier() == null || kv.getValue() == null) {
+        // Cell does not have null component.
+        continue;
+      }
+      owned.add(kv);
+      wrapped.add(new HaeinsaKeyValue(new KeyValue(kv.getRow(), kv.getFamily(), kv.getQualifier(), 1L,
+          kv.getType(), kv.getValue())));
+    }
+    for (int i = 0; i < owned.size(); i++) {
+      HaeinsaKeyValue kv = wrapped.get(i);
+      Assert.assertTrue(kv.matchingRow(owned.get(i)));
+      Assert.assertTrue(kv.matchingColumn(owned.get(i)));
+      Assert.assertTrue(kv.matchingColumn(owned.get(i).getFamily(), owned.get(i).getQualifier()));
+      Assert.assertEquals(kv.getType(), owned.get(i).getType());
+      for (int j = 0; j < owned.size(); j++) {
+        int expected = Integer.signum(legacy.compare(owned.get(i), owned.get(j)));
+        Assert.assertEquals(Integer.signum(comparator.compare(kv, wrapped.get(j))), expected);
+        Assert.assertEquals(Integer.signum(comparator.compare(kv, owned.get(j))), expected);
+      }
+    }
+  }
+
+  @Test
+  public void testCellBackedKeyValueCopiesLazily() {
+    KeyValue cell = new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("family"), Bytes.toBytes("qualifier"), 1L,
+        KeyValue.Type.Put, Bytes.toBytes("value"));
+    HaeinsaKeyValue kv = new HaeinsaKeyValue(cell);
+    Assert.assertSame(kv.getRowArray(), cell.getRowArray());
+    Assert.assertSame(kv.getValueArray(), cell.getValueArray());
+    Assert.assertEquals(kv.getRow(), Bytes.toBytes("row"));
+    // copy is created once
+    Assert.assertSame(kv.getRow(), kv.getRow());
+
+    kv.setValue(Bytes.toBytes("other"));
+    Assert.assertEquals(kv.getValue(), Bytes.toBytes("other"));
+    Assert.assertEquals(kv.getValueLength(), 5);
+    // setter detaches from the cell, but keeps other components
+    Assert.assertNotSame(kv.getRowArray(), cell.getRowArray());
+    Assert.assertEquals(kv.getFamily(), Bytes.toBytes("family"));
+    Assert.assertEquals(kv.getQualifier(), Bytes.toBytes("qualifier"));
+    Assert.assertEquals(cell.getValue(), Bytes.toBytes("value"));
+  }
+
+  /**
+   * KeyValues of short random components, so that equal prefixes, empty arrays and nulls are common.
+   */
+  public static List<HaeinsaKeyValue> randomKeyValues(Random random, int count) {
+    List<HaeinsaKeyValue> kvs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      kvs.add(new HaeinsaKeyValue(randomBytes(random), randomBytes(random), randomBytes(random),
+          randomBytes(random), TRAVERSAL_ORDER.get(random.nextInt(TRAVERSAL_ORDER.size()))));
+    }
+    return kvs;
+  }
+
+  private static byte[] randomBytes(Random random) {
+    int length = random.nextInt(4) - 1;
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      // includes negative bytes to check unsigned comparison
+      bytes[i] = (byte) (random.nextInt(3) * 0x70);
+    }
+    return bytes;
+  }
+
   public static List<HaeinsaKeyValue> sameRowFamilyQualifierAllTypes() {
     return TRAVERSAL_ORDER.stream()
         .map(type -> new HaeinsaKeyValue(Bytes.toBytes("row"), Bytes.toBytes("family"), Bytes.toBytes("qualifier"), Bytes.toBytes(type.toString()), type))
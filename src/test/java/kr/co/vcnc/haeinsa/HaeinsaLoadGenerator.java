@@ -0,0 +1,650 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * End-to-end load generator which reproduces the transactions described in the Performance page of the wiki.
+ * <ul>
+ * <li>Practical Transaction = (3writes + 1read) * 2rows + 1read * 1row</li>
+ * <li>Worst-case Transaction = 1write * 2rows + 1read * 1row</li>
+ * </ul>
+ * Load can be generated against {@link HaeinsaTestingCluster} or against the cluster configured by
+ * hbase-site.xml on the classpath. Workload mix, key distribution, number of threads and duration are configurable,
+ * and throughput, latency percentiles and conflict rate are reported at the end of the run.
+ * <p>
+ * Arguments are given in {@code --name=value} form. Run with {@code --help} to see all options.
+ * For example, following runs 8 threads of practical transactions against MiniHBaseCluster for 60 seconds.
+ *
+ * <pre>
+ * --target=mini --mix=practical:1 --distribution=zipfian --threads=8 --duration=60
+ * </pre>
+ *
+ * Table used for configured cluster should have lock family and the data family given by {@code --family}.
+ */
+public final class HaeinsaLoadGenerator {
+
+    /**
+     * Type of transaction which is executed by the load generator.
+     */
+    public enum Workload {
+        /**
+         * (3writes + 1read) * 2rows + 1read * 1row
+         */
+        PRACTICAL(2, 3),
+        /**
+         * 1write * 2rows + 1read * 1row
+         */
+        WORST_CASE(2, 1);
+
+        private final int writeRowCount;
+        private final int writesPerRow;
+
+        Workload(int writeRowCount, int writesPerRow) {
+            this.writeRowCount = writeRowCount;
+            this.writesPerRow = writesPerRow;
+        }
+
+        public int getWriteRowCount() {
+            return writeRowCount;
+        }
+
+        public int getWritesPerRow() {
+            return writesPerRow;
+        }
+    }
+
+    /**
+     * Distribution of row keys accessed by transactions.
+     */
+    public enum KeyDistribution {
+        UNIFORM,
+        ZIPFIAN
+    }
+
+    private final Options options;
+    private final HaeinsaTransactionManager transactionManager;
+    private final HaeinsaTablePool tablePool;
+
+    public HaeinsaLoadGenerator(Options options, HaeinsaTransactionManager transactionManager) {
+        this.options = options;
+        this.transactionManager = transactionManager;
+        this.tablePool = transactionManager.getTablePool();
+    }
+
+    /**
+     * Run load with current options and returns aggregated result of all threads.
+     *
+     * @return report of the run
+     * @throws Exception if worker thread failed unexpectedly
+     */
+    public Report run() throws Exception {
+        options.validate();
+        ExecutorService executor = Executors.newFixedThreadPool(options.threads,
+                new ThreadFactoryBuilder().setNameFormat("haeinsa-load-%d").setDaemon(true).build());
+        try {
+            final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+            final long end = warmupEnd + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            final KeyGenerator sharedKeys = createKeyGenerator(options);
+            List<Future<Recorder>> futures = Lists.newArrayList();
+            for (int i = 0; i < options.threads; i++) {
+                final long seed = options.seed + i;
+                futures.add(executor.submit(() -> runWorker(sharedKeys, new Random(seed), warmupEnd, end)));
+            }
+            Recorder total = new Recorder();
+            for (Future<Recorder> future : futures) {
+                total.merge(future.get());
+            }
+            return new Report(total, options.durationSeconds);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Recorder runWorker(KeyGenerator keys, Random random, long warmupEnd, long end) throws IOException {
+        Recorder recorder = new Recorder();
+        try (HaeinsaTableIface table = tablePool.getTable(options.tableName)) {
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                Workload workload = options.chooseWorkload(random);
+                boolean measured = now >= warmupEnd;
+                long start = System.nanoTime();
+                try {
+                    execute(table, workload, keys, random);
+                    if (measured) {
+                        recorder.recordSuccess(workload, System.nanoTime() - start);
+                    }
+                } catch (ConflictException e) {
+                    if (measured) {
+                        recorder.recordConflict(workload);
+                    }
+                } catch (IOException e) {
+                    if (measured) {
+                        recorder.recordError(workload);
+                    }
+                }
+            }
+        }
+        return recorder;
+    }
+
+    private void execute(HaeinsaTableIface table, Workload workload, KeyGenerator keys, Random random)
+            throws IOException {
+        // rows to write and one more row to read.
+        long[] rowIndexes = keys.nextDistinct(random, workload.getWriteRowCount() + 1);
+        HaeinsaTransaction tx = transactionManager.begin();
+        for (int i = 0; i < workload.getWriteRowCount(); i++) {
+            byte[] row = toRowKey(rowIndexes[i]);
+            if (workload == Workload.PRACTICAL) {
+                table.get(tx, new HaeinsaGet(row).addColumn(options.family, qualifier(0)));
+            }
+            HaeinsaPut put = new HaeinsaPut(row);
+            for (int j = 0; j < workload.getWritesPerRow(); j++) {
+                byte[] value = new byte[options.valueSize];
+                random.nextBytes(value);
+                put.add(options.family, qualifier(j), value);
+            }
+            table.put(tx, put);
+        }
+        byte[] readRow = toRowKey(rowIndexes[workload.getWriteRowCount()]);
+        table.get(tx, new HaeinsaGet(readRow).addColumn(options.family, qualifier(0)));
+        tx.commit();
+    }
+
+    private static byte[] qualifier(int index) {
+        return Bytes.toBytes("q" + index);
+    }
+
+    private static byte[] toRowKey(long index) {
+        // zero-padded key to spread rows in lexicographical order
+        return Bytes.toBytes(String.format("row-%012d", index));
+    }
+
+    private static KeyGenerator createKeyGenerator(Options options) {
+        switch (options.distribution) {
+        case UNIFORM:
+            return new UniformKeyGenerator(options.keyCount);
+        case ZIPFIAN:
+            return new ZipfianKeyGenerator(options.keyCount, options.zipfianConstant);
+        default:
+            throw new IllegalArgumentException("Unknown distribution: " + options.distribution);
+        }
+    }
+
+    /**
+     * Generates indexes of rows which are accessed by single transaction.
+     */
+    abstract static class KeyGenerator {
+        private final long keyCount;
+
+        KeyGenerator(long keyCount) {
+            Preconditions.checkArgument(keyCount > 0, "keyCount should be positive.");
+            this.keyCount = keyCount;
+        }
+
+        long getKeyCount() {
+            return keyCount;
+        }
+
+        abstract long next(Random random);
+
+        /**
+         * Returns {@code count} distinct indexes, because a row read by transaction should not be the row
+         * written by the same transaction.
+         */
+        long[] nextDistinct(Random random, int count) {
+            Preconditions.checkArgument(count <= keyCount, "keyCount should not be smaller than rows per transaction.");
+            long[] result = new long[count];
+            int filled = 0;
+            while (filled < count) {
+                long candidate = next(random);
+                boolean duplicated = false;
+                for (int i = 0; i < filled; i++) {
+                    if (result[i] == candidate) {
+                        duplicated = true;
+                        break;
+                    }
+                }
+                if (!duplicated) {
+                    result[filled++] = candidate;
+                }
+            }
+            return result;
+        }
+    }
+
+    static final class UniformKeyGenerator extends KeyGenerator {
+        UniformKeyGenerator(long keyCount) {
+            super(keyCount);
+        }
+
+        @Override
+        long next(Random random) {
+            return (long) (random.nextDouble() * getKeyCount());
+        }
+    }
+
+    /**
+     * Zipfian distributed key generator which follows the algorithm described in
+     * "Quickly Generating Billion-Record Synthetic Databases" (Gray et al.), which is also used by YCSB.
+     * Index 0 is the most popular one.
+     */
+    static final class ZipfianKeyGenerator extends KeyGenerator {
+        private final double theta;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+
+        ZipfianKeyGenerator(long keyCount, double theta) {
+            super(keyCount);
+            Preconditions.checkArgument(theta > 0 && theta < 1, "zipfian constant should be in (0, 1).");
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetan = zeta(keyCount, theta);
+            double zeta2 = zeta(2, theta);
+            this.eta = (1 - Math.pow(2.0 / keyCount, 1 - theta)) / (1 - zeta2 / zetan);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        long next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, getKeyCount() - 1);
+            }
+            long index = (long) (getKeyCount() * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(index, getKeyCount() - 1);
+        }
+    }
+
+    /**
+     * Per-thread recorder of transaction results. Latencies are kept in nanoseconds.
+     */
+    static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int latencyCount;
+        private final Map<Workload, long[]> counts = new EnumMap<>(Workload.class);
+
+        Recorder() {
+            for (Workload workload : Workload.values()) {
+                // { success, conflict, error }
+                counts.put(workload, new long[3]);
+            }
+        }
+
+        void recordSuccess(Workload workload, long latencyNanos) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[latencyCount++] = latencyNanos;
+            counts.get(workload)[0]++;
+        }
+
+        void recordConflict(Workload workload) {
+            counts.get(workload)[1]++;
+        }
+
+        void recordError(Workload workload) {
+            counts.get(workload)[2]++;
+        }
+
+        void merge(Recorder other) {
+            if (latencyCount + other.latencyCount > latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencyCount + other.latencyCount);
+            }
+            System.arraycopy(other.latencies, 0, latencies, latencyCount, other.latencyCount);
+            latencyCount += other.latencyCount;
+            for (Workload workload : Workload.values()) {
+                long[] mine = counts.get(workload);
+                long[] theirs = other.counts.get(workload);
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] += theirs[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Aggregated result of a run.
+     */
+    public static final class Report {
+        private final long[] sortedLatencies;
+        private final Map<Workload, long[]> counts;
+        private final long durationSeconds;
+
+        Report(Recorder recorder, long durationSeconds) {
+            this.sortedLatencies = Arrays.copyOf(recorder.latencies, recorder.latencyCount);
+            Arrays.sort(sortedLatencies);
+            this.counts = recorder.counts;
+            this.durationSeconds = durationSeconds;
+        }
+
+        public long getCommittedCount() {
+            return sum(0);
+        }
+
+        public long getConflictCount() {
+            return sum(1);
+        }
+
+        public long getErrorCount() {
+            return sum(2);
+        }
+
+        private long sum(int index) {
+            long sum = 0;
+            for (long[] count : counts.values()) {
+                sum += count[index];
+            }
+            return sum;
+        }
+
+        /**
+         * @return committed transactions per second
+         */
+        public double getThroughput() {
+            return durationSeconds == 0 ? 0 : (double) getCommittedCount() / durationSeconds;
+        }
+
+        /**
+         * @return ratio of conflicted transactions among all attempted transactions
+         */
+        public double getConflictRate() {
+            long attempted = getCommittedCount() + getConflictCount() + getErrorCount();
+            return attempted == 0 ? 0 : (double) getConflictCount() / attempted;
+        }
+
+        /**
+         * @param percentile percentile in [0, 100]
+         * @return latency of committed transaction at given percentile in milliseconds
+         */
+        public double getLatencyMillis(double percentile) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+            index = Math.max(0, Math.min(index, sortedLatencies.length - 1));
+            return sortedLatencies[index] / 1000000.0;
+        }
+
+        public void print(PrintStream out) {
+            out.println(String.format(Locale.ENGLISH, "duration       : %d sec", durationSeconds));
+            for (Map.Entry<Workload, long[]> entry : counts.entrySet()) {
+                long[] count = entry.getValue();
+                out.println(String.format(Locale.ENGLISH, "%-15s: committed=%d, conflicted=%d, failed=%d",
+                        entry.getKey(), count[0], count[1], count[2]));
+            }
+            out.println(String.format(Locale.ENGLISH, "throughput     : %.1f tx/sec", getThroughput()));
+            out.println(String.format(Locale.ENGLISH, "conflict rate  : %.4f%%", getConflictRate() * 100));
+            out.println(String.format(Locale.ENGLISH,
+                    "latency (ms)   : p50=%.2f, p90=%.2f, p99=%.2f, p99.9=%.2f, max=%.2f",
+                    getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99), getLatencyMillis(99.9),
+                    getLatencyMillis(100)));
+        }
+    }
+
+    /**
+     * Options of the load generator.
+     */
+    public static final class Options {
+        private String target = "mini";
+        private String tableName = "haeinsa-load";
+        private byte[] family = Bytes.toBytes("data");
+        private final Map<Workload, Integer> mix = new EnumMap<>(Workload.class);
+        private KeyDistribution distribution = KeyDistribution.UNIFORM;
+        private double zipfianConstant = 0.99;
+        private long keyCount = 100000;
+        private int threads = 4;
+        private long durationSeconds = 30;
+        private long warmupSeconds = 5;
+        private int valueSize = 100;
+        private long seed = System.currentTimeMillis();
+
+        public Options() {
+            mix.put(Workload.PRACTICAL, 1);
+        }
+
+        /**
+         * Parse options from {@code --name=value} style arguments.
+         */
+        public static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                Preconditions.checkArgument(arg.startsWith("--") && arg.contains("="), "Invalid argument: %s", arg);
+                String name = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (name) {
+                case "target":
+                    options.setTarget(value);
+                    break;
+                case "table":
+                    options.setTableName(value);
+                    break;
+                case "family":
+                    options.setFamily(Bytes.toBytes(value));
+                    break;
+                case "mix":
+                    options.mix.clear();
+                    for (String item : value.split(",")) {
+                        String[] pair = item.split(":");
+                        Workload workload = Workload.valueOf(pair[0].trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+                        options.setWeight(workload, pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1);
+                    }
+                    break;
+                case "distribution":
+                    options.setDistribution(KeyDistribution.valueOf(value.toUpperCase(Locale.ENGLISH)));
+                    break;
+                case "zipfian-constant":
+                    options.setZipfianConstant(Double.parseDouble(value));
+                    break;
+                case "keys":
+                    options.setKeyCount(Long.parseLong(value));
+                    break;
+                case "threads":
+                    options.setThreads(Integer.parseInt(value));
+                    break;
+                case "duration":
+                    options.setDurationSeconds(Long.parseLong(value));
+                    break;
+                case "warmup":
+                    options.setWarmupSeconds(Long.parseLong(value));
+                    break;
+                case "value-size":
+                    options.setValueSize(Integer.parseInt(value));
+                    break;
+                case "seed":
+                    options.setSeed(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+            return options;
+        }
+
+        public static void printUsage(PrintStream out) {
+            out.println("Usage: HaeinsaLoadGenerator [--name=value ...]");
+            out.println("  --target=mini|cluster        MiniHBaseCluster or cluster of hbase-site.xml (default: mini)");
+            out.println("  --table=NAME                 table name (default: haeinsa-load)");
+            out.println("  --family=NAME                data family (default: data)");
+            out.println("  --mix=practical:3,worst_case:1  weighted workload mix (default: practical:1)");
+            out.println("  --distribution=uniform|zipfian  key distribution (default: uniform)");
+            out.println("  --zipfian-constant=C         skew of zipfian distribution (default: 0.99)");
+            out.println("  --keys=N                     number of distinct rows (default: 100000)");
+            out.println("  --threads=N                  number of client threads (default: 4)");
+            out.println("  --duration=SEC               measured duration (default: 30)");
+            out.println("  --warmup=SEC                 unmeasured warmup duration (default: 5)");
+            out.println("  --value-size=BYTES           size of written values (default: 100)");
+            out.println("  --seed=N                     random seed");
+        }
+
+        Workload chooseWorkload(Random random) {
+            int total = 0;
+            for (int weight : mix.values()) {
+                total += weight;
+            }
+            int point = random.nextInt(total);
+            for (Map.Entry<Workload, Integer> entry : mix.entrySet()) {
+                point -= entry.getValue();
+                if (point < 0) {
+                    return entry.getKey();
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        public Options setTarget(String target) {
+            Preconditions.checkArgument("mini".equals(target) || "cluster".equals(target), "Unknown target: %s", target);
+            this.target = target;
+            return this;
+        }
+
+        public Options setTableName(String tableName) {
+            this.tableName = tableName;
+            return this;
+        }
+
+        public Options setFamily(byte[] family) {
+            this.family = family;
+            return this;
+        }
+
+        public Options setWeight(Workload workload, int weight) {
+            Preconditions.checkArgument(weight >= 0, "weight should not be negative.");
+            if (weight == 0) {
+                mix.remove(workload);
+            } else {
+                mix.put(workload, weight);
+            }
+            return this;
+        }
+
+        public Options setDistribution(KeyDistribution distribution) {
+            this.distribution = distribution;
+            return this;
+        }
+
+        public Options setZipfianConstant(double zipfianConstant) {
+            this.zipfianConstant = zipfianConstant;
+            return this;
+        }
+
+        public Options setKeyCount(long keyCount) {
+            this.keyCount = keyCount;
+            return this;
+        }
+
+        public Options setThreads(int threads) {
+            Preconditions.checkArgument(threads > 0, "threads should be positive.");
+            this.threads = threads;
+            return this;
+        }
+
+        public Options setDurationSeconds(long durationSeconds) {
+            this.durationSeconds = durationSeconds;
+            return this;
+        }
+
+        public Options setWarmupSeconds(long warmupSeconds) {
+            this.warmupSeconds = warmupSeconds;
+            return this;
+        }
+
+        public Options setValueSize(int valueSize) {
+            this.valueSize = valueSize;
+            return this;
+        }
+
+        public Options setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        void validate() {
+            Preconditions.checkState(!mix.isEmpty(), "At least one workload should be given.");
+            Preconditions.checkState(keyCount > Workload.PRACTICAL.getWriteRowCount(),
+                    "keyCount should be larger than rows per transaction.");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("--help")) {
+            Options.printUsage(System.out);
+            return;
+        }
+        Options options = Options.parse(args);
+
+        HaeinsaTransactionManager tm;
+        HaeinsaTestingCluster cluster = null;
+        ExecutorService threadPool = null;
+        if ("mini".equals(options.target)) {
+            cluster = HaeinsaTestingCluster.getInstance();
+            // make sure that table is created before the run.
+            cluster.getHaeinsaTable(options.tableName).close();
+            tm = cluster.getTransactionManager();
+        } else {
+            Configuration conf = HBaseConfiguration.create();
+            threadPool = Executors.newCachedThreadPool();
+            tm = new HaeinsaTransactionManager(TestingUtility.createHaeinsaTablePool(conf, threadPool));
+        }
+
+        try {
+            Report report = new HaeinsaLoadGenerator(options, tm).run();
+            report.print(System.out);
+        } finally {
+            if (threadPool != null) {
+                tm.getTablePool().close();
+                threadPool.shutdown();
+            }
+            if (cluster != null) {
+                cluster.release();
+            }
+        }
+    }
+}
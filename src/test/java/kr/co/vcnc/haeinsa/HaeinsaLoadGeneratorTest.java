@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import kr.co.vcnc.haeinsa.HaeinsaLoadGenerator.KeyDistribution;
+import kr.co.vcnc.haeinsa.HaeinsaLoadGenerator.Options;
+import kr.co.vcnc.haeinsa.HaeinsaLoadGenerator.Report;
+import kr.co.vcnc.haeinsa.HaeinsaLoadGenerator.Workload;
+import kr.co.vcnc.haeinsa.HaeinsaLoadGenerator.ZipfianKeyGenerator;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Short runs of {@link HaeinsaLoadGenerator} to make sure that the tool keeps working as the client changes.
+ */
+public class HaeinsaLoadGeneratorTest extends HaeinsaTestBase {
+
+    @Test
+    public void testZipfianKeyGenerator() throws Exception {
+        ZipfianKeyGenerator keys = new ZipfianKeyGenerator(1000, 0.99);
+        Random random = new Random(0);
+        int[] histogram = new int[1000];
+        for (int i = 0; i < 100000; i++) {
+            long index = keys.next(random);
+            Assert.assertTrue(index >= 0 && index < 1000);
+            histogram[(int) index]++;
+        }
+        // the most popular key should be accessed much more than the least popular ones.
+        Assert.assertTrue(histogram[0] > histogram[999] * 10);
+
+        long[] distinct = keys.nextDistinct(random, 3);
+        Assert.assertNotEquals(distinct[0], distinct[1]);
+        Assert.assertNotEquals(distinct[1], distinct[2]);
+        Assert.assertNotEquals(distinct[0], distinct[2]);
+    }
+
+    @Test
+    public void testShortRun() throws Exception {
+        // create table of the test
+        context().getHaeinsaTableIface("test").close();
+
+        Options options = new Options()
+                .setTableName(context().createContextedTableName("test"))
+                .setWeight(Workload.PRACTICAL, 1)
+                .setWeight(Workload.WORST_CASE, 1)
+                .setDistribution(KeyDistribution.ZIPFIAN)
+                .setKeyCount(100)
+                .setThreads(4)
+                .setWarmupSeconds(0)
+                .setDurationSeconds(3);
+        Report report = new HaeinsaLoadGenerator(options, context().getTransactionManager()).run();
+
+        Assert.assertTrue(report.getCommittedCount() > 0);
+        Assert.assertEquals(report.getErrorCount(), 0);
+        Assert.assertTrue(report.getConflictRate() < 1.0);
+        Assert.assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(99));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        report.print(new PrintStream(output, true, "UTF-8"));
+        String printed = output.toString("UTF-8");
+        for (Workload workload : Workload.values()) {
+            Assert.assertTrue(printed.contains(workload.toString()), printed);
+        }
+        Assert.assertTrue(printed.contains("throughput"), printed);
+        Assert.assertTrue(printed.contains("p99"), printed);
+    }
+}
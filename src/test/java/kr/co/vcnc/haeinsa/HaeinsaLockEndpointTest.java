@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.coprocessor.HaeinsaLockEndpoint;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaLockEndpoint}, on table which has {@link #ROWS} rows in three regions.
+ */
+public class HaeinsaLockEndpointTest extends HaeinsaTestBase {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 10;
+
+    private static byte[] row(int index) {
+        return Bytes.toBytes("row-" + index);
+    }
+
+    /**
+     * Create table with {@link HaeinsaLockEndpoint}, split into regions of [, row-3), [row-3, row-6) and [row-6, ).
+     */
+    private static String createTable(Connection connection) throws Exception {
+        String tableName = context().createContextedTableName("test");
+        HTableDescriptor tableDesc = new HTableDescriptor(TableName.valueOf(tableName));
+        HColumnDescriptor lockColumnDesc = new HColumnDescriptor(LOCK_FAMILY);
+        lockColumnDesc.setMaxVersions(1);
+        lockColumnDesc.setInMemory(true);
+        tableDesc.addFamily(lockColumnDesc);
+        tableDesc.addFamily(new HColumnDescriptor(CF));
+        tableDesc.addCoprocessor(HaeinsaLockEndpoint.class.getName());
+        try (Admin admin = connection.getAdmin()) {
+            admin.createTable(tableDesc, new byte[][] { row(3), row(6) });
+        }
+        return tableName;
+    }
+
+    @Test
+    public void testApplyAll() throws Exception {
+        Configuration conf = context().getCluster().getConfiguration();
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            String tableName = createTable(connection);
+            try (Table table = connection.getTable(TableName.valueOf(tableName))) {
+                table.put(new Put(row(4)).addColumn(LOCK_FAMILY, LOCK_QUALIFIER, 1L, Bytes.toBytes("other")));
+
+                List<HaeinsaLockTransition> transitions = Lists.newArrayList();
+                for (int i = 0; i < ROWS; i++) {
+                    Put put = new Put(row(i))
+                            .addColumn(LOCK_FAMILY, LOCK_QUALIFIER, 2L, Bytes.toBytes("lock-" + i))
+                            .addColumn(CF, CQ, 2L, Bytes.toBytes(i));
+                    // row-4 already has lock, so its transition is not applied.
+                    transitions.add(new HaeinsaLockTransition(row(i), null, put, null, null));
+                }
+                boolean[] applied = HaeinsaLockTransition.applyAll(table, transitions);
+
+                Assert.assertEquals(applied.length, ROWS);
+                for (int i = 0; i < ROWS; i++) {
+                    Assert.assertEquals(applied[i], i != 4);
+                    byte[] value = table.get(new Get(row(i)).addColumn(CF, CQ)).getValue(CF, CQ);
+                    byte[] lock = table.get(new Get(row(i)).addColumn(LOCK_FAMILY, LOCK_QUALIFIER))
+                            .getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+                    if (i == 4) {
+                        Assert.assertNull(value);
+                        Assert.assertEquals(lock, Bytes.toBytes("other"));
+                    } else {
+                        Assert.assertEquals(value, Bytes.toBytes(i));
+                        Assert.assertEquals(lock, Bytes.toBytes("lock-" + i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        Configuration conf = context().getCluster().getConfiguration();
+        try (Connection connection = ConnectionFactory.createConnection(conf)) {
+            String tableName = createTable(connection);
+            HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+            tm.setLockEndpointEnabled(true);
+            HaeinsaTableIface testTable = tm.getTablePool().getTable(tableName);
+
+            // transaction on rows of all regions, including Delete which is applied after prewrite.
+            HaeinsaTransaction tx = tm.begin();
+            for (int i = 0; i < ROWS; i++) {
+                testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+            }
+            tx.commit();
+            tx = tm.begin();
+            for (int i = 0; i < ROWS; i++) {
+                testTable.delete(tx, new HaeinsaDelete(row(i)).deleteColumns(CF, CQ));
+                testTable.put(tx, new HaeinsaPut(row(i)).add(CF, Bytes.toBytes("other"), Bytes.toBytes(i)));
+            }
+            tx.commit();
+
+            try (Table table = connection.getTable(TableName.valueOf(tableName))) {
+                tx = tm.begin();
+                for (int i = 0; i < ROWS; i++) {
+                    HaeinsaResult result = testTable.get(tx, new HaeinsaGet(row(i)));
+                    Assert.assertNull(result.getValue(CF, CQ));
+                    Assert.assertEquals(result.getValue(CF, Bytes.toBytes("other")), Bytes.toBytes(i));
+                    byte[] lock = table.get(new Get(row(i)).addColumn(LOCK_FAMILY, LOCK_QUALIFIER))
+                            .getValue(LOCK_FAMILY, LOCK_QUALIFIER);
+                    Assert.assertEquals(TRowLocks.deserialize(lock).getState(), TRowLockState.STABLE);
+                }
+                tx.rollback();
+            }
+
+            // conflict on one of rows fails the transaction.
+            tx = tm.begin();
+            for (int i = 0; i < ROWS; i++) {
+                testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes("tx")));
+            }
+            HaeinsaTransaction otherTx = tm.begin();
+            testTable.put(otherTx, new HaeinsaPut(row(5)).add(CF, CQ, Bytes.toBytes("otherTx")));
+            otherTx.commit();
+            try {
+                tx.commit();
+                Assert.fail();
+            } catch (ConflictException e) {
+                // expected
+            }
+            testTable.close();
+        }
+    }
+}
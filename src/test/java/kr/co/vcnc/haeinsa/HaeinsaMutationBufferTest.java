@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaMutationBuffer}, {@link HaeinsaBufferedPut} and {@link HaeinsaBufferedDelete}.
+ * Buffered mutations should behave same as {@link HaeinsaPut} and {@link HaeinsaDelete}.
+ */
+public class HaeinsaMutationBufferTest {
+    private static final byte[] ROW = Bytes.toBytes("row");
+
+    @Test
+    public void testPutSameAsHaeinsaPut() throws Exception {
+        Random random = new Random(42);
+        HaeinsaPut expected = new HaeinsaPut(ROW);
+        HaeinsaBufferedPut actual = new HaeinsaBufferedPut(ROW);
+        for (int i = 0; i < 1000; i++) {
+            // small key space to have many overwrites and unsorted additions.
+            byte[] family = Bytes.toBytes("f" + random.nextInt(3));
+            byte[] qualifier = random.nextInt(10) == 0 ? new byte[0] : new byte[] { (byte) random.nextInt(256) };
+            byte[] value = Bytes.toBytes(i);
+            if (random.nextBoolean()) {
+                expected.add(family, qualifier, value);
+                actual.add(family, qualifier, value);
+            } else {
+                HaeinsaPut put = new HaeinsaPut(ROW).add(family, qualifier, value);
+                expected.add(put);
+                actual.add(put);
+            }
+        }
+        assertSameKeyValues(expected.getScanner(0), actual.getScanner(0));
+        Assert.assertEquals(actual.toTMutation(), expected.toTMutation());
+        Assert.assertEquals(actual.getFamilies(), expected.getFamilies());
+
+        Put expectedPut = new Put(ROW);
+        List<TCellKey> expectedKeys = Lists.newArrayList();
+        expected.writeTo(expectedPut, 100L, expectedKeys);
+        Put actualPut = new Put(ROW);
+        List<TCellKey> actualKeys = Lists.newArrayList();
+        actual.writeTo(actualPut, 100L, actualKeys);
+        Assert.assertEquals(actualKeys, expectedKeys);
+        Assert.assertEquals(actualPut.size(), expectedPut.size());
+        for (Cell cell : actualPut.getFamilyCellMap().get(Bytes.toBytes("f0"))) {
+            Assert.assertEquals(cell.getTimestamp(), 100L);
+            Assert.assertEquals(expectedPut.get(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell)).size(), 1);
+            Cell expectedCell = expectedPut.get(CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell)).get(0);
+            Assert.assertEquals(CellUtil.cloneValue(cell), CellUtil.cloneValue(expectedCell));
+        }
+    }
+
+    @Test
+    public void testDeleteSameAsHaeinsaDelete() throws Exception {
+        byte[] family1 = Bytes.toBytes("f1");
+        byte[] family2 = Bytes.toBytes("f2");
+        HaeinsaDelete expected = new HaeinsaDelete(ROW);
+        HaeinsaBufferedDelete actual = new HaeinsaBufferedDelete(ROW);
+        for (HaeinsaDelete delete : Lists.newArrayList(expected, actual)) {
+            delete.deleteColumns(family2, Bytes.toBytes("b"));
+            delete.deleteColumns(family1, Bytes.toBytes("a"));
+            delete.deleteFamily(family1);
+            delete.deleteColumns(family2, Bytes.toBytes("a"));
+            delete.deleteColumns(family2, Bytes.toBytes("b"));
+        }
+        assertSameKeyValues(expected.getScanner(0), actual.getScanner(0));
+        Assert.assertEquals(actual.toTMutation(), expected.toTMutation());
+    }
+
+    @Test
+    public void testNullAndEmptyAreDistinguished() throws Exception {
+        HaeinsaMutationBuffer buffer = new HaeinsaMutationBuffer(ROW);
+        buffer.add(Type.DeleteFamily, Bytes.toBytes("f"), null, null);
+        buffer.add(Type.Put, Bytes.toBytes("f"), new byte[0], new byte[0]);
+        Assert.assertEquals(buffer.size(), 2);
+        HaeinsaKeyValue deleteFamily = buffer.getKeyValue(0);
+        Assert.assertEquals(deleteFamily.getType(), Type.DeleteFamily);
+        Assert.assertNull(deleteFamily.getQualifier());
+        Assert.assertNull(deleteFamily.getValue());
+        HaeinsaKeyValue put = buffer.getKeyValue(1);
+        Assert.assertEquals(put.getType(), Type.Put);
+        Assert.assertEquals(put.getQualifier(), new byte[0]);
+        Assert.assertEquals(put.getValue(), new byte[0]);
+    }
+
+    @Test
+    public void testFamilyMapIsCachedUntilAdd() throws Exception {
+        HaeinsaBufferedPut put = new HaeinsaBufferedPut(ROW);
+        put.add(Bytes.toBytes("f"), Bytes.toBytes("a"), Bytes.toBytes(1));
+        Map<byte[], NavigableSet<HaeinsaKeyValue>> familyMap = put.getFamilyMap();
+        Assert.assertSame(put.getFamilyMap(), familyMap);
+        try {
+            familyMap.clear();
+            Assert.fail();
+        } catch (UnsupportedOperationException e) {
+            // expected, cached map is shared by callers.
+        }
+
+        put.add(Bytes.toBytes("g"), Bytes.toBytes("a"), Bytes.toBytes(2));
+        Assert.assertNotSame(put.getFamilyMap(), familyMap);
+        Assert.assertEquals(familyMap.size(), 1);
+        Assert.assertEquals(put.getFamilyMap().size(), 2);
+
+        // copy of buffered put is modifiable.
+        HaeinsaPut copy = new HaeinsaPut(put);
+        copy.add(Bytes.toBytes("f"), Bytes.toBytes("b"), Bytes.toBytes(3));
+        Assert.assertEquals(copy.getFamilyMap().get(Bytes.toBytes("f")).size(), 2);
+        Assert.assertEquals(put.getFamilyMap().get(Bytes.toBytes("f")).size(), 1);
+    }
+
+    @Test
+    public void testRowTransactionDoesNotModifyMutations() throws Exception {
+        HaeinsaRowTransaction rowState = new HaeinsaRowTransaction(null);
+        HaeinsaPut put1 = new HaeinsaPut(ROW).add(Bytes.toBytes("f"), Bytes.toBytes("a"), Bytes.toBytes(1));
+        HaeinsaPut put2 = new HaeinsaPut(ROW).add(Bytes.toBytes("f"), Bytes.toBytes("a"), Bytes.toBytes(2));
+        HaeinsaDelete delete = new HaeinsaDelete(ROW).deleteColumns(Bytes.toBytes("f"), Bytes.toBytes("b"));
+        rowState.addMutation(put1);
+        rowState.addMutation(put2);
+        rowState.addMutation(delete);
+        rowState.addMutation(put1);
+
+        Assert.assertEquals(rowState.getMutations().size(), 3);
+        Assert.assertTrue(rowState.getMutations().get(0) instanceof HaeinsaPut);
+        Assert.assertTrue(rowState.getMutations().get(1) instanceof HaeinsaDelete);
+        Assert.assertTrue(rowState.getMutations().get(2) instanceof HaeinsaPut);
+        Assert.assertEquals(rowState.getIterationCount(), 3);
+        HaeinsaKeyValue kv = rowState.getMutations().get(0).getScanner(0).peek();
+        Assert.assertEquals(kv.getValue(), Bytes.toBytes(2));
+        // put1 is not modified by merging put2.
+        Assert.assertEquals(put1.getFamilyMap().get(Bytes.toBytes("f")).first().getValue(), Bytes.toBytes(1));
+    }
+
+    private static void assertSameKeyValues(HaeinsaKeyValueScanner expected, HaeinsaKeyValueScanner actual)
+            throws IOException {
+        while (true) {
+            HaeinsaKeyValue expectedKV = expected.next();
+            HaeinsaKeyValue actualKV = actual.next();
+            if (expectedKV == null) {
+                Assert.assertNull(actualKV);
+                return;
+            }
+            Assert.assertNotNull(actualKV);
+            Assert.assertEquals(HaeinsaKeyValue.COMPARATOR.compare(actualKV, expectedKV), 0);
+            Assert.assertEquals(actualKV.getValue(), expectedKV.getValue());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for mutations stored out of {@link TRowLock}.
+ * See {@link HaeinsaTransactionManager#setOutOfLineMutationThreshold(int)}.
+ */
+public class HaeinsaOutOfLineMutationTest {
+    private static final byte[] TABLE = Bytes.toBytes("test");
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] ROW1 = Bytes.toBytes("row1");
+    private static final byte[] ROW2 = Bytes.toBytes("row2");
+
+    private InMemoryHBase hbase;
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTableIface testTable;
+    private byte[] largeValue;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setOutOfLineMutationThreshold(1024);
+        testTable = tm.getTablePool().getTable("test");
+        largeValue = new byte[64 * 1024];
+        Arrays.fill(largeValue, (byte) 'x');
+
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(ROW1).add(CF, Bytes.toBytes("b"), Bytes.toBytes("old")));
+        tx.commit();
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        writeMutations(tx);
+        tx.commit();
+
+        assertCommitted();
+    }
+
+    @Test
+    public void testRecoverFromOtherClient() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        tx.setTimeout(10);
+        writeMutations(tx);
+        // fail on applying delete of row1, which is saved in the lock after prewrite.
+        hbase.failOnce(InMemoryHBase.CHECK_AND_DELETE, ROW1, FailurePoint.BEFORE_APPLY);
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // injected failure
+        }
+
+        Result result = hbase.getTable(TABLE).get(new Get(ROW1));
+        TRowLock rowLock = TRowLocks.deserialize(result.getValue(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER));
+        Assert.assertNotEquals(rowLock.getState(), TRowLockState.STABLE);
+        Assert.assertEquals(rowLock.getMutationsSize(), 2);
+        for (TMutation mutation : rowLock.getMutations()) {
+            // only references are kept in the lock.
+            Assert.assertTrue(mutation.isSetPayloadQualifier());
+            Assert.assertFalse(mutation.isSetPut());
+            Assert.assertFalse(mutation.isSetRemove());
+            byte[] payload = result.getValue(HaeinsaConstants.LOCK_FAMILY, mutation.getPayloadQualifier());
+            Assert.assertEquals(TRowLocks.deserializeMutation(payload).getType(), mutation.getType());
+        }
+        Assert.assertTrue(TRowLocks.serialize(rowLock).length < 1024);
+
+        Thread.sleep(100);
+        // other client which does not know payloads of mutations recovers the transaction.
+        HaeinsaTransactionManager otherTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface otherTable = otherTm.getTablePool().getTable("test");
+        HaeinsaTransaction readTx = otherTm.begin();
+        Assert.assertEquals(otherTable.get(readTx, new HaeinsaGet(ROW2)).getValue(CF, Bytes.toBytes("x")), largeValue);
+        Assert.assertEquals(otherTable.get(readTx, new HaeinsaGet(ROW1)).getValue(CF, Bytes.toBytes("c")), largeValue);
+        readTx.rollback();
+
+        assertCommitted();
+    }
+
+    /**
+     * Put, delete and put on row1, and put on row2. Delete and second put of row1 remain in the lock after prewrite.
+     */
+    private void writeMutations(HaeinsaTransaction tx) throws IOException {
+        testTable.put(tx, new HaeinsaPut(ROW1).add(CF, Bytes.toBytes("a"), largeValue));
+        testTable.delete(tx, new HaeinsaDelete(ROW1).deleteColumns(CF, Bytes.toBytes("b")));
+        testTable.put(tx, new HaeinsaPut(ROW1).add(CF, Bytes.toBytes("c"), largeValue));
+        testTable.put(tx, new HaeinsaPut(ROW2).add(CF, Bytes.toBytes("x"), largeValue));
+    }
+
+    private void assertCommitted() throws IOException {
+        HaeinsaTransaction tx = tm.begin();
+        HaeinsaResult result = testTable.get(tx, new HaeinsaGet(ROW1));
+        Assert.assertEquals(result.getValue(CF, Bytes.toBytes("a")), largeValue);
+        Assert.assertNull(result.getValue(CF, Bytes.toBytes("b")));
+        Assert.assertEquals(result.getValue(CF, Bytes.toBytes("c")), largeValue);
+        // columns of lock family are not visible to user.
+        Assert.assertEquals(result.list().size(), 2);
+        tx.rollback();
+
+        for (byte[] row : new byte[][] { ROW1, ROW2 }) {
+            Result rawResult = hbase.getTable(TABLE).get(new Get(row));
+            TRowLock rowLock = TRowLocks.deserialize(rawResult.getValue(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER));
+            Assert.assertEquals(rowLock.getState(), TRowLockState.STABLE);
+            NavigableMap<byte[], byte[]> lockFamily = rawResult.getFamilyMap(HaeinsaConstants.LOCK_FAMILY);
+            for (Map.Entry<byte[], byte[]> entry : lockFamily.entrySet()) {
+                if (!Bytes.equals(entry.getKey(), HaeinsaConstants.LOCK_QUALIFIER)) {
+                    // payloads are cleared after applied.
+                    Assert.assertEquals(entry.getValue().length, 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.Map;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for secondary rows stored out of {@link TRowLock} of primary row.
+ * See {@link HaeinsaTransactionManager#setOutOfLineSecondaryThreshold(int)}.
+ */
+public class HaeinsaOutOfLineSecondaryTest {
+    private static final byte[] TABLE = Bytes.toBytes("test");
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    // more than two chunks of secondary rows
+    private static final int ROWS = HaeinsaConstants.SECONDARY_CHUNK_SIZE * 2 + 100;
+
+    private InMemoryHBase hbase;
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTableIface testTable;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setOutOfLineSecondaryThreshold(100);
+        testTable = tm.getTablePool().getTable("test");
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        writeRows(tx, "v1");
+        tx.commit();
+
+        assertRows(tm, "v1");
+        assertChunksCleared(tx.getPrimary());
+    }
+
+    @Test
+    public void testSmallTransaction() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 10; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes("v1")));
+        }
+        // stop the transaction after prewrite of all rows.
+        failCheckAndPutAfter(10);
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // injected failure
+        }
+        hbase.setFailureInjector(null);
+
+        TRowLock primaryRowLock = getRowLock(tx.getPrimary().getRow());
+        Assert.assertEquals(primaryRowLock.getSecondariesSize(), 9);
+        Assert.assertFalse(primaryRowLock.isSetSecondaryChunkCount());
+    }
+
+    @Test
+    public void testAbortFromOtherClient() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        tx.setTimeout(10);
+        writeRows(tx, "v1");
+        // stop the transaction after prewrite of all rows.
+        failCheckAndPutAfter(ROWS);
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // injected failure
+        }
+        hbase.setFailureInjector(null);
+
+        TRowLock primaryRowLock = getRowLock(tx.getPrimary().getRow());
+        Assert.assertEquals(primaryRowLock.getState(), TRowLockState.PREWRITTEN);
+        Assert.assertFalse(primaryRowLock.isSetSecondaries());
+        Assert.assertEquals(primaryRowLock.getSecondaryChunkCount(), 3);
+        // size of primary lock does not depend on the number of secondary rows.
+        Assert.assertTrue(TRowLocks.serialize(primaryRowLock).length < 128);
+
+        Thread.sleep(100);
+        // other client reads secondary rows, and aborts expired transaction.
+        HaeinsaTransactionManager otherTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        assertRows(otherTm, null);
+        assertChunksCleared(tx.getPrimary());
+    }
+
+    @Test
+    public void testCommitFromOtherClient() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        tx.setTimeout(10);
+        writeRows(tx, "v1");
+        // stop the transaction after prewrite of all rows and commit of primary row.
+        failCheckAndPutAfter(ROWS + 1);
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // injected failure
+        }
+        hbase.setFailureInjector(null);
+        Assert.assertEquals(getRowLock(tx.getPrimary().getRow()).getState(), TRowLockState.COMMITTED);
+
+        Thread.sleep(100);
+        HaeinsaTransactionManager otherTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        assertRows(otherTm, "v1");
+        assertChunksCleared(tx.getPrimary());
+    }
+
+    private void writeRows(HaeinsaTransaction tx, String value) throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(value)));
+        }
+    }
+
+    private void failCheckAndPutAfter(final int count) {
+        hbase.setFailureInjector(new InMemoryHBase.FailureInjector() {
+            private int checkAndPuts = 0;
+
+            @Override
+            public FailurePoint inject(String operation, byte[] tableName, byte[] row) {
+                if (operation.equals(InMemoryHBase.CHECK_AND_PUT) && ++checkAndPuts > count) {
+                    return FailurePoint.BEFORE_APPLY;
+                }
+                return null;
+            }
+        });
+    }
+
+    private void assertRows(HaeinsaTransactionManager manager, String value) throws IOException {
+        HaeinsaTableIface table = manager.getTablePool().getTable("test");
+        HaeinsaTransaction tx = manager.begin();
+        for (int i = 0; i < ROWS; i++) {
+            byte[] actual = table.get(tx, new HaeinsaGet(row(i))).getValue(CF, CQ);
+            Assert.assertEquals(actual, value == null ? null : Bytes.toBytes(value));
+        }
+        tx.rollback();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(getRowLock(row(i)).getState(), TRowLockState.STABLE);
+        }
+    }
+
+    private void assertChunksCleared(TRowKey primary) throws IOException {
+        Result result = hbase.getTable(TABLE).get(new Get(primary.getRow()));
+        int chunks = 0;
+        for (Map.Entry<byte[], byte[]> entry : result.getFamilyMap(HaeinsaConstants.LOCK_FAMILY).entrySet()) {
+            if (Bytes.startsWith(entry.getKey(), HaeinsaConstants.SECONDARIES_QUALIFIER_PREFIX)) {
+                Assert.assertEquals(entry.getValue().length, 0);
+                chunks++;
+            }
+        }
+        Assert.assertEquals(chunks, 3);
+    }
+
+    private TRowLock getRowLock(byte[] row) throws IOException {
+        return TRowLocks.deserialize(hbase.getTable(TABLE).get(new Get(row))
+                .getValue(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER));
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+}
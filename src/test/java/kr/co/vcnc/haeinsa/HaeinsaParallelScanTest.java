@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for parallel scan of {@link HaeinsaScan#setParallel(boolean)} on multiple regions.
+ */
+public class HaeinsaParallelScanTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 300;
+
+    @Test
+    public void testParallelScan() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data").setSplitKeys(row(100), row(200), row(250));
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i += 2) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        for (int i = 1; i < ROWS; i += 2) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setParallel(true);
+        scan.setCaching(10);
+        hbase.resetRpcCounts();
+        Assert.assertEquals(scanValues(testTable, tx, scan, 0), ROWS);
+        // each of 4 regions needs at least one RPC.
+        Assert.assertTrue(hbase.getRpcCount(InMemoryHBase.SCAN) >= 4);
+
+        // range which starts and stops inside regions.
+        scan = new HaeinsaScan(row(150), row(260));
+        scan.setParallel(true);
+        Assert.assertEquals(scanValues(testTable, tx, scan, 150), 110);
+
+        // range inside single region.
+        scan = new HaeinsaScan(row(10), row(20));
+        scan.setParallel(true);
+        Assert.assertEquals(scanValues(testTable, tx, scan, 10), 10);
+        tx.rollback();
+        testTable.close();
+    }
+
+    @Test
+    public void testParallelScanRegistersRows() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data").setSplitKeys(row(5));
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < 10; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setParallel(true);
+        Assert.assertEquals(scanValues(testTable, tx, scan, 0), 10);
+        testTable.put(tx, new HaeinsaPut(row(0)).add(CF, CQ, Bytes.toBytes(100)));
+
+        // row read from second region is modified by other transaction.
+        HaeinsaTransaction otherTx = tm.begin();
+        testTable.put(otherTx, new HaeinsaPut(row(7)).add(CF, CQ, Bytes.toBytes(700)));
+        otherTx.commit();
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+        testTable.close();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testReversedParallelScan() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setParallel(true);
+        scan.setReversed(true);
+        testTable.getScanner(tm.begin(), scan);
+    }
+
+    private static int scanValues(HaeinsaTableIface table, HaeinsaTransaction tx, HaeinsaScan scan, int first)
+            throws IOException {
+        int expected = first;
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                Assert.assertEquals(result.getRow(), row(expected));
+                Assert.assertEquals(Bytes.toInt(result.getValue(CF, CQ)), expected);
+                expected++;
+            }
+        }
+        return expected - first;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+}
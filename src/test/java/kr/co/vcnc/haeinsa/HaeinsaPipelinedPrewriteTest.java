@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.exception.DanglingRowLockException;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for pipelined prewrite, enabled by {@link HaeinsaTransactionManager#setPipelinedPrewriteEnabled(boolean)}.
+ */
+public class HaeinsaPipelinedPrewriteTest extends HaeinsaTestBase {
+    private static final byte[] TABLE = Bytes.toBytes("test");
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 10;
+
+    private static byte[] row(int index) {
+        return Bytes.toBytes("row-" + index);
+    }
+
+    private static HaeinsaTransactionManager createTransactionManager() {
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(context().getTransactionManager().getTablePool());
+        tm.setPipelinedPrewriteEnabled(true);
+        return tm;
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        final HaeinsaTransactionManager tm = createTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        // Delete is applied after prewrite.
+        tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            testTable.delete(tx, new HaeinsaDelete(row(i)).deleteColumns(CF, CQ));
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, Bytes.toBytes("other"), Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            HaeinsaResult result = testTable.get(tx, new HaeinsaGet(row(i)));
+            Assert.assertNull(result.getValue(CF, CQ));
+            Assert.assertEquals(result.getValue(CF, Bytes.toBytes("other")), Bytes.toBytes(i));
+            Assert.assertEquals(TRowLocks.deserialize(TestingUtility.getLock(hTestTable, row(i))).getState(),
+                    TRowLockState.STABLE);
+        }
+        tx.rollback();
+
+        testTable.close();
+        hTestTable.close();
+    }
+
+    @Test
+    public void testPrimaryConflict() throws Exception {
+        final HaeinsaTransactionManager tm = createTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes("tx")));
+        }
+        // primary row of the transaction is the first one of mutation rows.
+        tx.classifyAndSortRows(false);
+        byte[] primaryRow = tx.getMutationRowStates().firstKey().getRow();
+
+        // another transaction changes primary row, so prewrite of primary row is failed.
+        HaeinsaTransaction otherTx = tm.begin();
+        testTable.put(otherTx, new HaeinsaPut(primaryRow).add(CF, CQ, Bytes.toBytes("otherTx")));
+        otherTx.commit();
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+
+        // secondary rows prewritten before primary row are aborted by the committing client.
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(TRowLocks.deserialize(TestingUtility.getLock(hTestTable, row(i))).getState(),
+                    TRowLockState.STABLE);
+        }
+        tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            byte[] expected = Bytes.equals(row(i), primaryRow) ? Bytes.toBytes("otherTx") : Bytes.toBytes(i);
+            Assert.assertEquals(testTable.get(tx, new HaeinsaGet(row(i))).getValue(CF, CQ), expected);
+        }
+        tx.rollback();
+
+        testTable.close();
+        hTestTable.close();
+    }
+
+    @Test
+    public void testRecoverAfterPrimaryFailure() throws Exception {
+        final InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        final HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setPipelinedPrewriteEnabled(true);
+        final HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        tx.setTimeout(100);
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes("tx")));
+        }
+        tx.classifyAndSortRows(false);
+        TRowKey primaryRowKey = tx.getMutationRowStates().firstKey();
+        HaeinsaRowTransaction primaryRowState = tx.getMutationRowStates().firstEntry().getValue();
+        byte[] primaryRow = primaryRowKey.getRow();
+
+        // the transaction is stopped after secondary rows are prewritten, and before primary row is prewritten.
+        hbase.failOnce(InMemoryHBase.CHECK_AND_PUT, primaryRow, FailurePoint.BEFORE_APPLY);
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // injected failure
+        }
+        for (int i = 0; i < ROWS; i++) {
+            TRowLockState expected = Bytes.equals(row(i), primaryRow) ? TRowLockState.STABLE : TRowLockState.PREWRITTEN;
+            Assert.assertEquals(getLock(hbase, row(i)).getState(), expected);
+        }
+
+        Thread.sleep(200);
+        // client without pipelined prewrite reports orphan secondary row as dangling.
+        HaeinsaTransactionManager otherTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface otherTable = otherTm.getTablePool().getTable("test");
+        byte[] secondaryRow = Bytes.equals(row(0), primaryRow) ? row(1) : row(0);
+        HaeinsaTransaction otherTx = otherTm.begin();
+        try {
+            otherTable.get(otherTx, new HaeinsaGet(secondaryRow));
+            Assert.fail();
+        } catch (DanglingRowLockException e) {
+            // expected
+        }
+        otherTx.rollback();
+
+        // client with pipelined prewrite fences primary row and aborts orphan secondary rows.
+        HaeinsaTransactionManager recoveringTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        recoveringTm.setPipelinedPrewriteEnabled(true);
+        HaeinsaTableIface recoveringTable = recoveringTm.getTablePool().getTable("test");
+        HaeinsaTransaction recoveringTx = recoveringTm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(recoveringTable.get(recoveringTx, new HaeinsaGet(row(i))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+        }
+        recoveringTx.rollback();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(getLock(hbase, row(i)).getState(), TRowLockState.STABLE);
+        }
+        Assert.assertEquals(getLock(hbase, primaryRow).getCommitTimestamp(), tx.getCommitTimestamp());
+
+        // late prewrite of primary row by the stopped transaction fails after primary row is fenced.
+        try (HaeinsaTableIfaceInternal table = tm.getTablePool().getTableInternal(TABLE)) {
+            table.prewrite(primaryRowState, primaryRow, true);
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+        Assert.assertEquals(getLock(hbase, primaryRow).getState(), TRowLockState.STABLE);
+
+        testTable.close();
+        otherTable.close();
+        recoveringTable.close();
+    }
+
+    private static TRowLock getLock(InMemoryHBase hbase, byte[] row) throws IOException {
+        return TRowLocks.deserialize(hbase.getTable(TABLE).get(new Get(row))
+                .getValue(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER));
+    }
+}
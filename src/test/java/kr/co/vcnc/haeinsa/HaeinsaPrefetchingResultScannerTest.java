@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailureInjector;
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaPrefetchingResultScanner} and {@link HaeinsaScan#setPrefetch(int)}.
+ */
+public class HaeinsaPrefetchingResultScannerTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 200;
+
+    @Test
+    public void testTransactionalScan() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        hbase.setLatency(InMemoryHBase.SCAN, 1, TimeUnit.MILLISECONDS);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i += 2) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        // buffered mutations of odd rows are merged with prefetched results of even rows.
+        for (int i = 1; i < ROWS; i += 2) {
+            testTable.put(tx, new HaeinsaPut(row(i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setCaching(7);
+        scan.setPrefetch(10);
+        Assert.assertEquals(scanValues(testTable, tx, scan), ROWS);
+        scan.setReversed(true);
+        Assert.assertEquals(scanValues(testTable, tx, scan), ROWS);
+        tx.rollback();
+
+        scan.setReversed(false);
+        Assert.assertEquals(scanValues(testTable, null, scan), ROWS / 2);
+        testTable.close();
+    }
+
+    @Test
+    public void testFailureAfterPrefetchedResults() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HTableInterface table = hbase.createTable("test", "data").createHTableInterface();
+        for (int i = 0; i < ROWS; i++) {
+            table.put(new Put(row(i)).add(CF, CQ, 1L, Bytes.toBytes(i)));
+        }
+        Scan scan = new Scan();
+        scan.setCaching(10);
+        // first two RPCs succeed, third RPC fails.
+        final AtomicInteger scanRpcs = new AtomicInteger();
+        hbase.setFailureInjector(new FailureInjector() {
+            @Override
+            public FailurePoint inject(String operation, byte[] tableName, byte[] row) {
+                if (InMemoryHBase.SCAN.equals(operation) && scanRpcs.incrementAndGet() == 3) {
+                    return FailurePoint.BEFORE_APPLY;
+                }
+                return null;
+            }
+        });
+        ResultScanner scanner = new HaeinsaPrefetchingResultScanner(table.getScanner(scan), 5);
+        List<Result> results = Lists.newArrayList();
+        try {
+            while (true) {
+                Result result = scanner.next();
+                Assert.assertNotNull(result);
+                results.add(result);
+            }
+        } catch (IOException e) {
+            // expected injected failure
+        }
+        Assert.assertEquals(results.size(), 20);
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(Bytes.toInt(results.get(i).getValue(CF, CQ)), i);
+        }
+        // scanner is exhausted after failure
+        Assert.assertNull(scanner.next());
+        scanner.close();
+    }
+
+    @Test
+    public void testCloseStopsPrefetch() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HTableInterface table = hbase.createTable("test", "data").createHTableInterface();
+        for (int i = 0; i < ROWS; i++) {
+            table.put(new Put(row(i)).add(CF, CQ, 1L, Bytes.toBytes(i)));
+        }
+        Scan scan = new Scan();
+        scan.setCaching(1);
+        hbase.resetRpcCounts();
+        ResultScanner scanner = new HaeinsaPrefetchingResultScanner(table.getScanner(scan), 2);
+        Assert.assertEquals(Bytes.toInt(scanner.next().getValue(CF, CQ)), 0);
+        scanner.close();
+        Assert.assertNull(scanner.next());
+
+        // background task should stop without reading rest of the table.
+        Thread.sleep(500);
+        long rpcCount = hbase.getRpcCount(InMemoryHBase.SCAN);
+        Assert.assertTrue(rpcCount < ROWS);
+        Thread.sleep(300);
+        Assert.assertEquals(hbase.getRpcCount(InMemoryHBase.SCAN), rpcCount);
+    }
+
+    private static int scanValues(HaeinsaTableIface table, HaeinsaTransaction tx, HaeinsaScan scan)
+            throws IOException {
+        int count = 0;
+        int previous = scan.isReversed() ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        try (HaeinsaResultScanner scanner = table.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                int value = Bytes.toInt(result.getValue(CF, CQ));
+                Assert.assertEquals(result.getRow(), row(value));
+                Assert.assertTrue(scan.isReversed() ? value < previous : value > previous);
+                previous = value;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+import java.util.NavigableMap;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for column lookups and family views of {@link HaeinsaResult}.
+ */
+public class HaeinsaResultTest {
+    private static final byte[] ROW = Bytes.toBytes("row");
+    private static final byte[] CF_A = Bytes.toBytes("a");
+    private static final byte[] CF_B = Bytes.toBytes("b");
+    private static final int QUALIFIERS = 1000;
+
+    @Test
+    public void testWideRowFromResult() throws Exception {
+        List<Cell> cells = Lists.newArrayList();
+        for (byte[] family : new byte[][] { CF_A, CF_B }) {
+            for (int i = 0; i < QUALIFIERS; i++) {
+                cells.add(new KeyValue(ROW, family, qualifier(i), 1L, KeyValue.Type.Put, value(family, i)));
+            }
+        }
+        assertWideRow(new HaeinsaResult(Result.create(cells)));
+    }
+
+    @Test
+    public void testWideRowFromKeyValues() throws Exception {
+        List<HaeinsaKeyValue> kvs = Lists.newArrayList();
+        for (byte[] family : new byte[][] { CF_A, CF_B }) {
+            for (int i = 0; i < QUALIFIERS; i++) {
+                kvs.add(new HaeinsaKeyValue(ROW, family, qualifier(i), value(family, i), KeyValue.Type.Put));
+            }
+        }
+        assertWideRow(new HaeinsaResult(kvs));
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        HaeinsaResult result = new HaeinsaResult(Result.create(Lists.<Cell>newArrayList()));
+        Assert.assertTrue(result.isEmpty());
+        Assert.assertNull(result.getValue(CF_A, qualifier(0)));
+        Assert.assertTrue(result.getFamilyMap(CF_A).isEmpty());
+        Assert.assertTrue(result.getNoVersionMap().isEmpty());
+    }
+
+    private void assertWideRow(HaeinsaResult result) {
+        Assert.assertEquals(result.getRow(), ROW);
+        Assert.assertEquals(result.size(), QUALIFIERS * 2);
+        for (byte[] family : new byte[][] { CF_A, CF_B }) {
+            for (int i = 0; i < QUALIFIERS; i++) {
+                Assert.assertEquals(result.getValue(family, qualifier(i)), value(family, i));
+                Assert.assertTrue(result.getColumnLatest(family, qualifier(i)).matchingColumn(family, qualifier(i)));
+            }
+        }
+        Assert.assertNull(result.getValue(CF_A, Bytes.toBytes("missing")));
+        Assert.assertNull(result.getValue(Bytes.toBytes("c"), qualifier(0)));
+        Assert.assertFalse(result.containsColumn(Bytes.toBytes("0"), qualifier(0)));
+
+        NavigableMap<byte[], byte[]> familyMap = result.getFamilyMap(CF_B);
+        Assert.assertEquals(familyMap.size(), QUALIFIERS);
+        Assert.assertEquals(familyMap.firstKey(), qualifier(0));
+        Assert.assertEquals(familyMap.get(qualifier(QUALIFIERS - 1)), value(CF_B, QUALIFIERS - 1));
+        Assert.assertTrue(result.getFamilyMap(Bytes.toBytes("c")).isEmpty());
+
+        NavigableMap<byte[], NavigableMap<byte[], byte[]>> noVersionMap = result.getNoVersionMap();
+        Assert.assertEquals(noVersionMap.size(), 2);
+        Assert.assertEquals(noVersionMap.get(CF_A).size(), QUALIFIERS);
+        Assert.assertEquals(noVersionMap.get(CF_A).get(qualifier(7)), value(CF_A, 7));
+    }
+
+    private static byte[] qualifier(int i) {
+        return Bytes.toBytes(String.format("q-%05d", i));
+    }
+
+    private static byte[] value(byte[] family, int i) {
+        return Bytes.toBytes(Bytes.toString(family) + i);
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for transactions which write compressed {@link TRowLock}.
+ * See {@link HaeinsaTransactionManager#setRowLockCompressionThreshold(int)}.
+ */
+public class HaeinsaRowLockCompressionTest {
+    private static final byte[] TABLE = Bytes.toBytes("test");
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final int ROWS = 16;
+    private static final int CELLS = 32;
+
+    private InMemoryHBase hbase;
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTableIface testTable;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        tm.setRowLockCompressionThreshold(0);
+        testTable = tm.getTablePool().getTable("test");
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        writeRows(tx);
+        tx.commit();
+
+        assertCommitted(tm);
+    }
+
+    @Test
+    public void testRecoverFromOtherClient() throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        tx.setTimeout(10);
+        writeRows(tx);
+        // stop the transaction after prewrite of all rows and commit of primary row.
+        hbase.setFailureInjector(new InMemoryHBase.FailureInjector() {
+            private int checkAndPuts = 0;
+
+            @Override
+            public FailurePoint inject(String operation, byte[] tableName, byte[] row) {
+                if (operation.equals(InMemoryHBase.CHECK_AND_PUT) && ++checkAndPuts > ROWS + 1) {
+                    return FailurePoint.BEFORE_APPLY;
+                }
+                return null;
+            }
+        });
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // injected failure
+        }
+        hbase.setFailureInjector(null);
+
+        for (int i = 0; i < ROWS; i++) {
+            byte[] rowLockBytes = hbase.getTable(TABLE).get(new Get(row(i)))
+                    .getValue(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER);
+            Assert.assertTrue(TRowLocks.isCompressed(rowLockBytes));
+            Assert.assertNotEquals(TRowLocks.deserialize(rowLockBytes).getState(), TRowLockState.STABLE);
+        }
+
+        Thread.sleep(100);
+        // other client which does not compress TRowLock recovers the transaction.
+        HaeinsaTransactionManager otherTm = new HaeinsaTransactionManager(hbase.createTablePool());
+        assertCommitted(otherTm);
+    }
+
+    @Test
+    public void testCurrentBytes() throws Exception {
+        TRowLock rowLock = new TRowLock(HaeinsaConstants.ROW_LOCK_VERSION, TRowLockState.PREWRITTEN, 1234L);
+        for (int i = 0; i < CELLS; i++) {
+            rowLock.addToPrewritten(new TCellKey(CF, Bytes.toBytes("qualifier-" + i)));
+        }
+        byte[] compressed = TRowLocks.serialize(rowLock, 0);
+        Assert.assertTrue(TRowLocks.isCompressed(compressed));
+
+        HaeinsaRowTransaction rowTx = new HaeinsaRowTransaction(null);
+        // bytes read from HBase are used as expected value of checkAndPut.
+        rowTx.setCurrent(TRowLocks.deserialize(compressed), compressed);
+        Assert.assertSame(rowTx.getCurrentBytes(), compressed);
+        rowTx.setCurrent(rowLock);
+        Assert.assertEquals(rowTx.getCurrentBytes(), TRowLocks.serialize(rowLock));
+    }
+
+    private void writeRows(HaeinsaTransaction tx) throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            HaeinsaPut put = new HaeinsaPut(row(i));
+            for (int j = 0; j < CELLS; j++) {
+                put.add(CF, Bytes.toBytes("qualifier-" + j), Bytes.toBytes("value-" + j));
+            }
+            testTable.put(tx, put);
+            // delete is kept in the lock as mutation.
+            testTable.delete(tx, new HaeinsaDelete(row(i)).deleteColumns(CF, Bytes.toBytes("deleted")));
+        }
+    }
+
+    private void assertCommitted(HaeinsaTransactionManager manager) throws IOException {
+        HaeinsaTableIface table = manager.getTablePool().getTable("test");
+        HaeinsaTransaction tx = manager.begin();
+        for (int i = 0; i < ROWS; i++) {
+            HaeinsaResult result = table.get(tx, new HaeinsaGet(row(i)));
+            Assert.assertEquals(result.list().size(), CELLS);
+        }
+        tx.rollback();
+
+        for (int i = 0; i < ROWS; i++) {
+            byte[] rowLockBytes = hbase.getTable(TABLE).get(new Get(row(i)))
+                    .getValue(HaeinsaConstants.LOCK_FAMILY, HaeinsaConstants.LOCK_QUALIFIER);
+            // stable lock is not compressed.
+            Assert.assertFalse(TRowLocks.isCompressed(rowLockBytes));
+            Assert.assertEquals(TRowLocks.deserialize(rowLockBytes).getState(), TRowLockState.STABLE);
+        }
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes("row-" + i);
+    }
+}
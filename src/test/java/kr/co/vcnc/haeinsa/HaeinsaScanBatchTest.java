@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.hbase.filter.IncompatibleFilterException;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link HaeinsaScan#setBatch(int)}, which returns wide rows in multiple parts.
+ */
+public class HaeinsaScanBatchTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final int ROWS = 3;
+    private static final int COLUMNS = 50;
+
+    @Test
+    public void testBatchWithBufferedMutations() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int row = 0; row < ROWS; row++) {
+            HaeinsaPut put = new HaeinsaPut(row(row));
+            for (int column = 0; column < COLUMNS; column += 2) {
+                put.add(CF, column(column), Bytes.toBytes(column));
+            }
+            testTable.put(tx, put);
+        }
+        tx.commit();
+
+        tx = tm.begin();
+        // fill odd columns of row 1 and delete column 10 of row 2 inside transaction.
+        HaeinsaPut put = new HaeinsaPut(row(1));
+        for (int column = 1; column < COLUMNS; column += 2) {
+            put.add(CF, column(column), Bytes.toBytes(column));
+        }
+        testTable.put(tx, put);
+        HaeinsaDelete delete = new HaeinsaDelete(row(2));
+        delete.deleteColumns(CF, column(10));
+        testTable.delete(tx, delete);
+
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setBatch(7);
+        scan.setCaching(2);
+        List<List<Integer>> columnsOfRows = Lists.newArrayList();
+        for (int row = 0; row < ROWS; row++) {
+            columnsOfRows.add(Lists.<Integer>newArrayList());
+        }
+        int results = 0;
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                Assert.assertTrue(result.size() <= 7);
+                int row = Integer.parseInt(Bytes.toString(result.getRow()).substring("row-".length()));
+                for (HaeinsaKeyValue kv : result.list()) {
+                    Assert.assertEquals(kv.getRow(), row(row));
+                    columnsOfRows.get(row).add(Bytes.toInt(kv.getValue()));
+                }
+                results++;
+            }
+        }
+        Assert.assertEquals(columnsOfRows.get(0), expectedColumns(0, 2, -1));
+        Assert.assertEquals(columnsOfRows.get(1), expectedColumns(0, 1, -1));
+        Assert.assertEquals(columnsOfRows.get(2), expectedColumns(0, 2, 10));
+        // 25 + 50 + 24 columns in parts of 7 columns
+        Assert.assertEquals(results, 4 + 8 + 4);
+        testTable.put(tx, new HaeinsaPut(row(100)).add(CF, column(0), Bytes.toBytes(0)));
+
+        // all rows are registered to the transaction.
+        HaeinsaTransaction otherTx = tm.begin();
+        testTable.put(otherTx, new HaeinsaPut(row(0)).add(CF, column(1), Bytes.toBytes(1)));
+        otherTx.commit();
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // expected
+        }
+        testTable.close();
+    }
+
+    @Test(expectedExceptions = IncompatibleFilterException.class)
+    public void testBatchWithRowFilter() throws Exception {
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.setFilter(new SingleColumnValueFilter(CF, column(0), CompareOp.EQUAL, Bytes.toBytes(0)));
+        scan.setBatch(10);
+    }
+
+    private static List<Integer> expectedColumns(int from, int step, int excluded) {
+        List<Integer> columns = Lists.newArrayList();
+        for (int column = from; column < COLUMNS; column += step) {
+            if (column != excluded) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+
+    private static byte[] column(int i) {
+        return Bytes.toBytes(String.format("column-%05d", i));
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for transaction in {@link HaeinsaIsolationLevel#SNAPSHOT}.
+ */
+public class HaeinsaSnapshotIsolationTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    private InMemoryHBase hbase;
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTableIface testTable;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hbase = new InMemoryHBase();
+        HTableDescriptor tableDesc = new HTableDescriptor("test");
+        HColumnDescriptor lockColumnDesc = new HColumnDescriptor(HaeinsaConstants.LOCK_FAMILY);
+        lockColumnDesc.setMaxVersions(1);
+        lockColumnDesc.setInMemory(true);
+        tableDesc.addFamily(lockColumnDesc);
+        HColumnDescriptor dataColumnDesc = new HColumnDescriptor(CF);
+        dataColumnDesc.setMaxVersions(10);
+        dataColumnDesc.setKeepDeletedCells(true);
+        tableDesc.addFamily(dataColumnDesc);
+        hbase.createTable(tableDesc);
+        tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        put(tx, 1, "v1");
+        put(tx, 2, "v1");
+        tx.commit();
+        Thread.sleep(10);
+    }
+
+    @Test
+    public void testReadRowsAreNotValidated() throws Exception {
+        HaeinsaTransaction siTx = tm.begin(HaeinsaIsolationLevel.SNAPSHOT);
+        HaeinsaTransaction serializableTx = tm.begin();
+        Assert.assertEquals(get(siTx, 1), "v1");
+        Assert.assertEquals(get(serializableTx, 1), "v1");
+
+        HaeinsaTransaction tx = tm.begin();
+        put(tx, 1, "v2");
+        tx.commit();
+
+        // snapshot is not changed by the commit.
+        Assert.assertEquals(get(siTx, 1), "v1");
+        Assert.assertEquals(scan(siTx), Lists.newArrayList("v1", "v1"));
+
+        put(siTx, 3, "v1");
+        put(serializableTx, 3, "v1");
+        try {
+            serializableTx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // row 1 is modified.
+        }
+        siTx.commit();
+
+        tx = tm.begin();
+        Assert.assertEquals(scan(tx), Lists.newArrayList("v2", "v1", "v1"));
+        tx.rollback();
+    }
+
+    @Test
+    public void testReadOnlyCommitDoesNotAccessHBase() throws Exception {
+        HaeinsaTransaction siTx = tm.begin(HaeinsaIsolationLevel.SNAPSHOT);
+        Assert.assertEquals(get(siTx, 1), "v1");
+        Assert.assertEquals(scan(siTx), Lists.newArrayList("v1", "v1"));
+        hbase.resetRpcCounts();
+        siTx.commit();
+        Assert.assertEquals(hbase.getTotalRpcCount(), 0);
+    }
+
+    @Test
+    public void testReadOwnWrites() throws Exception {
+        HaeinsaTransaction siTx = tm.begin(HaeinsaIsolationLevel.SNAPSHOT);
+        put(siTx, 2, "v2");
+        put(siTx, 3, "v2");
+        testTable.delete(siTx, new HaeinsaDelete(row(1)).deleteColumns(CF, CQ));
+        Assert.assertNull(get(siTx, 1));
+        Assert.assertEquals(get(siTx, 2), "v2");
+        Assert.assertEquals(scan(siTx), Lists.newArrayList("v2", "v2"));
+        siTx.commit();
+
+        HaeinsaTransaction tx = tm.begin();
+        Assert.assertEquals(scan(tx), Lists.newArrayList("v2", "v2"));
+        tx.rollback();
+    }
+
+    @Test
+    public void testWriteAfterConcurrentCommitConflicts() throws Exception {
+        HaeinsaTransaction siTx = tm.begin(HaeinsaIsolationLevel.SNAPSHOT);
+        HaeinsaTransaction tx = tm.begin();
+        put(tx, 1, "v2");
+        tx.commit();
+
+        try {
+            put(siTx, 1, "v3");
+            Assert.fail();
+        } catch (ConflictException e) {
+            // row 1 is modified after snapshot.
+        }
+    }
+
+    @Test
+    public void testConcurrentWritesConflict() throws Exception {
+        HaeinsaTransaction siTx = tm.begin(HaeinsaIsolationLevel.SNAPSHOT);
+        // primary row is left prewritten on conflict of secondary row, so let it expire soon.
+        siTx.setTimeout(10);
+        put(siTx, 1, "v3");
+        put(siTx, 2, "v3");
+
+        HaeinsaTransaction otherSiTx = tm.begin(HaeinsaIsolationLevel.SNAPSHOT);
+        put(otherSiTx, 2, "v2");
+        otherSiTx.commit();
+
+        try {
+            siTx.commit();
+            Assert.fail();
+        } catch (ConflictException e) {
+            // first committer wins.
+        }
+        Thread.sleep(100);
+        HaeinsaTransaction tx = tm.begin();
+        Assert.assertEquals(scan(tx), Lists.newArrayList("v1", "v2"));
+        tx.rollback();
+    }
+
+    private void put(HaeinsaTransaction tx, int row, String value) throws IOException {
+        testTable.put(tx, new HaeinsaPut(row(row)).add(CF, CQ, Bytes.toBytes(value)));
+    }
+
+    private String get(HaeinsaTransaction tx, int row) throws IOException {
+        HaeinsaResult result = testTable.get(tx, new HaeinsaGet(row(row)).addColumn(CF, CQ));
+        byte[] value = result.getValue(CF, CQ);
+        return value != null ? Bytes.toString(value) : null;
+    }
+
+    private List<String> scan(HaeinsaTransaction tx) throws IOException {
+        List<String> values = Lists.newArrayList();
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.addColumn(CF, CQ);
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                values.add(Bytes.toString(result.getValue(CF, CQ)));
+            }
+        }
+        return values;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailureInjector;
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+import kr.co.vcnc.haeinsa.exception.ConflictException;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for snapshot read transaction created by {@link HaeinsaTransactionManager#beginSnapshotRead()}.
+ */
+public class HaeinsaSnapshotReadTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    private InMemoryHBase hbase;
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTableIface testTable;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        hbase = new InMemoryHBase();
+        HTableDescriptor tableDesc = new HTableDescriptor("test");
+        HColumnDescriptor lockColumnDesc = new HColumnDescriptor(HaeinsaConstants.LOCK_FAMILY);
+        lockColumnDesc.setMaxVersions(1);
+        lockColumnDesc.setInMemory(true);
+        tableDesc.addFamily(lockColumnDesc);
+        HColumnDescriptor dataColumnDesc = new HColumnDescriptor(CF);
+        dataColumnDesc.setMaxVersions(10);
+        dataColumnDesc.setKeepDeletedCells(true);
+        tableDesc.addFamily(dataColumnDesc);
+        hbase.createTable(tableDesc);
+        tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        testTable = tm.getTablePool().getTable("test");
+    }
+
+    @Test
+    public void testCommitAfterSnapshotIsNotVisible() throws Exception {
+        write(1, "v1", 2, "v1");
+        Thread.sleep(10);
+
+        HaeinsaTransaction snapshotTx = tm.beginSnapshotRead();
+        write(1, "v2", 2, "v2");
+        write(3, "v2", 4, "v2");
+
+        Assert.assertEquals(get(snapshotTx, 1), "v1");
+        Assert.assertEquals(get(snapshotTx, 2), "v1");
+        Assert.assertNull(get(snapshotTx, 3));
+        Assert.assertEquals(scan(snapshotTx), Lists.newArrayList("v1", "v1"));
+
+        HaeinsaTransaction tx = tm.begin();
+        Assert.assertEquals(get(tx, 1), "v2");
+        Assert.assertEquals(scan(tx), Lists.newArrayList("v2", "v2", "v2", "v2"));
+        tx.rollback();
+
+        // snapshot read transaction does not check locks of read rows.
+        hbase.resetRpcCounts();
+        snapshotTx.commit();
+        Assert.assertEquals(hbase.getTotalRpcCount(), 0);
+    }
+
+    @Test
+    public void testLockOfLaterTransactionIsIgnored() throws Exception {
+        write(1, "v1", 2, "v1");
+        Thread.sleep(10);
+
+        HaeinsaTransaction snapshotTx = tm.beginSnapshotRead();
+        writeAndFailOnCommitPrimary(1, "v2", 2, "v2", HaeinsaConstants.DEFAULT_ROW_LOCK_TIMEOUT);
+
+        // rows are prewritten by the transaction which will commit after snapshot timestamp.
+        Assert.assertEquals(get(snapshotTx, 1), "v1");
+        Assert.assertEquals(get(snapshotTx, 2), "v1");
+        Assert.assertEquals(scan(snapshotTx), Lists.newArrayList("v1", "v1"));
+        snapshotTx.commit();
+
+        // snapshot between prewriteTimestamp and commitTimestamp can see the prewritten lock.
+        TRowLock rowLock;
+        try (HaeinsaTableIfaceInternal table = tm.getTablePool().getTableInternal("test")) {
+            rowLock = table.getRowLock(row(1));
+        }
+        Assert.assertEquals(rowLock.getState(), TRowLockState.PREWRITTEN);
+        snapshotTx = tm.beginSnapshotRead(rowLock.getPrewriteTimestamp() + 1);
+        Assert.assertTrue(rowLock.getCommitTimestamp() >= snapshotTx.getSnapshotTimestamp());
+        Assert.assertEquals(get(snapshotTx, 1), "v1");
+        Assert.assertEquals(get(snapshotTx, 2), "v1");
+        Assert.assertEquals(scan(snapshotTx), Lists.newArrayList("v1", "v1"));
+        snapshotTx.commit();
+
+        HaeinsaTransaction tx = tm.begin();
+        try {
+            get(tx, 1);
+            Assert.fail();
+        } catch (ConflictException e) {
+            // lock is not expired yet.
+        }
+    }
+
+    @Test
+    public void testExpiredLockBeforeSnapshotIsRecovered() throws Exception {
+        write(1, "v1", 2, "v1");
+        writeAndFailOnCommitPrimary(1, "v2", 2, "v2", 10);
+        Thread.sleep(100);
+
+        HaeinsaTransaction snapshotTx = tm.beginSnapshotRead();
+        Assert.assertEquals(scan(snapshotTx), Lists.newArrayList("v1", "v1"));
+        Assert.assertEquals(get(snapshotTx, 1), "v1");
+        snapshotTx.commit();
+
+        // failed transaction is aborted by snapshot read transaction.
+        try (HaeinsaTableIfaceInternal table = tm.getTablePool().getTableInternal("test")) {
+            Assert.assertEquals(table.getRowLock(row(1)).getState(), TRowLockState.STABLE);
+            Assert.assertEquals(table.getRowLock(row(2)).getState(), TRowLockState.STABLE);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testPutIsNotAllowed() throws Exception {
+        HaeinsaTransaction snapshotTx = tm.beginSnapshotRead();
+        testTable.put(snapshotTx, new HaeinsaPut(row(1)).add(CF, CQ, Bytes.toBytes("v1")));
+    }
+
+    private void write(int row1, String value1, int row2, String value2) throws IOException {
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(row(row1)).add(CF, CQ, Bytes.toBytes(value1)));
+        testTable.put(tx, new HaeinsaPut(row(row2)).add(CF, CQ, Bytes.toBytes(value2)));
+        tx.commit();
+    }
+
+    /**
+     * Write two rows, but fail on committing primary row, so both rows are left prewritten.
+     */
+    private void writeAndFailOnCommitPrimary(final int primaryRow, String value1, int row2, String value2, long timeout)
+            throws IOException {
+        // first checkAndPut on primary row is prewrite, second one is commit.
+        final AtomicInteger primaryCheckAndPuts = new AtomicInteger();
+        hbase.setFailureInjector(new FailureInjector() {
+            @Override
+            public FailurePoint inject(String operation, byte[] tableName, byte[] row) {
+                if (InMemoryHBase.CHECK_AND_PUT.equals(operation) && Bytes.equals(row, row(primaryRow))
+                        && primaryCheckAndPuts.incrementAndGet() == 2) {
+                    return FailurePoint.BEFORE_APPLY;
+                }
+                return null;
+            }
+        });
+        HaeinsaTransaction tx = tm.begin();
+        tx.setTimeout(timeout);
+        testTable.put(tx, new HaeinsaPut(row(primaryRow)).add(CF, CQ, Bytes.toBytes(value1)));
+        testTable.put(tx, new HaeinsaPut(row(row2)).add(CF, CQ, Bytes.toBytes(value2)));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (IOException e) {
+            // expected injected failure
+        } finally {
+            hbase.setFailureInjector(null);
+        }
+    }
+
+    private String get(HaeinsaTransaction tx, int row) throws IOException {
+        HaeinsaResult result = testTable.get(tx, new HaeinsaGet(row(row)).addColumn(CF, CQ));
+        byte[] value = result.getValue(CF, CQ);
+        return value != null ? Bytes.toString(value) : null;
+    }
+
+    private List<String> scan(HaeinsaTransaction tx) throws IOException {
+        List<String> values = Lists.newArrayList();
+        HaeinsaScan scan = new HaeinsaScan();
+        scan.addColumn(CF, CQ);
+        try (HaeinsaResultScanner scanner = testTable.getScanner(tx, scan)) {
+            for (HaeinsaResult result : scanner) {
+                values.add(Bytes.toString(result.getValue(CF, CQ)));
+            }
+        }
+        return values;
+    }
+
+    private static byte[] row(int i) {
+        return Bytes.toBytes(String.format("row-%05d", i));
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link HaeinsaTransaction} leases each table from {@link HaeinsaTablePool} once per commit,
+ * not once per row.
+ */
+public class HaeinsaTableHandleReuseTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 100;
+
+    @Test
+    public void testMultiRowCommit() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        hbase.createTable("log", "data");
+        CountingTablePool tablePool = new CountingTablePool(hbase);
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(tablePool);
+        HaeinsaTableIface testTable = tablePool.getTable("test");
+        HaeinsaTableIface logTable = tablePool.getTable("log");
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-" + i)).add(CF, CQ, Bytes.toBytes(i)));
+            logTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-" + i)).add(CF, CQ, Bytes.toBytes(i)));
+        }
+        tablePool.leases.set(0);
+        tx.commit();
+        Assert.assertEquals(tablePool.leases.get(), 2);
+
+        // read-only commit
+        tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-" + i))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+        }
+        tablePool.leases.set(0);
+        tx.commit();
+        Assert.assertEquals(tablePool.leases.get(), 1);
+
+        testTable.close();
+        logTable.close();
+        tablePool.close();
+    }
+
+    /**
+     * {@link HaeinsaTablePool} which counts tables leased by {@link HaeinsaTransaction}.
+     */
+    static class CountingTablePool extends HaeinsaTablePool {
+        final AtomicLong leases = new AtomicLong();
+
+        CountingTablePool(InMemoryHBase hbase) {
+            super(hbase.getConfiguration(), 128, new InMemoryHaeinsaTableIfaceFactory(hbase));
+        }
+
+        @Override
+        HaeinsaTableIfaceInternal getTableInternal(String tableName) {
+            leases.incrementAndGet();
+            return super.getTableInternal(tableName);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * In-memory stand-in of HBase cluster for benchmarks and tests of the commit protocol.
+ * Tables created by {@link #createTable(HTableDescriptor)} support get, scan, put, delete, checkAndPut and
+ * checkAndDelete with timestamps, versions and delete markers following HBase semantics.
+ * See {@link InMemoryHTable} for the details and known differences.
+ * <p>
+ * Every operation on a table is considered as single RPC. Each RPC is counted per operation name,
+ * can be delayed by configured latency, and can be failed by {@link FailureInjector}.
+ * Failure can be injected before the operation is applied or after it is applied,
+ * which simulates the case that the response of the RPC is lost.
+ */
+public class InMemoryHBase {
+    /**
+     * Operation names used for counting, latency and failure injection.
+     */
+    public static final String GET = "get";
+    public static final String SCAN = "scan";
+    public static final String PUT = "put";
+    public static final String DELETE = "delete";
+    public static final String CHECK_AND_PUT = "checkAndPut";
+    public static final String CHECK_AND_DELETE = "checkAndDelete";
+
+    /**
+     * Point of the RPC where failure is injected.
+     */
+    public enum FailurePoint {
+        /**
+         * Operation is not applied and IOException is thrown.
+         */
+        BEFORE_APPLY,
+        /**
+         * Operation is applied but IOException is thrown, as if response of the RPC is lost.
+         */
+        AFTER_APPLY
+    }
+
+    /**
+     * Decides whether specific RPC should fail or not.
+     */
+    public interface FailureInjector {
+        /**
+         * @param operation name of the operation such as {@link InMemoryHBase#CHECK_AND_PUT}
+         * @param tableName name of the table
+         * @param row row key of the operation, null for scan
+         * @return point where the RPC fails, or null if RPC should succeed
+         */
+        FailurePoint inject(String operation, byte[] tableName, byte[] row);
+    }
+
+    private final Configuration configuration;
+    private final Map<String, InMemoryHTable> tables = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rpcCounts = new ConcurrentHashMap<>();
+    private final Map<String, Long> operationLatencies = new ConcurrentHashMap<>();
+    private final Queue<OneTimeFailure> oneTimeFailures = new ConcurrentLinkedQueue<>();
+    private volatile long latencyNanos;
+    private volatile FailureInjector failureInjector;
+
+    public InMemoryHBase() {
+        this(HBaseConfiguration.create());
+    }
+
+    public InMemoryHBase(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Create table with given descriptor. Table which already exists is not changed.
+     */
+    public InMemoryHTable createTable(HTableDescriptor tableDesc) {
+        String tableName = tableDesc.getNameAsString();
+        InMemoryHTable table = tables.get(tableName);
+        if (table == null) {
+            tables.putIfAbsent(tableName, new InMemoryHTable(this, tableDesc));
+            table = tables.get(tableName);
+        }
+        return table;
+    }
+
+    /**
+     * Create table with lock family and given data families, as described in the How-to-Use page of the wiki.
+     * Data families keep single version like default of HBase.
+     */
+    public InMemoryHTable createTable(String tableName, String... families) {
+        HTableDescriptor tableDesc = new HTableDescriptor(tableName);
+        HColumnDescriptor lockColumnDesc = new HColumnDescriptor(HaeinsaConstants.LOCK_FAMILY);
+        lockColumnDesc.setMaxVersions(1);
+        lockColumnDesc.setInMemory(true);
+        tableDesc.addFamily(lockColumnDesc);
+        for (String family : families) {
+            tableDesc.addFamily(new HColumnDescriptor(family));
+        }
+        return createTable(tableDesc);
+    }
+
+    /**
+     * Create {@link HaeinsaTablePool} which provides tables of this instance.
+     */
+    public HaeinsaTablePool createTablePool() {
+        return new HaeinsaTablePool(configuration, 128, new InMemoryHaeinsaTableIfaceFactory(this));
+    }
+
+    /**
+     * Create {@link Connection} whose {@link Connection#getTable(TableName)} returns new table interface of this
+     * instance for each call, like connection of HBase 1.x. Only a few methods of the connection are supported.
+     * {@link BufferedMutator} of the connection buffers puts until it is flushed or size of buffered puts
+     * exceeds write buffer size, and writes them by {@link HTableInterface#put(List)}.
+     */
+    public Connection createConnection() {
+        return (Connection) Proxy.newProxyInstance(InMemoryHBase.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new ConnectionInvocationHandler());
+    }
+
+    public InMemoryHTable getTable(byte[] tableName) throws TableNotFoundException {
+        InMemoryHTable table = tables.get(Bytes.toString(tableName));
+        if (table == null) {
+            throw new TableNotFoundException(Bytes.toString(tableName));
+        }
+        return table;
+    }
+
+    /**
+     * Set latency added to every RPC. Zero means no latency, which is default.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        Preconditions.checkArgument(latency >= 0, "latency should not be negative.");
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Set latency of specific operation. This overrides latency set by {@link #setLatency(long, TimeUnit)}.
+     */
+    public void setLatency(String operation, long latency, TimeUnit unit) {
+        Preconditions.checkArgument(latency >= 0, "latency should not be negative.");
+        operationLatencies.put(operation, unit.toNanos(latency));
+    }
+
+    public void setFailureInjector(FailureInjector failureInjector) {
+        this.failureInjector = failureInjector;
+    }
+
+    /**
+     * Make next RPC of the operation on the row fail.
+     * Failures registered by this method are checked before {@link FailureInjector}.
+     *
+     * @param operation name of the operation
+     * @param row row key of the operation, or null to match any row
+     * @param point point where the RPC fails
+     */
+    public void failOnce(String operation, byte[] row, FailurePoint point) {
+        oneTimeFailures.add(new OneTimeFailure(operation, row, point));
+    }
+
+    public long getRpcCount(String operation) {
+        AtomicLong count = rpcCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getTotalRpcCount() {
+        long total = 0;
+        for (AtomicLong count : rpcCounts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    public void resetRpcCounts() {
+        rpcCounts.clear();
+    }
+
+    /**
+     * Called by {@link InMemoryHTable} on the start of each RPC. Counts the RPC and sleeps for configured latency.
+     *
+     * @return point where the RPC fails, or null if the RPC should succeed
+     */
+    FailurePoint beginRpc(String operation, byte[] tableName, byte[] row) {
+        AtomicLong count = rpcCounts.get(operation);
+        if (count == null) {
+            rpcCounts.putIfAbsent(operation, new AtomicLong());
+            count = rpcCounts.get(operation);
+        }
+        count.incrementAndGet();
+
+        Long operationLatency = operationLatencies.get(operation);
+        long sleepNanos = operationLatency != null ? operationLatency : latencyNanos;
+        if (sleepNanos > 0) {
+            long deadline = System.nanoTime() + sleepNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        for (OneTimeFailure failure : oneTimeFailures) {
+            if (failure.matches(operation, row) && oneTimeFailures.remove(failure)) {
+                return failure.point;
+            }
+        }
+        FailureInjector injector = failureInjector;
+        return injector == null ? null : injector.inject(operation, tableName, row);
+    }
+
+    static IOException injectedFailure(String operation, byte[] row, FailurePoint point) {
+        return new IOException(String.format("Injected failure of %s on row %s (%s)",
+                operation, row == null ? null : Bytes.toStringBinary(row), point));
+    }
+
+    /**
+     * Dispatches methods of {@link Connection} to {@link InMemoryHBase}.
+     */
+    private class ConnectionInvocationHandler implements InvocationHandler {
+        private volatile boolean closed;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "getTable":
+                if (closed) {
+                    throw new IOException("Connection is already closed.");
+                }
+                return getTable(((TableName) args[0]).getName()).createHTableInterface();
+            case "getBufferedMutator":
+                if (closed) {
+                    throw new IOException("Connection is already closed.");
+                }
+                BufferedMutatorParams params = args[0] instanceof BufferedMutatorParams
+                        ? (BufferedMutatorParams) args[0] : new BufferedMutatorParams((TableName) args[0]);
+                long writeBufferSize = params.getWriteBufferSize() > 0
+                        ? params.getWriteBufferSize() : configuration.getLong("hbase.client.write.buffer", 2097152);
+                return Proxy.newProxyInstance(InMemoryHBase.class.getClassLoader(),
+                        new Class<?>[] { BufferedMutator.class },
+                        new MutatorInvocationHandler(params.getTableName(), writeBufferSize));
+            case "getConfiguration":
+                return configuration;
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "isAborted":
+                return false;
+            case "toString":
+                return "InMemoryConnection";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+    }
+
+    /**
+     * Dispatches methods of {@link BufferedMutator} to {@link InMemoryHTable}. Only puts are supported.
+     */
+    private class MutatorInvocationHandler implements InvocationHandler {
+        private final TableName tableName;
+        private final long writeBufferSize;
+        private final List<Put> buffer = Lists.newArrayList();
+        private long bufferedSize;
+        private boolean closed;
+
+        private MutatorInvocationHandler(TableName tableName, long writeBufferSize) {
+            this.tableName = tableName;
+            this.writeBufferSize = writeBufferSize;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "mutate":
+                ensureOpen();
+                List<? extends Mutation> mutations = args[0] instanceof Mutation
+                        ? Lists.newArrayList((Mutation) args[0]) : (List<? extends Mutation>) args[0];
+                for (Mutation mutation : mutations) {
+                    buffer.add((Put) mutation);
+                    bufferedSize += mutation.heapSize();
+                }
+                if (bufferedSize >= writeBufferSize) {
+                    flush();
+                }
+                return null;
+            case "flush":
+                ensureOpen();
+                flush();
+                return null;
+            case "close":
+                if (!closed) {
+                    flush();
+                    closed = true;
+                }
+                return null;
+            case "getName":
+                return tableName;
+            case "getConfiguration":
+                return configuration;
+            case "getWriteBufferSize":
+                return writeBufferSize;
+            case "toString":
+                return "InMemoryBufferedMutator(" + tableName + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+
+        private void flush() throws IOException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            getTable(tableName.getName()).createHTableInterface().put(Lists.newArrayList(buffer));
+            buffer.clear();
+            bufferedSize = 0;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("BufferedMutator of " + tableName + " is already closed.");
+            }
+        }
+    }
+
+    private static final class OneTimeFailure {
+        private final String operation;
+        private final byte[] row;
+        private final FailurePoint point;
+
+        private OneTimeFailure(String operation, byte[] row, FailurePoint point) {
+            this.operation = operation;
+            this.row = row;
+            this.point = point;
+        }
+
+        private boolean matches(String operation, byte[] row) {
+            return this.operation.equals(operation) && (this.row == null || Bytes.equals(this.row, row));
+        }
+    }
+}
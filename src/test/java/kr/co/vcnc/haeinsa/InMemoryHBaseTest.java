@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailureInjector;
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link InMemoryHBase}, which check HBase semantics of the in-memory table and
+ * commit and recovery of Haeinsa transaction on top of it.
+ */
+public class InMemoryHBaseTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    @Test
+    public void testVersionsAndDeleteMarkers() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HTableInterface table = hbase.createTable("test", "data").createHTableInterface();
+        byte[] row = Bytes.toBytes("row");
+
+        table.put(new Put(row).add(CF, CQ, 1, Bytes.toBytes("v1")));
+        table.put(new Put(row).add(CF, CQ, 2, Bytes.toBytes("v2")));
+        Assert.assertEquals(table.get(new Get(row)).getValue(CF, CQ), Bytes.toBytes("v2"));
+
+        // deleting exact version makes older version visible again.
+        Delete delete = new Delete(row);
+        delete.deleteColumn(CF, CQ, 2);
+        table.delete(delete);
+        Assert.assertEquals(table.get(new Get(row)).getValue(CF, CQ), Bytes.toBytes("v1"));
+
+        // time range is [min, max)
+        Get get = new Get(row);
+        get.setTimeRange(0, 1);
+        Assert.assertTrue(table.get(get).isEmpty());
+
+        // delete marker masks put of older timestamp written after the marker.
+        delete = new Delete(row);
+        delete.deleteColumns(CF, CQ, 10);
+        table.delete(delete);
+        table.put(new Put(row).add(CF, CQ, 5, Bytes.toBytes("v5")));
+        Assert.assertTrue(table.get(new Get(row)).isEmpty());
+        table.put(new Put(row).add(CF, CQ, 11, Bytes.toBytes("v11")));
+        Assert.assertEquals(table.get(new Get(row)).getValue(CF, CQ), Bytes.toBytes("v11"));
+
+        delete = new Delete(row);
+        delete.deleteFamily(CF, 20);
+        table.delete(delete);
+        Assert.assertTrue(table.get(new Get(row)).isEmpty());
+    }
+
+    @Test
+    public void testCheckAndMutateAndScan() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        HTableInterface table = hbase.createTable("test", "data").createHTableInterface();
+
+        byte[] row = Bytes.toBytes("row-1");
+        Put put = new Put(row).add(CF, CQ, 1, Bytes.toBytes("v1"));
+        Assert.assertTrue(table.checkAndPut(row, CF, CQ, null, put));
+        Assert.assertFalse(table.checkAndPut(row, CF, CQ, null, put));
+        put = new Put(row).add(CF, CQ, 2, Bytes.toBytes("v2"));
+        Assert.assertFalse(table.checkAndPut(row, CF, CQ, Bytes.toBytes("v0"), put));
+        Assert.assertTrue(table.checkAndPut(row, CF, CQ, Bytes.toBytes("v1"), put));
+        Delete delete = new Delete(row);
+        delete.deleteColumns(CF, CQ, 2);
+        Assert.assertTrue(table.checkAndDelete(row, CF, CQ, Bytes.toBytes("v2"), delete));
+        Assert.assertTrue(table.get(new Get(row)).isEmpty());
+
+        for (int i = 0; i < 10; i++) {
+            table.put(new Put(Bytes.toBytes("scan-" + i)).add(CF, CQ, 1, Bytes.toBytes(i)));
+        }
+        Scan scan = new Scan(Bytes.toBytes("scan-2"), Bytes.toBytes("scan-5"));
+        scan.setCaching(2);
+        int expected = 2;
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result : scanner) {
+                Assert.assertEquals(Bytes.toInt(result.getValue(CF, CQ)), expected++);
+            }
+        }
+        Assert.assertEquals(expected, 5);
+
+        scan = new Scan(Bytes.toBytes("scan-5"), Bytes.toBytes("scan-2"));
+        scan.setReversed(true);
+        expected = 5;
+        try (ResultScanner scanner = table.getScanner(scan)) {
+            for (Result result : scanner) {
+                Assert.assertEquals(Bytes.toInt(result.getValue(CF, CQ)), expected--);
+            }
+        }
+        Assert.assertEquals(expected, 2);
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("Alice")).add(CF, CQ, Bytes.toBytes(100L)));
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("Bob")).add(CF, CQ, Bytes.toBytes(200L)));
+        hbase.resetRpcCounts();
+        tx.commit();
+        // prewrite * 2, commit primary, make secondary and primary stable
+        Assert.assertEquals(hbase.getRpcCount(InMemoryHBase.CHECK_AND_PUT), 5);
+        Assert.assertEquals(hbase.getTotalRpcCount(), 5);
+
+        tx = tm.begin();
+        Assert.assertEquals(Bytes.toLong(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("Alice"))).getValue(CF, CQ)),
+                100L);
+        Assert.assertEquals(Bytes.toLong(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("Bob"))).getValue(CF, CQ)),
+                200L);
+        tx.rollback();
+        testTable.close();
+    }
+
+    @Test
+    public void testRecoveryWithInjectedFailures() throws Exception {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        HaeinsaTransactionManager tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        HaeinsaTableIface testTable = tm.getTablePool().getTable("test");
+        byte[] alice = Bytes.toBytes("Alice");
+        byte[] bob = Bytes.toBytes("Bob");
+
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(alice).add(CF, CQ, Bytes.toBytes(100L)));
+        testTable.put(tx, new HaeinsaPut(bob).add(CF, CQ, Bytes.toBytes(200L)));
+        tx.commit();
+
+        // fail prewrite of secondary row, so transaction remains prewritten and should be aborted.
+        hbase.setFailureInjector(failNthCheckAndPut(2, FailurePoint.BEFORE_APPLY));
+        tx = tm.begin();
+        tx.setTimeout(50);
+        testTable.put(tx, new HaeinsaPut(alice).add(CF, CQ, Bytes.toBytes(0L)));
+        testTable.put(tx, new HaeinsaPut(bob).add(CF, CQ, Bytes.toBytes(300L)));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (Exception e) {
+            // expected injected failure
+        }
+        hbase.setFailureInjector(null);
+        Thread.sleep(100);
+        assertBalance(tm, testTable, alice, 100L);
+        assertBalance(tm, testTable, bob, 200L);
+
+        // lose response of making secondary row stable, after primary row is committed.
+        hbase.setFailureInjector(failNthCheckAndPut(4, FailurePoint.AFTER_APPLY));
+        tx = tm.begin();
+        tx.setTimeout(50);
+        testTable.put(tx, new HaeinsaPut(alice).add(CF, CQ, Bytes.toBytes(0L)));
+        testTable.put(tx, new HaeinsaPut(bob).add(CF, CQ, Bytes.toBytes(300L)));
+        try {
+            tx.commit();
+            Assert.fail();
+        } catch (Exception e) {
+            // expected injected failure
+        }
+        hbase.setFailureInjector(null);
+        Thread.sleep(100);
+        assertBalance(tm, testTable, alice, 0L);
+        assertBalance(tm, testTable, bob, 300L);
+        testTable.close();
+    }
+
+    private static FailureInjector failNthCheckAndPut(final int n, final FailurePoint point) {
+        final AtomicInteger count = new AtomicInteger();
+        return new FailureInjector() {
+            @Override
+            public FailurePoint inject(String operation, byte[] tableName, byte[] row) {
+                if (InMemoryHBase.CHECK_AND_PUT.equals(operation) && count.incrementAndGet() == n) {
+                    return point;
+                }
+                return null;
+            }
+        };
+    }
+
+    private static void assertBalance(HaeinsaTransactionManager tm, HaeinsaTableIface table, byte[] row,
+            long expected) throws Exception {
+        HaeinsaTransaction tx = tm.begin();
+        HaeinsaResult result = table.get(tx, new HaeinsaGet(row));
+        Assert.assertEquals(Bytes.toLong(result.getValue(CF, CQ)), expected);
+        tx.rollback();
+    }
+}
@@ -0,0 +1,811 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import kr.co.vcnc.haeinsa.InMemoryHBase.FailurePoint;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.collect.Lists;
+
+/**
+ * In-memory table of {@link InMemoryHBase}. {@link #createHTableInterface()} returns {@link HTableInterface}
+ * backed by this table, so it can be wrapped by {@link HaeinsaTable}.
+ * <p>
+ * Following operations of {@link HTableInterface} are supported, and other operations throw
+ * {@link UnsupportedOperationException}.
+ * <ul>
+ * <li>get, exists, getScanner with time range, max versions, filter, batch and reversed scan</li>
+ * <li>put, delete with all types of delete marker</li>
+ * <li>checkAndPut, checkAndDelete with equality comparison</li>
+ * <li>start and end keys of {@link RegionLocator}, with regions set by {@link #setSplitKeys(byte[]...)}</li>
+ * </ul>
+ * Each row is protected by its own monitor, so operations on single row are atomic like HBase.
+ * Delete markers are kept forever and mask puts which have same or older timestamp, including puts written after
+ * the marker. Like flush of memstore, versions which exceeds max versions of the family are removed only when
+ * the column has more than two extra versions. This keeps old version to be visible when newer version is
+ * deleted by exact timestamp (e.g. prewritten data of aborted transaction) as HBase does before flush.
+ * Scanner reads latest data on each fetch rather than consistent snapshot of the region.
+ */
+public class InMemoryHTable {
+    // number of versions kept more than max versions of family before removing them.
+    private static final int EXTRA_VERSIONS = 2;
+    private static final int DEFAULT_CACHING = 100;
+
+    private final InMemoryHBase hbase;
+    private final HTableDescriptor tableDesc;
+    private final byte[] tableName;
+    private final NavigableMap<byte[], Integer> maxVersionsOfFamilies;
+    private final ConcurrentSkipListMap<byte[], Row> rows = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    private volatile byte[][] splitKeys = new byte[0][];
+
+    InMemoryHTable(InMemoryHBase hbase, HTableDescriptor tableDesc) {
+        this.hbase = hbase;
+        this.tableDesc = tableDesc;
+        this.tableName = tableDesc.getName();
+        this.maxVersionsOfFamilies = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (HColumnDescriptor columnDesc : tableDesc.getColumnFamilies()) {
+            maxVersionsOfFamilies.put(columnDesc.getName(), columnDesc.getMaxVersions());
+        }
+    }
+
+    public byte[] getTableName() {
+        return tableName;
+    }
+
+    public HTableDescriptor getTableDescriptor() {
+        return tableDesc;
+    }
+
+    /**
+     * Create new {@link HTableInterface} backed by this table.
+     * Since the instance does not have state, it can be shared by multiple threads.
+     */
+    public HTableInterface createHTableInterface() {
+        return (HTableInterface) Proxy.newProxyInstance(InMemoryHTable.class.getClassLoader(),
+                new Class<?>[] { HTableInterface.class, RegionLocator.class }, new TableInvocationHandler());
+    }
+
+    /**
+     * Set boundaries of regions reported by {@link RegionLocator#getStartKeys()} and
+     * {@link RegionLocator#getEndKeys()} of the table interface. Data of the table is not partitioned.
+     * The table has single region by default.
+     */
+    public void setSplitKeys(byte[]... splitKeys) {
+        byte[][] sorted = splitKeys.clone();
+        Arrays.sort(sorted, Bytes.BYTES_COMPARATOR);
+        this.splitKeys = sorted;
+    }
+
+    private byte[][] getStartKeys() {
+        byte[][] splits = splitKeys;
+        byte[][] startKeys = new byte[splits.length + 1][];
+        startKeys[0] = HConstants.EMPTY_START_ROW;
+        System.arraycopy(splits, 0, startKeys, 1, splits.length);
+        return startKeys;
+    }
+
+    private byte[][] getEndKeys() {
+        byte[][] splits = splitKeys;
+        byte[][] endKeys = new byte[splits.length + 1][];
+        System.arraycopy(splits, 0, endKeys, 0, splits.length);
+        endKeys[splits.length] = HConstants.EMPTY_END_ROW;
+        return endKeys;
+    }
+
+    /**
+     * Number of cells stored in the table including delete markers.
+     */
+    public int getStoredCellCount() {
+        int count = 0;
+        for (Row row : rows.values()) {
+            synchronized (row) {
+                count += row.cells.size();
+            }
+        }
+        return count;
+    }
+
+    public Result get(Get get) throws IOException {
+        beginRpc(InMemoryHBase.GET, get.getRow());
+        List<Cell> cells = read(get.getRow(), get.getFamilyMap(), get.getTimeRange(), get.getMaxVersions(),
+                copyFilter(get.getFilter()));
+        return Result.create(cells);
+    }
+
+    /**
+     * Copy filter by serialization like RPC to region server, so that state of the filter is not shared
+     * with the client or other scanners.
+     */
+    private static Filter copyFilter(Filter filter) throws IOException {
+        return filter == null ? null : ProtobufUtil.toFilter(ProtobufUtil.toFilter(filter));
+    }
+
+    public boolean exists(Get get) throws IOException {
+        return !get(get).isEmpty();
+    }
+
+    public ResultScanner getScanner(Scan scan) throws IOException {
+        for (byte[] family : scan.getFamilyMap().keySet()) {
+            checkFamily(family);
+        }
+        return new InMemoryScanner(scan).asResultScanner();
+    }
+
+    public void put(Put put) throws IOException {
+        FailurePoint failure = beginRpc(InMemoryHBase.PUT, put.getRow());
+        Row row = getOrCreateRow(put.getRow());
+        synchronized (row) {
+            apply(row, put);
+        }
+        afterApply(InMemoryHBase.PUT, put.getRow(), failure);
+    }
+
+    public void delete(Delete delete) throws IOException {
+        FailurePoint failure = beginRpc(InMemoryHBase.DELETE, delete.getRow());
+        Row row = getOrCreateRow(delete.getRow());
+        synchronized (row) {
+            apply(row, delete);
+        }
+        afterApply(InMemoryHBase.DELETE, delete.getRow(), failure);
+    }
+
+    public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
+            throws IOException {
+        return checkAndMutate(InMemoryHBase.CHECK_AND_PUT, row, family, qualifier, value, put);
+    }
+
+    public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete)
+            throws IOException {
+        return checkAndMutate(InMemoryHBase.CHECK_AND_DELETE, row, family, qualifier, value, delete);
+    }
+
+    private boolean checkAndMutate(String operation, byte[] rowKey, byte[] family, byte[] qualifier, byte[] value,
+            Mutation mutation) throws IOException {
+        if (!Bytes.equals(rowKey, mutation.getRow())) {
+            throw new DoNotRetryIOException("Action's getRow must match the passed row");
+        }
+        checkFamily(family);
+        FailurePoint failure = beginRpc(operation, rowKey);
+        Row row = getOrCreateRow(rowKey);
+        boolean applied = false;
+        synchronized (row) {
+            Cell current = latestVisibleCell(row, family, qualifier);
+            boolean matches;
+            if (value == null || value.length == 0) {
+                matches = current == null || current.getValueLength() == 0;
+            } else {
+                matches = current != null && Bytes.equals(CellUtil.cloneValue(current), value);
+            }
+            if (matches) {
+                apply(row, mutation);
+                applied = true;
+            }
+        }
+        afterApply(operation, rowKey, failure);
+        return applied;
+    }
+
+    private FailurePoint beginRpc(String operation, byte[] row) throws IOException {
+        FailurePoint failure = hbase.beginRpc(operation, tableName, row);
+        if (failure == FailurePoint.BEFORE_APPLY) {
+            throw InMemoryHBase.injectedFailure(operation, row, failure);
+        }
+        return failure;
+    }
+
+    private static void afterApply(String operation, byte[] row, FailurePoint failure) throws IOException {
+        if (failure == FailurePoint.AFTER_APPLY) {
+            throw InMemoryHBase.injectedFailure(operation, row, failure);
+        }
+    }
+
+    private void checkFamily(byte[] family) throws NoSuchColumnFamilyException {
+        if (!maxVersionsOfFamilies.containsKey(family)) {
+            throw new NoSuchColumnFamilyException("Column family " + Bytes.toString(family)
+                    + " does not exist in table " + Bytes.toString(tableName));
+        }
+    }
+
+    private Row getOrCreateRow(byte[] rowKey) {
+        Row row = rows.get(rowKey);
+        if (row == null) {
+            rows.putIfAbsent(rowKey, new Row());
+            row = rows.get(rowKey);
+        }
+        return row;
+    }
+
+    /**
+     * Apply put or delete to the row. Caller should hold monitor of the row.
+     */
+    private void apply(Row row, Mutation mutation) throws IOException {
+        long now = System.currentTimeMillis();
+        NavigableMap<byte[], List<Cell>> familyCellMap = mutation.getFamilyCellMap();
+        if (mutation instanceof Delete && familyCellMap.isEmpty()) {
+            // delete whole row
+            long timestamp = mutation.getTimeStamp() == HConstants.LATEST_TIMESTAMP ? now : mutation.getTimeStamp();
+            for (byte[] family : maxVersionsOfFamilies.keySet()) {
+                row.cells.add(new KeyValue(mutation.getRow(), family, null, timestamp, Type.DeleteFamily));
+            }
+            return;
+        }
+        for (byte[] family : familyCellMap.keySet()) {
+            checkFamily(family);
+        }
+        Set<Cell> touchedColumns = new HashSet<>();
+        for (Entry<byte[], List<Cell>> entry : familyCellMap.entrySet()) {
+            for (Cell cell : entry.getValue()) {
+                Type type = Type.codeToType(cell.getTypeByte());
+                long timestamp = cell.getTimestamp();
+                if (timestamp == HConstants.LATEST_TIMESTAMP) {
+                    if (type == Type.Delete) {
+                        // deleting latest version of the column
+                        Cell latest = latestVisibleCell(row, CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell));
+                        if (latest == null) {
+                            continue;
+                        }
+                        timestamp = latest.getTimestamp();
+                    } else {
+                        timestamp = now;
+                    }
+                }
+                KeyValue kv = new KeyValue(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell),
+                        CellUtil.cloneQualifier(cell), timestamp, type, CellUtil.cloneValue(cell));
+                // cell with same coordinate is overwritten by later one.
+                row.cells.remove(kv);
+                row.cells.add(kv);
+                if (type == Type.Put) {
+                    touchedColumns.add(kv);
+                }
+            }
+        }
+        for (Cell column : touchedColumns) {
+            removeExcessVersions(row, column);
+        }
+    }
+
+    private void removeExcessVersions(Row row, Cell column) {
+        int maxVersions = maxVersionsOfFamilies.get(CellUtil.cloneFamily(column));
+        int versionsToKeep = maxVersions + EXTRA_VERSIONS;
+        KeyValue first = KeyValueUtils.firstOnColumn(column);
+        List<KeyValue> puts = Lists.newArrayList();
+        for (KeyValue kv : row.cells.tailSet(first, true)) {
+            if (!CellUtil.matchingColumn(kv, column)) {
+                break;
+            }
+            if (kv.getTypeByte() == Type.Put.getCode()) {
+                puts.add(kv);
+            }
+        }
+        if (puts.size() > versionsToKeep) {
+            // puts are sorted by timestamp in descending order.
+            row.cells.removeAll(puts.subList(versionsToKeep, puts.size()));
+        }
+    }
+
+    private Cell latestVisibleCell(Row row, byte[] family, byte[] qualifier) {
+        NavigableMap<byte[], NavigableSet<byte[]>> familyMap = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        NavigableSet<byte[]> qualifiers = new TreeSet<>(Bytes.BYTES_COMPARATOR);
+        qualifiers.add(qualifier);
+        familyMap.put(family, qualifiers);
+        List<Cell> visible = visibleCells(row, familyMap, new TimeRange());
+        return visible.isEmpty() ? null : visible.get(0);
+    }
+
+    private List<Cell> read(byte[] rowKey, Map<byte[], NavigableSet<byte[]>> familyMap, TimeRange timeRange,
+            int maxVersions, Filter filter) throws IOException {
+        for (byte[] family : familyMap.keySet()) {
+            checkFamily(family);
+        }
+        Row row = rows.get(rowKey);
+        if (row == null) {
+            return Collections.emptyList();
+        }
+        List<Cell> visible;
+        synchronized (row) {
+            visible = visibleCells(row, familyMap, timeRange);
+        }
+        return applyFilterAndVersions(rowKey, visible, maxVersions, filter);
+    }
+
+    /**
+     * Returns puts which are not masked by delete markers and in the time range in the order of
+     * {@link KeyValue#COMPARATOR}. Caller should hold monitor of the row.
+     */
+    private List<Cell> visibleCells(Row row, Map<byte[], NavigableSet<byte[]>> familyMap, TimeRange timeRange) {
+        // { family -> latest timestamp of DeleteFamily marker }
+        Map<byte[], Long> familyDeletes = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        // { family -> timestamps of DeleteFamilyVersion markers }
+        Map<byte[], Set<Long>> familyVersionDeletes = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+        for (KeyValue kv : row.cells) {
+            if (kv.getTypeByte() == Type.DeleteFamily.getCode()) {
+                byte[] family = kv.getFamily();
+                Long previous = familyDeletes.get(family);
+                if (previous == null || previous < kv.getTimestamp()) {
+                    familyDeletes.put(family, kv.getTimestamp());
+                }
+            } else if (kv.getTypeByte() == Type.DeleteFamilyVersion.getCode()) {
+                byte[] family = kv.getFamily();
+                Set<Long> timestamps = familyVersionDeletes.get(family);
+                if (timestamps == null) {
+                    timestamps = new HashSet<>();
+                    familyVersionDeletes.put(family, timestamps);
+                }
+                timestamps.add(kv.getTimestamp());
+            }
+        }
+
+        List<Cell> result = Lists.newArrayList();
+        KeyValue currentColumn = null;
+        long columnDeleteTimestamp = Long.MIN_VALUE;
+        Set<Long> versionDeletes = new HashSet<>();
+        for (KeyValue kv : row.cells) {
+            if (currentColumn == null || !CellUtil.matchingColumn(currentColumn, kv)) {
+                currentColumn = kv;
+                columnDeleteTimestamp = Long.MIN_VALUE;
+                versionDeletes.clear();
+            }
+            byte type = kv.getTypeByte();
+            // delete markers come before puts of the same timestamp, since they have larger type code.
+            if (type == Type.DeleteColumn.getCode()) {
+                columnDeleteTimestamp = Math.max(columnDeleteTimestamp, kv.getTimestamp());
+                continue;
+            } else if (type == Type.Delete.getCode()) {
+                versionDeletes.add(kv.getTimestamp());
+                continue;
+            } else if (type != Type.Put.getCode()) {
+                continue;
+            }
+
+            byte[] family = kv.getFamily();
+            if (!familyMap.isEmpty()) {
+                if (!familyMap.containsKey(family)) {
+                    continue;
+                }
+                NavigableSet<byte[]> qualifiers = familyMap.get(family);
+                if (qualifiers != null && !qualifiers.isEmpty() && !qualifiers.contains(kv.getQualifier())) {
+                    continue;
+                }
+            }
+            long timestamp = kv.getTimestamp();
+            Long familyDelete = familyDeletes.get(family);
+            Set<Long> familyVersionDelete = familyVersionDeletes.get(family);
+            if ((familyDelete != null && familyDelete >= timestamp)
+                    || (familyVersionDelete != null && familyVersionDelete.contains(timestamp))
+                    || columnDeleteTimestamp >= timestamp
+                    || versionDeletes.contains(timestamp)) {
+                continue;
+            }
+            if (!timeRange.withinTimeRange(timestamp)) {
+                continue;
+            }
+            result.add(kv);
+        }
+        return result;
+    }
+
+    private List<Cell> applyFilterAndVersions(byte[] rowKey, List<Cell> visible, int maxVersions, Filter filter)
+            throws IOException {
+        if (filter != null) {
+            filter.reset();
+            if (filter.filterRowKey(rowKey, 0, rowKey.length)) {
+                return Collections.emptyList();
+            }
+        }
+        List<Cell> result = Lists.newArrayList();
+        Cell currentColumn = null;
+        boolean skipColumn = false;
+        int versions = 0;
+        Cell seekHint = null;
+        for (Cell cell : visible) {
+            if (currentColumn == null || !CellUtil.matchingColumn(currentColumn, cell)) {
+                currentColumn = cell;
+                skipColumn = false;
+                versions = 0;
+            }
+            if (skipColumn) {
+                continue;
+            }
+            if (seekHint != null) {
+                if (KeyValue.COMPARATOR.compare(cell, seekHint) < 0) {
+                    continue;
+                }
+                seekHint = null;
+            }
+            if (filter != null) {
+                if (filter.filterAllRemaining()) {
+                    break;
+                }
+                ReturnCode code = filter.filterKeyValue(cell);
+                if (code == ReturnCode.SKIP) {
+                    continue;
+                } else if (code == ReturnCode.NEXT_COL) {
+                    skipColumn = true;
+                    continue;
+                } else if (code == ReturnCode.NEXT_ROW) {
+                    break;
+                } else if (code == ReturnCode.SEEK_NEXT_USING_HINT) {
+                    seekHint = filter.getNextCellHint(cell);
+                    continue;
+                } else if (code == ReturnCode.INCLUDE_AND_NEXT_COL) {
+                    skipColumn = true;
+                }
+            }
+            int maxVersionsOfFamily = maxVersionsOfFamilies.get(CellUtil.cloneFamily(cell));
+            if (versions >= Math.min(maxVersions, maxVersionsOfFamily)) {
+                skipColumn = true;
+                continue;
+            }
+            versions++;
+            result.add(filter != null ? filter.transformCell(cell) : cell);
+        }
+        if (filter != null) {
+            if (filter.hasFilterRow()) {
+                filter.filterRowCells(result);
+            }
+            if (filter.filterRow()) {
+                result.clear();
+            }
+        }
+        return result;
+    }
+
+    private static final class Row {
+        private final NavigableSet<KeyValue> cells = new TreeSet<>(KeyValue.COMPARATOR);
+    }
+
+    /**
+     * Helpers to build {@link KeyValue} for searching.
+     */
+    private static final class KeyValueUtils {
+        private KeyValueUtils() {}
+
+        /**
+         * Returns KeyValue which sorts before all cells of the column of given cell.
+         */
+        static KeyValue firstOnColumn(Cell cell) {
+            return new KeyValue(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell), CellUtil.cloneQualifier(cell),
+                    HConstants.LATEST_TIMESTAMP, Type.Maximum);
+        }
+    }
+
+    /**
+     * Scanner which fetches {@link Scan#getCaching()} results for each RPC.
+     * It is exposed as {@link ResultScanner} by dynamic proxy to be independent from methods added to the interface
+     * in different versions of HBase.
+     */
+    private final class InMemoryScanner implements Iterable<Result> {
+        private final Scan scan;
+        private final Filter filter;
+        private final int caching;
+        private final Deque<Result> buffer = new ArrayDeque<>();
+        private byte[] lastRow;
+        private boolean exhausted;
+        private boolean closed;
+
+        private InMemoryScanner(Scan scan) throws IOException {
+            this.scan = scan;
+            this.filter = copyFilter(scan.getFilter());
+            this.caching = scan.getCaching() > 0 ? scan.getCaching() : DEFAULT_CACHING;
+        }
+
+        private ResultScanner asResultScanner() {
+            return (ResultScanner) Proxy.newProxyInstance(InMemoryHTable.class.getClassLoader(),
+                    new Class<?>[] { ResultScanner.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            switch (method.getName()) {
+                            case "next":
+                                return args == null ? next() : next((Integer) args[0]);
+                            case "close":
+                                close();
+                                return null;
+                            case "iterator":
+                                return iterator();
+                            case "renewLease":
+                                return !closed;
+                            case "getScanMetrics":
+                                return null;
+                            case "toString":
+                                return "InMemoryScanner(" + Bytes.toString(tableName) + ")";
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                throw new UnsupportedOperationException(method.toString());
+                            }
+                        }
+                    });
+        }
+
+        public Result next() throws IOException {
+            if (buffer.isEmpty() && !exhausted && !closed) {
+                fetch();
+            }
+            return buffer.poll();
+        }
+
+        public Result[] next(int nbRows) throws IOException {
+            List<Result> results = Lists.newArrayList();
+            for (int i = 0; i < nbRows; i++) {
+                Result result = next();
+                if (result == null) {
+                    break;
+                }
+                results.add(result);
+            }
+            return results.toArray(new Result[results.size()]);
+        }
+
+        private void fetch() throws IOException {
+            beginRpc(InMemoryHBase.SCAN, null);
+            NavigableMap<byte[], Row> view = remainingRows();
+            for (Entry<byte[], Row> entry : view.entrySet()) {
+                byte[] rowKey = entry.getKey();
+                if (isAfterStopRow(rowKey) || (filter != null && filter.filterAllRemaining())) {
+                    exhausted = true;
+                    return;
+                }
+                lastRow = rowKey;
+                List<Cell> cells = read(rowKey, scan.getFamilyMap(), scan.getTimeRange(), scan.getMaxVersions(),
+                        filter);
+                if (cells.isEmpty()) {
+                    continue;
+                }
+                int batch = scan.getBatch();
+                if (batch > 0) {
+                    for (int i = 0; i < cells.size(); i += batch) {
+                        buffer.add(Result.create(cells.subList(i, Math.min(i + batch, cells.size()))));
+                    }
+                } else {
+                    buffer.add(Result.create(cells));
+                }
+                if (buffer.size() >= caching) {
+                    return;
+                }
+            }
+            exhausted = true;
+        }
+
+        private NavigableMap<byte[], Row> remainingRows() {
+            byte[] startRow = scan.getStartRow();
+            if (!scan.isReversed()) {
+                if (lastRow != null) {
+                    return rows.tailMap(lastRow, false);
+                }
+                return startRow.length == 0 ? rows : rows.tailMap(startRow, true);
+            } else {
+                if (lastRow != null) {
+                    return rows.headMap(lastRow, false).descendingMap();
+                }
+                return startRow.length == 0 ? rows.descendingMap() : rows.headMap(startRow, true).descendingMap();
+            }
+        }
+
+        private boolean isAfterStopRow(byte[] rowKey) {
+            byte[] stopRow = scan.getStopRow();
+            if (stopRow.length == 0) {
+                return false;
+            }
+            int compare = Bytes.compareTo(rowKey, stopRow);
+            return scan.isReversed() ? compare <= 0 : compare >= 0;
+        }
+
+        public void close() {
+            closed = true;
+            buffer.clear();
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            return new Iterator<Result>() {
+                private Result next;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null) {
+                        try {
+                            next = InMemoryScanner.this.next();
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Result next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Result result = next;
+                    next = null;
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Dispatches methods of {@link HTableInterface} to {@link InMemoryHTable}.
+     * Dynamic proxy is used since only a few operations of the interface are needed by Haeinsa.
+     */
+    private class TableInvocationHandler implements InvocationHandler {
+        private boolean closed;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argCount = args == null ? 0 : args.length;
+            switch (name) {
+            case "get":
+                ensureOpen();
+                if (args[0] instanceof Get) {
+                    return get((Get) args[0]);
+                } else {
+                    List<Get> gets = (List<Get>) args[0];
+                    Result[] results = new Result[gets.size()];
+                    for (int i = 0; i < results.length; i++) {
+                        results[i] = get(gets.get(i));
+                    }
+                    return results;
+                }
+            case "exists":
+                ensureOpen();
+                if (args[0] instanceof Get) {
+                    return exists((Get) args[0]);
+                }
+                break;
+            case "getScanner":
+                ensureOpen();
+                if (args[0] instanceof Scan) {
+                    return getScanner((Scan) args[0]);
+                } else if (argCount == 1) {
+                    return getScanner(new Scan().addFamily((byte[]) args[0]));
+                } else {
+                    return getScanner(new Scan().addColumn((byte[]) args[0], (byte[]) args[1]));
+                }
+            case "put":
+                ensureOpen();
+                if (args[0] instanceof Put) {
+                    put((Put) args[0]);
+                } else {
+                    for (Put put : (List<Put>) args[0]) {
+                        put(put);
+                    }
+                }
+                return null;
+            case "delete":
+                ensureOpen();
+                if (args[0] instanceof Delete) {
+                    delete((Delete) args[0]);
+                } else {
+                    List<Delete> deletes = (List<Delete>) args[0];
+                    for (Delete delete : deletes) {
+                        delete(delete);
+                    }
+                    deletes.clear();
+                }
+                return null;
+            case "checkAndPut":
+                ensureOpen();
+                if (argCount == 5) {
+                    return checkAndPut((byte[]) args[0], (byte[]) args[1], (byte[]) args[2], (byte[]) args[3],
+                            (Put) args[4]);
+                }
+                break;
+            case "checkAndDelete":
+                ensureOpen();
+                if (argCount == 5) {
+                    return checkAndDelete((byte[]) args[0], (byte[]) args[1], (byte[]) args[2], (byte[]) args[3],
+                            (Delete) args[4]);
+                }
+                break;
+            case "getStartKeys":
+                return getStartKeys();
+            case "getEndKeys":
+                return getEndKeys();
+            case "getStartEndKeys":
+                return new Pair<>(getStartKeys(), getEndKeys());
+            case "getTableName":
+                return tableName;
+            case "getName":
+                return TableName.valueOf(tableName);
+            case "getConfiguration":
+                return hbase.getConfiguration();
+            case "getTableDescriptor":
+                return tableDesc;
+            case "isAutoFlush":
+                return true;
+            case "setAutoFlush":
+            case "setAutoFlushTo":
+            case "flushCommits":
+                return null;
+            case "close":
+                closed = true;
+                return null;
+            case "toString":
+                return "InMemoryHTable(" + Bytes.toString(tableName) + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+            }
+            throw new UnsupportedOperationException(method.toString());
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Table " + Bytes.toString(tableName) + " is already closed.");
+            }
+        }
+    }
+}
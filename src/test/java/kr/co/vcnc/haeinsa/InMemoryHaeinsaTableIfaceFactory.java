@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableNotFoundException;
+
+/**
+ * HaeinsaTableIfaceFactory which creates {@link HaeinsaTable} backed by table of {@link InMemoryHBase}.
+ * Table should be created by {@link InMemoryHBase#createTable(String, String...)} before it is requested.
+ */
+public class InMemoryHaeinsaTableIfaceFactory implements HaeinsaTableIfaceFactory {
+    private final InMemoryHBase hbase;
+
+    public InMemoryHaeinsaTableIfaceFactory(InMemoryHBase hbase) {
+        this.hbase = hbase;
+    }
+
+    @Override
+    public HaeinsaTableIface createHaeinsaTableIface(Configuration config, byte[] tableName) {
+        try {
+            return new HaeinsaTable(hbase.getTable(tableName).createHTableInterface());
+        } catch (TableNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void releaseHaeinsaTableIface(HaeinsaTableIface table) throws IOException {
+        table.close();
+    }
+}
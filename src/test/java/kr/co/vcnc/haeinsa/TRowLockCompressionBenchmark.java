@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TKeyValue;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutation;
+import kr.co.vcnc.haeinsa.thrift.generated.TMutationType;
+import kr.co.vcnc.haeinsa.thrift.generated.TPut;
+import kr.co.vcnc.haeinsa.thrift.generated.TRemove;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * JMH benchmark of serialization of {@link TRowLock} with and without LZ4 compression.
+ * The lock is prewritten lock of primary row like {@link HaeinsaTable#prewrite}, with given number of
+ * prewritten cells, secondary rows and remaining put/delete mutations of 8 cells.
+ * Sizes of uncompressed and written lock are reported by {@link Sizes} as secondary results,
+ * to compare bytes saved against CPU spent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TRowLockCompressionBenchmark {
+    @Param({ "-1", "0" })
+    public int compressionThreshold;
+
+    @Param({ "4", "32", "256" })
+    public int cells;
+
+    @Param({ "1", "16", "128" })
+    public int secondaries;
+
+    @Param({ "2" })
+    public int mutations;
+
+    private TRowLock rowLock;
+    private byte[] rowLockBytes;
+    private int uncompressedSize;
+
+    /**
+     * Sizes of serialized lock in bytes, reported by JMH as secondary results of {@link #serialize(Sizes)}.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long uncompressedBytes;
+        public long writtenBytes;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        rowLock = new TRowLock(HaeinsaConstants.ROW_LOCK_VERSION, TRowLockState.PREWRITTEN, System.currentTimeMillis());
+        rowLock.setCurrentTimestamp(rowLock.getCommitTimestamp() - 10);
+        rowLock.setPrewriteTimestamp(rowLock.getCurrentTimestamp());
+        rowLock.setExpiry(rowLock.getCommitTimestamp() + HaeinsaConstants.DEFAULT_ROW_LOCK_TIMEOUT);
+        for (int i = 0; i < cells; i++) {
+            rowLock.addToPrewritten(cellKey(i));
+        }
+        for (int i = 0; i < secondaries; i++) {
+            rowLock.addToSecondaries(new TRowKey(Bytes.toBytes("user-table"), Bytes.toBytes(String.format("user:%012d", i * 7919L))));
+        }
+        for (int i = 0; i < mutations; i++) {
+            if (i % 2 == 0) {
+                TRemove remove = new TRemove();
+                for (int j = 0; j < 8; j++) {
+                    remove.addToRemoveCells(cellKey(j));
+                }
+                rowLock.addToMutations(new TMutation(TMutationType.REMOVE).setRemove(remove));
+            } else {
+                TPut put = new TPut(Lists.<TKeyValue>newArrayList());
+                for (int j = 0; j < 8; j++) {
+                    put.addToValues(new TKeyValue(cellKey(j), Bytes.toBytes(String.format("value-%08d", j * 31))));
+                }
+                rowLock.addToMutations(new TMutation(TMutationType.PUT).setPut(put));
+            }
+        }
+        rowLockBytes = TRowLocks.serialize(rowLock.deepCopy(), compressionThreshold);
+        uncompressedSize = TRowLocks.serialize(rowLock).length;
+    }
+
+    private static TCellKey cellKey(int i) {
+        return new TCellKey(Bytes.toBytes("data"), Bytes.toBytes("qualifier-" + i));
+    }
+
+    /**
+     * Serialization of new lock, as in prewrite and applyMutations.
+     * Lock is copied because bytes of compressed lock are cached by identity.
+     */
+    @Benchmark
+    public byte[] serialize(Sizes sizes) throws IOException {
+        byte[] bytes = TRowLocks.serialize(rowLock.deepCopy(), compressionThreshold);
+        sizes.uncompressedBytes = uncompressedSize;
+        sizes.writtenBytes = bytes.length;
+        return bytes;
+    }
+
+    /**
+     * Deserialization of lock read from HBase, as in get and scan.
+     */
+    @Benchmark
+    public TRowLock deserialize() throws IOException {
+        return TRowLocks.deserialize(rowLockBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TRowLockCompressionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kr.co.vcnc.haeinsa.HaeinsaTableHandleReuseTest.CountingTablePool;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of multi-row commits by many concurrent threads sharing single {@link HaeinsaTablePool}.
+ * Each transaction puts single cell to given number of its own rows on each of two tables, so there is no conflict.
+ * Tables leased from the pool are reported by {@link Leases} as secondary result,
+ * to compare contention on the pool against number of rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(16)
+@Fork(1)
+public class TableHandleBenchmark {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    @Param({ "1", "10", "100" })
+    public int rows;
+
+    private final AtomicLong transactionSequence = new AtomicLong();
+    private ThreadCountingTablePool tablePool;
+    private HaeinsaTransactionManager tm;
+
+    /**
+     * Tables leased from the pool by the benchmark thread, reported by JMH in the same unit as throughput.
+     * So number of leases per commit is the rate of leases divided by throughput.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Leases {
+        public long leases;
+    }
+
+    @Setup
+    public void setUp() {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        hbase.createTable("log", "data");
+        tablePool = new ThreadCountingTablePool(hbase);
+        tm = new HaeinsaTransactionManager(tablePool);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        tablePool.close();
+    }
+
+    @Benchmark
+    public void commit(Leases leases) throws IOException {
+        tablePool.threadLeases.set(leases);
+        long sequence = transactionSequence.incrementAndGet();
+        HaeinsaTransaction tx = tm.begin();
+        try (HaeinsaTableIface testTable = tablePool.getTable("test");
+             HaeinsaTableIface logTable = tablePool.getTable("log")) {
+            for (int i = 0; i < rows; i++) {
+                byte[] row = Bytes.toBytes(String.format("row-%012d-%04d", sequence, i));
+                testTable.put(tx, new HaeinsaPut(row).add(CF, CQ, row));
+                logTable.put(tx, new HaeinsaPut(row).add(CF, CQ, row));
+            }
+        }
+        tx.commit();
+    }
+
+    /**
+     * {@link CountingTablePool} which also counts leases of each benchmark thread.
+     */
+    private static final class ThreadCountingTablePool extends CountingTablePool {
+        private final ThreadLocal<Leases> threadLeases = new ThreadLocal<>();
+
+        private ThreadCountingTablePool(InMemoryHBase hbase) {
+            super(hbase);
+        }
+
+        @Override
+        HaeinsaTableIfaceInternal getTableInternal(String tableName) {
+            Leases leases = threadLeases.get();
+            if (leases != null) {
+                leases.leases++;
+            }
+            return super.getTableInternal(tableName);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TableHandleBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of transactions per second with timestamps from {@link HaeinsaBatchingTimestampSource}.
+ * Each transaction puts single cell to its own row of {@link InMemoryHBase}, so there is no conflict.
+ * Call of the oracle sleeps for given latency, to simulate RPC to the oracle service.
+ * Batch size 0 means {@link HaeinsaSystemClock} without the oracle, as baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Threads(8)
+@Fork(1)
+public class TimestampOracleBenchmark {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+
+    @Param({ "0", "1", "10", "100", "1000", "10000" })
+    public int batchSize;
+
+    @Param({ "0", "500" })
+    public long oracleLatencyMicros;
+
+    private final AtomicLong rowSequence = new AtomicLong();
+    private HaeinsaTransactionManager tm;
+    private HaeinsaTableIface testTable;
+
+    @Setup
+    public void setUp() {
+        InMemoryHBase hbase = new InMemoryHBase();
+        hbase.createTable("test", "data");
+        tm = new HaeinsaTransactionManager(hbase.createTablePool());
+        if (batchSize > 0) {
+            final HaeinsaTimestampOracle oracle = new HaeinsaEmbeddedTimestampOracle();
+            tm.setTimestampSource(new HaeinsaBatchingTimestampSource(new HaeinsaTimestampOracle() {
+                @Override
+                public long reserve(long minimum, int count) throws IOException {
+                    if (oracleLatencyMicros > 0) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(oracleLatencyMicros));
+                    }
+                    return oracle.reserve(minimum, count);
+                }
+            }, batchSize));
+        }
+        testTable = tm.getTablePool().getTable("test");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        testTable.close();
+    }
+
+    @Benchmark
+    public void commit() throws IOException {
+        byte[] row = Bytes.toBytes(String.format("row-%012d", rowSequence.incrementAndGet()));
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(row).add(CF, CQ, row));
+        tx.commit();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TimestampOracleBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.coprocessor;
+
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_FAMILY;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.LOCK_QUALIFIER;
+import static kr.co.vcnc.haeinsa.HaeinsaConstants.MUTATION_QUALIFIER_PREFIX;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScannerContext;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for {@link LockFamilyCompactionScanner} and {@link AbortedPrewriteCompactionScanner}.
+ */
+public class HaeinsaCompactionObserverTest {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ1 = Bytes.toBytes("col1");
+    private static final byte[] CQ2 = Bytes.toBytes("col2");
+    private static final byte[] MUTATION_QUALIFIER = Bytes.add(MUTATION_QUALIFIER_PREFIX, Bytes.toBytes(0));
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Returns cells of the list by batches of two cells, so that a column spans multiple calls of next.
+     */
+    private static class ListInternalScanner implements InternalScanner {
+        private final Iterator<Cell> iterator;
+
+        ListInternalScanner(List<Cell> cells) {
+            this.iterator = cells.iterator();
+        }
+
+        @Override
+        public boolean next(List<Cell> results) throws IOException {
+            for (int i = 0; i < 2 && iterator.hasNext(); i++) {
+                results.add(iterator.next());
+            }
+            return iterator.hasNext();
+        }
+
+        @Override
+        public boolean next(List<Cell> results, ScannerContext scannerContext) throws IOException {
+            return next(results);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static List<Cell> compact(InternalScanner scanner) throws IOException {
+        List<Cell> compacted = Lists.newArrayList();
+        boolean hasMore;
+        do {
+            hasMore = scanner.next(compacted);
+        } while (hasMore);
+        scanner.close();
+        return compacted;
+    }
+
+    private static Cell cell(String row, byte[] family, byte[] qualifier, long timestamp, byte[] value) {
+        return new KeyValue(Bytes.toBytes(row), family, qualifier, timestamp, value);
+    }
+
+    private static Cell delete(String row, byte[] family, byte[] qualifier, long timestamp) {
+        return new KeyValue(Bytes.toBytes(row), family, qualifier, timestamp, KeyValue.Type.Delete);
+    }
+
+    @Test
+    public void testLockVersionRetention() throws Exception {
+        Cell lock40 = cell("row1", LOCK_FAMILY, LOCK_QUALIFIER, 40, Bytes.toBytes("lock-40"));
+        Cell lock30 = cell("row1", LOCK_FAMILY, LOCK_QUALIFIER, 30, Bytes.toBytes("lock-30"));
+        Cell lock20 = cell("row1", LOCK_FAMILY, LOCK_QUALIFIER, 20, Bytes.toBytes("lock-20"));
+        Cell lock10 = cell("row1", LOCK_FAMILY, LOCK_QUALIFIER, 10, Bytes.toBytes("lock-10"));
+        Cell otherLock10 = cell("row2", LOCK_FAMILY, LOCK_QUALIFIER, 10, Bytes.toBytes("lock-10"));
+        Cell otherLock5 = cell("row2", LOCK_FAMILY, LOCK_QUALIFIER, 5, Bytes.toBytes("lock-5"));
+
+        List<Cell> compacted = compact(new LockFamilyCompactionScanner(new ListInternalScanner(
+                Lists.newArrayList(lock40, lock30, lock20, lock10, otherLock10, otherLock5)), 30, true));
+        // versions on or after horizon, and the newest version before horizon of each row are kept.
+        Assert.assertEquals(compacted, Lists.newArrayList(lock40, lock30, lock20, otherLock10));
+    }
+
+    @Test
+    public void testClearedMutations() throws Exception {
+        Cell cleared = cell("row1", LOCK_FAMILY, MUTATION_QUALIFIER, 30, EMPTY);
+        Cell payload = cell("row1", LOCK_FAMILY, MUTATION_QUALIFIER, 20, Bytes.toBytes("payload-20"));
+        Cell oldPayload = cell("row1", LOCK_FAMILY, MUTATION_QUALIFIER, 10, Bytes.toBytes("payload-10"));
+        Cell livePayload = cell("row2", LOCK_FAMILY, MUTATION_QUALIFIER, 50, Bytes.toBytes("payload-50"));
+        Cell oldLivePayload = cell("row2", LOCK_FAMILY, MUTATION_QUALIFIER, 40, Bytes.toBytes("payload-40"));
+        List<Cell> cells = Lists.newArrayList(cleared, payload, oldPayload, livePayload, oldLivePayload);
+
+        // cleared version is kept on minor compaction, because store files not compacted may have older payload.
+        Assert.assertEquals(compact(new LockFamilyCompactionScanner(new ListInternalScanner(cells), 0, false)),
+                Lists.newArrayList(cleared, livePayload));
+        Assert.assertEquals(compact(new LockFamilyCompactionScanner(new ListInternalScanner(cells), 0, true)),
+                Lists.newArrayList(livePayload));
+    }
+
+    @Test
+    public void testDeleteMarkersOfLockFamily() throws Exception {
+        Cell deleteMarker = delete("row1", LOCK_FAMILY, LOCK_QUALIFIER, 100);
+        Cell lock20 = cell("row1", LOCK_FAMILY, LOCK_QUALIFIER, 20, Bytes.toBytes("lock-20"));
+        Cell lock10 = cell("row1", LOCK_FAMILY, LOCK_QUALIFIER, 10, Bytes.toBytes("lock-10"));
+
+        List<Cell> compacted = compact(new LockFamilyCompactionScanner(new ListInternalScanner(
+                Lists.newArrayList(deleteMarker, lock20, lock10)), 100, true));
+        Assert.assertEquals(compacted, Lists.newArrayList(deleteMarker, lock20));
+    }
+
+    @Test
+    public void testAbortedPrewrites() throws Exception {
+        TRowLock abortedLock = new TRowLock(1, TRowLockState.ABORTED, 30);
+        abortedLock.setPrewriteTimestamp(20);
+        abortedLock.addToPrewritten(new TCellKey().setFamily(CF).setQualifier(CQ1));
+        TRowLock prewrittenLock = new TRowLock(1, TRowLockState.PREWRITTEN, 30);
+        prewrittenLock.setPrewriteTimestamp(20);
+        prewrittenLock.addToPrewritten(new TCellKey().setFamily(CF).setQualifier(CQ1));
+        final ImmutableMap<String, TRowLock> rowLocks = ImmutableMap.of("aborted", abortedLock, "prewritten", prewrittenLock);
+
+        Cell abortedPrewrite = cell("aborted", CF, CQ1, 20, Bytes.toBytes("prewrite"));
+        Cell abortedCommitted = cell("aborted", CF, CQ1, 10, Bytes.toBytes("committed"));
+        Cell abortedOtherColumn = cell("aborted", CF, CQ2, 20, Bytes.toBytes("other"));
+        Cell abortedDelete = delete("aborted", CF, CQ2, 20);
+        Cell prewritten = cell("prewritten", CF, CQ1, 20, Bytes.toBytes("prewrite"));
+        Cell noLock = cell("stable", CF, CQ1, 20, Bytes.toBytes("value"));
+
+        final List<String> reads = Lists.newArrayList();
+        List<Cell> compacted = compact(new AbortedPrewriteCompactionScanner(new ListInternalScanner(
+                Lists.newArrayList(abortedPrewrite, abortedCommitted, abortedDelete, abortedOtherColumn, prewritten, noLock)),
+                new AbortedPrewriteCompactionScanner.RowLockReader() {
+                    @Override
+                    public TRowLock getRowLock(byte[] row) {
+                        reads.add(Bytes.toString(row));
+                        return rowLocks.get(Bytes.toString(row));
+                    }
+                }));
+        Assert.assertEquals(compacted,
+                Lists.newArrayList(abortedCommitted, abortedDelete, abortedOtherColumn, prewritten, noLock));
+        // lock is read once for each row.
+        Assert.assertEquals(reads, Lists.newArrayList("aborted", "prewritten", "stable"));
+    }
+}
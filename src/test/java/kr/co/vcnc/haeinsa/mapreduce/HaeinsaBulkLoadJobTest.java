@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.mapreduce;
+
+import kr.co.vcnc.haeinsa.HaeinsaGet;
+import kr.co.vcnc.haeinsa.HaeinsaPut;
+import kr.co.vcnc.haeinsa.HaeinsaTableIface;
+import kr.co.vcnc.haeinsa.HaeinsaTestBase;
+import kr.co.vcnc.haeinsa.HaeinsaTransaction;
+import kr.co.vcnc.haeinsa.HaeinsaTransactionManager;
+import kr.co.vcnc.haeinsa.TestingUtility;
+import kr.co.vcnc.haeinsa.thrift.TRowLocks;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.util.ToolRunner;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests for {@link HaeinsaBulkLoadJob}, run with local job runner on the testing cluster.
+ */
+public class HaeinsaBulkLoadJobTest extends HaeinsaTestBase {
+    private static final byte[] CF = Bytes.toBytes("data");
+    private static final byte[] CQ = Bytes.toBytes("value");
+    private static final int ROWS = 100;
+
+    @Test
+    public void testLockOnly() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HaeinsaTableIface testTable = context().getHaeinsaTableIface("test");
+        final HTableInterface hTestTable = context().getHTableInterface("test");
+
+        // rows written by primitive HBase operation, without lock.
+        for (int i = 0; i < ROWS; i++) {
+            hTestTable.put(new Put(Bytes.toBytes("row-" + i)).add(CF, CQ, 1000L + i, Bytes.toBytes(i)));
+        }
+        // row written by transaction already has lock.
+        HaeinsaTransaction tx = tm.begin();
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-tx")).add(CF, CQ, Bytes.toBytes("tx")));
+        tx.commit();
+        byte[] txRowLock = TestingUtility.getLock(hTestTable, Bytes.toBytes("row-tx"));
+
+        String tableName = context().createContextedTableName("test");
+        int exitCode = ToolRunner.run(context().getCluster().getConfiguration(), new HaeinsaBulkLoadJob(),
+                new String[] { "--lock-only", "--load", tableName, tableName, "/bulkload/" + tableName });
+        Assert.assertEquals(exitCode, 0);
+
+        for (int i = 0; i < ROWS; i++) {
+            TRowLock rowLock = TRowLocks.deserialize(TestingUtility.getLock(hTestTable, Bytes.toBytes("row-" + i)));
+            Assert.assertEquals(rowLock.getState(), TRowLockState.STABLE);
+            Assert.assertEquals(rowLock.getCommitTimestamp(), 1000L + i);
+        }
+        Assert.assertEquals(TestingUtility.getLock(hTestTable, Bytes.toBytes("row-tx")), txRowLock);
+
+        // transactions on loaded rows
+        tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-" + i))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+        }
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-0")).add(CF, CQ, Bytes.toBytes("new")));
+        testTable.put(tx, new HaeinsaPut(Bytes.toBytes("row-1")).add(CF, CQ, Bytes.toBytes("new")));
+        tx.commit();
+
+        tx = tm.begin();
+        Assert.assertEquals(testTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-0"))).getValue(CF, CQ),
+                Bytes.toBytes("new"));
+        tx.rollback();
+
+        hTestTable.close();
+        testTable.close();
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        final HaeinsaTransactionManager tm = context().getTransactionManager();
+        final HTableInterface hSourceTable = context().getHTableInterface("source");
+        final HaeinsaTableIface targetTable = context().getHaeinsaTableIface("target");
+        final HTableInterface hTargetTable = context().getHTableInterface("target");
+
+        for (int i = 0; i < ROWS; i++) {
+            hSourceTable.put(new Put(Bytes.toBytes("row-" + i)).add(CF, CQ, 1000L + i, Bytes.toBytes(i)));
+        }
+
+        String sourceTableName = context().createContextedTableName("source");
+        String targetTableName = context().createContextedTableName("target");
+        int exitCode = ToolRunner.run(context().getCluster().getConfiguration(), new HaeinsaBulkLoadJob(),
+                new String[] { "--load", "--commit-timestamp=1050", sourceTableName, targetTableName,
+                        "/bulkload/" + targetTableName });
+        Assert.assertEquals(exitCode, 0);
+
+        for (int i = 0; i < ROWS; i++) {
+            byte[] row = Bytes.toBytes("row-" + i);
+            Assert.assertEquals(hTargetTable.get(new Get(row)).getColumnLatestCell(CF, CQ).getTimestamp(), 1000L + i);
+            TRowLock rowLock = TRowLocks.deserialize(TestingUtility.getLock(hTargetTable, row));
+            Assert.assertEquals(rowLock.getState(), TRowLockState.STABLE);
+            Assert.assertEquals(rowLock.getCommitTimestamp(), Math.max(1050L, 1000L + i));
+        }
+
+        HaeinsaTransaction tx = tm.begin();
+        for (int i = 0; i < ROWS; i++) {
+            Assert.assertEquals(targetTable.get(tx, new HaeinsaGet(Bytes.toBytes("row-" + i))).getValue(CF, CQ),
+                    Bytes.toBytes(i));
+        }
+        tx.rollback();
+
+        hSourceTable.close();
+        hTargetTable.close();
+        targetTable.close();
+    }
+}
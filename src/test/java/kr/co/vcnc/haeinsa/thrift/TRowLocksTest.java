@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2013-2015 VCNC Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kr.co.vcnc.haeinsa.thrift;
+
+import java.util.List;
+
+import kr.co.vcnc.haeinsa.HaeinsaConstants;
+import kr.co.vcnc.haeinsa.thrift.generated.TCellKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowKey;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLock;
+import kr.co.vcnc.haeinsa.thrift.generated.TRowLockState;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Tests for serialization and compression of {@link TRowLock} by {@link TRowLocks}.
+ */
+public class TRowLocksTest {
+    @Test
+    public void testCompression() throws Exception {
+        TRowLock rowLock = createPrewrittenRowLock(64);
+        byte[] uncompressed = TRowLocks.serialize(rowLock);
+        Assert.assertFalse(TRowLocks.isCompressed(uncompressed));
+
+        TRowLock newRowLock = rowLock.deepCopy();
+        byte[] compressed = TRowLocks.serialize(newRowLock, 0);
+        Assert.assertTrue(TRowLocks.isCompressed(compressed));
+        Assert.assertTrue(compressed.length < uncompressed.length);
+        // compressed bytes are not reused for serialization without compression.
+        Assert.assertEquals(TRowLocks.serialize(newRowLock), uncompressed);
+
+        TRowLock deserialized = TRowLocks.deserialize(compressed);
+        Assert.assertEquals(deserialized, rowLock);
+        Assert.assertEquals(TRowLocks.serialize(deserialized), uncompressed);
+    }
+
+    @Test
+    public void testNotCompressed() throws Exception {
+        TRowLock stableRowLock = new TRowLock(1, TRowLockState.STABLE, 1234L);
+        Assert.assertFalse(TRowLocks.isCompressed(TRowLocks.serialize(stableRowLock, 0)));
+
+        TRowLock rowLock = createPrewrittenRowLock(64);
+        int size = TRowLocks.serialize(rowLock).length;
+        Assert.assertFalse(TRowLocks.isCompressed(TRowLocks.serialize(rowLock.deepCopy(), size + 1)));
+        Assert.assertTrue(TRowLocks.isCompressed(TRowLocks.serialize(rowLock.deepCopy(), size)));
+    }
+
+    @Test
+    public void testModifiedAfterDeserialize() throws Exception {
+        byte[] compressed = TRowLocks.serialize(createPrewrittenRowLock(64), 0);
+        TRowLock rowLock = TRowLocks.deserialize(compressed);
+        rowLock.setExpiry(rowLock.getExpiry() + 1);
+        byte[] serialized = TRowLocks.serialize(rowLock);
+        Assert.assertFalse(TRowLocks.isCompressed(serialized));
+        Assert.assertEquals(TRowLocks.deserialize(serialized), rowLock);
+    }
+
+    @Test
+    public void testSecondaries() throws Exception {
+        List<TRowKey> secondaries = Lists.newArrayList();
+        for (int i = 0; i < 1000; i++) {
+            secondaries.add(new TRowKey(Bytes.toBytes("table-" + (i % 3)), Bytes.toBytes("row-" + i)));
+        }
+        byte[] chunkBytes = TRowLocks.serializeSecondaries(secondaries);
+        Assert.assertEquals(TRowLocks.deserializeSecondaries(chunkBytes), secondaries);
+        Assert.assertEquals(TRowLocks.deserializeSecondaries(TRowLocks.serializeSecondaries(Lists.<TRowKey>newArrayList())).size(), 0);
+
+        Assert.assertEquals(TRowLocks.getSecondaryChunkCount(1), 1);
+        Assert.assertEquals(TRowLocks.getSecondaryChunkCount(HaeinsaConstants.SECONDARY_CHUNK_SIZE), 1);
+        Assert.assertEquals(TRowLocks.getSecondaryChunkCount(HaeinsaConstants.SECONDARY_CHUNK_SIZE + 1), 2);
+        for (TRowKey secondary : secondaries) {
+            int chunkIndex = TRowLocks.getSecondaryChunkIndex(secondary, 7);
+            Assert.assertTrue(chunkIndex >= 0 && chunkIndex < 7);
+            // index does not depend on instance.
+            Assert.assertEquals(TRowLocks.getSecondaryChunkIndex(secondary.deepCopy(), 7), chunkIndex);
+        }
+    }
+
+    private static TRowLock createPrewrittenRowLock(int cells) {
+        TRowLock rowLock = new TRowLock(1, TRowLockState.PREWRITTEN, 1234L);
+        rowLock.setCurrentTimestamp(1230L);
+        rowLock.setPrewriteTimestamp(1230L);
+        rowLock.setExpiry(6234L);
+        for (int i = 0; i < cells; i++) {
+            rowLock.addToPrewritten(new TCellKey(Bytes.toBytes("data"), Bytes.toBytes("qualifier-" + i)));
+            rowLock.addToSecondaries(new TRowKey(Bytes.toBytes("test"), Bytes.toBytes("row-" + i)));
+        }
+        return rowLock;
+    }
+}